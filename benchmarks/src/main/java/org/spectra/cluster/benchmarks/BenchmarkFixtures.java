@@ -0,0 +1,140 @@
+package org.spectra.cluster.benchmarks;
+
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.engine.IClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Creates the benchmark fixtures from the test MGF files of the main
+ * project. The files are loaded using the same pipeline (filters,
+ * normalizers, binner) as the clustering tool.
+ *
+ * @author jg
+ */
+public final class BenchmarkFixtures {
+    /** MGF file containing 158 spectra of mostly the same peptide */
+    public static final String SAME_SEQUENCE_MGF = "same_sequence_cluster.mgf";
+
+    private BenchmarkFixtures() {
+
+    }
+
+    /**
+     * Creates the clustering engine used for the fixtures. This resembles the
+     * engine used in the unit tests.
+     *
+     * @return A new GreedyClusteringEngine
+     */
+    public static GreedyClusteringEngine createEngine() throws Exception {
+        return new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+    }
+
+    private static MzSpectraReader createReader(String resource, IClusteringEngine engine) throws Exception {
+        IRawSpectrumFunction loadingFilter = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)));
+
+        return new MzSpectraReader(new TideBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), loadingFilter,
+                GreedyClusteringEngine.COMPARISON_FILTER, engine, copyResource(resource));
+    }
+
+    /**
+     * Loads all spectra of the resource as single-spectrum clusters sorted
+     * by precursor m/z.
+     *
+     * @param resource Name of the MGF resource
+     * @return The clusters
+     */
+    public static ICluster[] loadClusters(String resource) throws Exception {
+        Iterator<ICluster> iterator = createReader(resource, createEngine())
+                .readClusterIterator(new InMemoryPropertyStorage());
+        List<ICluster> clusters = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            clusters.add(iterator.next());
+        }
+
+        clusters.sort(Comparator.comparingInt(ICluster::getPrecursorMz));
+
+        return clusters.toArray(new ICluster[0]);
+    }
+
+    /**
+     * Loads all spectra of the resource as IBinarySpectrum objects.
+     *
+     * @param resource Name of the MGF resource
+     * @return The spectra
+     */
+    public static IBinarySpectrum[] loadSpectra(String resource) throws Exception {
+        Iterator<IBinarySpectrum> iterator = createReader(resource, createEngine())
+                .readBinarySpectraIterator(new InMemoryPropertyStorage());
+        List<IBinarySpectrum> spectra = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            spectra.add(iterator.next());
+        }
+
+        return spectra.toArray(new IBinarySpectrum[0]);
+    }
+
+    /**
+     * Loads and clusters all spectra of the resource.
+     *
+     * @param resource Name of the MGF resource
+     * @return The clustering result
+     */
+    public static ICluster[] loadClusteredClusters(String resource) throws Exception {
+        return createEngine().clusterSpectra(loadClusters(resource));
+    }
+
+    /**
+     * The spectra readers require files. Therefore, the resource is copied
+     * to a temporary file.
+     */
+    private static File copyResource(String resource) throws IOException {
+        File file = File.createTempFile("benchmark-", "-" + resource);
+        file.deleteOnExit();
+
+        try (InputStream inputStream = BenchmarkFixtures.class.getClassLoader().getResourceAsStream(resource)) {
+            if (inputStream == null)
+                throw new IOException("Missing benchmark resource " + resource);
+
+            Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return file;
+    }
+}
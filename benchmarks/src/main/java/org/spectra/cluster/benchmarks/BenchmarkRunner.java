@@ -0,0 +1,54 @@
+package org.spectra.cluster.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Runs the benchmarks and writes the results as JMH JSON file. The
+ * file is named after the benchmarked spectra-cluster version so that
+ * the results of different versions can be compared using
+ * {@link CompareResults}. All standard JMH command line options are
+ * supported and take precedence over the defaults.
+ *
+ * @author jg
+ */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+
+        if (!commandLineOptions.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        if (!commandLineOptions.getResult().hasValue())
+            options.result(String.format("spectra-cluster-%s.json", getSpectraClusterVersion()));
+
+        new Runner(options.build()).run();
+    }
+
+    /**
+     * The version of the benchmarked spectra-cluster artifact is set
+     * as implementation version of the benchmark jar.
+     */
+    private static String getSpectraClusterVersion() {
+        String version = BenchmarkRunner.class.getPackage().getImplementationVersion();
+
+        return (version != null) ? version : "unknown";
+    }
+}
@@ -0,0 +1,90 @@
+package org.spectra.cluster.benchmarks;
+
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import org.openjdk.jmh.annotations.*;
+import org.spectra.cluster.io.cluster.ChronicleMapClusterStorage;
+import org.spectra.cluster.io.cluster.SparkKeyClusterStorage;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the put and get operations of the temporary cluster
+ * storages. The storages are filled with the clustered fixtures before
+ * the get operations are measured.
+ *
+ * @author jg
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ClusterStorageBenchmark {
+    /** Upper limit of entries for the ChronicleMap storage */
+    private static final long MAX_ENTRIES = 10_000_000;
+
+    @Param({"sparkey", "chronicle"})
+    private String storageType;
+
+    private IMapStorage<ICluster> storage;
+    private ICluster[] clusters;
+    private String[] keys;
+    private int index;
+    private long putCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File storageDirectory = Files.createTempDirectory("benchmark-storage-").toFile();
+        storageDirectory.deleteOnExit();
+
+        switch (storageType) {
+            case "sparkey":
+                storage = new SparkKeyClusterStorage(storageDirectory, GreedySpectralCluster.class, false, true);
+                break;
+            case "chronicle":
+                storage = new ChronicleMapClusterStorage(storageDirectory, MAX_ENTRIES, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage " + storageType);
+        }
+
+        clusters = BenchmarkFixtures.loadClusteredClusters(BenchmarkFixtures.SAME_SEQUENCE_MGF);
+        keys = new String[clusters.length];
+
+        for (int i = 0; i < clusters.length; i++) {
+            keys[i] = clusters[i].getId();
+            storage.put(keys[i], clusters[i]);
+        }
+
+        // sparkey only makes entries visible to readers after a flush
+        storage.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storage.close();
+    }
+
+    /**
+     * Every put uses a new key so that the storage does not only replace
+     * existing entries.
+     */
+    @Benchmark
+    public void put() {
+        index = (index + 1) % clusters.length;
+
+        storage.put("put-" + putCounter++, clusters[index]);
+    }
+
+    @Benchmark
+    public ICluster get() throws Exception {
+        index = (index + 1) % keys.length;
+
+        return storage.get(keys[index]);
+    }
+}
@@ -0,0 +1,100 @@
+package org.spectra.cluster.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Compares two JMH JSON result files and prints the relative change
+ * of every benchmark as tab-separated table. Negative changes mean
+ * that the second (new) version is faster.
+ *
+ * Usage: CompareResults [baseline.json] [new.json]
+ *
+ * @author jg
+ */
+public final class CompareResults {
+    private CompareResults() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults [baseline.json] [new.json]");
+            System.exit(1);
+        }
+
+        Map<String, double[]> baseline = loadResults(args[0]);
+        Map<String, double[]> newResults = loadResults(args[1]);
+
+        System.out.println("benchmark\tunit\tbaseline\tbaseline_error\tnew\tnew_error\tchange");
+
+        for (Map.Entry<String, double[]> entry : newResults.entrySet()) {
+            double[] baselineScore = baseline.get(entry.getKey());
+            double[] newScore = entry.getValue();
+
+            if (baselineScore == null) {
+                System.out.println(String.format(Locale.US, "%s\t\t%.3f\t%.3f\tnew", entry.getKey(),
+                        newScore[0], newScore[1]));
+                continue;
+            }
+
+            System.out.println(String.format(Locale.US, "%s\t%.3f\t%.3f\t%.3f\t%.3f\t%+.1f%%", entry.getKey(),
+                    baselineScore[0], baselineScore[1], newScore[0], newScore[1],
+                    (newScore[0] - baselineScore[0]) / baselineScore[0] * 100));
+        }
+    }
+
+    /**
+     * Loads the primary scores of a JMH JSON result file.
+     *
+     * @param file The result file
+     * @return The benchmark name including its parameters and unit as key and [score, error] as value
+     */
+    private static Map<String, double[]> loadResults(String file) throws Exception {
+        Map<String, double[]> results = new LinkedHashMap<>();
+
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray benchmarks = new JsonParser().parse(reader).getAsJsonArray();
+
+            for (JsonElement element : benchmarks) {
+                JsonObject benchmark = element.getAsJsonObject();
+                JsonObject primaryMetric = benchmark.getAsJsonObject("primaryMetric");
+
+                StringBuilder name = new StringBuilder(benchmark.get("benchmark").getAsString());
+
+                if (benchmark.has("params")) {
+                    for (Map.Entry<String, JsonElement> param : benchmark.getAsJsonObject("params").entrySet()) {
+                        name.append(':').append(param.getKey()).append('=').append(param.getValue().getAsString());
+                    }
+                }
+
+                name.append('\t').append(primaryMetric.get("scoreUnit").getAsString());
+
+                double error = primaryMetric.get("scoreError").isJsonPrimitive() &&
+                        primaryMetric.get("scoreError").getAsJsonPrimitive().isNumber() ?
+                        primaryMetric.get("scoreError").getAsDouble() : Double.NaN;
+
+                results.put(name.toString(), new double[] {primaryMetric.get("score").getAsDouble(), error});
+            }
+        }
+
+        return results;
+    }
+}
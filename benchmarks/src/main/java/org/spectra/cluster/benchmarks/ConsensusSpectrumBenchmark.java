@@ -0,0 +1,59 @@
+package org.spectra.cluster.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the creation of GreedyConsensusSpectrum objects. The spectra
+ * are added one by one as it is done during the clustering process. The
+ * difference between the two benchmarks is the cost of generating the
+ * actual consensus spectrum.
+ *
+ * @author jg
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ConsensusSpectrumBenchmark {
+    @Param({"2", "10", "158"})
+    private int nSpectra;
+
+    private IBinarySpectrum[] spectra;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        IBinarySpectrum[] allSpectra = BenchmarkFixtures.loadSpectra(BenchmarkFixtures.SAME_SEQUENCE_MGF);
+
+        spectra = new IBinarySpectrum[nSpectra];
+        System.arraycopy(allSpectra, 0, spectra, 0, nSpectra);
+    }
+
+    private GreedyConsensusSpectrum addSpectra() {
+        GreedyConsensusSpectrum consensusSpectrum = new GreedyConsensusSpectrum("benchmark",
+                GreedyConsensusSpectrum.MIN_PEAKS_TO_KEEP, GreedyConsensusSpectrum.MIN_PEAKS_TO_KEEP,
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT, GreedyClusteringEngine.COMPARISON_FILTER);
+
+        for (IBinarySpectrum spectrum : spectra) {
+            consensusSpectrum.addSpectra(spectrum);
+        }
+
+        return consensusSpectrum;
+    }
+
+    @Benchmark
+    public GreedyConsensusSpectrum addSpectraOneByOne() {
+        return addSpectra();
+    }
+
+    @Benchmark
+    public IBinarySpectrum addSpectraAndGetConsensusSpectrum() {
+        return addSpectra().getConsensusSpectrum();
+    }
+}
@@ -0,0 +1,91 @@
+package org.spectra.cluster.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.predicates.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks every IComparisonPredicate on neighbouring clusters
+ * of the test data.
+ *
+ * @author jg
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PredicateBenchmark {
+    @Param({"same_charge", "share_n_comparison_peaks", "shared_peak_bitset", "precursor_distance",
+            "adaptive_chain", "share_highest_peaks_cluster", "cluster_is_known"})
+    private String predicateName;
+
+    private ICluster[] clusters;
+    private IBinarySpectrum[] spectra;
+    private IComparisonPredicate<ICluster> clusterPredicate;
+    private IComparisonPredicate<IBinarySpectrum> spectrumPredicate;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        clusters = BenchmarkFixtures.loadClusters(BenchmarkFixtures.SAME_SEQUENCE_MGF);
+        spectra = BenchmarkFixtures.loadSpectra(BenchmarkFixtures.SAME_SEQUENCE_MGF);
+        spectrumPredicate = new ShareHighestPeaksPredicate(5);
+
+        // record comparisons for every second pair so that the known comparison predicate has both outcomes
+        for (int i = 0; i < clusters.length - 1; i += 2) {
+            clusters[i].saveComparisonResult(clusters[i + 1].getId(), 0.5f);
+        }
+
+        switch (predicateName) {
+            case "same_charge":
+                clusterPredicate = new SameChargePredicate();
+                break;
+            case "share_n_comparison_peaks":
+                clusterPredicate = new ShareNComparisonPeaksPredicate(5);
+                break;
+            case "shared_peak_bitset":
+                clusterPredicate = new SharedPeakBitsetPredicate(5);
+                break;
+            case "precursor_distance":
+                clusterPredicate = new PrecursorDistancePredicate(BasicIntegerNormalizer.MZ_CONSTANT);
+                break;
+            case "adaptive_chain":
+                clusterPredicate = new AdaptivePredicateChain("benchmark")
+                        .addStage("same_charge", new SameChargePredicate())
+                        .addStage("shared_peaks", new SharedPeakBitsetPredicate(5));
+                break;
+            case "share_highest_peaks_cluster":
+                clusterPredicate = new ShareHighestPeaksClusterPredicate(5);
+                break;
+            case "cluster_is_known":
+                clusterPredicate = new ClusterIsKnownComparisonPredicate();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown predicate " + predicateName);
+        }
+    }
+
+    @Benchmark
+    public boolean clusterPredicate() {
+        index = (index + 1) % (clusters.length - 1);
+
+        return clusterPredicate.test(clusters[index], clusters[index + 1]);
+    }
+
+    /**
+     * ShareHighestPeaksPredicate works on spectra instead of clusters and
+     * is therefore benchmarked separately.
+     */
+    @Benchmark
+    public boolean shareHighestPeaksSpectrumPredicate() {
+        index = (index + 1) % (spectra.length - 1);
+
+        return spectrumPredicate.test(spectra[index], spectra[index + 1]);
+    }
+}
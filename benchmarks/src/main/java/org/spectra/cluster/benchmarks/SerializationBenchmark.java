@@ -0,0 +1,56 @@
+package org.spectra.cluster.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the binary serialization of GreedySpectralClusters. Single
+ * spectrum clusters represent the loading step, clustered clusters the
+ * data written between the clustering rounds.
+ *
+ * @author jg
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    @Param({"single", "clustered"})
+    private String clusterType;
+
+    private ICluster[] clusters;
+    private byte[][] serializedClusters;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        clusters = ("single".equals(clusterType)) ?
+                BenchmarkFixtures.loadClusters(BenchmarkFixtures.SAME_SEQUENCE_MGF) :
+                BenchmarkFixtures.loadClusteredClusters(BenchmarkFixtures.SAME_SEQUENCE_MGF);
+
+        serializedClusters = new byte[clusters.length][];
+
+        for (int i = 0; i < clusters.length; i++) {
+            serializedClusters[i] = clusters[i].toBytes();
+        }
+    }
+
+    @Benchmark
+    public byte[] toBytes() throws Exception {
+        index = (index + 1) % clusters.length;
+
+        return clusters[index].toBytes();
+    }
+
+    @Benchmark
+    public ICluster fromBytes() throws Exception {
+        index = (index + 1) % serializedClusters.length;
+
+        return GreedySpectralCluster.fromBytes(serializedClusters[index]);
+    }
+}
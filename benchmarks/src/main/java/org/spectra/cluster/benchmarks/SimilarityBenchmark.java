@@ -0,0 +1,87 @@
+package org.spectra.cluster.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.spectra.cluster.model.spectra.BinaryPeak;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+import org.spectra.cluster.similarity.IntPair;
+import org.spectra.cluster.similarity.KendallsCorrelation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the similarity calculation between two spectra of the
+ * test data. Every invocation compares the next pair of spectra.
+ *
+ * @author jg
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SimilarityBenchmark {
+    private IBinarySpectrum[] spectra;
+    private IntPair[][] sharedPeaks;
+    private CombinedFisherIntensityTest fisherIntensityTest;
+    private KendallsCorrelation kendallsCorrelation;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        spectra = BenchmarkFixtures.loadSpectra(BenchmarkFixtures.SAME_SEQUENCE_MGF);
+        fisherIntensityTest = new CombinedFisherIntensityTest();
+        kendallsCorrelation = new KendallsCorrelation();
+
+        // the intensity pairs of the shared peaks are the input of the Kendall's Tau
+        List<IntPair[]> pairs = new ArrayList<>(spectra.length);
+
+        for (int i = 0; i < spectra.length; i++) {
+            IntPair[] shared = getSharedPeaks(spectra[i], spectra[(i + 1) % spectra.length]);
+
+            if (shared.length > 2)
+                pairs.add(shared);
+        }
+
+        sharedPeaks = pairs.toArray(new IntPair[0][]);
+    }
+
+    private static IntPair[] getSharedPeaks(IBinarySpectrum spectrum1, IBinarySpectrum spectrum2) {
+        Map<Integer, Integer> intensities = new HashMap<>();
+
+        for (BinaryPeak peak : spectrum1.getPeaks()) {
+            intensities.put(peak.getMz(), peak.getIntensity());
+        }
+
+        List<IntPair> pairs = new ArrayList<>();
+
+        for (BinaryPeak peak : spectrum2.getPeaks()) {
+            Integer intensity = intensities.get(peak.getMz());
+
+            if (intensity != null)
+                pairs.add(new IntPair(intensity, peak.getIntensity()));
+        }
+
+        return pairs.toArray(new IntPair[0]);
+    }
+
+    @Benchmark
+    public double combinedFisherIntensityTest() {
+        index = (index + 1) % spectra.length;
+
+        return fisherIntensityTest.correlation(spectra[index], spectra[(index + 1) % spectra.length]);
+    }
+
+    @Benchmark
+    public double kendallsCorrelation() {
+        index = (index + 1) % sharedPeaks.length;
+
+        // the correlation sorts the passed array
+        return kendallsCorrelation.correlation(sharedPeaks[index].clone());
+    }
+}
@@ -3,6 +3,7 @@ package org.spectra.cluster.binning;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import org.spectra.cluster.exceptions.SpectraClusterException;
 import org.spectra.cluster.model.cluster.IClusterProperties;
 
@@ -10,11 +11,25 @@ import java.util.*;
 
 /**
  * A cluster binner that bins clusters primarily according to m/z and charge (optional).
- * Binning is governed by two parameters: the minimum m/z window size and the minimum
- * number of spectra per bin. Smaller bins are merged into adjacent larger ones.
+ * Binning is governed by three parameters: the minimum m/z window size, the minimum
+ * number of spectra per bin, and the maximum number of spectra per bin. Smaller bins
+ * are merged into adjacent larger ones. Bins that are larger than the maximum bin size
+ * (f.e. at very popular precursor m/z values) are split at their sparsest precursor gap.
+ *
+ * The clusters are sorted as primitive (charge, precursor, index) triples using a radix
+ * sort. Split points of the un-shifted round are remembered so that the shifted second
+ * round does not split at the same positions. Thereby, clusters separated by a split in
+ * the first round end up in the same bin in the second round.
  */
 @Data
+@Slf4j
 public class SimilarSizedClusterBinner implements IClusterBinner {
+    /**
+     * Number of bits sorted per radix sort pass.
+     */
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
     /**
      * The minimum bin size in (integer changed) m/z.
      */
@@ -27,10 +42,51 @@ public class SimilarSizedClusterBinner implements IClusterBinner {
      * If set, clusters with different charge states are put in separate bins
      */
     private final boolean useCharge;
+    /**
+     * Maximum number of clusters per bin before splitting the bin.
+     */
+    private final int maximumBinSizeCluster;
 
     @Setter(AccessLevel.NONE)
     private int precursorOffset;
 
+    /**
+     * The (un-shifted) precursor m/z values at which bins were split during
+     * the last un-shifted binning.
+     */
+    @Setter(AccessLevel.NONE)
+    private int[] splitPrecursors = new int[0];
+
+    /**
+     * Creates a new SimilarSizedClusterBinner that never splits bins.
+     *
+     * @param binSizeMz The minimum bin size in (integer changed) m/z.
+     * @param minimumBinSizeCluster Minimum number of cluster per bin before merging clusters.
+     * @param useCharge If set, clusters with different charge states are put in separate bins
+     */
+    public SimilarSizedClusterBinner(int binSizeMz, int minimumBinSizeCluster, boolean useCharge) {
+        this(binSizeMz, minimumBinSizeCluster, useCharge, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new SimilarSizedClusterBinner.
+     *
+     * @param binSizeMz The minimum bin size in (integer changed) m/z.
+     * @param minimumBinSizeCluster Minimum number of cluster per bin before merging clusters.
+     * @param useCharge If set, clusters with different charge states are put in separate bins
+     * @param maximumBinSizeCluster Maximum number of clusters per bin before splitting the bin.
+     */
+    public SimilarSizedClusterBinner(int binSizeMz, int minimumBinSizeCluster, boolean useCharge,
+                                     int maximumBinSizeCluster) {
+        if (maximumBinSizeCluster < 2)
+            throw new IllegalArgumentException("Maximum bin size must be at least 2");
+
+        this.binSizeMz = binSizeMz;
+        this.minimumBinSizeCluster = minimumBinSizeCluster;
+        this.useCharge = useCharge;
+        this.maximumBinSizeCluster = maximumBinSizeCluster;
+    }
+
     @Override
     public String[][] binClusters(IClusterProperties[] clusters, boolean shift) throws SpectraClusterException {
         // ensure that there are clusters to bin
@@ -50,81 +106,247 @@ public class SimilarSizedClusterBinner implements IClusterBinner {
         else
             precursorOffset = 0;
 
-        // get the base binning result
-        Map<Integer, List<IClusterProperties>> bins = doBinning(clusters);
+        // sort the clusters by charge and precursor
+        int[] charges = new int[clusters.length];
+        int[] precursors = new int[clusters.length];
+        extractSortKeys(clusters, charges, precursors);
+
+        int[] sortedIndices = radixSort(charges, precursors);
+
+        // get the base binning result as [start, end) ranges in the sorted indices
+        List<int[]> bins = doBinning(sortedIndices, charges, precursors);
+
+        bins = mergeBins(bins, charges, sortedIndices);
+
+        // split oversized bins
+        List<int[]> finalBins = new ArrayList<>(bins.size());
+        List<Integer> newSplitPrecursors = new ArrayList<>();
+
+        for (int[] bin : bins) {
+            splitBin(bin[0], bin[1], sortedIndices, precursors, shift, finalBins, newSplitPrecursors);
+        }
+
+        if (!shift) {
+            splitPrecursors = newSplitPrecursors.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+
+        if (!newSplitPrecursors.isEmpty())
+            log.debug(String.format("Split oversized bins at %d positions", newSplitPrecursors.size()));
 
-        mergeBins(bins);
+        // change each bin to an array of ids
+        String[][] sortedIds = new String[finalBins.size()][];
 
-        // get the sorted bins
-        String[][] sortedIds = bins.values().stream()
-                // remove empty bins
-                .filter(bin -> bin.size() > 0)
-                // sort the clusters based on precursor m/z
-                .peek(bin -> bin.sort(Comparator.comparingInt(IClusterProperties::getPrecursorMz)))
-                // change each bin to an array of ids
-                .map(bin -> bin.stream().map(IClusterProperties::getId).toArray(String[]::new))
-                // return as an array
-                .toArray(String[][]::new);
+        for (int i = 0; i < finalBins.size(); i++) {
+            int[] bin = finalBins.get(i);
+            sortedIds[i] = new String[bin[1] - bin[0]];
+
+            for (int j = bin[0]; j < bin[1]; j++) {
+                sortedIds[i][j - bin[0]] = clusters[sortedIndices[j]].getId();
+            }
+        }
 
         return sortedIds;
     }
 
     /**
-     * Merge adjacent bins that are smaller than the defined minimum bin size.
-     * @param bins Bins to merge
-     * @return Merged bins.
+     * Extracts the charge (if used) and the shifted precursor m/z of every cluster.
      */
-    private void mergeBins(Map<Integer, List<IClusterProperties>> bins) {
-        // get the sorted bin indices
-        Integer[] binIndices = bins.keySet().stream().sorted().toArray(Integer[]::new);
+    private void extractSortKeys(IClusterProperties[] clusters, int[] charges, int[] precursors) throws SpectraClusterException {
+        for (int i = 0; i < clusters.length; i++) {
+            IClusterProperties cluster = clusters[i];
 
-        for (int binIndex = 0; binIndex < binIndices.length - 1; binIndex++) {
-            // merge the bin with the next one if it is too small
-            if (bins.get(binIndices[binIndex]).size() < minimumBinSizeCluster) {
-                // add all clusters to the next bin
-                bins.get(binIndices[binIndex + 1]).addAll( bins.get(binIndices[binIndex]) );
+            if (useCharge && cluster.getPrecursorCharge() != null) {
+                // ensure that the charge is plausible
+                if (cluster.getPrecursorCharge() < 0 || cluster.getPrecursorCharge() > 9)
+                    throw new SpectraClusterException(
+                            String.format("Cluster %s contains unrealistic charge of %d",
+                                    cluster.getId(), cluster.getPrecursorCharge()));
 
-                // put an empty list instead
-                bins.put(binIndices[binIndex], new ArrayList<>(0));
+                charges[i] = cluster.getPrecursorCharge();
             }
+
+            precursors[i] = cluster.getPrecursorMz() + precursorOffset;
+
+            if (precursors[i] < 0)
+                throw new SpectraClusterException(
+                        String.format("Cluster %s contains invalid precursor m/z", cluster.getId()));
         }
     }
 
     /**
-     * Performs the initial binning based only on the set bin m/z size and the charge state (if set).
+     * Stable LSD radix sort of the cluster indices by precursor and then charge.
+     * Passes in which all clusters share the same digit are skipped.
      *
-     * @param clusters The clusters to bin.
-     * @return A map with the bin index as key and the respective clusters as values.
-     * @throws SpectraClusterException
+     * @return The sorted cluster indices.
      */
-    private Map<Integer, List<IClusterProperties>> doBinning(IClusterProperties[] clusters) throws SpectraClusterException {
-        // bin the cluster in the smallest possible bins
-        Map<Integer, List<IClusterProperties>> bins = new HashMap<>(1000);
-
-        for (IClusterProperties cluster : clusters) {
-            // get the "raw" bin
-            int bin = (cluster.getPrecursorMz() + precursorOffset) / binSizeMz;
-
-            // encode the charge as 100_000_000 * charge in the bin #
-            if (useCharge) {
-                if (cluster.getPrecursorCharge() != null) {
-                    // ensure that the charge is plausible
-                    if (cluster.getPrecursorCharge() < 0 || cluster.getPrecursorCharge() > 9)
-                        throw new SpectraClusterException(
-                                String.format("Cluster %s contains unrealistic charge of %d",
-                                        cluster.getId(), cluster.getPrecursorCharge()));
-
-                    // encode the charge
-                    bin += 100_000_000 * cluster.getPrecursorCharge();
-                }
+    private static int[] radixSort(int[] charges, int[] precursors) {
+        int[] indices = new int[precursors.length];
+        int[] buffer = new int[precursors.length];
+        int[] counts = new int[RADIX_MASK + 2];
+
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+
+        // the precursor is the less significant key
+        for (int shift = 0; shift < Integer.SIZE; shift += RADIX_BITS) {
+            if (radixPass(precursors, shift, indices, buffer, counts)) {
+                int[] tmp = indices;
+                indices = buffer;
+                buffer = tmp;
             }
+        }
+
+        // charges are between 0 and 9 and therefore only need one pass
+        if (radixPass(charges, 0, indices, buffer, counts))
+            indices = buffer;
+
+        return indices;
+    }
+
+    /**
+     * Performs one counting sort pass on the defined digit.
+     *
+     * @return False if the pass was skipped since all keys share the same digit. In this
+     *         case, the target array is not changed.
+     */
+    private static boolean radixPass(int[] keys, int shift, int[] source, int[] target, int[] counts) {
+        Arrays.fill(counts, 0);
+
+        for (int index : source) {
+            counts[((keys[index] >>> shift) & RADIX_MASK) + 1]++;
+        }
+
+        // skip the pass if all keys fall into the same bucket
+        for (int count : counts) {
+            if (count == source.length)
+                return false;
+        }
 
-            if (!bins.containsKey(bin))
-                bins.put(bin, new ArrayList<>(1));
+        for (int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
 
-            bins.get(bin).add(cluster);
+        for (int index : source) {
+            target[counts[(keys[index] >>> shift) & RADIX_MASK]++] = index;
+        }
+
+        return true;
+    }
+
+    /**
+     * Performs the initial binning based only on the set bin m/z size and the charge state (if set).
+     *
+     * @return The bins as [start, end) ranges in the sorted indices.
+     */
+    private List<int[]> doBinning(int[] sortedIndices, int[] charges, int[] precursors) {
+        List<int[]> bins = new ArrayList<>(1000);
+        int binStart = 0;
+
+        for (int i = 1; i <= sortedIndices.length; i++) {
+            if (i == sortedIndices.length ||
+                    charges[sortedIndices[i]] != charges[sortedIndices[binStart]] ||
+                    precursors[sortedIndices[i]] / binSizeMz != precursors[sortedIndices[binStart]] / binSizeMz) {
+                bins.add(new int[] {binStart, i});
+                binStart = i;
+            }
         }
 
         return bins;
     }
+
+    /**
+     * Merge adjacent bins that are smaller than the defined minimum bin size. Bins
+     * are only merged with bins of the same charge state.
+     *
+     * @param bins Bins to merge
+     * @return Merged bins.
+     */
+    private List<int[]> mergeBins(List<int[]> bins, int[] charges, int[] sortedIndices) {
+        List<int[]> mergedBins = new ArrayList<>(bins.size());
+
+        for (int binIndex = 0; binIndex < bins.size(); binIndex++) {
+            int[] bin = bins.get(binIndex);
+            boolean hasNext = binIndex < bins.size() - 1 &&
+                    charges[sortedIndices[bins.get(binIndex + 1)[0]]] == charges[sortedIndices[bin[0]]];
+
+            // merge the bin with the next one if it is too small
+            if (hasNext && bin[1] - bin[0] < minimumBinSizeCluster) {
+                // since the bins are adjacent in the sorted indices, only the start is moved
+                bins.get(binIndex + 1)[0] = bin[0];
+            } else {
+                mergedBins.add(bin);
+            }
+        }
+
+        return mergedBins;
+    }
+
+    /**
+     * Recursively splits the bin at its sparsest precursor gap until all resulting bins
+     * are smaller than the maximum bin size. Split positions are only searched in the
+     * central half of the bin to guarantee balanced splits. In the shifted round, the
+     * gaps that were split in the un-shifted round are avoided.
+     *
+     * @param start First position (inclusive) in the sorted indices.
+     * @param end Last position (exclusive) in the sorted indices.
+     * @param finalBins The resulting bins are added to this list.
+     * @param newSplitPrecursors The un-shifted precursors at which bins were split are added to this list.
+     */
+    private void splitBin(int start, int end, int[] sortedIndices, int[] precursors, boolean shift,
+                          List<int[]> finalBins, List<Integer> newSplitPrecursors) {
+        if (end - start <= maximumBinSizeCluster) {
+            finalBins.add(new int[] {start, end});
+            return;
+        }
+
+        int size = end - start;
+        int middle = start + size / 2;
+        int bestSplit = -1;
+        int bestGap = -1;
+
+        // the split is placed before the position "i"
+        for (int i = start + size / 4; i <= end - size / 4; i++) {
+            if (i <= start || i >= end)
+                continue;
+
+            int lower = precursors[sortedIndices[i - 1]];
+            int upper = precursors[sortedIndices[i]];
+            int gap = upper - lower;
+
+            if (shift && isPreviousSplit(lower - precursorOffset, upper - precursorOffset))
+                continue;
+
+            // prefer larger gaps and, at equal gaps, positions closer to the middle
+            if (gap > bestGap || (gap == bestGap && Math.abs(i - middle) < Math.abs(bestSplit - middle))) {
+                bestGap = gap;
+                bestSplit = i;
+            }
+        }
+
+        // all positions were excluded
+        if (bestSplit < 0)
+            bestSplit = middle;
+
+        newSplitPrecursors.add(precursors[sortedIndices[bestSplit]] - precursorOffset);
+
+        splitBin(start, bestSplit, sortedIndices, precursors, shift, finalBins, newSplitPrecursors);
+        splitBin(bestSplit, end, sortedIndices, precursors, shift, finalBins, newSplitPrecursors);
+    }
+
+    /**
+     * Tests whether a split of the un-shifted round lies in the defined (un-shifted)
+     * precursor range.
+     */
+    private boolean isPreviousSplit(int lowerPrecursor, int upperPrecursor) {
+        if (splitPrecursors.length == 0)
+            return false;
+
+        int index = Arrays.binarySearch(splitPrecursors, lowerPrecursor);
+
+        if (index < 0)
+            index = -index - 1;
+
+        return index < splitPrecursors.length && splitPrecursors[index] <= upperPrecursor;
+    }
 }
@@ -0,0 +1,87 @@
+package org.spectra.cluster.cdf;
+
+/**
+ * Precomputed form of CumulativeDistributionFunction.isSaveMatch for a
+ * fixed maximum mixture probability.
+ *
+ * For every score bin of the CDF, the table stores the largest number of
+ * comparisons for which a match within this bin is still considered save.
+ * Testing a match therefore only requires a lookup and an integer
+ * comparison instead of a Math.pow call. The results are identical to
+ * CumulativeDistributionFunction.isSaveMatch.
+ *
+ * Objects are immutable and can therefore be shared between threads.
+ *
+ * @author jg
+ */
+public class CdfThresholdTable {
+    /** Marks bins in which no match is save */
+    private static final int NEVER_SAVE = -1;
+
+    private final CumulativeDistributionFunction cdf;
+    private final double maximumMixtureProbability;
+    private final int[] maxComparisons;
+
+    /**
+     * Creates a new CdfThresholdTable.
+     *
+     * @param cdf The cumulative distribution function to use.
+     * @param maximumMixtureProbability The allowed maximum mixture probability.
+     */
+    public CdfThresholdTable(CumulativeDistributionFunction cdf, double maximumMixtureProbability) {
+        this.cdf = cdf;
+        this.maximumMixtureProbability = maximumMixtureProbability;
+
+        double minimumCorrectMatches = 1.0 - maximumMixtureProbability;
+        maxComparisons = new int[cdf.proportionPeptidesBelowScore.length];
+
+        for (int bin = 0; bin < maxComparisons.length; bin++) {
+            maxComparisons[bin] = getMaxComparisons(cdf.proportionPeptidesBelowScore[bin], minimumCorrectMatches);
+        }
+    }
+
+    /**
+     * Determines the largest n for which proportion^n > minimumCorrectMatches. Since
+     * Math.pow is semi-monotonic, the estimate based on logarithms is corrected
+     * using the exact expression of CumulativeDistributionFunction.isSaveMatch.
+     */
+    private static int getMaxComparisons(double proportion, double minimumCorrectMatches) {
+        // proportion^0 = 1
+        if (!(1.0 > minimumCorrectMatches))
+            return NEVER_SAVE;
+
+        if (proportion >= 1 || minimumCorrectMatches < 0)
+            return Integer.MAX_VALUE;
+
+        if (proportion <= 0)
+            return 0;
+
+        double estimate = Math.log(Math.max(minimumCorrectMatches, Double.MIN_VALUE)) / Math.log(proportion);
+        long n = (long) Math.min(Math.floor(estimate), Integer.MAX_VALUE);
+
+        while (n < Integer.MAX_VALUE && Math.pow(proportion, n + 1) > minimumCorrectMatches) {
+            n++;
+        }
+
+        while (n > 0 && !(Math.pow(proportion, n) > minimumCorrectMatches)) {
+            n--;
+        }
+
+        return (int) n;
+    }
+
+    /**
+     * Determines whether the match at the given similarity would be sufficiently good
+     * to satisfy the table's maximal mixture probability.
+     * @param similarity Similarity of the match
+     * @param nComparisons Number of comparisons already performed for the spectrum.
+     * @return Same result as CumulativeDistributionFunction.isSaveMatch.
+     */
+    public boolean isSaveMatch(double similarity, int nComparisons) {
+        return nComparisons <= maxComparisons[cdf.getBinForScore(similarity)];
+    }
+
+    public double getMaximumMixtureProbability() {
+        return maximumMixtureProbability;
+    }
+}
@@ -1,12 +1,17 @@
 package org.spectra.cluster.cdf;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents the empirical cumulative distribution
  * function for a certain similarity metric.
  *
+ * Objects are immutable and can therefore be shared between threads.
+ *
  * Created by jg on 05.05.15.
  */
 public class CumulativeDistributionFunction {
@@ -20,11 +25,13 @@ public class CumulativeDistributionFunction {
      * <i>(i + 1) * scoreIncrements</i>
      */
     protected final double[] proportionPeptidesBelowScore;
+    /** Precomputed threshold tables per maximum mixture probability */
+    private final Map<Double, CdfThresholdTable> thresholdTables = new ConcurrentHashMap<>();
 
     public CumulativeDistributionFunction(long totalComparisons, double scoreIncrements, double[] proportionPeptidesBelowScore) {
         this.totalComparisons = totalComparisons;
         this.scoreIncrements = scoreIncrements;
-        this.proportionPeptidesBelowScore = proportionPeptidesBelowScore;
+        this.proportionPeptidesBelowScore = Arrays.copyOf(proportionPeptidesBelowScore, proportionPeptidesBelowScore.length);
     }
 
     public static CumulativeDistributionFunction fromString(String string) throws Exception {
@@ -116,4 +123,14 @@ public class CumulativeDistributionFunction {
 
         return proportionCorrectMatches > minimumCorrectMatches;
     }
+
+    /**
+     * Returns the precomputed threshold table for the defined maximum mixture probability.
+     * Every table is only created once and then shared by all callers.
+     * @param maximumMixtureProbability Allowed maximum mixture probability.
+     * @return The CdfThresholdTable
+     */
+    public CdfThresholdTable getThresholdTable(double maximumMixtureProbability) {
+        return thresholdTables.computeIfAbsent(maximumMixtureProbability, p -> new CdfThresholdTable(this, p));
+    }
 }
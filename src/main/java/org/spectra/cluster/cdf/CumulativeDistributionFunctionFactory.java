@@ -5,11 +5,18 @@ import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
 
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by jg on 05.05.15.
+ *
+ * CumulativeDistributionFunctions are immutable. Therefore, every resource file
+ * is only parsed once and the same object is returned for all subsequent calls.
  */
 public class CumulativeDistributionFunctionFactory {
+    private static final Map<String, CumulativeDistributionFunction> loadedFunctions = new ConcurrentHashMap<>();
+
     private CumulativeDistributionFunctionFactory() {
 
     }
@@ -48,7 +55,19 @@ public class CumulativeDistributionFunctionFactory {
      * @throws Exception
      */
     private static CumulativeDistributionFunction getCumulativeDistributionFunctionForResource(String resource) throws Exception {
-        InputStream cdfStream = ClassLoader.getSystemResourceAsStream("cumulative.cdf.tsv");
+        CumulativeDistributionFunction cdf = loadedFunctions.get(resource);
+
+        if (cdf == null) {
+            // if two threads load the same resource at once, both get the first stored object
+            loadedFunctions.putIfAbsent(resource, readCumulativeDistributionFunction(resource));
+            cdf = loadedFunctions.get(resource);
+        }
+
+        return cdf;
+    }
+
+    private static CumulativeDistributionFunction readCumulativeDistributionFunction(String resource) throws Exception {
+        InputStream cdfStream = ClassLoader.getSystemResourceAsStream(resource);
 
         if (cdfStream == null) {
             throw new Exception("Failed to load cumulative distribution function file.");
@@ -3,6 +3,8 @@ package org.spectra.cluster.cdf;
 import org.spectra.cluster.io.spectra.ISpectrumListener;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 /**
  * This INumberOfComparisonAssessor assess the number of
  * comparisons based on all spectra within a bin. For this
@@ -11,11 +13,15 @@ import org.spectra.cluster.model.spectra.IBinarySpectrum;
  * this spectrum can be "counted" using this classes countSpectrum
  * function.
  *
+ * Counting and querying are thread-safe so that a single
+ * precursor density histogram can be shared by all clustering
+ * engines.
+ *
  * Created by jg on 13.10.17.
  */
 public class SpectraPerBinNumberComparisonAssessor implements INumberOfComparisonAssessor, ISpectrumListener {
     private final double windowSize;
-    private final int[] spectraPerBin;
+    private final AtomicIntegerArray spectraPerBin;
     private final int maxBin;
     private final int minSpectra;
 
@@ -35,11 +41,7 @@ public class SpectraPerBinNumberComparisonAssessor implements INumberOfCompariso
         // initiate the bins
         int nBins = (int) Math.ceil(maxPrecursor / this.windowSize);
         maxBin = nBins - 1;
-        spectraPerBin = new int[nBins];
-
-        for (int i = 0; i < nBins; i++) {
-            spectraPerBin[i] = 0;
-        }
+        spectraPerBin = new AtomicIntegerArray(nBins);
     }
 
     /**
@@ -47,9 +49,9 @@ public class SpectraPerBinNumberComparisonAssessor implements INumberOfCompariso
      * bin. This function is thread safe.
      * @param precursorMz The spectrum's precursor m/z
      */
-    public synchronized void countSpectrum(int precursorMz) {
+    public void countSpectrum(int precursorMz) {
         int bin = getBinForSpectrum(precursorMz);
-        spectraPerBin[bin] += 1;
+        spectraPerBin.incrementAndGet(bin);
     }
 
     @Override
@@ -75,13 +77,11 @@ public class SpectraPerBinNumberComparisonAssessor implements INumberOfCompariso
     public int getNumberOfComparisons(int precursorMz, int nCurrentClusters) {
         int bin = getBinForSpectrum(precursorMz);
 
-        int count;
+        int count = spectraPerBin.get(bin);
 
         // never return anything lower than 1
-        if (spectraPerBin[bin] <= 1)
+        if (count <= 1)
             count = 1;
-        else
-            count = spectraPerBin[bin];
 
         if (count < minSpectra)
             return minSpectra;
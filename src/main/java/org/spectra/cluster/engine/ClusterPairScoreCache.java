@@ -0,0 +1,225 @@
+package org.spectra.cluster.engine;
+
+import org.spectra.cluster.model.cluster.ICluster;
+
+/**
+ * A bounded cache of similarity scores between two clusters.
+ *
+ * Entries are keyed by both clusters' ids and versions. Since a cluster's
+ * version changes whenever spectra are added or another cluster is merged,
+ * a cached score is only returned as long as neither cluster changed.
+ *
+ * The scores are stored in an open addressing table of primitive arrays so that
+ * neither lookups nor puts create any objects. An entry is only searched within
+ * PROBE_LENGTH slots of its hash position. Once all of these slots are used, the
+ * least recently used entry among them is replaced. The table starts small and
+ * grows up to the maximum size, which is rounded up to the next power of two.
+ *
+ * This class is not thread-safe. Every clustering engine uses its own cache.
+ *
+ * @author jg
+ */
+public class ClusterPairScoreCache {
+    /** Returned by get if no score is cached */
+    public static final double NO_SCORE = Double.NaN;
+    /** Maximum number of slots searched for an entry */
+    static final int PROBE_LENGTH = 8;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int maxCapacity;
+    // the entries, the clusters are ordered by id
+    private String[] ids1;
+    private String[] ids2;
+    private int[] versions1;
+    private int[] versions2;
+    private double[] scores;
+    /** Time of the last access per slot, 0 for empty slots */
+    private long[] lastAccess;
+    private long accessCounter = 0;
+    private int size = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum number of scores to keep. It is rounded up to the next power of two.
+     */
+    public ClusterPairScoreCache(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Cache size must be at least 1");
+
+        // the next power of two
+        this.maxCapacity = (maxSize > 1 << 30) ? 1 << 30 : Integer.highestOneBit(maxSize * 2 - 1);
+        allocate(Math.min(maxCapacity, INITIAL_CAPACITY));
+    }
+
+    private void allocate(int capacity) {
+        ids1 = new String[capacity];
+        ids2 = new String[capacity];
+        versions1 = new int[capacity];
+        versions2 = new int[capacity];
+        scores = new double[capacity];
+        lastAccess = new long[capacity];
+    }
+
+    /**
+     * Returns the cached score of the two clusters.
+     *
+     * @param cluster1 The first cluster.
+     * @param cluster2 The second cluster.
+     * @return The score or NO_SCORE (NaN) in case it is not cached or one of the clusters changed.
+     */
+    public double get(ICluster cluster1, ICluster cluster2) {
+        boolean swap = cluster1.getId().compareTo(cluster2.getId()) > 0;
+        ICluster first = swap ? cluster2 : cluster1;
+        ICluster second = swap ? cluster1 : cluster2;
+
+        int slot = find(first.getId(), first.getVersion(), second.getId(), second.getVersion());
+
+        if (slot < 0) {
+            misses++;
+            return NO_SCORE;
+        }
+
+        hits++;
+        lastAccess[slot] = ++accessCounter;
+
+        return scores[slot];
+    }
+
+    /**
+     * Stores the score of the two clusters in their current versions.
+     *
+     * @param cluster1 The first cluster.
+     * @param cluster2 The second cluster.
+     * @param score The similarity score.
+     */
+    public void put(ICluster cluster1, ICluster cluster2, double score) {
+        boolean swap = cluster1.getId().compareTo(cluster2.getId()) > 0;
+        ICluster first = swap ? cluster2 : cluster1;
+        ICluster second = swap ? cluster1 : cluster2;
+
+        if (size >= ids1.length * 3 / 4 && ids1.length < maxCapacity) {
+            grow();
+        }
+
+        store(first.getId(), first.getVersion(), second.getId(), second.getVersion(), score, ++accessCounter);
+    }
+
+    /**
+     * Returns the slot holding the entry or -1 if it is not cached.
+     */
+    private int find(String id1, int version1, String id2, int version2) {
+        int mask = ids1.length - 1;
+        int home = hash(id1, version1, id2, version2) & mask;
+
+        for (int i = 0; i < PROBE_LENGTH && i <= mask; i++) {
+            int slot = (home + i) & mask;
+
+            if (lastAccess[slot] != 0 && versions1[slot] == version1 && versions2[slot] == version2 &&
+                    id1.equals(ids1[slot]) && id2.equals(ids2[slot])) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Stores the entry in the existing slot, a free slot or the least recently
+     * used slot within the probe length.
+     */
+    private void store(String id1, int version1, String id2, int version2, double score, long access) {
+        int slot = find(id1, version1, id2, version2);
+
+        if (slot < 0) {
+            int mask = ids1.length - 1;
+            int home = hash(id1, version1, id2, version2) & mask;
+
+            for (int i = 0; i < PROBE_LENGTH && i <= mask; i++) {
+                int candidate = (home + i) & mask;
+
+                if (lastAccess[candidate] == 0) {
+                    slot = candidate;
+                    size++;
+                    break;
+                }
+
+                if (slot < 0 || lastAccess[candidate] < lastAccess[slot]) {
+                    slot = candidate;
+                }
+            }
+
+            ids1[slot] = id1;
+            versions1[slot] = version1;
+            ids2[slot] = id2;
+            versions2[slot] = version2;
+        }
+
+        scores[slot] = score;
+        lastAccess[slot] = access;
+    }
+
+    /**
+     * Doubles the table's capacity keeping the entries' access times.
+     */
+    private void grow() {
+        String[] oldIds1 = ids1;
+        String[] oldIds2 = ids2;
+        int[] oldVersions1 = versions1;
+        int[] oldVersions2 = versions2;
+        double[] oldScores = scores;
+        long[] oldLastAccess = lastAccess;
+
+        allocate(oldIds1.length * 2);
+        size = 0;
+
+        for (int i = 0; i < oldIds1.length; i++) {
+            if (oldLastAccess[i] != 0) {
+                store(oldIds1[i], oldVersions1[i], oldIds2[i], oldVersions2[i], oldScores[i], oldLastAccess[i]);
+            }
+        }
+    }
+
+    private static int hash(String id1, int version1, String id2, int version2) {
+        // String caches its hash code
+        long hash = 31L * (31L * (31L * id1.hashCode() + version1) + id2.hashCode()) + version2;
+
+        // final avalanche step of MurmurHash3 to use the table's lower bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return (int) hash;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The fraction of lookups that returned a cached score. 0 if no lookups were performed.
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+
+        return (lookups > 0) ? (double) hits / lookups : 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of slots currently allocated.
+     */
+    int capacity() {
+        return ids1.length;
+    }
+}
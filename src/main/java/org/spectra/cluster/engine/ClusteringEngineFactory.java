@@ -0,0 +1,115 @@
+package org.spectra.cluster.engine;
+
+import org.spectra.cluster.cdf.CumulativeDistributionFunction;
+import org.spectra.cluster.cdf.CumulativeDistributionFunctionFactory;
+import org.spectra.cluster.cdf.INumberOfComparisonAssessor;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.predicates.IComparisonPredicate;
+import org.spectra.cluster.similarity.IBinarySpectrumSimilarity;
+import org.spectra.cluster.util.ComparisonContext;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Creates GreedyClusteringEngines that all share the same components.
+ *
+ * The CDF is only loaded once when the factory is created. The similarity
+ * measure, the number of comparison assessor (usually a precursor density
+ * histogram filled while loading the spectra) and the first round predicate
+ * are shared by all engines and must therefore be thread-safe. Creating an
+ * engine only allocates the engine object itself, which makes it cheap
+ * to use one engine per bin.
+ *
+ * @author jg
+ */
+public class ClusteringEngineFactory {
+    private final int precursorTolerance;
+    private final float thresholdStart;
+    private final float thresholdEnd;
+    private final int clusteringRounds;
+    private final IBinarySpectrumSimilarity similarityMeasure;
+    private final CumulativeDistributionFunction cdf;
+    private final INumberOfComparisonAssessor numberOfComparisonAssessor;
+    private final IComparisonPredicate<ICluster> firstRoundPredicate;
+    private final int consensusSpectrumNoiseFilterIncrement;
+    private final ClusteringEngineOptions options;
+
+    /**
+     * Creates a new ClusteringEngineFactory. See GreedyClusteringEngine for a description
+     * of the parameters.
+     *
+     * @param options The optional settings of all created engines.
+     * @throws Exception Thrown in case no CDF can be loaded for the passed similarity measure.
+     */
+    public ClusteringEngineFactory(int precursorTolerance, float thresholdStart, float thresholdEnd,
+                                   int clusteringRounds, IBinarySpectrumSimilarity similarityMeasure,
+                                   INumberOfComparisonAssessor numberOfComparisonAssessor,
+                                   IComparisonPredicate<ICluster> firstRoundPredicate,
+                                   int consensusSpectrumNoiseFilterIncrement, ClusteringEngineOptions options)
+            throws Exception {
+        // fail early instead of for every bin
+        if (thresholdEnd > thresholdStart) {
+            throw new InvalidParameterException("The starting threshold must be larger than the ending threshold");
+        }
+
+        this.precursorTolerance = precursorTolerance;
+        this.thresholdStart = thresholdStart;
+        this.thresholdEnd = thresholdEnd;
+        this.clusteringRounds = clusteringRounds;
+        this.similarityMeasure = similarityMeasure;
+        this.numberOfComparisonAssessor = numberOfComparisonAssessor;
+        this.firstRoundPredicate = firstRoundPredicate;
+        this.consensusSpectrumNoiseFilterIncrement = consensusSpectrumNoiseFilterIncrement;
+        this.options = options;
+        this.cdf = CumulativeDistributionFunctionFactory.getCumulativeDistributionFunctionForSimilarityMetric(
+                similarityMeasure.getClass());
+    }
+
+    /**
+     * Creates a new GreedyClusteringEngine using the shared components. Every
+     * engine must only be used by one thread at a time.
+     *
+     * @return A new GreedyClusteringEngine
+     */
+    public GreedyClusteringEngine createEngine() {
+        return createEngine(new ComparisonContext());
+    }
+
+    /**
+     * Creates a new GreedyClusteringEngine using the shared components and the
+     * passed ComparisonContext. Thereby, a thread can re-use its scratch buffers
+     * for all engines it runs.
+     *
+     * @param comparisonContext The context of the thread running the engine.
+     * @return A new GreedyClusteringEngine
+     */
+    public GreedyClusteringEngine createEngine(ComparisonContext comparisonContext) {
+        return new GreedyClusteringEngine(precursorTolerance, thresholdStart, thresholdEnd, clusteringRounds,
+                similarityMeasure, cdf, numberOfComparisonAssessor, firstRoundPredicate,
+                consensusSpectrumNoiseFilterIncrement, options, comparisonContext);
+    }
+
+    public CumulativeDistributionFunction getCdf() {
+        return cdf;
+    }
+
+    public INumberOfComparisonAssessor getNumberOfComparisonAssessor() {
+        return numberOfComparisonAssessor;
+    }
+
+    public int getPrecursorTolerance() {
+        return precursorTolerance;
+    }
+
+    public IBinarySpectrumSimilarity getSimilarityMeasure() {
+        return similarityMeasure;
+    }
+
+    public IComparisonPredicate<ICluster> getFirstRoundPredicate() {
+        return firstRoundPredicate;
+    }
+
+    public ClusteringEngineOptions getOptions() {
+        return options;
+    }
+}
@@ -0,0 +1,108 @@
+package org.spectra.cluster.engine;
+
+/**
+ * The optional settings of a GreedyClusteringEngine. None of these settings
+ * are required to reproduce the original spectra-cluster 1.x algorithm,
+ * which is what the DEFAULT options do.
+ *
+ * Options are created using the Builder:
+ *
+ * <pre>
+ * ClusteringEngineOptions options = ClusteringEngineOptions.builder()
+ *         .dirtyWindowsOnly(true)
+ *         .build();
+ * </pre>
+ *
+ * @author jg
+ */
+public final class ClusteringEngineOptions {
+    /**
+     * The options used if none are set.
+     */
+    public static final ClusteringEngineOptions DEFAULT = builder().build();
+
+    private final int scoreCacheSize;
+    private final boolean dirtyWindowsOnly;
+    private final boolean useClusterArena;
+    private final boolean fastMode;
+
+    private ClusteringEngineOptions(Builder builder) {
+        this.scoreCacheSize = builder.scoreCacheSize;
+        this.dirtyWindowsOnly = builder.dirtyWindowsOnly;
+        this.useClusterArena = builder.useClusterArena;
+        this.fastMode = builder.fastMode;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Maximum number of similarity scores that are cached between the clustering rounds. Scores
+     * of cluster pairs that did not change since the previous round are not re-calculated.
+     */
+    public int getScoreCacheSize() {
+        return scoreCacheSize;
+    }
+
+    /**
+     * If set, every round after the first one only processes the precursor windows (of the
+     * size of the precursor tolerance) in which clusters were merged during the previous
+     * round, or in which compared clusters would be merged at the final threshold, as well
+     * as their neighbouring windows. All other clusters are carried over unchanged.
+     */
+    public boolean isDirtyWindowsOnly() {
+        return dirtyWindowsOnly;
+    }
+
+    /**
+     * If set, the comparison data of every bin's clusters is kept in a ClusterArena. The
+     * precursor window is then scanned, and IArenaComparisonPredicates are tested,
+     * without accessing the cluster objects.
+     */
+    public boolean isUseClusterArena() {
+        return useClusterArena;
+    }
+
+    /**
+     * If set, the clusters are merged in a single approximate pass using the final threshold.
+     */
+    public boolean isFastMode() {
+        return fastMode;
+    }
+
+    public static final class Builder {
+        private int scoreCacheSize = GreedyClusteringEngine.DEFAULT_SCORE_CACHE_SIZE;
+        private boolean dirtyWindowsOnly = false;
+        private boolean useClusterArena = false;
+        private boolean fastMode = false;
+
+        private Builder() {
+
+        }
+
+        public Builder scoreCacheSize(int scoreCacheSize) {
+            this.scoreCacheSize = scoreCacheSize;
+            return this;
+        }
+
+        public Builder dirtyWindowsOnly(boolean dirtyWindowsOnly) {
+            this.dirtyWindowsOnly = dirtyWindowsOnly;
+            return this;
+        }
+
+        public Builder useClusterArena(boolean useClusterArena) {
+            this.useClusterArena = useClusterArena;
+            return this;
+        }
+
+        public Builder fastMode(boolean fastMode) {
+            this.fastMode = fastMode;
+            return this;
+        }
+
+        public ClusteringEngineOptions build() {
+            return new ClusteringEngineOptions(this);
+        }
+    }
+}
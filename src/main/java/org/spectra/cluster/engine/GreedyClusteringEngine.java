@@ -2,23 +2,33 @@ package org.spectra.cluster.engine;
 
 import lombok.extern.slf4j.Slf4j;
 import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.spectra.cluster.cdf.CdfThresholdTable;
 import org.spectra.cluster.cdf.CumulativeDistributionFunction;
 import org.spectra.cluster.cdf.CumulativeDistributionFunctionFactory;
 import org.spectra.cluster.cdf.INumberOfComparisonAssessor;
 import org.spectra.cluster.filter.binaryspectrum.FractionTicFilterFunction;
 import org.spectra.cluster.filter.binaryspectrum.IBinarySpectrumFunction;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.ClusterArena;
 import org.spectra.cluster.model.cluster.GreedySpectralCluster;
 import org.spectra.cluster.model.cluster.ICluster;
 import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
 import org.spectra.cluster.model.consensus.IConsensusSpectrumBuilder;
+import org.spectra.cluster.model.spectra.BinaryPeak;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
 import org.spectra.cluster.predicates.ClusterIsKnownComparisonPredicate;
+import org.spectra.cluster.predicates.IArenaComparisonPredicate;
 import org.spectra.cluster.predicates.IComparisonPredicate;
 import org.spectra.cluster.similarity.IBinarySpectrumSimilarity;
+import org.spectra.cluster.util.ComparisonContext;
 
 import java.security.InvalidParameterException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -32,6 +42,29 @@ import java.util.stream.Collectors;
 public class GreedyClusteringEngine implements IClusteringEngine {
     public final static IBinarySpectrumFunction COMPARISON_FILTER = new FractionTicFilterFunction();
 
+    private static final Counter CANDIDATE_PAIRS = MetricsRegistry.counter("engine.candidate_pairs");
+    private static final Counter PREDICATE_REJECTIONS = MetricsRegistry.counter("engine.predicate_rejections");
+    private static final Counter SIMILARITY_EVALUATIONS = MetricsRegistry.counter("engine.similarity_evaluations");
+    private static final Counter MERGES = MetricsRegistry.counter("engine.merges");
+    private static final Counter SCORE_CACHE_HITS = MetricsRegistry.counter("engine.score_cache.hits");
+    private static final Counter SCORE_CACHE_MISSES = MetricsRegistry.counter("engine.score_cache.misses");
+    private static final Counter SKIPPED_CLUSTERS = MetricsRegistry.counter("engine.dirty_windows.skipped_clusters");
+
+    /**
+     * Default maximum number of similarity scores cached between clustering rounds.
+     */
+    public static final int DEFAULT_SCORE_CACHE_SIZE = 50_000;
+
+    /**
+     * Maximum number of candidates that are scored against a cluster in one call of the similarity measure.
+     */
+    public static final int SIMILARITY_BATCH_SIZE = 16;
+
+    /**
+     * Number of highest peaks of every cluster that are indexed in fast mode.
+     */
+    public static final int FAST_MODE_SIGNATURE_PEAKS = 5;
+
     private final int precursorTolerance;
     private final float thresholdStart;
     private final float thresholdEnd;
@@ -41,6 +74,12 @@ public class GreedyClusteringEngine implements IClusteringEngine {
     private final INumberOfComparisonAssessor numberOfComparisonAssessor;
     private final IComparisonPredicate<ICluster> firstRoundPredicate;
     private final int consensusSpectrumNoiseFilterIncrement;
+    private final int scoreCacheSize;
+    private final boolean dirtyWindowsOnly;
+    private final boolean useClusterArena;
+    private final boolean fastMode;
+    /** Scratch buffers of the thread running this engine */
+    private final ComparisonContext comparisonContext;
     // TODO: Add a factory for consensus spectrum builder so we can put them as a parameter
     // private final IConsensusSpectrumBuilder consensusSpectrumBuilder;
 
@@ -64,6 +103,53 @@ public class GreedyClusteringEngine implements IClusteringEngine {
                                   IComparisonPredicate<ICluster> firstRoundPredicate,
                                   int consensusSpectrumNoiseFilterIncrement)
             throws Exception {
+        this(precursorTolerance, thresholdStart, thresholdEnd, clusteringRounds, similarityMeasure,
+                numberOfComparisonAssessor, firstRoundPredicate, consensusSpectrumNoiseFilterIncrement,
+                ClusteringEngineOptions.DEFAULT);
+    }
+
+    /**
+     * Initializes a new GreedyClusteringEngine. This resembles the original implementation in the
+     * spectra-cluster 1.x API.
+     * @param precursorTolerance The precursor tolerance to use.
+     * @param thresholdStart The starting threshold of the clustering process.
+     * @param thresholdEnd The final threshold of the clustering process.
+     * @param clusteringRounds The number of clustering rounds to perform.
+     * @param similarityMeasure The similarity measure to use
+     * @param numberOfComparisonAssessor The numberOfComparisonAssessor to use during the clustering process.
+     * @param firstRoundPredicate Predicate to use in the first clustering round to decide whether spectra should be compare.
+     *                            In subsequent rounds only spectra that were compared previously are taken into consideration.
+     * @param options The optional settings of the engine, see ClusteringEngineOptions.
+     * @throws Exception Thrown in case no CDF can be loaded for the passed similarity measure.
+     */
+    public GreedyClusteringEngine(int precursorTolerance, float thresholdStart, float thresholdEnd,
+                                  int clusteringRounds, IBinarySpectrumSimilarity similarityMeasure,
+                                  INumberOfComparisonAssessor numberOfComparisonAssessor,
+                                  IComparisonPredicate<ICluster> firstRoundPredicate,
+                                  int consensusSpectrumNoiseFilterIncrement, ClusteringEngineOptions options)
+            throws Exception {
+        this(precursorTolerance, thresholdStart, thresholdEnd, clusteringRounds, similarityMeasure,
+                CumulativeDistributionFunctionFactory.getCumulativeDistributionFunctionForSimilarityMetric(similarityMeasure.getClass()),
+                numberOfComparisonAssessor, firstRoundPredicate, consensusSpectrumNoiseFilterIncrement,
+                options, new ComparisonContext());
+    }
+
+    /**
+     * Initializes a new GreedyClusteringEngine using an already loaded CDF. This is used by the
+     * ClusteringEngineFactory to share all immutable components between engines. The
+     * ComparisonContext must not be used by any other thread while the engine is running.
+     *
+     * In fast mode, the clusters are merged in a single pass using the final threshold. Every
+     * cluster is only compared against the one existing cluster that shares most of its
+     * highest peaks. The first round predicate is only tested for this candidate.
+     */
+    GreedyClusteringEngine(int precursorTolerance, float thresholdStart, float thresholdEnd,
+                           int clusteringRounds, IBinarySpectrumSimilarity similarityMeasure,
+                           CumulativeDistributionFunction cdf,
+                           INumberOfComparisonAssessor numberOfComparisonAssessor,
+                           IComparisonPredicate<ICluster> firstRoundPredicate,
+                           int consensusSpectrumNoiseFilterIncrement, ClusteringEngineOptions options,
+                           ComparisonContext comparisonContext) {
         this.precursorTolerance = precursorTolerance;
         this.thresholdStart = 1 - thresholdStart;
         this.thresholdEnd = 1 - thresholdEnd;
@@ -72,20 +158,42 @@ public class GreedyClusteringEngine implements IClusteringEngine {
         this.numberOfComparisonAssessor = numberOfComparisonAssessor;
         this.firstRoundPredicate = firstRoundPredicate;
         this.consensusSpectrumNoiseFilterIncrement = consensusSpectrumNoiseFilterIncrement;
+        this.scoreCacheSize = options.getScoreCacheSize();
+        this.dirtyWindowsOnly = options.isDirtyWindowsOnly();
+        this.useClusterArena = options.isUseClusterArena();
+        this.fastMode = options.isFastMode();
+        this.cdf = cdf;
+        this.comparisonContext = comparisonContext;
 
         // some sanity checks
         if (thresholdEnd > thresholdStart) {
             throw new InvalidParameterException("The starting threshold must be larger than the ending threshold");
         }
-
-        this.cdf = CumulativeDistributionFunctionFactory.getCumulativeDistributionFunctionForSimilarityMetric(similarityMeasure.getClass());
     }
 
     @Override
     public ICluster[] clusterSpectra(ICluster... clusters) {
+        if (fastMode) {
+            log.debug(String.format("Merging clusters in fast mode with threshold %.3f", thresholdEnd));
+
+            int nClustersBefore = clusters.length;
+            clusters = mergeUsingSignatureIndex(clusters, thresholdEnd);
+            MERGES.add(nClustersBefore - clusters.length);
+
+            Arrays.parallelSort(clusters, Comparator.comparingInt(ICluster::getPrecursorMz));
+
+            return clusters;
+        }
+
         // convert all spectra to clusters
         float scoreIncrement = (thresholdEnd - thresholdStart) / (float) (clusteringRounds - 1);
         IComparisonPredicate<ICluster> currentComparisonPredicate;
+        int round = 0;
+        // scores are only valid within this clustering run
+        ClusterPairScoreCache scoreCache = new ClusterPairScoreCache(scoreCacheSize);
+        // precursor windows in which clusters were merged during the last round, null to process all clusters
+        BitSet dirtyWindows = null;
+        long nSkippedClusters = 0;
 
         // cluster the spectra
         for (float currentThreshold = thresholdStart; currentThreshold <= thresholdEnd; currentThreshold += scoreIncrement) {
@@ -95,16 +203,55 @@ public class GreedyClusteringEngine implements IClusteringEngine {
             if (currentThreshold == thresholdStart) {
                 currentComparisonPredicate = firstRoundPredicate;
             } else {
-                currentComparisonPredicate = new ClusterIsKnownComparisonPredicate();
+                currentComparisonPredicate = new ClusterIsKnownComparisonPredicate().metered("cluster_is_known");
             }
 
+            // only process the clusters in or next to a window that changed in the last round
+            ICluster[] unchangedClusters = new ICluster[0];
+
+            if (dirtyWindows != null) {
+                BitSet lastDirtyWindows = dirtyWindows;
+                ICluster[] activeClusters = Arrays.stream(clusters).filter(c -> isInDirtyWindow(c, lastDirtyWindows)).toArray(ICluster[]::new);
+                unchangedClusters = Arrays.stream(clusters).filter(c -> !isInDirtyWindow(c, lastDirtyWindows)).toArray(ICluster[]::new);
+                clusters = activeClusters;
+                nSkippedClusters += unchangedClusters.length;
+            }
+
+            BitSet mergedWindows = (dirtyWindowsOnly) ? new BitSet() : null;
+
             // do the clustering - ie. the merging
-            clusters = mergeSimilarClusters(clusters, currentThreshold, currentComparisonPredicate);
+            int nClustersBefore = clusters.length;
+            clusters = mergeSimilarClusters(clusters, currentThreshold, currentComparisonPredicate, scoreCache,
+                    round > 0, mergedWindows);
+
+            // clusters are never split, therefore every missing cluster was merged
+            if (MetricsRegistry.isEnabled()) {
+                MERGES.add(nClustersBefore - clusters.length);
+                MetricsRegistry.counter("engine.merges.round_" + round).add(nClustersBefore - clusters.length);
+            }
+            round++;
 
             // TODO: find a better solution than sorting between clustering rounds
             Arrays.parallelSort(clusters, Comparator.comparingInt(ICluster::getPrecursorMz));
+
+            // the unchanged clusters are still sorted
+            if (unchangedClusters.length > 0) {
+                clusters = mergeSorted(clusters, unchangedClusters);
+            }
+
+            dirtyWindows = mergedWindows;
         }
 
+        if (dirtyWindowsOnly) {
+            SKIPPED_CLUSTERS.add(nSkippedClusters);
+            log.debug(String.format("Skipped %d clusters in unchanged precursor windows", nSkippedClusters));
+        }
+
+        SCORE_CACHE_HITS.add(scoreCache.getHits());
+        SCORE_CACHE_MISSES.add(scoreCache.getMisses());
+        log.debug(String.format("Similarity score cache hit rate: %.1f%% (%d hits)",
+                scoreCache.getHitRate() * 100, scoreCache.getHits()));
+
         return clusters;
     }
 
@@ -120,9 +267,16 @@ public class GreedyClusteringEngine implements IClusteringEngine {
      * @param clustersToMerge The clusters to merge.
      * @param similarityThreshold The similarity threshold to use.
      * @param predicate The predicate to use to decide which clusters to compare
+     * @param scoreCache Cache of the similarity scores of unchanged cluster pairs.
+     * @param useCachedScores If set, cached scores are used. In the first round, every pair is only compared once.
+     * @param mergedWindows If set, the precursor windows in which clusters were merged are recorded. This
+     *                      includes the windows of compared clusters that were not merged at this
+     *                      threshold but would be merged at the final threshold.
      * @return An array of clusters representing the merged result. Warning: The original objects are changed!
      */
-    private ICluster[] mergeSimilarClusters(ICluster[] clustersToMerge, double similarityThreshold, IComparisonPredicate<ICluster> predicate) {
+    private ICluster[] mergeSimilarClusters(ICluster[] clustersToMerge, double similarityThreshold,
+                                            IComparisonPredicate<ICluster> predicate, ClusterPairScoreCache scoreCache,
+                                            boolean useCachedScores, BitSet mergedWindows) {
         // clusters can never be split
         ICluster[] mergedClusters = new GreedySpectralCluster[clustersToMerge.length];
         int mergedClusterSize = 0;
@@ -130,9 +284,24 @@ public class GreedyClusteringEngine implements IClusteringEngine {
         int mergedClusterPrecursorOffset = 0;
         int lastMz = 0;
         int maxSortTolerance = Math.round((float) precursorTolerance / 5);
+        // counted locally and only reported at the end of the round
+        long nCandidatePairs = 0;
+        long nPredicateRejections = 0;
+        CdfThresholdTable thresholdTable = cdf.getThresholdTable(similarityThreshold);
+        // pairs passing the final threshold may still be merged in a later round
+        CdfThresholdTable finalThresholdTable = (mergedWindows != null) ? cdf.getThresholdTable(thresholdEnd) : null;
+        // the arena holds the merged clusters followed by the cluster currently being merged
+        ClusterArena arena = (useClusterArena) ? comparisonContext.getClusterArena(clustersToMerge.length) : null;
+        // the predicate of the later rounds depends on the comparisons saved within this loop. Therefore,
+        // candidates can only be scored ahead in the first round.
+        CandidateBlock block = new CandidateBlock((useCachedScores) ? 1 : SIMILARITY_BATCH_SIZE);
 
         // merge similar clusters
         for (ICluster clusterToMerge : clustersToMerge) {
+            if (arena != null) {
+                arena.put(mergedClusterSize, clusterToMerge);
+            }
+
             if (mergedClusterSize < 1) {
                 lastMz = clusterToMerge.getPrecursorMz();
                 mergedClusters[mergedClusterSize++] = clusterToMerge;
@@ -147,37 +316,93 @@ public class GreedyClusteringEngine implements IClusteringEngine {
             lastMz = clusterToMerge.getPrecursorMz();
 
             boolean isClusterMerged = false;
+            int i = mergedClusterPrecursorOffset;
 
-            // compare against all existing cluster
-            for (int i = mergedClusterPrecursorOffset; i < mergedClusterSize; i++) {
-                ICluster existingCluster = mergedClusters[i];
+            // compare against all existing cluster, block by block
+            while (i < mergedClusterSize && !isClusterMerged) {
+                block.clear();
 
-                // check about the precursor tolerance
-                if (Math.abs(existingCluster.getPrecursorMz() - clusterToMerge.getPrecursorMz()) > precursorTolerance) {
-                    mergedClusterPrecursorOffset = i + 1;
-                    continue;
-                }
+                // collect the next candidates that pass the predicate
+                for (; i < mergedClusterSize && !block.isFull(); i++) {
+                    // check about the precursor tolerance
+                    int existingPrecursorMz = (arena != null) ? arena.getPrecursorMz(i) : mergedClusters[i].getPrecursorMz();
 
-                // apply the predicate
-                if (!predicate.test(existingCluster, clusterToMerge)) {
-                    continue;
-                }
+                    if (Math.abs(existingPrecursorMz - lastMz) > precursorTolerance) {
+                        mergedClusterPrecursorOffset = i + 1;
+                        continue;
+                    }
 
-                // calculate the score
-                // TODO: in the previous version we stored all filtered consensus spectra of existing clusters
-                double similarity = similarityMeasure.correlation(clusterToMerge.getConsensusSpectrum(), existingCluster.getConsensusSpectrum());
+                    nCandidatePairs++;
 
-                // if it is a save match, merge the cluster
-                if (cdf.isSaveMatch(similarity, numberOfComparisonAssessor.getNumberOfComparisons(clusterToMerge.getPrecursorMz(), mergedClusterSize - mergedClusterPrecursorOffset + 1), similarityThreshold)) {
-                    // merge the cluster
-                    mergedClusters[i].mergeCluster(clusterToMerge);
-                    isClusterMerged = true;
-                    break;
+                    // apply the predicate
+                    boolean isCandidate = (arena != null) ?
+                            IArenaComparisonPredicate.test(predicate, arena, i, mergedClusterSize) :
+                            predicate.test(mergedClusters[i], clusterToMerge, comparisonContext);
+
+                    if (!isCandidate) {
+                        nPredicateRejections++;
+                        continue;
+                    }
+
+                    // use the cached score unless one of the clusters changed since the last comparison
+                    // TODO: in the previous version we stored all filtered consensus spectra of existing clusters
+                    double cachedSimilarity = (useCachedScores) ?
+                            scoreCache.get(mergedClusters[i], clusterToMerge) : ClusterPairScoreCache.NO_SCORE;
+
+                    block.add(i, mergedClusterPrecursorOffset, nCandidatePairs, nPredicateRejections,
+                            cachedSimilarity, mergedClusters[i].getConsensusSpectrum());
                 }
 
-                // save the comparison
-                existingCluster.saveComparisonResult(clusterToMerge.getId(), (float) similarity);
-                clusterToMerge.saveComparisonResult(existingCluster.getId(), (float) similarity);
+                block.score(similarityMeasure, clusterToMerge.getConsensusSpectrum(), comparisonContext);
+
+                // evaluate the candidates in the original order
+                for (int b = 0; b < block.size; b++) {
+                    ICluster existingCluster = mergedClusters[block.indices[b]];
+                    double similarity = block.scores[b];
+
+                    if (!block.isCached[b]) {
+                        scoreCache.put(existingCluster, clusterToMerge, similarity);
+                    }
+
+                    int nComparisons = numberOfComparisonAssessor.getNumberOfComparisons(clusterToMerge.getPrecursorMz(), mergedClusterSize - block.precursorOffsets[b] + 1);
+
+                    // if it is a save match, merge the cluster
+                    if (thresholdTable.isSaveMatch(similarity, nComparisons)) {
+                        // the following candidates of the block are ignored
+                        mergedClusterPrecursorOffset = block.precursorOffsets[b];
+                        nCandidatePairs = block.candidatePairs[b];
+                        nPredicateRejections = block.predicateRejections[b];
+
+                        // merge the cluster
+                        if (mergedWindows != null) {
+                            mergedWindows.set(getWindow(existingCluster));
+                            mergedWindows.set(getWindow(clusterToMerge));
+                        }
+
+                        existingCluster.mergeCluster(clusterToMerge);
+                        isClusterMerged = true;
+
+                        if (arena != null) {
+                            arena.put(block.indices[b], existingCluster);
+                        }
+
+                        // the merged cluster's precursor m/z may have moved to another window
+                        if (mergedWindows != null) {
+                            mergedWindows.set(getWindow(existingCluster));
+                        }
+                        break;
+                    }
+
+                    // the windows must be processed again until the pair is merged
+                    if (finalThresholdTable != null && finalThresholdTable.isSaveMatch(similarity, nComparisons)) {
+                        mergedWindows.set(getWindow(existingCluster));
+                        mergedWindows.set(getWindow(clusterToMerge));
+                    }
+
+                    // save the comparison
+                    existingCluster.saveComparisonResult(clusterToMerge.getId(), (float) similarity);
+                    clusterToMerge.saveComparisonResult(existingCluster.getId(), (float) similarity);
+                }
             }
 
             // if the cluster hasn't been merged, store it
@@ -186,10 +411,328 @@ public class GreedyClusteringEngine implements IClusteringEngine {
             }
         }
 
+        CANDIDATE_PAIRS.add(nCandidatePairs);
+        PREDICATE_REJECTIONS.add(nPredicateRejections);
+        SIMILARITY_EVALUATIONS.add(nCandidatePairs - nPredicateRejections);
+
+        // the arena is kept by the context, it must not keep the clusters alive
+        if (arena != null) {
+            arena.release();
+        }
+
         // now that the clustering round is done, shrink the array
         return(Arrays.copyOf(mergedClusters, mergedClusterSize));
     }
 
+    /**
+     * Merges the clusters in a single pass (fast mode). Instead of testing every existing cluster
+     * within the precursor tolerance, the FAST_MODE_SIGNATURE_PEAKS highest peaks of all existing
+     * clusters are indexed. Every cluster is then only compared against the existing cluster that
+     * shares most of these peaks.
+     * @param clustersToMerge The clusters to merge, sorted by precursor m/z.
+     * @param similarityThreshold The similarity threshold to use.
+     * @return An array of clusters representing the merged result. Warning: The original objects are changed!
+     */
+    private ICluster[] mergeUsingSignatureIndex(ICluster[] clustersToMerge, double similarityThreshold) {
+        ICluster[] mergedClusters = new GreedySpectralCluster[clustersToMerge.length];
+        // the m/z values each merged cluster is indexed with
+        int[][] indexedMz = new int[clustersToMerge.length][];
+        // m/z value -> indexes of the merged clusters having it as one of their highest peaks
+        Map<Integer, IndexList> signatureIndex = new HashMap<>();
+        int[] sharedPeaks = new int[clustersToMerge.length];
+        IndexList candidates = new IndexList();
+        CdfThresholdTable thresholdTable = cdf.getThresholdTable(similarityThreshold);
+        int mergedClusterSize = 0;
+        int mergedClusterPrecursorOffset = 0;
+        long nCandidatePairs = 0;
+        long nPredicateRejections = 0;
+
+        for (ICluster clusterToMerge : clustersToMerge) {
+            int precursorMz = clusterToMerge.getPrecursorMz();
+            int[] signature = getSignature(clusterToMerge);
+
+            // clusters below the precursor tolerance are never compared again
+            while (mergedClusterPrecursorOffset < mergedClusterSize &&
+                    precursorMz - mergedClusters[mergedClusterPrecursorOffset].getPrecursorMz() > precursorTolerance) {
+                mergedClusterPrecursorOffset++;
+            }
+
+            // count the shared signature peaks of all clusters within the precursor tolerance
+            candidates.clear();
+
+            for (int mz : signature) {
+                IndexList postings = signatureIndex.get(mz);
+
+                if (postings == null) {
+                    continue;
+                }
+
+                postings.removeBelow(mergedClusterPrecursorOffset);
+
+                for (int p = 0; p < postings.size; p++) {
+                    int index = postings.values[p];
+
+                    if (Math.abs(mergedClusters[index].getPrecursorMz() - precursorMz) > precursorTolerance) {
+                        continue;
+                    }
+
+                    if (sharedPeaks[index]++ == 0) {
+                        candidates.add(index);
+                    }
+                }
+            }
+
+            // only the candidate sharing most peaks is compared, ties are resolved by the precursor m/z
+            int bestCandidate = -1;
+
+            for (int c = 0; c < candidates.size; c++) {
+                int index = candidates.values[c];
+
+                if (bestCandidate < 0 || sharedPeaks[index] > sharedPeaks[bestCandidate] ||
+                        (sharedPeaks[index] == sharedPeaks[bestCandidate] &&
+                                Math.abs(mergedClusters[index].getPrecursorMz() - precursorMz) <
+                                Math.abs(mergedClusters[bestCandidate].getPrecursorMz() - precursorMz))) {
+                    bestCandidate = index;
+                }
+            }
+
+            for (int c = 0; c < candidates.size; c++) {
+                sharedPeaks[candidates.values[c]] = 0;
+            }
+
+            boolean isClusterMerged = false;
+
+            if (bestCandidate >= 0) {
+                ICluster existingCluster = mergedClusters[bestCandidate];
+                nCandidatePairs++;
+
+                if (!firstRoundPredicate.test(existingCluster, clusterToMerge, comparisonContext)) {
+                    nPredicateRejections++;
+                } else {
+                    double similarity = similarityMeasure.correlation(clusterToMerge.getConsensusSpectrum(),
+                            existingCluster.getConsensusSpectrum(), comparisonContext);
+
+                    if (thresholdTable.isSaveMatch(similarity, numberOfComparisonAssessor.getNumberOfComparisons(precursorMz, mergedClusterSize - mergedClusterPrecursorOffset + 1))) {
+                        existingCluster.mergeCluster(clusterToMerge);
+                        isClusterMerged = true;
+
+                        // index the new highest peaks of the merged cluster
+                        for (int mz : getSignature(existingCluster)) {
+                            if (!contains(indexedMz[bestCandidate], mz)) {
+                                indexedMz[bestCandidate] = Arrays.copyOf(indexedMz[bestCandidate], indexedMz[bestCandidate].length + 1);
+                                indexedMz[bestCandidate][indexedMz[bestCandidate].length - 1] = mz;
+                                signatureIndex.computeIfAbsent(mz, k -> new IndexList()).add(bestCandidate);
+                            }
+                        }
+                    } else {
+                        existingCluster.saveComparisonResult(clusterToMerge.getId(), (float) similarity);
+                        clusterToMerge.saveComparisonResult(existingCluster.getId(), (float) similarity);
+                    }
+                }
+            }
+
+            if (!isClusterMerged) {
+                indexedMz[mergedClusterSize] = signature;
+
+                for (int mz : signature) {
+                    signatureIndex.computeIfAbsent(mz, k -> new IndexList()).add(mergedClusterSize);
+                }
+
+                mergedClusters[mergedClusterSize++] = clusterToMerge;
+            }
+        }
+
+        CANDIDATE_PAIRS.add(nCandidatePairs);
+        PREDICATE_REJECTIONS.add(nPredicateRejections);
+        SIMILARITY_EVALUATIONS.add(nCandidatePairs - nPredicateRejections);
+
+        return Arrays.copyOf(mergedClusters, mergedClusterSize);
+    }
+
+    /**
+     * Returns the (distinct) m/z values of the cluster's FAST_MODE_SIGNATURE_PEAKS highest peaks.
+     */
+    private static int[] getSignature(ICluster cluster) {
+        int[] signature = new int[FAST_MODE_SIGNATURE_PEAKS];
+        int nPeaks = 0;
+
+        for (BinaryPeak peak : cluster.getConsensusSpectrum().getPeaks()) {
+            if (peak.getRank() > 0 && peak.getRank() <= FAST_MODE_SIGNATURE_PEAKS && !contains(signature, nPeaks, peak.getMz())) {
+                signature[nPeaks++] = peak.getMz();
+            }
+            if (nPeaks >= FAST_MODE_SIGNATURE_PEAKS) {
+                break;
+            }
+        }
+
+        return (nPeaks == signature.length) ? signature : Arrays.copyOf(signature, nPeaks);
+    }
+
+    private static boolean contains(int[] values, int value) {
+        return contains(values, values.length, value);
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A growable list of cluster indexes.
+     */
+    private static final class IndexList {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        /**
+         * Removes all indexes below the passed one while retaining the order.
+         */
+        private void removeBelow(int minIndex) {
+            int retained = 0;
+
+            for (int i = 0; i < size; i++) {
+                if (values[i] >= minIndex) {
+                    values[retained++] = values[i];
+                }
+            }
+
+            size = retained;
+        }
+    }
+
+    /**
+     * Returns the precursor window the cluster belongs to. Windows have the size of the
+     * precursor tolerance so that clusters within the tolerance are always in the same
+     * or neighbouring windows.
+     */
+    private int getWindow(ICluster cluster) {
+        return Math.max(0, cluster.getPrecursorMz()) / Math.max(1, precursorTolerance);
+    }
+
+    private boolean isInDirtyWindow(ICluster cluster, BitSet dirtyWindows) {
+        int window = getWindow(cluster);
+
+        return dirtyWindows.get(window) || dirtyWindows.get(window + 1) || (window > 0 && dirtyWindows.get(window - 1));
+    }
+
+    /**
+     * The candidates of one cluster that are scored together. Next to the
+     * candidate itself, the state of the merging loop at the time the candidate
+     * was found is stored. If the cluster is merged with a candidate, this state
+     * is restored so that the result is identical to scoring the candidates one
+     * by one.
+     */
+    private static final class CandidateBlock {
+        private final int[] indices;
+        private final int[] precursorOffsets;
+        private final long[] candidatePairs;
+        private final long[] predicateRejections;
+        private final boolean[] isCached;
+        private final double[] scores;
+        private final IBinarySpectrum[] spectra;
+        private final IBinarySpectrum[] spectraToScore;
+        private final double[] computedScores;
+        private int size;
+
+        private CandidateBlock(int capacity) {
+            indices = new int[capacity];
+            precursorOffsets = new int[capacity];
+            candidatePairs = new long[capacity];
+            predicateRejections = new long[capacity];
+            isCached = new boolean[capacity];
+            scores = new double[capacity];
+            spectra = new IBinarySpectrum[capacity];
+            spectraToScore = new IBinarySpectrum[capacity];
+            computedScores = new double[capacity];
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private boolean isFull() {
+            return size == indices.length;
+        }
+
+        private void add(int index, int precursorOffset, long nCandidatePairs, long nPredicateRejections,
+                         double cachedScore, IBinarySpectrum spectrum) {
+            indices[size] = index;
+            precursorOffsets[size] = precursorOffset;
+            candidatePairs[size] = nCandidatePairs;
+            predicateRejections[size] = nPredicateRejections;
+            // NO_SCORE is NaN
+            isCached[size] = !Double.isNaN(cachedScore);
+            scores[size] = isCached[size] ? cachedScore : 0;
+            spectra[size] = spectrum;
+            size++;
+        }
+
+        /**
+         * Calculates the scores of all candidates without a cached score.
+         */
+        private void score(IBinarySpectrumSimilarity similarityMeasure, IBinarySpectrum query,
+                           ComparisonContext context) {
+            int nToScore = 0;
+
+            for (int b = 0; b < size; b++) {
+                if (!isCached[b]) {
+                    spectraToScore[nToScore++] = spectra[b];
+                }
+            }
+
+            if (nToScore == 1) {
+                computedScores[0] = similarityMeasure.correlation(query, spectraToScore[0], context);
+            } else if (nToScore > 1) {
+                similarityMeasure.correlation(query, spectraToScore, 0, nToScore, computedScores, context);
+            }
+
+            for (int b = 0, scored = 0; b < size; b++) {
+                if (!isCached[b]) {
+                    scores[b] = computedScores[scored++];
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges two arrays of clusters that are both sorted by precursor m/z.
+     */
+    private static ICluster[] mergeSorted(ICluster[] clusters1, ICluster[] clusters2) {
+        ICluster[] merged = new ICluster[clusters1.length + clusters2.length];
+        int i = 0, j = 0, k = 0;
+
+        while (i < clusters1.length && j < clusters2.length) {
+            merged[k++] = (clusters1[i].getPrecursorMz() <= clusters2[j].getPrecursorMz()) ? clusters1[i++] : clusters2[j++];
+        }
+
+        while (i < clusters1.length) {
+            merged[k++] = clusters1[i++];
+        }
+
+        while (j < clusters2.length) {
+            merged[k++] = clusters2[j++];
+        }
+
+        return merged;
+    }
+
     /**
      * Converts the spectra objects into an array of cluster objects each only
      * containing a single spectrum.
@@ -3,9 +3,9 @@ package org.spectra.cluster.filter.binaryspectrum;
 import org.spectra.cluster.model.spectra.BinaryPeak;
 import org.spectra.cluster.model.spectra.BinarySpectrum;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.util.ComparisonContext;
 
 import java.util.Arrays;
-import java.util.Comparator;
 
 /**
  * This filter function retains the amount of peaks required to
@@ -13,6 +13,11 @@ import java.util.Comparator;
  * within the spectrum.
  */
 public class FractionTicFilterFunction implements IBinarySpectrumFunction {
+    /**
+     * Kept at the value of the first released version since the function is serialized as part of every cluster.
+     */
+    private static final long serialVersionUID = -5321754288298143569L;
+
     public static final float DEFAULT_FRACTION_TIC = 0.5f;
     public static final int DEFAULT_MIN_PEAKS = 20;
 
@@ -39,24 +44,37 @@ public class FractionTicFilterFunction implements IBinarySpectrumFunction {
 
     @Override
     public IBinarySpectrum apply(IBinarySpectrum binarySpectrum) {
+        return apply(binarySpectrum, new ComparisonContext());
+    }
+
+    @Override
+    public IBinarySpectrum apply(IBinarySpectrum binarySpectrum, ComparisonContext context) {
         // make sure there are enough peaks to filter
         if (binarySpectrum.getPeaks().length <= minPeaksToKeep) {
             return binarySpectrum;
         }
 
-        // sort according to intensity
-        BinaryPeak[] peaklist = binarySpectrum.getCopyPeaks();
-        Arrays.sort(peaklist, Comparator.comparingInt(BinaryPeak::getIntensity).reversed());
+        // sort according to intensity (descending) as packed longs. Peaks with the
+        // same intensity remain in their original order.
+        BinaryPeak[] peaklist = binarySpectrum.getPeaks();
+        long[] sortKeys = context.getPeakSortKeys(peaklist.length);
+
+        for (int i = 0; i < peaklist.length; i++) {
+            sortKeys[i] = ((long) -peaklist[i].getIntensity() << 32) | i;
+        }
+
+        Arrays.sort(sortKeys, 0, peaklist.length);
 
         // get the total intensity
         double totalIntensity = 0;
         for (BinaryPeak binaryPeak : peaklist) totalIntensity += binaryPeak.getIntensity();
 
-        BinaryPeak[] filteredPeaks = new BinaryPeak[peaklist.length];
+        BinaryPeak[] filteredPeaks = context.getPeakBuffer(peaklist.length);
         int filteredPeaksSize = 0;
         int explainedTic = 0;
 
-        for (BinaryPeak peak : peaklist) {
+        for (int i = 0; i < peaklist.length; i++) {
+            BinaryPeak peak = peaklist[(int) sortKeys[i]];
             explainedTic += peak.getIntensity();
             // copy the peak since it now has a new rank
             BinaryPeak filteredPeak = peak.copy();
@@ -72,12 +90,22 @@ public class FractionTicFilterFunction implements IBinarySpectrumFunction {
             }
         }
 
-        // truncate the array
-        filteredPeaks = Arrays.copyOf(filteredPeaks, filteredPeaksSize);
+        // re-sort according to m/z, again keeping the order of equal values
+        for (int i = 0; i < filteredPeaksSize; i++) {
+            sortKeys[i] = ((long) filteredPeaks[i].getMz() << 32) | i;
+        }
+
+        Arrays.sort(sortKeys, 0, filteredPeaksSize);
+
+        BinaryPeak[] sortedPeaks = new BinaryPeak[filteredPeaksSize];
+
+        for (int i = 0; i < filteredPeaksSize; i++) {
+            sortedPeaks[i] = filteredPeaks[(int) sortKeys[i]];
+        }
 
-        // re-sort according to m/z
-        Arrays.sort(filteredPeaks, Comparator.comparingInt(BinaryPeak::getMz));
+        // do not keep references to the peaks in the context
+        Arrays.fill(filteredPeaks, 0, filteredPeaksSize, null);
 
-        return new BinarySpectrum(binarySpectrum, filteredPeaks, false);
+        return new BinarySpectrum(binarySpectrum, sortedPeaks, false);
     }
 }
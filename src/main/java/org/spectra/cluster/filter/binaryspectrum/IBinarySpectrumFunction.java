@@ -1,6 +1,7 @@
 package org.spectra.cluster.filter.binaryspectrum;
 
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.util.ComparisonContext;
 
 import java.io.Serializable;
 import java.util.Objects;
@@ -31,6 +32,17 @@ public interface IBinarySpectrumFunction extends Serializable, Cloneable, Functi
     @Override
     IBinarySpectrum apply(IBinarySpectrum binarySpectrum);
 
+    /**
+     * Filter an specific {@link IBinarySpectrum} using the scratch buffers of the passed context.
+     * The default implementation ignores the context.
+     * @param binarySpectrum BinarySpectrum
+     * @param context The context of the calling thread.
+     * @return A filtered BinarySpectrum
+     */
+    default IBinarySpectrum apply(IBinarySpectrum binarySpectrum, ComparisonContext context) {
+        return apply(binarySpectrum);
+    }
+
     /**
      * Compose function takes a function to be applied before applying the following rule.
      * @param before Before function.
@@ -1,14 +1,9 @@
 package org.spectra.cluster.filter.rawpeaks;
 
-import edu.emory.mathcs.backport.java.util.Collections;
 import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.spectra.cluster.model.spectra.RawSpectrum;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
-
-public class DeisotoperFunction implements IRawSpectrumFunction {
+public class DeisotoperFunction implements IRawSpectrumFunction, IRawPeakArrayFunction {
     private static final double ISOTOPE_SPACING = 1.003355;
     private final double deisotopeThreshold;
 
@@ -22,53 +17,61 @@ public class DeisotoperFunction implements IRawSpectrumFunction {
 
     @Override
     public Spectrum apply(Spectrum spectrum) {
-        // use a sorted peaklist to work with
-        List<Map.Entry<Double, Double>> sortedPeaks = new ArrayList<>(spectrum.getPeakList().entrySet());
-        Collections.sort(sortedPeaks, Comparator.comparingDouble(value -> ((Map.Entry<Double, Double>) value).getKey()));
-
-        List<Double> peaksToRemove = new ArrayList<>(sortedPeaks.size() / 2);
+        return filter(RawSpectrum.fromSpectrum(spectrum)).writeToSource();
+    }
 
-        for (int peakIndex = 0; peakIndex < sortedPeaks.size(); peakIndex++) {
-            if (peakIndex == 0) {
-                continue;
-            }
+    @Override
+    public RawSpectrum filter(RawSpectrum spectrum) {
+        int nPeaks = spectrum.size();
+        // isotopic peaks are only removed after all peaks were tested
+        boolean[] isIsotope = new boolean[nPeaks];
 
+        for (int peakIndex = 1; peakIndex < nPeaks; peakIndex++) {
             // deisotope_threshold in ppm
-            double location = sortedPeaks.get(peakIndex).getKey();
-            double intensity = sortedPeaks.get(peakIndex).getValue();
+            double location = spectrum.getMz(peakIndex);
+            double intensity = spectrum.getIntensity(peakIndex);
 
             for (int fragmentCharge = 1; fragmentCharge < spectrum.getPrecursorCharge(); fragmentCharge++) {
                 double isotopeLocation = location - (ISOTOPE_SPACING / fragmentCharge);
                 double ppmDiffernce = (location * deisotopeThreshold) / 1e6;
 
-                double isotopicIntensity = maxPeakInRange(sortedPeaks, isotopeLocation - ppmDiffernce, isotopeLocation + ppmDiffernce, peakIndex);
+                double isotopicIntensity = maxPeakInRange(spectrum, isotopeLocation - ppmDiffernce, isotopeLocation + ppmDiffernce, peakIndex);
 
                 if (intensity < isotopicIntensity) {
                     // remove this peak
-                    peaksToRemove.add(sortedPeaks.get(peakIndex).getKey());
+                    isIsotope[peakIndex] = true;
+                    break;
                 }
             }
         }
 
-        peaksToRemove.forEach(mz -> spectrum.getPeakList().remove(mz));
+        int nRetained = 0;
+
+        for (int i = 0; i < nPeaks; i++) {
+            if (!isIsotope[i]) {
+                spectrum.setPeak(nRetained++, spectrum.getMz(i), spectrum.getIntensity(i));
+            }
+        }
+
+        spectrum.truncate(nRetained);
 
         return spectrum;
     }
 
     /**
      * Returns the intensity of the highest peak within the defined m/z region.
-     * @param peaks The list of m/z sorted peaks.
+     * @param spectrum The spectrum with the m/z sorted peaks.
      * @param minMz The minimum m/z the retrieved peak must have.
      * @param maxMz The maximum m/z the retrieved peak must have.
      * @param centerPeakIndex The index of the center peak within that region.
      * @return The found highest intensity within the region.
      */
-    private double maxPeakInRange(List<Map.Entry<Double, Double>> peaks, double minMz, double maxMz, int centerPeakIndex) {
+    private double maxPeakInRange(RawSpectrum spectrum, double minMz, double maxMz, int centerPeakIndex) {
         double maxIntensity = 0;
 
         // only look "below" the center peak
         for (int i = centerPeakIndex; i >= 0; i--) {
-            double currentMz = peaks.get(i).getKey();
+            double currentMz = spectrum.getMz(i);
 
             if (currentMz > maxMz) {
                 continue;
@@ -77,7 +80,7 @@ public class DeisotoperFunction implements IRawSpectrumFunction {
                 break;
             }
 
-            double intensity = peaks.get(i).getValue();
+            double intensity = spectrum.getIntensity(i);
 
             if (intensity > maxIntensity) {
                 maxIntensity = intensity;
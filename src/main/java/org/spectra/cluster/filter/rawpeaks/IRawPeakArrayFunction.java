@@ -0,0 +1,36 @@
+package org.spectra.cluster.filter.rawpeaks;
+
+import org.spectra.cluster.model.spectra.RawSpectrum;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Filter working on the primitive {@link RawSpectrum} representation. All filters
+ * in this package implement this interface in addition to their Map based interface.
+ * Map based filters can be used through the {@link RawPeakArrayAdapter}.
+ *
+ * <b>Warning:</b> Implementations may change the passed RawSpectrum.
+ *
+ * @author jg
+ */
+@FunctionalInterface
+public interface IRawPeakArrayFunction extends Serializable {
+    /**
+     * Filters the passed spectrum.
+     *
+     * @param spectrum The spectrum to filter.
+     * @return The filtered spectrum. This may be the (changed) passed object.
+     */
+    RawSpectrum filter(RawSpectrum spectrum);
+
+    /**
+     * Joins two IRawPeakArrayFunctions.
+     * @param after The function to call after this one.
+     * @return The combined function.
+     */
+    default IRawPeakArrayFunction arrayAndThen(IRawPeakArrayFunction after) {
+        Objects.requireNonNull(after);
+        return (RawSpectrum t) -> after.filter(filter(t));
+    }
+}
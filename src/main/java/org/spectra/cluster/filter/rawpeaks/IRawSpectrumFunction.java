@@ -10,11 +10,13 @@ public interface IRawSpectrumFunction extends Serializable, Cloneable, Function<
     /**
      * Joins to IRawSpectrumFunctions requiring that all
      * return a Spectrum object.
+     * The returned function can also be applied to a
+     * {@link org.spectra.cluster.model.spectra.RawSpectrum}.
      * @param after The function to call after this one.
      * @return
      */
     default IRawSpectrumFunction specAndThen(IRawSpectrumFunction after) {
         Objects.requireNonNull(after);
-        return (Spectrum t) -> after.apply(apply(t));
+        return new RawSpectrumFunctionChain(this, after);
     }
 }
@@ -1,14 +1,19 @@
 package org.spectra.cluster.filter.rawpeaks;
 
-import java.util.Comparator;
-import java.util.HashMap;
+import org.spectra.cluster.model.spectra.RawSpectrum;
+
 import java.util.Map;
 
 /**
  * Function that only retains the N highest peaks of the
  * passed RAW peaklist.
+ *
+ * The N highest peaks are found through partial selection
+ * (quickselect) instead of sorting all peaks. Peaks with the
+ * same intensity as the N-th highest peak are retained in
+ * m/z order.
  */
-public class KeepNHighestRawPeaks implements IRawPeakFunction {
+public class KeepNHighestRawPeaks implements IRawPeakFunction, IRawPeakArrayFunction {
     private final int maxPeaks;
     public static final int DEFAULT_MAX_PEAKS = 70;
 
@@ -31,13 +36,116 @@ public class KeepNHighestRawPeaks implements IRawPeakFunction {
             return peaks;
         }
 
-        Map<Double, Double> filteredPeaks = new HashMap<>(maxPeaks);
+        return filter(RawSpectrum.fromPeaks(null, 0, 0, peaks)).toPeakMap();
+    }
+
+    @Override
+    public RawSpectrum filter(RawSpectrum spectrum) {
+        if (spectrum.size() <= maxPeaks) {
+            return spectrum;
+        }
+
+        int[] retainedIndexes = getHighestPeakIndexes(spectrum);
+
+        // the indexes are sorted, so peaks are never overwritten before they are moved
+        for (int i = 0; i < retainedIndexes.length; i++) {
+            int index = retainedIndexes[i];
+            spectrum.setPeak(i, spectrum.getMz(index), spectrum.getIntensity(index));
+        }
 
-        peaks.entrySet().stream()
-                .sorted(Comparator.comparingDouble(e -> ((Map.Entry<Double, Double>) e).getValue()).reversed())
-                .limit(maxPeaks)
-                .forEach(peak -> filteredPeaks.put(peak.getKey(), peak.getValue()));
+        spectrum.truncate(retainedIndexes.length);
+
+        return spectrum;
+    }
+
+    /**
+     * Returns the indexes of the N highest peaks without changing the spectrum.
+     *
+     * @param spectrum The spectrum to get the highest peaks from.
+     * @return The indexes of the highest peaks in m/z order.
+     */
+    public int[] getHighestPeakIndexes(RawSpectrum spectrum) {
+        int nPeaks = spectrum.size();
+
+        if (nPeaks <= maxPeaks) {
+            int[] allIndexes = new int[nPeaks];
+
+            for (int i = 0; i < nPeaks; i++) {
+                allIndexes[i] = i;
+            }
+
+            return allIndexes;
+        }
+
+        if (maxPeaks < 1) {
+            return new int[0];
+        }
+
+        double minIntensity = selectNthHighest(spectrum.getIntensityValues(), maxPeaks);
+
+        // number of peaks with the minimum intensity that can be retained
+        int nAtMinimum = maxPeaks;
+
+        for (int i = 0; i < nPeaks; i++) {
+            if (spectrum.getIntensity(i) > minIntensity) {
+                nAtMinimum--;
+            }
+        }
+
+        int[] retainedIndexes = new int[maxPeaks];
+        int nRetained = 0;
+
+        for (int i = 0; i < nPeaks; i++) {
+            double intensity = spectrum.getIntensity(i);
+
+            if (intensity > minIntensity || (intensity == minIntensity && nAtMinimum-- > 0)) {
+                retainedIndexes[nRetained++] = i;
+            }
+        }
+
+        return retainedIndexes;
+    }
+
+    /**
+     * Returns the n-th highest value using quickselect.
+     *
+     * <b>Warning:</b> The passed array is reordered.
+     *
+     * @param values The values to search. The array must contain at least n values.
+     * @param n The (1-based) rank of the value to return.
+     * @return The n-th highest value.
+     */
+    static double selectNthHighest(double[] values, int n) {
+        int from = 0;
+        int to = values.length - 1;
+        int target = n - 1;
+
+        while (from < to) {
+            double pivot = values[(from + to) >>> 1];
+            int left = from;
+            int right = to;
+
+            // sort descending
+            while (left <= right) {
+                while (values[left] > pivot) left++;
+                while (values[right] < pivot) right--;
+
+                if (left <= right) {
+                    double tmp = values[left];
+                    values[left++] = values[right];
+                    values[right--] = tmp;
+                }
+            }
+
+            if (target <= right) {
+                to = right;
+            } else if (target >= left) {
+                from = left;
+            } else {
+                return values[target];
+            }
+        }
 
-        return filteredPeaks;
+        return values[target];
     }
 }
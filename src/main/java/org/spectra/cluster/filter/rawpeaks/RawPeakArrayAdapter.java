@@ -0,0 +1,77 @@
+package org.spectra.cluster.filter.rawpeaks;
+
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.spectra.cluster.model.spectra.RawSpectrum;
+
+/**
+ * Adapts Map based raw peak filters to the {@link IRawPeakArrayFunction}
+ * interface. Filters that already implement IRawPeakArrayFunction are used
+ * directly. All other filters require the peaks to be converted to a Map
+ * and back.
+ *
+ * @author jg
+ */
+public final class RawPeakArrayAdapter {
+    private RawPeakArrayAdapter() {
+        // only static functions
+    }
+
+    /**
+     * Returns the IRawPeakArrayFunction for the passed IRawSpectrumFunction.
+     * Adapted filters can only process RawSpectra created from a Spectrum.
+     *
+     * @param function The function to adapt.
+     * @return The IRawPeakArrayFunction.
+     */
+    public static IRawPeakArrayFunction of(IRawSpectrumFunction function) {
+        if (function instanceof IRawPeakArrayFunction) {
+            return (IRawPeakArrayFunction) function;
+        }
+
+        return new SpectrumFunctionAdapter(function);
+    }
+
+    /**
+     * Returns the IRawPeakArrayFunction for the passed IRawPeakFunction.
+     *
+     * @param function The function to adapt.
+     * @return The IRawPeakArrayFunction.
+     */
+    public static IRawPeakArrayFunction of(IRawPeakFunction function) {
+        if (function instanceof IRawPeakArrayFunction) {
+            return (IRawPeakArrayFunction) function;
+        }
+
+        return new PeakFunctionAdapter(function);
+    }
+
+    private static class SpectrumFunctionAdapter implements IRawPeakArrayFunction {
+        private final IRawSpectrumFunction function;
+
+        private SpectrumFunctionAdapter(IRawSpectrumFunction function) {
+            this.function = function;
+        }
+
+        @Override
+        public RawSpectrum filter(RawSpectrum spectrum) {
+            Spectrum filtered = function.apply(spectrum.writeToSource());
+
+            return RawSpectrum.fromPeaks(filtered, spectrum.getPrecursorMz(), spectrum.getPrecursorCharge(),
+                    filtered.getPeakList());
+        }
+    }
+
+    private static class PeakFunctionAdapter implements IRawPeakArrayFunction {
+        private final IRawPeakFunction function;
+
+        private PeakFunctionAdapter(IRawPeakFunction function) {
+            this.function = function;
+        }
+
+        @Override
+        public RawSpectrum filter(RawSpectrum spectrum) {
+            return RawSpectrum.fromPeaks(spectrum.getSource(), spectrum.getPrecursorMz(),
+                    spectrum.getPrecursorCharge(), function.apply(spectrum.toPeakMap()));
+        }
+    }
+}
@@ -3,17 +3,20 @@ package org.spectra.cluster.filter.rawpeaks;
 
 
 import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.spectra.cluster.model.spectra.RawSpectrum;
 
 import java.util.Map;
 
 /**
  * A wrapper to apply IRawPeakFunctions to IRawSpectrumFunctions
  */
-public class RawPeaksWrapperFunction implements IRawSpectrumFunction {
+public class RawPeaksWrapperFunction implements IRawSpectrumFunction, IRawPeakArrayFunction {
     private final IRawPeakFunction peakFunction;
+    private final IRawPeakArrayFunction peakArrayFunction;
 
     public RawPeaksWrapperFunction(IRawPeakFunction peakFunction) {
         this.peakFunction = peakFunction;
+        this.peakArrayFunction = RawPeakArrayAdapter.of(peakFunction);
     }
 
     @Override
@@ -33,4 +36,13 @@ public class RawPeaksWrapperFunction implements IRawSpectrumFunction {
 
         return spectrum;
     }
+
+    @Override
+    public RawSpectrum filter(RawSpectrum spectrum) {
+        if (spectrum.size() < 1) {
+            return spectrum;
+        }
+
+        return peakArrayFunction.filter(spectrum);
+    }
 }
@@ -0,0 +1,33 @@
+package org.spectra.cluster.filter.rawpeaks;
+
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.spectra.cluster.model.spectra.RawSpectrum;
+
+/**
+ * Two joined IRawSpectrumFunctions as created by {@link IRawSpectrumFunction#specAndThen(IRawSpectrumFunction)}.
+ * The chain can be applied to a Spectrum or to a {@link RawSpectrum}. In the latter case, the peaks
+ * are only converted to a Map for functions that do not implement {@link IRawPeakArrayFunction}.
+ *
+ * @author jg
+ */
+public class RawSpectrumFunctionChain implements IRawSpectrumFunction, IRawPeakArrayFunction {
+    private final IRawSpectrumFunction first;
+    private final IRawSpectrumFunction after;
+    private final IRawPeakArrayFunction arrayFunction;
+
+    public RawSpectrumFunctionChain(IRawSpectrumFunction first, IRawSpectrumFunction after) {
+        this.first = first;
+        this.after = after;
+        this.arrayFunction = RawPeakArrayAdapter.of(first).arrayAndThen(RawPeakArrayAdapter.of(after));
+    }
+
+    @Override
+    public Spectrum apply(Spectrum spectrum) {
+        return after.apply(first.apply(spectrum));
+    }
+
+    @Override
+    public RawSpectrum filter(RawSpectrum spectrum) {
+        return arrayFunction.filter(spectrum);
+    }
+}
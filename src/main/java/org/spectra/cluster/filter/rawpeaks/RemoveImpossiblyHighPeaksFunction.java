@@ -1,30 +1,41 @@
 package org.spectra.cluster.filter.rawpeaks;
 
 import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.spectra.cluster.model.spectra.RawSpectrum;
 import org.spectra.cluster.util.Masses;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Removes all peaks that are too high based on
  * the spectrum's precursor m/z
  *
+ * The maximum m/z depends on the precursor charge. Spectra without
+ * a known charge (0 or missing) are therefore returned unchanged.
+ *
  * Again, this filter is adapted from the Tide source code.
  */
-public class RemoveImpossiblyHighPeaksFunction implements IRawSpectrumFunction {
+public class RemoveImpossiblyHighPeaksFunction implements IRawSpectrumFunction, IRawPeakArrayFunction {
     @Override
     public Spectrum apply(Spectrum spectrum) {
-        Map<Double, Double> filteredPeaklist = new HashMap<>(spectrum.getPeakList().size());
+        return filter(RawSpectrum.fromSpectrum(spectrum)).writeToSource();
+    }
+
+    @Override
+    public RawSpectrum filter(RawSpectrum spectrum) {
+        // the maximum m/z is only known if the charge is known
+        if (spectrum.getPrecursorCharge() < 1) {
+            return spectrum;
+        }
+
+        double maxMz = (spectrum.getPrecursorMz() - Masses.PROTON) * spectrum.getPrecursorCharge() + Masses.PROTON + 50;
 
-        double maxMz = (spectrum.getPrecursorMZ() - Masses.PROTON) * spectrum.getPrecursorCharge() + Masses.PROTON + 50;
+        // the peaks are sorted by m/z
+        int nRetained = spectrum.size();
 
-        spectrum.getPeakList().entrySet().stream()
-                .filter(peak -> peak.getKey() <= maxMz)
-                .forEach(peak -> filteredPeaklist.put(peak.getKey(), peak.getValue()));
+        while (nRetained > 0 && spectrum.getMz(nRetained - 1) > maxMz) {
+            nRetained--;
+        }
 
-        spectrum.getPeakList().clear();
-        spectrum.getPeakList().putAll(filteredPeaklist);
+        spectrum.truncate(nRetained);
 
         return spectrum;
     }
@@ -1,16 +1,15 @@
 package org.spectra.cluster.filter.rawpeaks;
 
 import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.spectra.cluster.model.spectra.RawSpectrum;
 import org.spectra.cluster.util.Masses;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Implements the removal of precursor peaks.
  *
  * <b>Warning:</b> This class alters the original object!
  */
-public class RemovePrecursorPeaksFunction implements IRawSpectrumFunction {
+public class RemovePrecursorPeaksFunction implements IRawSpectrumFunction, IRawPeakArrayFunction {
     private final Double fragmentTolerance;
 
     public RemovePrecursorPeaksFunction(Double fragmentTolerance) {
@@ -24,12 +23,22 @@ public class RemovePrecursorPeaksFunction implements IRawSpectrumFunction {
             return spectrum;
         }
 
+        return filter(RawSpectrum.fromSpectrum(spectrum)).writeToSource();
+    }
+
+    @Override
+    public RawSpectrum filter(RawSpectrum spectrum) {
+        // this filter only works if the spectrum's charge is known
+        if (spectrum.getPrecursorCharge() < 1) {
+            return spectrum;
+        }
+
         // calculate m/z of neutral losses
         final double doubleCharge    = (double) spectrum.getPrecursorCharge();
-        final double waterLoss       = spectrum.getPrecursorMZ() - (Masses.WATER_MONO / doubleCharge);
-        final double doubleWaterLoss = spectrum.getPrecursorMZ() - (2.0F * Masses.WATER_MONO / doubleCharge);
-        final double ammoniumLoss    = spectrum.getPrecursorMZ() - (Masses.AMMONIA_MONO / doubleCharge);
-        final double mtaLoss         = spectrum.getPrecursorMZ() - (Masses.MTA / doubleCharge);
+        final double waterLoss       = spectrum.getPrecursorMz() - (Masses.WATER_MONO / doubleCharge);
+        final double doubleWaterLoss = spectrum.getPrecursorMz() - (2.0F * Masses.WATER_MONO / doubleCharge);
+        final double ammoniumLoss    = spectrum.getPrecursorMz() - (Masses.AMMONIA_MONO / doubleCharge);
+        final double mtaLoss         = spectrum.getPrecursorMz() - (Masses.MTA / doubleCharge);
 
         // calculate range based on fragmentIonTolerance
         final double minWaterLoss        = waterLoss - fragmentTolerance;
@@ -42,17 +51,17 @@ public class RemovePrecursorPeaksFunction implements IRawSpectrumFunction {
         final double maxMtaLoss          = mtaLoss + fragmentTolerance;
 
         // also filter the default precursor
-        final double minPrecursor = spectrum.getPrecursorMZ() - fragmentTolerance;
-        final double maxPrecursor = spectrum.getPrecursorMZ() + fragmentTolerance;
-        final double minPrecursorC1 = spectrum.getPrecursorMZ() + (Masses.C13_DIFF / doubleCharge) - fragmentTolerance;
-        final double maxPrecursorC1 = spectrum.getPrecursorMZ() + (Masses.C13_DIFF / doubleCharge) + fragmentTolerance;
-        final double minPrecursorC2 = spectrum.getPrecursorMZ() + (Masses.C13_DIFF * 2) / doubleCharge - fragmentTolerance;
-        final double maxPrecursorC2 = spectrum.getPrecursorMZ() + (Masses.C13_DIFF * 2) / doubleCharge + fragmentTolerance;
+        final double minPrecursor = spectrum.getPrecursorMz() - fragmentTolerance;
+        final double maxPrecursor = spectrum.getPrecursorMz() + fragmentTolerance;
+        final double minPrecursorC1 = spectrum.getPrecursorMz() + (Masses.C13_DIFF / doubleCharge) - fragmentTolerance;
+        final double maxPrecursorC1 = spectrum.getPrecursorMz() + (Masses.C13_DIFF / doubleCharge) + fragmentTolerance;
+        final double minPrecursorC2 = spectrum.getPrecursorMz() + (Masses.C13_DIFF * 2) / doubleCharge - fragmentTolerance;
+        final double maxPrecursorC2 = spectrum.getPrecursorMz() + (Masses.C13_DIFF * 2) / doubleCharge + fragmentTolerance;
 
-        Map<Double, Double> filteredPeakList = new HashMap<>(spectrum.getPeakList().size());
+        int nRetained = 0;
 
-        for (Map.Entry<Double, Double> peak : spectrum.getPeakList().entrySet()) {
-            final double peakMz = peak.getKey();
+        for (int i = 0; i < spectrum.size(); i++) {
+            final double peakMz = spectrum.getMz(i);
 
             // ignore any peak that could be a neutral loss
             if (isWithinRange(minWaterLoss, maxWaterLoss, peakMz))
@@ -70,11 +79,10 @@ public class RemovePrecursorPeaksFunction implements IRawSpectrumFunction {
             if (isWithinRange(minMtaLoss, maxMtaLoss, peakMz))
                 continue;
 
-            filteredPeakList.put(peak.getKey(), peak.getValue());
+            spectrum.setPeak(nRetained++, peakMz, spectrum.getIntensity(i));
         }
 
-        spectrum.getPeakList().clear();
-        spectrum.getPeakList().putAll(filteredPeakList);
+        spectrum.truncate(nRetained);
 
         return spectrum;
     }
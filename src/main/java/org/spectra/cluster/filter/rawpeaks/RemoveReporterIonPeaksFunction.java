@@ -1,5 +1,7 @@
 package org.spectra.cluster.filter.rawpeaks;
 
+import org.spectra.cluster.model.spectra.RawSpectrum;
+
 import java.util.*;
 
 /**
@@ -14,11 +16,12 @@ import java.util.*;
  *
  * @author ypriverol on 21/08/2018.
  */
-public class RemoveReporterIonPeaksFunction implements IRawPeakFunction{
+public class RemoveReporterIonPeaksFunction implements IRawPeakFunction, IRawPeakArrayFunction {
 
     private final double fragmentIonTolerance;
     private final static double FRAGMENT_ION_TOLERANCE = 0.5;
     private final REPORTER_TYPE reporterType;
+    private final double[] reporterMzValues;
 
     public enum REPORTER_TYPE {
         ITRAQ,
@@ -29,6 +32,7 @@ public class RemoveReporterIonPeaksFunction implements IRawPeakFunction{
     public RemoveReporterIonPeaksFunction(double fragmentIonTolerance, REPORTER_TYPE reporterType) {
         this.fragmentIonTolerance = fragmentIonTolerance;
         this.reporterType = reporterType;
+        this.reporterMzValues = Arrays.stream(getReporterMz(reporterType)).mapToDouble(Double::doubleValue).toArray();
     }
 
     /**
@@ -42,12 +46,15 @@ public class RemoveReporterIonPeaksFunction implements IRawPeakFunction{
 
     @Override
     public Map<Double, Double> apply(Map<Double, Double> peaks) {
-        // get the m/z values
-        Double[] reporterMzValues = getReporterMz(reporterType);
-        Map<Double, Double> filteredPeaks = new HashMap<>(peaks.size());
+        return filter(RawSpectrum.fromPeaks(null, 0, 0, peaks)).toPeakMap();
+    }
+
+    @Override
+    public RawSpectrum filter(RawSpectrum spectrum) {
+        int nRetained = 0;
 
-        for(Map.Entry peak: peaks.entrySet()){
-            double peakMz = (double) peak.getKey();
+        for (int i = 0; i < spectrum.size(); i++) {
+            double peakMz = spectrum.getMz(i);
             // ignore any peak that could be a neutral loss
             boolean isReporterPeak = false;
             for (double reporterMz : reporterMzValues) {
@@ -57,10 +64,13 @@ public class RemoveReporterIonPeaksFunction implements IRawPeakFunction{
                 }
             }
             if (!isReporterPeak) {
-                filteredPeaks.entrySet().add(peak);
+                spectrum.setPeak(nRetained++, peakMz, spectrum.getIntensity(i));
             }
         }
-        return filteredPeaks;
+
+        spectrum.truncate(nRetained);
+
+        return spectrum;
     }
 
     /**
@@ -1,6 +1,8 @@
 package org.spectra.cluster.filter.rawpeaks;
 
-import java.util.*;
+import org.spectra.cluster.model.spectra.RawSpectrum;
+
+import java.util.Map;
 
 /**
  * Implements the intensity normalisation step used f.e. by Tide.
@@ -11,7 +13,7 @@ import java.util.*;
  * divided into 10 regions and normalized to have a maximum intensity of 50
  * within each region.
  */
-public class TideRawPeaksIntensityNormalizer implements IRawPeakFunction {
+public class TideRawPeaksIntensityNormalizer implements IRawPeakFunction, IRawPeakArrayFunction {
     private static final int N_REGIONS = 10;
     private static final double MAX_REGION_INTENSITY = 50;
 
@@ -21,23 +23,39 @@ public class TideRawPeaksIntensityNormalizer implements IRawPeakFunction {
             return peaks;
         }
 
+        return filter(RawSpectrum.fromPeaks(null, 0, 0, peaks)).toPeakMap();
+    }
+
+    @Override
+    public RawSpectrum filter(RawSpectrum spectrum) {
+        int nPeaks = spectrum.size();
+
+        if (nPeaks < 1) {
+            return spectrum;
+        }
+
         // convert to sqrt
-        peaks.entrySet().forEach(e -> e.setValue(Math.sqrt(e.getValue())));
+        double maxIntensity = 0;
+
+        for (int i = 0; i < nPeaks; i++) {
+            double intensity = Math.sqrt(spectrum.getIntensity(i));
+            spectrum.setIntensity(i, intensity);
+
+            if (intensity > maxIntensity) {
+                maxIntensity = intensity;
+            }
+        }
 
         // remove all peaks with less than 5% of the max intensity
-        double maxIntensity = peaks.entrySet().stream().mapToDouble(Map.Entry::getValue).max().getAsDouble();
         double minIntensity = maxIntensity * 0.05;
 
-        double maxMz = peaks.entrySet().stream().mapToDouble(Map.Entry::getKey).max().getAsDouble();
+        // the peaks are sorted by m/z
+        double maxMz = spectrum.getMz(nPeaks - 1);
         double regionSize = maxMz / N_REGIONS;
 
-        // sort the peaks based on m/z
-        List<Map.Entry<Double, Double>> sortedPeaksList = new ArrayList<>(peaks.entrySet());
-        sortedPeaksList.sort(Comparator.comparingDouble(Map.Entry::getKey));
-
         // normalise based on the region size
         int peakIndex = 0;
-        Map<Double, Double> filteredPeaks = new HashMap<>(peaks.size());
+        int nRetained = 0;
 
         for (int regionIndex = 0; regionIndex < N_REGIONS; regionIndex++) {
             double maxRegionMz = regionSize * (regionIndex + 1);
@@ -46,33 +64,30 @@ public class TideRawPeaksIntensityNormalizer implements IRawPeakFunction {
             int regionStartIndex = peakIndex;
 
             // get the total intensity within the region
-            for (; peakIndex < sortedPeaksList.size(); peakIndex++) {
-                Map.Entry<Double, Double> peak = sortedPeaksList.get(peakIndex);
-
-                if (peak.getKey() > maxRegionMz) {
+            for (; peakIndex < nPeaks; peakIndex++) {
+                if (spectrum.getMz(peakIndex) > maxRegionMz) {
                     break;
                 }
 
-                if (peak.getValue() > maxRegionIntensity) {
-                    maxRegionIntensity = peak.getValue();
+                if (spectrum.getIntensity(peakIndex) > maxRegionIntensity) {
+                    maxRegionIntensity = spectrum.getIntensity(peakIndex);
                 }
             }
 
             double normFactor = MAX_REGION_INTENSITY / maxRegionIntensity;
 
-            // normalize the peaks within the region and copy them to the filtered list
+            // normalize the peaks within the region and move them to the retained peaks
             for (int i = regionStartIndex; i < peakIndex; i++) {
-                Map.Entry<Double, Double> peak = sortedPeaksList.get(i);
-
-                if (peak.getValue() < minIntensity) {
+                if (spectrum.getIntensity(i) < minIntensity) {
                     continue;
                 }
 
-                filteredPeaks.put(peak.getKey(), peak.getValue() * normFactor);
+                spectrum.setPeak(nRetained++, spectrum.getMz(i), spectrum.getIntensity(i) * normFactor);
             }
-
         }
 
-        return filteredPeaks;
+        spectrum.truncate(nRetained);
+
+        return spectrum;
     }
 }
@@ -5,6 +5,8 @@ import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.map.ChronicleMap;
 import net.openhft.chronicle.map.ChronicleMapBuilder;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
 import org.spectra.cluster.model.cluster.ICluster;
 
 import java.io.File;
@@ -14,6 +16,8 @@ import java.util.Map;
 
 @Slf4j
 public class ChronicleMapClusterStorage implements IMapStorage<ICluster> {
+    private static final Counter WRITES = MetricsRegistry.counter("storage.chronicle.writes");
+    private static final Counter READS = MetricsRegistry.counter("storage.chronicle.reads");
 
     private static final double CLUSTER_SIZE = 6000 + (200 * 10);
     private static final double CLUSTER_KEY_SIZE = 36 + (100 * 2);
@@ -117,10 +121,12 @@ public class ChronicleMapClusterStorage implements IMapStorage<ICluster> {
     @Override
     public void put(String key, ICluster cluster) {
         this.clusterStorage.put(key, cluster);
+        WRITES.increment();
     }
 
     @Override
     public ICluster get(String key) {
+        READS.increment();
         return this.clusterStorage.get(key);
     }
 
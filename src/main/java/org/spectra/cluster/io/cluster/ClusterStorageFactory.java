@@ -7,6 +7,8 @@ import org.spectra.cluster.model.cluster.ICluster;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This code is licensed under the Apache License, Version 2.0 (the
@@ -123,5 +125,60 @@ public class ClusterStorageFactory {
         }
     }
 
+    /**
+     * Create a temporary Dynamic Storage that is striped across multiple (scratch) directories. A
+     * sub-directory with the defined name is created in every scratch directory and holds one
+     * SparkKey storage. In case the sub-directory already exists, "-{N}" is appended to the name.
+     *
+     * All stripes and the created sub-directories are deleted on close.
+     *
+     * @param scratchDirectories The directories to distribute the storage across, ideally on different devices.
+     * @param name Name of the sub-directory to create in every scratch directory.
+     * @param clusterClass The cluster Class Implementation that will be storage (e.g. {@link org.spectra.cluster.model.cluster.GreedySpectralCluster})
+     * @return StripedClusterStorage
+     */
+    public static IMapStorage<ICluster> buildTemporaryStripedStorage(File[] scratchDirectories, String name, Class clusterClass) throws SpectraClusterException {
+        if (scratchDirectories.length < 1)
+            throw new SpectraClusterException("At least one scratch directory is required");
+
+        List<IMapStorage<ICluster>> stripes = new ArrayList<>(scratchDirectories.length);
+        List<File> stripeDirectories = new ArrayList<>(scratchDirectories.length);
+
+        try {
+            for (File scratchDirectory : scratchDirectories) {
+                File stripeDirectory = createUniqueDirectory(new File(scratchDirectory, name));
+                stripeDirectories.add(stripeDirectory);
+                stripes.add(new SparkKeyClusterStorage(stripeDirectory, clusterClass, false, true));
+            }
+        } catch (IOException e) {
+            // remove the already created stripes
+            try {
+                if (!stripes.isEmpty())
+                    new StripedClusterStorage(stripes, stripeDirectories).close();
+                else
+                    stripeDirectories.forEach(File::delete);
+            } catch (Exception ignored) {
+                // the original error is reported
+            }
 
+            throw new SpectraClusterException("Error creating the striped SparkKey Cluster storage -- " + e.getMessage());
+        }
+
+        return new StripedClusterStorage(stripes, stripeDirectories);
+    }
+
+    private static File createUniqueDirectory(File directory) throws IOException {
+        File uniqueDirectory = directory;
+        int iteration = 1;
+
+        while (uniqueDirectory.exists()) {
+            uniqueDirectory = new File(directory.getAbsolutePath() + "-" + iteration);
+            iteration++;
+        }
+
+        if (!uniqueDirectory.mkdirs())
+            throw new IOException("Failed to create directory " + uniqueDirectory.getAbsolutePath());
+
+        return uniqueDirectory;
+    }
 }
@@ -0,0 +1,238 @@
+package org.spectra.cluster.io.cluster;
+
+import io.github.bigbio.pgatk.io.objectdb.ObjectsDB;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.exceptions.SpectraClusterException;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads all clusters of a previous clustering result (.zcl file) using
+ * multiple threads.
+ *
+ * The keys of all stored clusters are sorted and split into batches. Every
+ * batch is retrieved using a single query on a background thread. The
+ * ObjectsDB does not document whether one connection may be queried
+ * concurrently. Every background thread therefore opens its own
+ * connection to the file, so that the clusters are retrieved and
+ * deserialized in parallel. The clusters are returned as stored, including
+ * their consensus spectrum builders, so that the consensus spectra do not
+ * have to be re-created.
+ *
+ * Like the iterator of the ObjectDBGreedyClusterStorage, only clusters
+ * that were stored on the first level are returned.
+ *
+ * Batches are returned in key order through {@link #nextBatch()}. While a
+ * batch is being processed by the caller, up to 2 * nThreads following
+ * batches are already loaded in the background.
+ *
+ * @author jg
+ */
+@Slf4j
+public class ParallelClusterStorageReader implements Closeable {
+    /** Default number of clusters per batch */
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private static final Counter CLUSTERS_LOADED = MetricsRegistry.counter("reader.stored_clusters_loaded");
+
+    private final File clusterFile;
+    /** The connections opened by the background threads */
+    private final List<ObjectDBGreedyClusterStorage> openStorages = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<ObjectDBGreedyClusterStorage> threadStorage = ThreadLocal.withInitial(this::openStorage);
+    private final long[] keys;
+    private final int batchSize;
+    private final ExecutorService executorService;
+    private final int maxBatchesInProgress;
+    private final Deque<Future<List<ICluster>>> batchesInProgress = new ArrayDeque<>();
+
+    private int nextBatchToSubmit = 0;
+    private long clustersReturned = 0;
+
+    /**
+     * Creates a new ParallelClusterStorageReader using the default batch size.
+     *
+     * @param clusterFile The clustering result (.zcl file) to read.
+     * @param storage An open connection to the clustering result. It is only used to list the stored clusters.
+     * @param nThreads Number of background threads. Every thread opens its own connection.
+     */
+    public ParallelClusterStorageReader(File clusterFile, ObjectDBGreedyClusterStorage storage, int nThreads) {
+        this(clusterFile, storage, nThreads, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a new ParallelClusterStorageReader.
+     *
+     * @param clusterFile The clustering result (.zcl file) to read.
+     * @param storage An open connection to the clustering result. It is only used to list the stored clusters.
+     * @param nThreads Number of background threads. Every thread opens its own connection.
+     * @param batchSize Number of clusters per batch.
+     */
+    public ParallelClusterStorageReader(File clusterFile, ObjectDBGreedyClusterStorage storage, int nThreads,
+                                        int batchSize) {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be at least 1");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+
+        this.clusterFile = clusterFile;
+        this.batchSize = batchSize;
+        this.keys = storage.getClassObjects(GreedySpectralCluster.class).stream()
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
+
+        this.maxBatchesInProgress = nThreads * 2;
+        this.executorService = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "cluster-storage-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        log.debug(String.format("Reading %d stored clusters in %d batches using %d threads", keys.length,
+                getNumberOfBatches(), nThreads));
+    }
+
+    /**
+     * @return The total number of batches.
+     */
+    public int getNumberOfBatches() {
+        return (keys.length + batchSize - 1) / batchSize;
+    }
+
+    /**
+     * @return The total number of stored clusters, including clusters that are not stored on the first level.
+     */
+    public int getNumberOfClusters() {
+        return keys.length;
+    }
+
+    /**
+     * @return Number of clusters returned so far.
+     */
+    public long getClustersReturned() {
+        return clustersReturned;
+    }
+
+    /**
+     * @return Indicates whether there are more batches to read.
+     */
+    public boolean hasNextBatch() {
+        return !batchesInProgress.isEmpty() || nextBatchToSubmit < getNumberOfBatches();
+    }
+
+    /**
+     * Returns the clusters of the next batch in key order.
+     *
+     * @return List of clusters.
+     * @throws SpectraClusterException If retrieving the clusters failed.
+     */
+    public List<ICluster> nextBatch() throws SpectraClusterException {
+        submitBatches();
+
+        Future<List<ICluster>> future = batchesInProgress.pollFirst();
+
+        if (future == null) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            List<ICluster> clusters = future.get();
+            clustersReturned += clusters.size();
+
+            // keep the pipeline filled
+            submitBatches();
+
+            return clusters;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpectraClusterException("Interrupted while reading stored clusters", e);
+        } catch (ExecutionException e) {
+            throw new SpectraClusterException("Failed to read stored clusters: " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+        batchesInProgress.clear();
+
+        // queries that are still running must not lose their connection
+        try {
+            if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Background threads did not terminate, connections to " + clusterFile.getName() +
+                        " remain open");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        synchronized (openStorages) {
+            openStorages.forEach(ObjectDBGreedyClusterStorage::close);
+            openStorages.clear();
+        }
+    }
+
+    /**
+     * Opens a new connection to the clustering result for the calling thread.
+     */
+    private ObjectDBGreedyClusterStorage openStorage() {
+        ObjectDBGreedyClusterStorage storage = new ObjectDBGreedyClusterStorage(
+                new ObjectsDB(clusterFile.getAbsolutePath(), false));
+        openStorages.add(storage);
+
+        return storage;
+    }
+
+    private void submitBatches() {
+        while (batchesInProgress.size() < maxBatchesInProgress && nextBatchToSubmit < getNumberOfBatches()) {
+            final int start = nextBatchToSubmit * batchSize;
+            final int end = Math.min(keys.length, start + batchSize);
+            nextBatchToSubmit++;
+
+            batchesInProgress.addLast(executorService.submit(() -> readBatch(start, end)));
+        }
+    }
+
+    /**
+     * Retrieves the clusters of the keys in [start, end) using a single
+     * query.
+     */
+    private List<ICluster> readBatch(int start, int end) throws SpectraClusterException {
+        List<Long> batchKeys = new ArrayList<>(end - start);
+
+        for (int i = start; i < end; i++) {
+            batchKeys.add(keys[i]);
+        }
+
+        List<Object> storedObjects = threadStorage.get().retrieveObjects(batchKeys, null, false);
+        List<ICluster> clusters = new ArrayList<>(storedObjects.size());
+
+        for (Object storedObject : storedObjects) {
+            if (!(storedObject instanceof GreedySpectralCluster))
+                throw new SpectraClusterException("Unexpected object in cluster storage: " +
+                        (storedObject == null ? "null" : storedObject.getClass().getName()));
+
+            GreedySpectralCluster cluster = (GreedySpectralCluster) storedObject;
+
+            if (cluster.getFirstLevel()) {
+                clusters.add(cluster);
+            }
+        }
+
+        CLUSTERS_LOADED.add(clusters.size());
+
+        return clusters;
+    }
+}
@@ -8,6 +8,8 @@ import io.github.bigbio.pgatk.io.common.PgatkIOException;
 import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
 import lombok.extern.slf4j.Slf4j;
 import org.spectra.cluster.exceptions.SpectraClusterException;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
 import org.spectra.cluster.model.cluster.GreedySpectralCluster;
 import org.spectra.cluster.model.cluster.ICluster;
 
@@ -21,6 +23,10 @@ import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 public class SparkKeyClusterStorage implements IMapStorage<ICluster> {
+    private static final Counter WRITES = MetricsRegistry.counter("storage.sparkey.writes");
+    private static final Counter WRITE_BYTES = MetricsRegistry.counter("storage.sparkey.write_bytes");
+    private static final Counter READS = MetricsRegistry.counter("storage.sparkey.reads");
+    private static final Counter READ_BYTES = MetricsRegistry.counter("storage.sparkey.read_bytes");
 
     private final boolean deleteOnClose;
     private final File dbFile;
@@ -33,6 +39,9 @@ public class SparkKeyClusterStorage implements IMapStorage<ICluster> {
     AtomicLong entryCounter = new AtomicLong(0);
     Class clusterClass;
 
+    // readers only see the entries written before the last flush, they are re-opened after every flush
+    private volatile long flushCount = 0;
+
     private final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
 
     /**
@@ -68,19 +77,36 @@ public class SparkKeyClusterStorage implements IMapStorage<ICluster> {
         writer = Sparkey.appendOrCreate(dbFile, CompressionType.SNAPPY, 512);
     }
 
-    private final ThreadLocal<SparkeyReader> readers = new ThreadLocal<SparkeyReader>() {
-        @Override
-        protected SparkeyReader initialValue() {
-            try {
-                // open using a thread-safe reader
-                SparkeyReader reader = Sparkey.openThreadLocalReader(dbFile);
-                readerSet.add(reader);
-                return reader;
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
+    private final ThreadLocal<VersionedReader> readers = new ThreadLocal<>();
+
+    /**
+     * Returns the calling thread's reader. The reader is (re-)opened if it was not opened
+     * after the last flush.
+     */
+    private SparkeyReader getReader() throws IOException {
+        VersionedReader reader = readers.get();
+        long currentFlushCount = flushCount;
+
+        if (reader != null && reader.flushCount == currentFlushCount) {
+            return reader.reader;
+        }
+
+        // open using a thread-safe reader
+        SparkeyReader newReader = Sparkey.openThreadLocalReader(dbFile);
+
+        synchronized (readerSet) {
+            if (reader != null) {
+                reader.reader.close();
+                readerSet.remove(reader.reader);
             }
+
+            readerSet.add(newReader);
         }
-    };
+
+        readers.set(new VersionedReader(newReader, currentFlushCount));
+
+        return newReader;
+    }
 
     private byte[] serialize(String value){
         return Base64.getDecoder().decode(Base64.getEncoder().encodeToString( value.getBytes( DEFAULT_CHARSET )));
@@ -100,7 +126,11 @@ public class SparkKeyClusterStorage implements IMapStorage<ICluster> {
     @Override
     public synchronized void put(String key, ICluster cluster) {
         try {
-            writer.put( serialize(key), cluster.toBytes());
+            byte[] clusterBytes = cluster.toBytes();
+            writer.put( serialize(key), clusterBytes);
+
+            WRITES.increment();
+            WRITE_BYTES.add(clusterBytes.length);
         }catch (IOException | SpectraClusterException ex){
             throw new IllegalStateException("Error wiring the following property - " + key + " " + cluster.getId() + "error " + ex.getMessage());
         }
@@ -110,12 +140,15 @@ public class SparkKeyClusterStorage implements IMapStorage<ICluster> {
     @Override
     public ICluster get(String key) {
         try {
-            byte[] byteObject = readers.get().getAsByteArray(serialize(key));
+            byte[] byteObject = getReader().getAsByteArray(serialize(key));
 
             if (byteObject == null) {
                 return null;
             }
 
+            READS.increment();
+            READ_BYTES.add(byteObject.length);
+
             return deserialize(byteObject);
         } catch (PgatkIOException | IOException ex) {
             log.error("Error retrieving the value for key -- " + key );
@@ -133,7 +166,11 @@ public class SparkKeyClusterStorage implements IMapStorage<ICluster> {
     public synchronized long storageSize() {
         // load entry count if DB exists
         if (entryCounter.get() < 0) {
-            entryCounter.set(readers.get().getIndexHeader().getNumEntries());
+            try {
+                entryCounter.set(getReader().getIndexHeader().getNumEntries());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open the SparkKey DB -- " + e.getMessage(), e);
+            }
         }
 
         return entryCounter.get();
@@ -152,8 +189,10 @@ public class SparkKeyClusterStorage implements IMapStorage<ICluster> {
         }
 
         // close all readers
-        for (SparkeyReader r : readerSet) {
-            r.close();
+        synchronized (readerSet) {
+            for (SparkeyReader r : readerSet) {
+                r.close();
+            }
         }
 
         // delete the files
@@ -174,9 +213,20 @@ public class SparkKeyClusterStorage implements IMapStorage<ICluster> {
         try {
             writer.flush();
             writer.writeHash();
+            flushCount++;
         } catch (IOException ex) {
             throw new PgatkIOException("Error wiring the SparkKey DB -- " + ex.getMessage());
         }
 
     }
+
+    private static class VersionedReader {
+        private final SparkeyReader reader;
+        private final long flushCount;
+
+        private VersionedReader(SparkeyReader reader, long flushCount) {
+            this.reader = reader;
+            this.flushCount = flushCount;
+        }
+    }
 }
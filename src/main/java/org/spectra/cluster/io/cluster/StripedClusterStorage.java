@@ -0,0 +1,201 @@
+package org.spectra.cluster.io.cluster;
+
+import io.github.bigbio.pgatk.io.common.PgatkIOException;
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.model.cluster.ICluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Spreads the stored clusters across multiple storages ("stripes"),
+ * usually located on different devices.
+ *
+ * Every key is always stored in the same stripe based on its hash code.
+ * Since every stripe has its own writer, clusters of different stripes can
+ * be written in parallel. putAll, flush and close process all stripes
+ * in parallel.
+ *
+ * @author jg
+ */
+@Slf4j
+public class StripedClusterStorage implements IMapStorage<ICluster> {
+    private final List<IMapStorage<ICluster>> stripes;
+    private final List<File> stripeDirectories;
+
+    /**
+     * Creates a new StripedClusterStorage.
+     *
+     * @param stripes The storages to use as stripes.
+     * @param stripeDirectories Directories that are deleted (including their content) once all stripes
+     *                          were closed. May be empty.
+     */
+    public StripedClusterStorage(List<IMapStorage<ICluster>> stripes, List<File> stripeDirectories) {
+        if (stripes.isEmpty())
+            throw new IllegalArgumentException("At least one stripe is required");
+
+        this.stripes = new ArrayList<>(stripes);
+        this.stripeDirectories = new ArrayList<>(stripeDirectories);
+    }
+
+    private IMapStorage<ICluster> getStripe(String key) {
+        return stripes.get(getStripeIndex(key));
+    }
+
+    private int getStripeIndex(String key) {
+        return Math.floorMod(key.hashCode(), stripes.size());
+    }
+
+    public int getNumberOfStripes() {
+        return stripes.size();
+    }
+
+    @Override
+    public void put(String key, ICluster cluster) {
+        try {
+            getStripe(key).put(key, cluster);
+        } catch (Exception e) {
+            throw new IllegalStateException("Error writing cluster " + key + " -- " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stores all clusters using their id as key. The clusters of every stripe
+     * are written in parallel.
+     *
+     * @param clusters The clusters to store.
+     * @throws PgatkIOException If writing failed.
+     */
+    public void putAll(ICluster[] clusters) throws PgatkIOException {
+        List<List<ICluster>> clustersPerStripe = new ArrayList<>(stripes.size());
+
+        for (int i = 0; i < stripes.size(); i++) {
+            clustersPerStripe.add(new ArrayList<>());
+        }
+
+        for (ICluster cluster : clusters) {
+            clustersPerStripe.get(getStripeIndex(cluster.getId())).add(cluster);
+        }
+
+        forEachStripe(stripe -> {
+            for (ICluster cluster : clustersPerStripe.get(stripe)) {
+                stripes.get(stripe).put(cluster.getId(), cluster);
+            }
+        });
+    }
+
+    @Override
+    public ICluster get(String key) {
+        try {
+            return getStripe(key).get(key);
+        } catch (Exception e) {
+            throw new IllegalStateException("Error reading cluster " + key + " -- " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void cleanStorage() throws PgatkIOException {
+        forEachStripe(stripe -> stripes.get(stripe).cleanStorage());
+    }
+
+    @Override
+    public long storageSize() {
+        long size = 0;
+
+        for (IMapStorage<ICluster> stripe : stripes) {
+            try {
+                size += stripe.storageSize();
+            } catch (Exception e) {
+                throw new IllegalStateException("Error retrieving the storage size -- " + e.getMessage(), e);
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public void flush() throws PgatkIOException {
+        forEachStripe(stripe -> stripes.get(stripe).flush());
+    }
+
+    /**
+     * Closes all stripes and removes the stripe directories. All stripes are
+     * closed even if closing one of them fails.
+     *
+     * @throws PgatkIOException If closing a stripe or removing a directory failed.
+     */
+    @Override
+    public void close() throws PgatkIOException {
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        IntStream.range(0, stripes.size()).parallel().forEach(stripe -> {
+            try {
+                stripes.get(stripe).close();
+            } catch (Exception e) {
+                errors.add("Failed to close stripe " + stripe + " -- " + e.getMessage());
+            }
+        });
+
+        for (File directory : stripeDirectories) {
+            try {
+                deleteDirectory(directory.toPath());
+            } catch (IOException e) {
+                errors.add("Failed to delete " + directory.getAbsolutePath() + " -- " + e.getMessage());
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            errors.forEach(log::error);
+            throw new PgatkIOException(String.join("; ", errors));
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory))
+            return;
+
+        List<Path> paths;
+
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    private interface IStripeOperation {
+        void apply(int stripe) throws PgatkIOException;
+    }
+
+    /**
+     * Applies the operation to all stripes in parallel.
+     */
+    private void forEachStripe(IStripeOperation operation) throws PgatkIOException {
+        try {
+            IntStream.range(0, stripes.size()).parallel().forEach(stripe -> {
+                try {
+                    operation.apply(stripe);
+                } catch (PgatkIOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof PgatkIOException)
+                throw (PgatkIOException) e.getCause();
+
+            throw e;
+        }
+    }
+}
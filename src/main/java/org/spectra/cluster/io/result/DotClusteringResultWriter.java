@@ -0,0 +1,364 @@
+package org.spectra.cluster.io.result;
+
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import io.github.bigbio.pgatk.io.properties.IPropertyStorage;
+import io.github.bigbio.pgatk.io.properties.StoredProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.consensus.IConsensusSpectrumBuilder;
+import org.spectra.cluster.exceptions.SpectraClusterException;
+import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Writes the clustering result in the .clustering format of the original
+ * spectra-cluster project.
+ *
+ * Clusters are streamed from the result file in batches. While one batch is
+ * written, the spectrum properties of the next batch are fetched and its
+ * records are formatted on a worker pool. Therefore, at most two batches are
+ * held in memory at any time, independent of the size of the result.
+ *
+ * @author jg
+ */
+@Slf4j
+public class DotClusteringResultWriter implements IClusteringResultWriter {
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The spectrum properties written to the SPEC lines. The position in this
+     * array is used as index into the prefetched property arrays.
+     */
+    private static final String[] SPECTRUM_PROPERTIES = {
+            StoredProperties.ORG_FILENAME, StoredProperties.FILE_INDEX, StoredProperties.TITLE,
+            StoredProperties.SEQUENCE, StoredProperties.PRECURSOR_MZ, StoredProperties.CHARGE,
+            StoredProperties.PTMS, StoredProperties.RETENTION_TIME};
+    private static final int FILENAME = 0;
+    private static final int FILE_INDEX = 1;
+    private static final int TITLE = 2;
+    private static final int SEQUENCE = 3;
+    private static final int PRECURSOR_MZ = 4;
+    private static final int CHARGE = 5;
+    private static final int PTMS = 6;
+    private static final int RETENTION_TIME = 7;
+
+    private static final String UNIDENTIFIED = "UNIDENTIFIED";
+
+    private final IConsensusSpectrumBuilder consensusSpectrumBuilder;
+    private final int nThreads;
+    private final int batchSize;
+
+    /**
+     * Initializes a new DotClusteringResultWriter using the default batch size.
+     *
+     * @param consensusSpectrumBuilder The consensus spectrum builder to use for the
+     *                                 consensus peaks
+     * @param nThreads Number of threads used to fetch the properties and format the records
+     */
+    public DotClusteringResultWriter(IConsensusSpectrumBuilder consensusSpectrumBuilder, int nThreads) {
+        this(consensusSpectrumBuilder, nThreads, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Initializes a new DotClusteringResultWriter
+     *
+     * @param consensusSpectrumBuilder The consensus spectrum builder to use for the
+     *                                 consensus peaks
+     * @param nThreads Number of threads used to fetch the properties and format the records
+     * @param batchSize Number of clusters processed per batch
+     */
+    public DotClusteringResultWriter(IConsensusSpectrumBuilder consensusSpectrumBuilder, int nThreads, int batchSize) {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+
+        this.consensusSpectrumBuilder = consensusSpectrumBuilder;
+        this.nThreads = nThreads;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void writeResult(Path resultFile, ObjectDBGreedyClusterStorage clusterStorage, IPropertyStorage spectraPropertyStorage) throws Exception {
+        // ensure that the file does not exist
+        if (Files.exists(resultFile))
+            throw new Exception(String.format("Error: File '%s' already exists.", resultFile.toString()));
+
+        log.info(String.format("Saving clustering result as .clustering file '%s'", resultFile.toString()));
+
+        ForkJoinPool workerPool = new ForkJoinPool(nThreads);
+        long nClusters = 0;
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(resultFile, StandardOpenOption.CREATE_NEW), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+            writer.write("algorithm=spectra-cluster v2\n");
+
+            Future<List<String>> pendingBatch = null;
+
+            while (true) {
+                // the clusters are always read on this thread since the result file is not thread-safe
+                List<ICluster> batch = readBatch(clusterStorage);
+                Future<List<String>> nextBatch = null;
+
+                if (!batch.isEmpty()) {
+                    nextBatch = workerPool.submit(() -> convertBatch(batch, spectraPropertyStorage));
+                }
+
+                // write the previous batch while the next one is being processed
+                if (pendingBatch != null) {
+                    for (String record : pendingBatch.get()) {
+                        writer.write(record);
+                        nClusters++;
+                    }
+                }
+
+                if (nextBatch == null)
+                    break;
+
+                pendingBatch = nextBatch;
+            }
+        } finally {
+            workerPool.shutdownNow();
+        }
+
+        log.debug(String.format("Wrote %d clusters to %s", nClusters, resultFile.toString()));
+    }
+
+    /**
+     * Reads the next batch of clusters from the result file. Every cluster is
+     * detached from the underlying database through its binary representation
+     * so that it can be safely processed by the worker threads.
+     *
+     * @param clusterStorage The result file to read from
+     * @return The clusters, an empty list if no more clusters are available
+     * @throws SpectraClusterException If a cluster cannot be copied
+     */
+    private List<ICluster> readBatch(ObjectDBGreedyClusterStorage clusterStorage) throws SpectraClusterException {
+        List<ICluster> batch = new ArrayList<>(batchSize);
+
+        while (batch.size() < batchSize && clusterStorage.hasNext()) {
+            GreedySpectralCluster cluster = (GreedySpectralCluster) clusterStorage.next();
+            batch.add(GreedySpectralCluster.fromBytes(cluster.toBytes()));
+        }
+
+        return batch;
+    }
+
+    /**
+     * Converts a batch of clusters into their .clustering records. The properties
+     * of all spectra in the batch are fetched first, the records are then
+     * created in parallel.
+     *
+     * @param batch The clusters to convert
+     * @param propertyStorage The spectrum property storage
+     * @return The records in the order of the passed clusters
+     */
+    private List<String> convertBatch(List<ICluster> batch, IPropertyStorage propertyStorage) {
+        Map<String, String[]> spectrumProperties = batch.stream()
+                .flatMap(c -> c.getClusteredSpectraIds().stream())
+                .collect(Collectors.toList())
+                .parallelStream()
+                .collect(Collectors.toConcurrentMap(Function.identity(),
+                        id -> fetchProperties(propertyStorage, id), (a, b) -> a));
+
+        return batch.parallelStream()
+                .map(c -> convertCluster(c, spectrumProperties, propertyStorage))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Fetches all properties that are written to the SPEC line of a spectrum.
+     *
+     * @param propertyStorage The property storage
+     * @param spectrumId The spectrum's id
+     * @return The properties in the order of SPECTRUM_PROPERTIES
+     */
+    private String[] fetchProperties(IPropertyStorage propertyStorage, String spectrumId) {
+        String[] properties = new String[SPECTRUM_PROPERTIES.length];
+
+        try {
+            for (int i = 0; i < SPECTRUM_PROPERTIES.length; i++) {
+                properties[i] = propertyStorage.get(spectrumId, SPECTRUM_PROPERTIES[i]);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        return properties;
+    }
+
+    /**
+     * Creates the .clustering record for a single cluster.
+     *
+     * @param cluster The cluster to convert
+     * @param spectrumProperties The prefetched spectrum properties
+     * @param propertyStorage The property storage used by the consensus spectrum builder
+     * @return The complete record
+     */
+    private String convertCluster(ICluster cluster, Map<String, String[]> spectrumProperties, IPropertyStorage propertyStorage) {
+        List<String[]> spectra = cluster.getClusteredSpectraIds().stream()
+                .sorted()
+                .map(spectrumProperties::get)
+                .collect(Collectors.toList());
+
+        StringBuilder record = new StringBuilder(256 + spectra.size() * 128);
+
+        record.append("=Cluster=\n");
+        record.append("id=").append(cluster.getId()).append('\n');
+        record.append("av_precursor_mz=").append(getAveragePrecursorMz(cluster, spectra)).append('\n');
+        // precursor intensities are not really supported
+        record.append("av_precursor_intensity=1\n");
+
+        String maxSequence = addSequenceList(spectra, record);
+
+        addConsensusPeaks(consensusSpectrumBuilder.createConsensusSpectrum(cluster, propertyStorage), record);
+
+        for (String[] properties : spectra) {
+            String sequence = properties[SEQUENCE];
+
+            record.append("SPEC\t")
+                    .append("#file=").append(nullToEmpty(properties[FILENAME]))
+                    .append("#id=").append(nullToEmpty(properties[FILE_INDEX]))
+                    .append("#title=").append(nullToEmpty(properties[TITLE]))
+                    .append('\t')
+                    .append(sequence != null && sequence.equals(maxSequence)).append('\t')
+                    .append(nullToEmpty(sequence)).append('\t')
+                    .append(nullToEmpty(properties[PRECURSOR_MZ])).append('\t')
+                    .append(nullToEmpty(properties[CHARGE])).append('\t')
+                    // species is not supported
+                    .append('\t')
+                    .append(nullToEmpty(properties[PTMS])).append('\t')
+                    // score currently not supported
+                    .append("0\t")
+                    .append('{');
+
+            if (properties[RETENTION_TIME] != null) {
+                record.append("\"RT\": ").append(properties[RETENTION_TIME]);
+            }
+
+            record.append("}\n");
+        }
+
+        return record.toString();
+    }
+
+    /**
+     * Calculates the average precursor m/z based on the spectra's original
+     * precursor m/z values. If these are not available, the cluster's
+     * normalized precursor m/z is converted back.
+     */
+    private double getAveragePrecursorMz(ICluster cluster, List<String[]> spectra) {
+        double sum = 0;
+        int count = 0;
+
+        for (String[] properties : spectra) {
+            if (properties[PRECURSOR_MZ] != null) {
+                sum += Double.parseDouble(properties[PRECURSOR_MZ]);
+                count++;
+            }
+        }
+
+        if (count < 1)
+            return cluster.getPrecursorMz() / (double) BasicIntegerNormalizer.MZ_CONSTANT;
+
+        return sum / count;
+    }
+
+    /**
+     * Adds the sequence line to the record. Sequences are sorted by their
+     * frequency.
+     *
+     * @param spectra The spectra's properties
+     * @param record The record to add the line to
+     * @return The most common sequence or null if no spectrum is identified
+     */
+    private String addSequenceList(List<String[]> spectra, StringBuilder record) {
+        Map<String, Integer> sequenceCounts = new HashMap<>();
+
+        for (String[] properties : spectra) {
+            String sequence = properties[SEQUENCE];
+
+            if (sequence == null || sequence.length() < 1)
+                sequence = UNIDENTIFIED;
+
+            sequenceCounts.merge(sequence, 1, Integer::sum);
+        }
+
+        List<Map.Entry<String, Integer>> sortedCounts = sequenceCounts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .collect(Collectors.toList());
+
+        record.append("sequence=[");
+        String maxSequence = null;
+
+        for (int i = 0; i < sortedCounts.size(); i++) {
+            Map.Entry<String, Integer> sequenceCount = sortedCounts.get(i);
+
+            if (i > 0)
+                record.append(',');
+
+            record.append(sequenceCount.getKey()).append(':').append(sequenceCount.getValue());
+
+            if (maxSequence == null && !UNIDENTIFIED.equals(sequenceCount.getKey()))
+                maxSequence = sequenceCount.getKey();
+        }
+        record.append("]\n");
+
+        return maxSequence;
+    }
+
+    /**
+     * Adds the consensus_mz and consensus_intens lines to the record.
+     *
+     * @param consensusSpectrum The consensus spectrum, may be null if its creation failed
+     * @param record The record to add the lines to
+     */
+    private void addConsensusPeaks(Spectrum consensusSpectrum, StringBuilder record) {
+        List<Map.Entry<Double, Double>> peaks = (consensusSpectrum == null) ? Collections.<Map.Entry<Double, Double>>emptyList() :
+                consensusSpectrum.getPeakList().entrySet().stream()
+                        .sorted(Map.Entry.comparingByKey())
+                        .collect(Collectors.toList());
+
+        record.append("consensus_mz=");
+        for (int i = 0; i < peaks.size(); i++) {
+            if (i > 0)
+                record.append(',');
+            record.append(peaks.get(i).getKey());
+        }
+        record.append('\n');
+
+        record.append("consensus_intens=");
+        for (int i = 0; i < peaks.size(); i++) {
+            if (i > 0)
+                record.append(',');
+            record.append(peaks.get(i).getValue());
+        }
+        record.append('\n');
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,320 @@
+package org.spectra.cluster.io.spectra;
+
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import org.spectra.cluster.exceptions.SpectraClusterException;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.cluster.IClusterProperties;
+import org.spectra.cluster.model.spectra.BinaryPeak;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+
+import java.util.*;
+
+/**
+ * Collapses duplicate spectra while they are loaded. Repeated acquisitions and
+ * re-processed files lead to the same spectrum being loaded several times. Instead
+ * of creating a new cluster for every copy, the duplicate is added to the cluster
+ * of the first copy using {@link ICluster#addSpectra(IBinarySpectrum...)}.
+ *
+ * Two modes are supported:
+ *
+ *  - EXACT: Spectra are duplicates if they have the same precursor m/z, charge and
+ *           (normalized) peak list.
+ *  - NEAR:  Spectra are duplicates if they have the same charge, their precursor m/z
+ *           is within the set tolerance and their N most intense peaks have the same
+ *           m/z values.
+ *
+ * Candidates are found through a 64 bit hash of their signature. In EXACT mode, a
+ * second, independent 64 bit hash of the peak list must match as well. Thereby, every
+ * representative only needs a fixed amount of memory, independent of its number of
+ * peaks, while the chance that two different peak lists are collapsed is negligible
+ * (2^-128 per pair of spectra). The stored clusters cannot be used to confirm the
+ * match, since their peaks were already filtered when the cluster was created.
+ * Only the hashes, precursor m/z, charge and ids of the first copies (the
+ * "representatives") are kept in memory.
+ *
+ * The cluster storage may only be read once it was flushed. Collapsed duplicates are
+ * therefore kept in memory until all clusters were stored and are only added to the
+ * clusters of their representatives through {@link #mergeDuplicates()}.
+ *
+ * This class is not thread-safe.
+ *
+ * @author jg
+ */
+public class DuplicateSpectrumCollapser {
+    /** Number of most intense peaks used as signature in NEAR mode */
+    public static final int DEFAULT_SIGNATURE_PEAKS = 10;
+
+    private static final Counter SPECTRA_COLLAPSED = MetricsRegistry.counter("reader.duplicates_collapsed");
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /** Seed and multiplier of the second hash in EXACT mode */
+    private static final long CHECK_SEED = 0x9e3779b97f4a7c15L;
+    private static final long CHECK_MULTIPLIER = 0xbf58476d1ce4e5b9L;
+
+    public enum Mode {
+        NONE,
+        EXACT,
+        NEAR;
+
+        /**
+         * Returns the mode matching the passed (case-insensitive) name.
+         *
+         * @param name The mode's name.
+         * @return The matching mode.
+         * @throws IllegalArgumentException If no mode matches the name.
+         */
+        public static Mode fromName(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private final Mode mode;
+    private final int precursorTolerance;
+    private final int signaturePeaks;
+    private final IMapStorage<ICluster> clusterStorage;
+
+    /** Representatives with the same signature hash */
+    private final Map<Long, List<Representative>> representatives = new HashMap<>();
+    /** Collapsed duplicates per representative cluster id that were not merged yet */
+    private final Map<String, List<IBinarySpectrum>> pendingDuplicates = new LinkedHashMap<>();
+    private long collapsedSpectra = 0;
+
+    /**
+     * Creates a new DuplicateSpectrumCollapser.
+     *
+     * @param mode The mode to use. Mode.NONE is not supported.
+     * @param precursorTolerance The precursor tolerance (as int) to use in NEAR mode.
+     * @param signaturePeaks Number of most intense peaks to use as signature in NEAR mode.
+     * @param clusterStorage The storage the (representative) clusters are stored in.
+     */
+    public DuplicateSpectrumCollapser(Mode mode, int precursorTolerance, int signaturePeaks,
+                                      IMapStorage<ICluster> clusterStorage) {
+        if (mode == Mode.NONE) {
+            throw new IllegalArgumentException("Mode NONE cannot be used to collapse spectra");
+        }
+
+        this.mode = mode;
+        this.precursorTolerance = (mode == Mode.NEAR) ? precursorTolerance : 0;
+        this.signaturePeaks = signaturePeaks;
+        this.clusterStorage = clusterStorage;
+    }
+
+    /**
+     * Tests whether the spectrum is a duplicate of a previously passed spectrum. In this case,
+     * the spectrum is kept until it is added to the cluster of the first copy through
+     * {@link #mergeDuplicates()}. Otherwise, the spectrum is registered as a new representative
+     * and its (single spectrum) cluster must be stored using the spectrum's id.
+     *
+     * @param spectrum The spectrum to test.
+     * @return Indicates whether the spectrum was collapsed. Collapsed spectra must not be stored as a cluster.
+     */
+    public boolean collapse(IBinarySpectrum spectrum) {
+        long signature = (mode == Mode.EXACT) ? exactSignature(spectrum) : nearSignature(spectrum);
+        List<Representative> candidates = representatives.computeIfAbsent(signature, k -> new ArrayList<>(1));
+        // the check hash is not used in NEAR mode
+        long checkHash = (mode == Mode.EXACT) ? exactCheckHash(spectrum) : 0;
+
+        for (Representative candidate : candidates) {
+            if (candidate.isDuplicate(spectrum, checkHash, precursorTolerance)) {
+                pendingDuplicates.computeIfAbsent(candidate.clusterId, k -> new ArrayList<>(1)).add(spectrum);
+                collapsedSpectra++;
+                SPECTRA_COLLAPSED.increment();
+
+                return true;
+            }
+        }
+
+        candidates.add(new Representative(spectrum.getPrecursorMz(), spectrum.getPrecursorCharge(), checkHash,
+                spectrum.getUUI()));
+
+        return false;
+    }
+
+    /**
+     * Adds all collapsed duplicates to the stored clusters of their representatives. The
+     * cluster storage is flushed before the representatives are read and after the changed
+     * clusters were stored again. This function must therefore only be called once all
+     * loaded clusters were stored.
+     *
+     * @return The properties of all clusters whose precursor m/z or charge changed, by cluster id.
+     * @throws SpectraClusterException If accessing the stored clusters failed.
+     */
+    public Map<String, IClusterProperties> mergeDuplicates() throws SpectraClusterException {
+        Map<String, IClusterProperties> changedClusters = new HashMap<>();
+
+        if (pendingDuplicates.isEmpty()) {
+            return changedClusters;
+        }
+
+        String clusterId = null;
+
+        try {
+            clusterStorage.flush();
+
+            for (Map.Entry<String, List<IBinarySpectrum>> duplicates : pendingDuplicates.entrySet()) {
+                clusterId = duplicates.getKey();
+                ICluster cluster = clusterStorage.get(clusterId);
+
+                if (cluster == null) {
+                    throw new SpectraClusterException("Cluster " + clusterId + " was not stored before its duplicates were merged");
+                }
+
+                int orgPrecursorMz = cluster.getPrecursorMz();
+                int orgCharge = cluster.getPrecursorCharge();
+
+                cluster.addSpectra(duplicates.getValue().toArray(new IBinarySpectrum[0]));
+                clusterStorage.put(clusterId, cluster);
+
+                // the loaded cluster properties must be updated
+                if (orgPrecursorMz != cluster.getPrecursorMz() || orgCharge != cluster.getPrecursorCharge()) {
+                    changedClusters.put(clusterId, cluster.getProperties());
+                }
+            }
+
+            clusterStorage.flush();
+        } catch (SpectraClusterException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SpectraClusterException("Failed to add duplicate spectra to cluster " + clusterId + ": " +
+                    e.getMessage(), e);
+        }
+
+        pendingDuplicates.clear();
+
+        return changedClusters;
+    }
+
+    /**
+     * Hashes the precursor m/z, charge and complete peak list.
+     */
+    private long exactSignature(IBinarySpectrum spectrum) {
+        BinaryPeak[] peaks = spectrum.getPeaks();
+
+        long hash = hash(FNV_OFFSET, spectrum.getPrecursorMz());
+        hash = hash(hash, spectrum.getPrecursorCharge());
+        hash = hash(hash, peaks.length);
+
+        for (BinaryPeak peak : peaks) {
+            hash = hash(hash, peak.getMz());
+            hash = hash(hash, peak.getIntensity());
+        }
+
+        return finish(hash);
+    }
+
+    /**
+     * Hashes the complete peak list using a different seed, mixing function and
+     * finalizer than exactSignature. Precursor m/z and charge are compared
+     * separately.
+     */
+    private static long exactCheckHash(IBinarySpectrum spectrum) {
+        BinaryPeak[] peaks = spectrum.getPeaks();
+
+        long hash = CHECK_SEED + peaks.length;
+
+        for (BinaryPeak peak : peaks) {
+            hash = (hash + peak.getMz()) * CHECK_MULTIPLIER;
+            hash = Long.rotateLeft(hash, 31) + peak.getIntensity();
+        }
+
+        // SplitMix64 finalizer
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Hashes the charge and the m/z values of the most intense peaks. The
+     * precursor m/z is compared separately.
+     */
+    private long nearSignature(IBinarySpectrum spectrum) {
+        BinaryPeak[] peaks = spectrum.getPeaks();
+        int nPeaks = Math.min(signaturePeaks, peaks.length);
+
+        // sort by intensity (descending) and m/z to resolve ties
+        BinaryPeak[] sortedPeaks = Arrays.copyOf(peaks, peaks.length);
+        Arrays.sort(sortedPeaks, (p1, p2) -> p1.getIntensity() != p2.getIntensity() ?
+                Integer.compare(p2.getIntensity(), p1.getIntensity()) : Integer.compare(p1.getMz(), p2.getMz()));
+
+        int[] topMz = new int[nPeaks];
+
+        for (int i = 0; i < nPeaks; i++) {
+            topMz[i] = sortedPeaks[i].getMz();
+        }
+
+        Arrays.sort(topMz);
+
+        long hash = hash(FNV_OFFSET, spectrum.getPrecursorCharge());
+        hash = hash(hash, nPeaks);
+
+        for (int mz : topMz) {
+            hash = hash(hash, mz);
+        }
+
+        return finish(hash);
+    }
+
+    private static long hash(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * Final avalanche step of MurmurHash3 to spread the FNV hash over all bits.
+     */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    /**
+     * @return Number of spectra that were collapsed into the cluster of a previous copy.
+     */
+    public long getCollapsedSpectra() {
+        return collapsedSpectra;
+    }
+
+    /**
+     * @return Number of collapsed spectra that were not yet added to their cluster through mergeDuplicates.
+     */
+    public int getPendingDuplicates() {
+        return pendingDuplicates.values().stream().mapToInt(List::size).sum();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    private static class Representative {
+        private final int precursorMz;
+        private final int charge;
+        /** Second hash of the peak list, always 0 in NEAR mode */
+        private final long checkHash;
+        private final String clusterId;
+
+        private Representative(int precursorMz, int charge, long checkHash, String clusterId) {
+            this.precursorMz = precursorMz;
+            this.charge = charge;
+            this.checkHash = checkHash;
+            this.clusterId = clusterId;
+        }
+
+        /**
+         * Tests whether the spectrum with the same signature is a duplicate of this
+         * representative.
+         */
+        private boolean isDuplicate(IBinarySpectrum spectrum, long spectrumCheckHash, int precursorTolerance) {
+            return charge == spectrum.getPrecursorCharge() &&
+                    Math.abs(precursorMz - spectrum.getPrecursorMz()) <= precursorTolerance &&
+                    checkHash == spectrumCheckHash;
+        }
+    }
+}
@@ -0,0 +1,618 @@
+package org.spectra.cluster.io.spectra;
+
+import io.github.bigbio.pgatk.io.common.MzIterableReader;
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import io.github.bigbio.pgatk.io.properties.StoredProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.exceptions.SpectraClusterException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Streaming mzML reader based on StAX. The XML is parsed on the calling thread
+ * while the base64 decoding and decompression of the peak arrays is done on a
+ * pool of worker threads. At most 4 * nThreads spectra are kept in memory at
+ * any time. Spectra are returned in file order.
+ *
+ * Only MS2 spectra are returned. The precursor information is taken from the
+ * first selected ion of the first precursor. Spectra are returned as
+ * {@link ParsedSpectrum} objects using the spectrum's nativeID as id.
+ *
+ * If the file is an indexedmzML file, spectra can additionally be retrieved
+ * through {@link #getSpectrumById(String)}.
+ *
+ * Numpress compressed arrays are not supported.
+ *
+ * @author jg
+ */
+@Slf4j
+public class MzMLSpectraReader implements MzIterableReader {
+    /** Number of threads used to decode the peak arrays by default */
+    public static final int DEFAULT_DECODING_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    // CV accessions used by the reader
+    private static final String MS_LEVEL = "MS:1000511";
+    private static final String SPECTRUM_TITLE = "MS:1000796";
+    private static final String SCAN_START_TIME = "MS:1000016";
+    private static final String SELECTED_ION_MZ = "MS:1000744";
+    private static final String CHARGE_STATE = "MS:1000041";
+    private static final String PEAK_INTENSITY = "MS:1000042";
+    private static final String MZ_ARRAY = "MS:1000514";
+    private static final String INTENSITY_ARRAY = "MS:1000515";
+    private static final String FLOAT_32_BIT = "MS:1000521";
+    private static final String FLOAT_64_BIT = "MS:1000523";
+    private static final String ZLIB_COMPRESSION = "MS:1000574";
+    private static final Set<String> NUMPRESS_COMPRESSION = new HashSet<>(Arrays.asList(
+            "MS:1002312", "MS:1002313", "MS:1002314", "MS:1002746", "MS:1002747", "MS:1002748"));
+    private static final String UNIT_MINUTE = "UO:0000031";
+
+    private static final Pattern INDEX_LIST_OFFSET_PATTERN = Pattern.compile("<indexListOffset>\\s*(\\d+)\\s*</indexListOffset>");
+    private static final int INDEX_OFFSET_SEARCH_BYTES = 4096;
+
+    private final File file;
+    private final XMLInputFactory xmlInputFactory;
+    private final InputStream inputStream;
+    private final XMLStreamReader xmlReader;
+    private final ExecutorService executorService;
+    private final int maxSpectraInProgress;
+    private final Deque<Future<ParsedSpectrum>> spectraInProgress = new ArrayDeque<>();
+    /** referenceableParamGroups by their id */
+    private final Map<String, List<CvParam>> paramGroups = new HashMap<>();
+    /** byte offset of every spectrum by its id - null if the file is not indexed */
+    private final Map<String, Long> spectrumOffsets;
+
+    private boolean atSpectrum;
+
+    /**
+     * Creates a new MzMLSpectraReader using the default number of decoding threads.
+     *
+     * @param file The mzML file to read.
+     * @throws SpectraClusterException If the file cannot be opened.
+     */
+    public MzMLSpectraReader(File file) throws SpectraClusterException {
+        this(file, DEFAULT_DECODING_THREADS);
+    }
+
+    /**
+     * Creates a new MzMLSpectraReader.
+     *
+     * @param file The mzML file to read.
+     * @param nThreads Number of threads to use to decode the peak arrays.
+     * @throws SpectraClusterException If the file cannot be opened.
+     */
+    public MzMLSpectraReader(File file, int nThreads) throws SpectraClusterException {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be at least 1");
+        }
+
+        this.file = file;
+        this.xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        try {
+            this.spectrumOffsets = readSpectrumIndex();
+            this.inputStream = new BufferedInputStream(new FileInputStream(file), 1024 * 1024);
+            this.xmlReader = xmlInputFactory.createXMLStreamReader(inputStream);
+
+            // move to the first spectrum - this also loads all referenceable param groups
+            this.atSpectrum = advanceToNextSpectrum();
+        } catch (IOException | XMLStreamException e) {
+            throw new SpectraClusterException("Failed to open mzML file " + file.getAbsolutePath(), e);
+        }
+
+        this.maxSpectraInProgress = nThreads * 4;
+        this.executorService = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "mzml-decoder-" + file.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public boolean hasNext() {
+        fillPipeline();
+
+        return !spectraInProgress.isEmpty();
+    }
+
+    @Override
+    public Spectrum next() throws NoSuchElementException {
+        fillPipeline();
+
+        Future<ParsedSpectrum> future = spectraInProgress.pollFirst();
+
+        if (future == null) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading " + file.getName(), e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to decode spectrum in " + file.getName() + ": " +
+                    e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    public void close() {
+        executorService.shutdownNow();
+        spectraInProgress.clear();
+
+        try {
+            xmlReader.close();
+            inputStream.close();
+        } catch (XMLStreamException | IOException e) {
+            log.warn("Failed to close " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Indicates whether the file contains a spectrum index and thereby supports random access.
+     */
+    public boolean isIndexed() {
+        return spectrumOffsets != null;
+    }
+
+    /**
+     * @return The ids of all spectra in the file (including non-MS2 spectra) in file order.
+     * @throws SpectraClusterException If the file is not indexed.
+     */
+    public List<String> getSpectrumIds() throws SpectraClusterException {
+        if (!isIndexed()) {
+            throw new SpectraClusterException(file.getName() + " does not contain a spectrum index");
+        }
+
+        return new ArrayList<>(spectrumOffsets.keySet());
+    }
+
+    /**
+     * Retrieves a single spectrum using the file's index. This function can be called
+     * from multiple threads and independent of the streaming access.
+     *
+     * In contrast to the iterator, spectra of all MS levels are returned.
+     *
+     * @param id The spectrum's id (nativeID).
+     * @return The spectrum.
+     * @throws SpectraClusterException If the file is not indexed, the id is unknown or the spectrum cannot be read.
+     */
+    public ParsedSpectrum getSpectrumById(String id) throws SpectraClusterException {
+        if (!isIndexed()) {
+            throw new SpectraClusterException(file.getName() + " does not contain a spectrum index");
+        }
+
+        Long offset = spectrumOffsets.get(id);
+
+        if (offset == null) {
+            throw new SpectraClusterException("Unknown spectrum id '" + id + "' in " + file.getName());
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.position(offset);
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(
+                    new BufferedInputStream(Channels.newInputStream(channel)), StandardCharsets.UTF_8.name());
+
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "spectrum".equals(reader.getLocalName())) {
+                        return decodeSpectrum(parseSpectrum(reader));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException | DataFormatException e) {
+            throw new SpectraClusterException("Failed to read spectrum '" + id + "' from " + file.getName(), e);
+        }
+
+        throw new SpectraClusterException("Invalid offset for spectrum '" + id + "' in " + file.getName());
+    }
+
+    /**
+     * Parses spectra until the defined number of spectra is being
+     * decoded or the end of the spectrum list is reached.
+     */
+    private void fillPipeline() {
+        try {
+            while (atSpectrum && spectraInProgress.size() < maxSpectraInProgress) {
+                EncodedSpectrum encodedSpectrum = parseSpectrum(xmlReader);
+                atSpectrum = advanceToNextSpectrum();
+
+                // only MS2 spectra are relevant
+                if (encodedSpectrum.msLevel != 2) {
+                    continue;
+                }
+
+                spectraInProgress.addLast(executorService.submit(() -> decodeSpectrum(encodedSpectrum)));
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Failed to parse " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Moves the XML reader to the next spectrum element. All
+     * referenceable param groups encountered on the way are stored.
+     *
+     * @return True if the reader is positioned at a spectrum, false if the end of the spectrum list was reached.
+     */
+    private boolean advanceToNextSpectrum() throws XMLStreamException {
+        while (xmlReader.hasNext()) {
+            int event = xmlReader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = xmlReader.getLocalName();
+
+                if ("spectrum".equals(name)) {
+                    return true;
+                }
+                if ("referenceableParamGroup".equals(name)) {
+                    parseParamGroup();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && "spectrumList".equals(xmlReader.getLocalName())) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    private void parseParamGroup() throws XMLStreamException {
+        String id = xmlReader.getAttributeValue(null, "id");
+        List<CvParam> params = new ArrayList<>();
+
+        while (xmlReader.hasNext()) {
+            int event = xmlReader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT && "cvParam".equals(xmlReader.getLocalName())) {
+                params.add(CvParam.fromReader(xmlReader));
+            } else if (event == XMLStreamConstants.END_ELEMENT && "referenceableParamGroup".equals(xmlReader.getLocalName())) {
+                break;
+            }
+        }
+
+        paramGroups.put(id, params);
+    }
+
+    /**
+     * Parses the spectrum element the reader is currently positioned at. The
+     * binary arrays are only extracted but not yet decoded.
+     *
+     * @param reader The XML reader positioned at the spectrum's start element.
+     * @return The spectrum with its still encoded arrays.
+     */
+    private EncodedSpectrum parseSpectrum(XMLStreamReader reader) throws XMLStreamException {
+        EncodedSpectrum spectrum = new EncodedSpectrum();
+        spectrum.id = reader.getAttributeValue(null, "id");
+        String index = reader.getAttributeValue(null, "index");
+        spectrum.index = (index != null) ? Long.parseLong(index) : -1;
+
+        String defaultArrayLength = reader.getAttributeValue(null, "defaultArrayLength");
+        spectrum.arrayLength = (defaultArrayLength != null) ? Integer.parseInt(defaultArrayLength) : -1;
+
+        EncodedArray currentArray = null;
+        boolean inPrecursor = false;
+        boolean precursorDone = false;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "precursor":
+                        inPrecursor = !precursorDone;
+                        break;
+                    case "binaryDataArray":
+                        currentArray = new EncodedArray();
+                        break;
+                    case "binary":
+                        if (currentArray != null) {
+                            currentArray.data = reader.getElementText();
+                        }
+                        break;
+                    case "cvParam":
+                        applyParam(spectrum, currentArray, inPrecursor, CvParam.fromReader(reader));
+                        break;
+                    case "referenceableParamGroupRef":
+                        List<CvParam> groupParams = paramGroups.get(reader.getAttributeValue(null, "ref"));
+                        if (groupParams != null) {
+                            for (CvParam param : groupParams) {
+                                applyParam(spectrum, currentArray, inPrecursor, param);
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = reader.getLocalName();
+
+                if ("spectrum".equals(name)) {
+                    break;
+                } else if ("precursor".equals(name)) {
+                    inPrecursor = false;
+                    precursorDone = true;
+                } else if ("binaryDataArray".equals(name) && currentArray != null) {
+                    if (currentArray.isMz) {
+                        spectrum.mzArray = currentArray;
+                    } else if (currentArray.isIntensity) {
+                        spectrum.intensityArray = currentArray;
+                    }
+                    currentArray = null;
+                }
+            }
+        }
+
+        return spectrum;
+    }
+
+    private static void applyParam(EncodedSpectrum spectrum, EncodedArray currentArray, boolean inPrecursor, CvParam param) {
+        if (param.accession == null) {
+            return;
+        }
+
+        // parameters of the binary arrays
+        if (currentArray != null) {
+            switch (param.accession) {
+                case MZ_ARRAY:
+                    currentArray.isMz = true;
+                    break;
+                case INTENSITY_ARRAY:
+                    currentArray.isIntensity = true;
+                    break;
+                case FLOAT_32_BIT:
+                    currentArray.isDouble = false;
+                    break;
+                case FLOAT_64_BIT:
+                    currentArray.isDouble = true;
+                    break;
+                case ZLIB_COMPRESSION:
+                    currentArray.isZlib = true;
+                    break;
+                default:
+                    if (NUMPRESS_COMPRESSION.contains(param.accession)) {
+                        currentArray.isUnsupported = true;
+                    }
+            }
+            return;
+        }
+
+        if (inPrecursor) {
+            switch (param.accession) {
+                // only use the first selected ion
+                case SELECTED_ION_MZ:
+                    if (spectrum.precursorMz == null) {
+                        spectrum.precursorMz = Double.parseDouble(param.value);
+                    }
+                    break;
+                case CHARGE_STATE:
+                    if (spectrum.precursorCharge == null) {
+                        spectrum.precursorCharge = Integer.parseInt(param.value);
+                    }
+                    break;
+                case PEAK_INTENSITY:
+                    if (spectrum.precursorIntensity == null) {
+                        spectrum.precursorIntensity = Double.parseDouble(param.value);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return;
+        }
+
+        switch (param.accession) {
+            case MS_LEVEL:
+                spectrum.msLevel = Integer.parseInt(param.value);
+                break;
+            case SPECTRUM_TITLE:
+                spectrum.properties.put(StoredProperties.TITLE, param.value);
+                break;
+            case SCAN_START_TIME:
+                // the retention time is always stored in seconds
+                double retentionTime = Double.parseDouble(param.value);
+                if (UNIT_MINUTE.equals(param.unitAccession)) {
+                    retentionTime *= 60;
+                }
+                spectrum.properties.put(StoredProperties.RETENTION_TIME, String.valueOf(retentionTime));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Decodes the peak arrays of the spectrum. This function is called by the worker threads.
+     *
+     * @param spectrum The encoded spectrum.
+     * @return The decoded spectrum.
+     */
+    private ParsedSpectrum decodeSpectrum(EncodedSpectrum spectrum) throws DataFormatException {
+        double[] mz = decodeArray(spectrum.mzArray, spectrum.arrayLength, spectrum.id);
+        double[] intensity = decodeArray(spectrum.intensityArray, spectrum.arrayLength, spectrum.id);
+
+        if (mz.length != intensity.length) {
+            log.warn(String.format("Different number of m/z (%d) and intensity (%d) values for spectrum %s in %s",
+                    mz.length, intensity.length, spectrum.id, file.getName()));
+            int length = Math.min(mz.length, intensity.length);
+            mz = Arrays.copyOf(mz, length);
+            intensity = Arrays.copyOf(intensity, length);
+        }
+
+        return new ParsedSpectrum(spectrum.id, spectrum.index, spectrum.precursorMz, spectrum.precursorIntensity,
+                spectrum.precursorCharge, mz, intensity, spectrum.properties);
+    }
+
+    private static double[] decodeArray(EncodedArray array, int arrayLength, String spectrumId) throws DataFormatException {
+        if (array == null || array.data == null || array.data.isEmpty()) {
+            return new double[0];
+        }
+
+        if (array.isUnsupported) {
+            throw new DataFormatException("Unsupported binary array compression in spectrum " + spectrumId);
+        }
+
+        byte[] bytes = Base64.getMimeDecoder().decode(array.data);
+
+        if (array.isZlib) {
+            bytes = inflate(bytes, arrayLength > 0 ? arrayLength * (array.isDouble ? 8 : 4) : bytes.length * 4);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        double[] values = new double[bytes.length / (array.isDouble ? 8 : 4)];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.isDouble ? buffer.getDouble() : buffer.getFloat();
+        }
+
+        return values;
+    }
+
+    private static byte[] inflate(byte[] compressed, int expectedLength) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+
+        byte[] output = new byte[Math.max(expectedLength, 16)];
+        int length = 0;
+
+        try {
+            while (!inflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+
+                int inflated = inflater.inflate(output, length, output.length - length);
+
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                length += inflated;
+            }
+        } finally {
+            inflater.end();
+        }
+
+        return (length == output.length) ? output : Arrays.copyOf(output, length);
+    }
+
+    /**
+     * Reads the spectrum index of indexedmzML files.
+     *
+     * @return The byte offset of every spectrum by its id or null if the file is not indexed.
+     */
+    private Map<String, Long> readSpectrumIndex() throws IOException, XMLStreamException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the index offset is stored at the end of the file
+            long tailStart = Math.max(0, channel.size() - INDEX_OFFSET_SEARCH_BYTES);
+            ByteBuffer tail = ByteBuffer.allocate((int) (channel.size() - tailStart));
+            channel.read(tail, tailStart);
+
+            Matcher matcher = INDEX_LIST_OFFSET_PATTERN.matcher(
+                    new String(tail.array(), 0, tail.position(), StandardCharsets.US_ASCII));
+
+            if (!matcher.find()) {
+                return null;
+            }
+
+            channel.position(Long.parseLong(matcher.group(1)));
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(
+                    new BufferedInputStream(Channels.newInputStream(channel)), StandardCharsets.UTF_8.name());
+
+            Map<String, Long> offsets = new LinkedHashMap<>();
+            boolean inSpectrumIndex = false;
+
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        if ("index".equals(reader.getLocalName())) {
+                            inSpectrumIndex = "spectrum".equals(reader.getAttributeValue(null, "name"));
+                        } else if (inSpectrumIndex && "offset".equals(reader.getLocalName())) {
+                            String id = reader.getAttributeValue(null, "idRef");
+                            offsets.put(id, Long.parseLong(reader.getElementText().trim()));
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && inSpectrumIndex &&
+                            "index".equals(reader.getLocalName())) {
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+
+            log.debug(String.format("Loaded index of %d spectra from %s", offsets.size(), file.getName()));
+
+            return offsets;
+        }
+    }
+
+    /**
+     * A spectrum whose peak arrays are not yet decoded.
+     */
+    private static class EncodedSpectrum {
+        private String id;
+        private long index;
+        private int arrayLength;
+        private int msLevel = 2;
+        private Double precursorMz;
+        private Double precursorIntensity;
+        private Integer precursorCharge;
+        private EncodedArray mzArray;
+        private EncodedArray intensityArray;
+        private final Map<String, String> properties = new HashMap<>(4);
+    }
+
+    private static class EncodedArray {
+        private String data;
+        private boolean isMz;
+        private boolean isIntensity;
+        private boolean isDouble = true;
+        private boolean isZlib;
+        private boolean isUnsupported;
+    }
+
+    private static class CvParam {
+        private final String accession;
+        private final String value;
+        private final String unitAccession;
+
+        private CvParam(String accession, String value, String unitAccession) {
+            this.accession = accession;
+            this.value = value;
+            this.unitAccession = unitAccession;
+        }
+
+        private static CvParam fromReader(XMLStreamReader reader) {
+            return new CvParam(reader.getAttributeValue(null, "accession"),
+                    reader.getAttributeValue(null, "value"),
+                    reader.getAttributeValue(null, "unitAccession"));
+        }
+    }
+}
@@ -17,13 +17,14 @@ import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
 import org.spectra.cluster.filter.binaryspectrum.IBinarySpectrumFunction;
 import org.spectra.cluster.filter.rawpeaks.*;
 import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.io.cluster.ParallelClusterStorageReader;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
 import org.spectra.cluster.model.cluster.ICluster;
-import org.spectra.cluster.model.commons.ClusterIteratorConverter;
-import org.spectra.cluster.model.commons.ITuple;
-import org.spectra.cluster.model.commons.SpectrumIteratorConverter;
-import org.spectra.cluster.model.commons.Tuple;
+import org.spectra.cluster.model.commons.*;
 import org.spectra.cluster.model.spectra.BinarySpectrum;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.model.spectra.RawSpectrum;
 import org.spectra.cluster.normalizer.*;
 
 import java.io.BufferedReader;
@@ -32,10 +33,17 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This code is licensed under the Apache License, Version 2.0 (the
@@ -52,7 +60,14 @@ import java.util.stream.Stream;
  */
 @Slf4j
 public class MzSpectraReader {
-    private final static IRawPeakFunction top50PeaksFilter = new KeepNHighestRawPeaks(50);
+    private final static KeepNHighestRawPeaks top50PeaksFilter = new KeepNHighestRawPeaks(50);
+
+    private static final Counter SPECTRA_LOADED = MetricsRegistry.counter("reader.spectra_loaded");
+    private static final Counter PEAKS_LOADED = MetricsRegistry.counter("reader.peaks_loaded");
+    private static final Counter PEAKS_AFTER_FILTER = MetricsRegistry.counter("reader.peaks_after_filter");
+
+    /** Number of spectra of non-MGF files that are processed in parallel by readClusters */
+    public static final int SPECTRA_PER_CHUNK = 10_000;
 
     /** Pattern for validating mzML format */
     private static final Pattern mzMLHeaderPattern = Pattern.compile("^[^<]*(<\\?xml [^>]*>\\s*(<!--[^>]*-->\\s*)*)?<(mzML)|(indexedmzML) xmlns=.*", Pattern.MULTILINE);
@@ -107,10 +122,21 @@ public class MzSpectraReader {
 
     private IIntegerNormalizer precursorNormalizer;
 
-    private final IRawSpectrumFunction loadingFilter;
+    /**
+     * The loading filter applied to the primitive peak arrays
+     */
+    private final IRawPeakArrayFunction loadingArrayFilter;
 
     private final IBinarySpectrumFunction comparisonFilter;
 
+    /** The missing support for cluster properties is only reported once */
+    private final AtomicBoolean clusterPropertiesWarningLogged = new AtomicBoolean(false);
+
+    /**
+     * If set, duplicate spectra are collapsed by readClusters
+     */
+    private DuplicateSpectrumCollapser duplicateCollapser;
+
     /**
      * Create a Reader from a file. The file type accepted are mgf or mzml
      * @param files File to be read
@@ -146,6 +172,8 @@ public class MzSpectraReader {
                     }else if( peakListclass == ObjectDBGreedyClusterStorage.class)
                         jMzReader = new ObjectDBGreedyClusterStorage(new ObjectsDB(file
                                 .getAbsolutePath(), false));
+                    else if (peakListclass == MzMLSpectraReader.class)
+                        jMzReader = new MzMLSpectraReader(file);
 //                    else if (peakListclass == AplFile.class)
 //                        jMzReader = new AplFile(file);
 //                    else if(peakListclass == Ms2File.class)
@@ -154,12 +182,10 @@ public class MzSpectraReader {
 //                        jMzReader = new PklFile(file);
 //                    else if(peakListclass == DtaFile.class)
 //                        jMzReader = new PklFile(file);
-//                    } else if(isValidMzML(file))
-//                        jMzReader = new MzMlWrapper(file);
 //                    else if(isValidmzXML(file))
 //                        jMzReader = new MzXMLFile(file);
                 }
-                }catch (PgatkIOException e){
+                }catch (PgatkIOException | SpectraClusterException e){
                     String message = "The file type provided is not supported -- " +
                             Arrays.toString(MzFileType.values()) + ": " + e.getMessage();
                     log.error(message);
@@ -173,7 +199,7 @@ public class MzSpectraReader {
         this.precursorNormalizer = precursorNormalizer;
         this.peaksPerMzWindowFilter = peaksPerMzWindowFilter;
         this.factory = new FactoryNormalizer(mzBinner, intensityBinner);
-        this.loadingFilter = loadingFilter;
+        this.loadingArrayFilter = (loadingFilter != null) ? RawPeakArrayAdapter.of(loadingFilter) : null;
         this.comparisonFilter = comparisonFilter;
     }
 
@@ -201,6 +227,9 @@ public class MzSpectraReader {
                 } else if(peakListclass == ClusteringFileReader.class){
                     jMzReader = new ClusteringFileReader(file);
                     clusteringFile = true;
+                } else if (peakListclass == MzMLSpectraReader.class) {
+                    jMzReader = new MzMLSpectraReader(file);
+                    clusteringFile = false;
                 }
 //                else if (peakListclass == AplFile.class)
 //                    jMzReader = new AplFile(file);
@@ -210,8 +239,6 @@ public class MzSpectraReader {
 //                    jMzReader = new PklFile(file);
 //                else if(peakListclass == DtaFile.class)
 //                    jMzReader = new PklFile(file);
-//            } else if(isValidMzML(file))
-//                jMzReader = new MzMlWrapper(file);
 //            else if(isValidmzXML(file))
 //                jMzReader = new MzXMLFile(file);
             }
@@ -231,7 +258,7 @@ public class MzSpectraReader {
         this.precursorNormalizer = precursorNormalizer;
         this.peaksPerMzWindowFilter = peaksPerMzWindowFilter;
         this.factory = new FactoryNormalizer(mzBinner, intensityBinner);
-        this.loadingFilter = loadingFilter;
+        this.loadingArrayFilter = (loadingFilter != null) ? RawPeakArrayAdapter.of(loadingFilter) : null;
         this.comparisonFilter = comparisonFilter;
         this.clusteringEngine = clusteringEngine;
     }
@@ -303,17 +330,233 @@ public class MzSpectraReader {
             throw new SpectraClusterException("The clusterEngine should be init if you want to retrieve " +
                     "Clusters");
 
-        return new ClusterIteratorConverter<>(iteratorStream, tupleSpectrum -> {
-            // ignore clusters
-            if (tupleSpectrum.getValue() instanceof io.github.bigbio.pgatk.io.common.cluster.ICluster) {
-                return storeCluster(propertyStorage, tupleSpectrum);
+        return new ClusterIteratorConverter<>(iteratorStream, tupleSpectrum -> toCluster(propertyStorage, tupleSpectrum));
+    }
+
+    /**
+     * Returns a stream of all {@link ICluster} transformed from the {@link Spectrum} files. The
+     * returned stream is sequential but can be processed in parallel. In this case, the files
+     * are still read sequentially while the spectra are processed in parallel. Exceptions are
+     * passed on as IllegalStateException.
+     *
+     * @param propertyStorage If set, spectrum properties are stored in this property storage.
+     * @return Stream of {@link ICluster}
+     * @throws SpectraClusterException If no clustering engine is set.
+     */
+    public Stream<ICluster> readClusterStream(IPropertyStorage propertyStorage) throws SpectraClusterException {
+        if(clusteringEngine == null)
+            throw new SpectraClusterException("The clusterEngine should be init if you want to retrieve " +
+                    "Clusters");
+
+        return createTupleStream(SpectrumSpliterator.HAS_PRECURSOR)
+                .map(unchecked(tupleSpectrum -> toCluster(propertyStorage, tupleSpectrum)));
+    }
+
+    /**
+     * Creates the cluster for a loaded spectrum or cluster.
+     */
+    private ICluster toCluster(IPropertyStorage propertyStorage, ITuple tupleSpectrum) throws Exception {
+        // ignore clusters
+        if (tupleSpectrum.getValue() instanceof io.github.bigbio.pgatk.io.common.cluster.ICluster) {
+            return storeCluster(propertyStorage, tupleSpectrum);
+        }
+        // create the single spectrum cluster
+        return clusteringEngine.createSingleSpectrumCluster(
+                peaksPerMzWindowFilter.apply(storeIBinarySpectrum(propertyStorage, tupleSpectrum)));
+    }
+
+    /**
+     * Creates a stream over the spectra of all input files.
+     */
+    private Stream<ITuple> createTupleStream(Predicate<Spectrum> validityCheck) {
+        List<Tuple<File, MzIterableReader>> files = inputFiles.entrySet().stream()
+                .map(x -> new Tuple<>(x.getKey(), x.getValue()))
+                .collect(Collectors.toList());
+
+        return StreamSupport.stream(new SpectrumSpliterator(files, validityCheck), false);
+    }
+
+    /**
+     * Wraps the converter into a function that passes on all exceptions as IllegalStateException.
+     */
+    private static <T> Function<ITuple, T> unchecked(Converter<ITuple, T> converter) {
+        return tuple -> {
+            try {
+                return converter.convert(tuple);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to process spectrum from " + tuple.getKey() + ": " +
+                        e.getMessage(), e);
+            }
+        };
+    }
+
+    /**
+     * Loads all spectra as {@link ICluster} objects and passes them to the consumer. MGF files are read
+     * using the {@link ParallelMgfReader} and the loaded spectra are processed using nThreads threads. Spectra
+     * of every file are passed to the consumer in file order. Previous clustering results (.zcl) are read
+     * using the {@link ParallelClusterStorageReader}. All other files are read using a {@link SpectrumSpliterator}
+     * and the loaded spectra are processed in chunks using nThreads threads.
+     *
+     * The consumer is always called from the calling thread.
+     *
+     * If a {@link DuplicateSpectrumCollapser} is set, duplicate spectra are not passed to the consumer.
+     * The consumer must store every cluster in the collapser's cluster storage. Once all files were read,
+     * the duplicates have to be added to the clusters of their first copy through
+     * {@link DuplicateSpectrumCollapser#mergeDuplicates()}. Stored clusters (.zcl files) are never collapsed.
+     *
+     * @param propertyStorage If set, spectrum properties are stored in this property storage.
+     * @param nThreads Number of threads to use.
+     * @param consumer The consumer to receive the loaded clusters.
+     * @throws SpectraClusterException In case loading any of the files failed.
+     */
+    public void readClusters(IPropertyStorage propertyStorage, int nThreads, Consumer<ICluster> consumer)
+            throws SpectraClusterException {
+        if(clusteringEngine == null)
+            throw new SpectraClusterException("The clusterEngine should be init if you want to retrieve " +
+                    "Clusters");
+
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+
+        try {
+            for (Map.Entry<File, MzIterableReader> inputFile : inputFiles.entrySet()) {
+                if (inputFile.getValue() instanceof MgfIterableReader) {
+                    readMgfClustersInParallel(inputFile.getKey(), propertyStorage, nThreads, pool, consumer);
+                } else if (inputFile.getValue() instanceof ObjectDBGreedyClusterStorage) {
+                    readStoredClustersInParallel(inputFile.getKey(),
+                            (ObjectDBGreedyClusterStorage) inputFile.getValue(), propertyStorage, nThreads, consumer);
+                } else {
+                    readClustersInParallel(inputFile.getKey(), inputFile.getValue(), propertyStorage, pool, consumer);
+                }
             }
-            // create the single spectrum cluster
-            return clusteringEngine.createSingleSpectrumCluster(
-                    peaksPerMzWindowFilter.apply(storeIBinarySpectrum(propertyStorage, tupleSpectrum)));
-        });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void readMgfClustersInParallel(File mgfFile, IPropertyStorage propertyStorage, int nThreads,
+                                           ForkJoinPool pool, Consumer<ICluster> consumer)
+            throws SpectraClusterException {
+        try (ParallelMgfReader reader = new ParallelMgfReader(mgfFile, nThreads)) {
+            while (reader.hasNextChunk()) {
+                List<ParsedSpectrum> chunk = reader.nextChunk();
+
+                // process the chunk's spectra in parallel but retain their order
+                List<IBinarySpectrum> spectra = pool.submit(() -> chunk.parallelStream()
+                        // same validity check as the ClusterIteratorConverter
+                        .filter(spectrum -> spectrum.getPrecursorMZ() != null)
+                        .map(spectrum -> {
+                            try {
+                                return peaksPerMzWindowFilter.apply(
+                                        storeIBinarySpectrum(propertyStorage, mgfFile, spectrum));
+                            } catch (Exception e) {
+                                throw new IllegalStateException("Failed to process spectrum " + spectrum.getId() +
+                                        " in " + mgfFile.getName(), e);
+                            }
+                        })
+                        .collect(Collectors.toList())).get();
+
+                List<ICluster> clusters = pool.submit(() -> spectra.parallelStream()
+                        .map(clusteringEngine::createSingleSpectrumCluster)
+                        .collect(Collectors.toList())).get();
+
+                for (int i = 0; i < clusters.size(); i++) {
+                    // duplicates are collapsed on the calling thread so that the first copy is always the representative
+                    if (duplicateCollapser != null && duplicateCollapser.collapse(spectra.get(i))) {
+                        continue;
+                    }
 
+                    consumer.accept(clusters.get(i));
+                }
+            }
+        } catch (IOException e) {
+            throw new SpectraClusterException("Failed to close " + mgfFile.getName(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpectraClusterException("Interrupted while loading " + mgfFile.getName(), e);
+        } catch (ExecutionException e) {
+            throw new SpectraClusterException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Loads the clusters from any other file type. The file is read sequentially through a
+     * {@link SpectrumSpliterator} while every chunk of SPECTRA_PER_CHUNK spectra is processed
+     * in parallel.
+     */
+    private void readClustersInParallel(File file, MzIterableReader fileReader, IPropertyStorage propertyStorage,
+                                        ForkJoinPool pool, Consumer<ICluster> consumer)
+            throws SpectraClusterException {
+        SpectrumSpliterator spectra = new SpectrumSpliterator(
+                Collections.singletonList(new Tuple<>(file, fileReader)), SpectrumSpliterator.HAS_PRECURSOR);
+        List<ITuple> chunk = new ArrayList<>(SPECTRA_PER_CHUNK);
+        boolean hasMoreSpectra = true;
+
+        try {
+            while (hasMoreSpectra) {
+                chunk.clear();
+
+                while (chunk.size() < SPECTRA_PER_CHUNK && (hasMoreSpectra = spectra.tryAdvance(chunk::add))) {
+                    // only read the spectra
+                }
+
+                // the spectrum is only kept to collapse duplicates and is null for loaded clusters
+                List<Map.Entry<IBinarySpectrum, ICluster>> clusters = pool.submit(() -> chunk.parallelStream()
+                        .map(MzSpectraReader.<Map.Entry<IBinarySpectrum, ICluster>>unchecked(tupleSpectrum -> {
+                            if (tupleSpectrum.getValue() instanceof io.github.bigbio.pgatk.io.common.cluster.ICluster) {
+                                return new AbstractMap.SimpleImmutableEntry<>(null, storeCluster(propertyStorage, tupleSpectrum));
+                            }
+
+                            IBinarySpectrum spectrum = peaksPerMzWindowFilter.apply(
+                                    storeIBinarySpectrum(propertyStorage, tupleSpectrum));
+
+                            return new AbstractMap.SimpleImmutableEntry<>(spectrum,
+                                    clusteringEngine.createSingleSpectrumCluster(spectrum));
+                        }))
+                        .collect(Collectors.toList())).get();
+
+                for (Map.Entry<IBinarySpectrum, ICluster> cluster : clusters) {
+                    // collapsed spectra are not returned as clusters
+                    if (duplicateCollapser != null && cluster.getKey() != null &&
+                            duplicateCollapser.collapse(cluster.getKey())) {
+                        continue;
+                    }
+
+                    consumer.accept(cluster.getValue());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpectraClusterException("Interrupted while loading " + file.getName(), e);
+        } catch (ExecutionException e) {
+            throw new SpectraClusterException(e.getCause().getMessage(), e.getCause());
+        }
+
+        if (spectra.getInvalidSpectra() > 0) {
+            log.debug(String.format("Skipped %d spectra without precursor m/z in %s",
+                    spectra.getInvalidSpectra(), file.getName()));
+        }
+    }
 
+    /**
+     * Loads the clusters of a previous clustering result (.zcl) using the {@link ParallelClusterStorageReader}.
+     * The stored clusters are used as they are, so their consensus spectra are not re-created.
+     */
+    private void readStoredClustersInParallel(File clusterFile, ObjectDBGreedyClusterStorage storage,
+                                              IPropertyStorage propertyStorage, int nThreads,
+                                              Consumer<ICluster> consumer) throws SpectraClusterException {
+        try (ParallelClusterStorageReader reader = new ParallelClusterStorageReader(clusterFile, storage, nThreads)) {
+            log.debug(String.format("Loading %d clusters from %s", reader.getNumberOfClusters(),
+                    clusterFile.getName()));
+
+            while (reader.hasNextBatch()) {
+                for (ICluster cluster : reader.nextBatch()) {
+                    storeClusterProperties(propertyStorage, cluster);
+                    consumer.accept(cluster);
+                }
+            }
+        }
     }
 
     private ICluster storeCluster(IPropertyStorage propertyStorage, ITuple tupleSpectrum) {
@@ -322,16 +565,26 @@ public class MzSpectraReader {
                 (io.github.bigbio.pgatk.io.common.cluster.ICluster) tupleSpectrum.getValue();
 
         ICluster s = transformIOClusterToCluster(spectrum, clusteringEngine);
-//        // save additional properties
-        if (propertyStorage != null) {
-            // TODO: store additional cluster properties
-            log.warn("Loaded cluster properties are currently not stored.");
-        }
+        storeClusterProperties(propertyStorage, s);
 
         return s;
 
     }
 
+    /**
+     * Stores the properties of a loaded cluster in the property storage. Used by
+     * all paths that load (previously clustered) clusters.
+     *
+     * @param propertyStorage The property storage, may be null.
+     * @param cluster The loaded cluster.
+     */
+    private void storeClusterProperties(IPropertyStorage propertyStorage, ICluster cluster) {
+        // TODO: store additional cluster properties
+        if (propertyStorage != null && !clusterPropertiesWarningLogged.getAndSet(true)) {
+            log.warn("Loaded cluster properties are currently not stored.");
+        }
+    }
+
     private ICluster transformIOClusterToCluster(io.github.bigbio.pgatk.io.common.cluster.ICluster spectrum,
                                                  IClusteringEngine engine) {
         return engine.newCluster(spectrum);
@@ -358,6 +611,25 @@ public class MzSpectraReader {
                 peaksPerMzWindowFilter.apply(storeIBinarySpectrum(propertyStorage, tupleSpectrum)));
     }
 
+    /**
+     * Returns a stream of all {@link IBinarySpectrum} transformed from the {@link Spectrum} files.
+     * The returned stream is sequential but can be processed in parallel. In this case, the files
+     * are still read sequentially while the spectra are processed in parallel. Exceptions are
+     * passed on as IllegalStateException.
+     *
+     * @param propertyStorage If set, spectrum properties are stored in this property storage.
+     * @return Stream of {@link BinarySpectrum} spectra
+     * @throws SpectraClusterException If the reader was created for clustering files.
+     */
+    public Stream<IBinarySpectrum> readBinarySpectraStream(IPropertyStorage propertyStorage) throws SpectraClusterException {
+        if(clusteringFile)
+            throw new SpectraClusterException("The clustering file do not support BinarySpectra Iterator");
+
+        return createTupleStream(SpectrumSpliterator.HAS_PRECURSOR_AND_CHARGE)
+                .map(unchecked(tupleSpectrum ->
+                        peaksPerMzWindowFilter.apply(storeIBinarySpectrum(propertyStorage, tupleSpectrum))));
+    }
+
     /**
      * Stores the spectrum's properties in the property storage and returns
      * the binary spectrum with defined filters already applied.
@@ -370,36 +642,83 @@ public class MzSpectraReader {
      * @return IBinarySpectrum
      */
     private IBinarySpectrum storeIBinarySpectrum(IPropertyStorage propertyStorage, ITuple tupleSpectrum) throws Exception {
+        return storeIBinarySpectrum(propertyStorage, (File) tupleSpectrum.getKey(), (Spectrum) tupleSpectrum.getValue());
+    }
 
-        File inputFile = (File) tupleSpectrum.getKey();
-        Spectrum spectrum = (Spectrum) tupleSpectrum.getValue();
+    /**
+     * Stores the spectrum's properties in the property storage and returns
+     * the binary spectrum with defined filters already applied.
+     *
+     * All properties of a spectrum are written to the property storage at once
+     * and synchronized on the storage. This function can therefore be called
+     * from multiple threads.
+     *
+     * @param propertyStorage Property Storage
+     * @param inputFile The file the spectrum was read from
+     * @param spectrum The spectrum to process
+     * @return IBinarySpectrum
+     */
+    private IBinarySpectrum storeIBinarySpectrum(IPropertyStorage propertyStorage, File inputFile, Spectrum spectrum) throws Exception {
+        // the filters work on the m/z sorted peak arrays
+        RawSpectrum rawSpectrum = toRawSpectrum(spectrum);
+
+        SPECTRA_LOADED.increment();
+        PEAKS_LOADED.add(rawSpectrum.size());
+
+        // save the original top 50 peaks before the peaks are filtered
+        StringBuilder mzValues = new StringBuilder(50);
+        StringBuilder intensValues = new StringBuilder(50);
+
+        if (propertyStorage != null) {
+            boolean isFirst = true;
+
+            for (int peakIndex : top50PeaksFilter.getHighestPeakIndexes(rawSpectrum)) {
+                // add the delimiter
+                if (!isFirst) {
+                    mzValues.append(",");
+                    intensValues.append(",");
+                } else {
+                    isFirst = false;
+                }
 
-        // retain the top 50 peaks for later
-        Map<Double, Double> top50Peaks = top50PeaksFilter.apply(spectrum.getPeakList());
+                mzValues.append(String.format("%.4f", rawSpectrum.getMz(peakIndex)));
+                intensValues.append(String.format("%.4f", rawSpectrum.getIntensity(peakIndex)));
+            }
+        }
 
         // apply the initial loading filter
-        if (loadingFilter != null) {
-            spectrum = loadingFilter.apply(spectrum);
+        if (loadingArrayFilter != null) {
+            rawSpectrum = loadingArrayFilter.filter(rawSpectrum);
         }
 
         IBinarySpectrum s = new BinarySpectrum(
                 ((BasicIntegerNormalizer)precursorNormalizer).binValue(spectrum.getPrecursorMZ()),
                 (spectrum.getPrecursorCharge() != null) ? spectrum.getPrecursorCharge() : 0,
-                factory.normalizePeaks(spectrum.getPeakList()),
+                factory.normalizePeaks(rawSpectrum),
                 comparisonFilter);
 
+        PEAKS_AFTER_FILTER.add(s.getNumberOfPeaks());
+
         // save spectrum properties
         if (propertyStorage != null) {
+            Map<String, String> properties = new HashMap<>(16);
+
             for (Param param: spectrum.getAdditional()) {
-                propertyStorage.put(s.getUUI(), param.getName(), param.getValue());
+                properties.put(param.getName(), param.getValue());
 
                 // TODO: map the title and retention time from existing cvParams
                 // current implementation might only work for MGF files.
 
                 // TODO: put support for PTMs
             }
+
+            // spectra read by the native readers already have mapped properties
+            if (spectrum instanceof ParsedSpectrum) {
+                properties.putAll(((ParsedSpectrum) spectrum).getProperties());
+            }
+
             // always store the original filename
-            propertyStorage.put(s.getUUI(), StoredProperties.ORG_FILENAME, inputFile.getName());
+            properties.put(StoredProperties.ORG_FILENAME, inputFile.getName());
 
             String spectrumId = spectrum.getId();
 
@@ -408,31 +727,19 @@ public class MzSpectraReader {
                 spectrumId = "index=" + spectrumId;
             }
 
-            propertyStorage.put(s.getUUI(), StoredProperties.FILE_INDEX, spectrumId);
-            propertyStorage.put(s.getUUI(), StoredProperties.PRECURSOR_MZ, String.valueOf(spectrum.getPrecursorMZ()));
-            propertyStorage.put(s.getUUI(), StoredProperties.CHARGE, String.valueOf(spectrum.getPrecursorCharge()));
+            properties.put(StoredProperties.FILE_INDEX, spectrumId);
+            properties.put(StoredProperties.PRECURSOR_MZ, String.valueOf(spectrum.getPrecursorMZ()));
+            properties.put(StoredProperties.CHARGE, String.valueOf(spectrum.getPrecursorCharge()));
 
             // save the original peaklist
-            StringBuilder mzValues = new StringBuilder(50);
-            StringBuilder intensValues = new StringBuilder(50);
-
-            boolean isFirst = true;
+            properties.put(StoredProperties.ORIGINAL_PEAKS_MZ, mzValues.toString());
+            properties.put(StoredProperties.ORIGINAL_PEAKS_INTENS, intensValues.toString());
 
-            for (Double mz : top50Peaks.keySet()) {
-                // add the delimiter
-                if (!isFirst) {
-                    mzValues.append(",");
-                    intensValues.append(",");
-                } else {
-                    isFirst = false;
+            synchronized (propertyStorage) {
+                for (Map.Entry<String, String> property : properties.entrySet()) {
+                    propertyStorage.put(s.getUUI(), property.getKey(), property.getValue());
                 }
-
-                mzValues.append(String.format("%.4f", mz));
-                intensValues.append(String.format("%.4f", top50Peaks.get(mz)));
             }
-
-            propertyStorage.put(s.getUUI(), StoredProperties.ORIGINAL_PEAKS_MZ, mzValues.toString());
-            propertyStorage.put(s.getUUI(), StoredProperties.ORIGINAL_PEAKS_INTENS, intensValues.toString());
         }
 
         // call the listeners
@@ -444,6 +751,23 @@ public class MzSpectraReader {
     }
 
 
+    /**
+     * Converts the spectrum to a RawSpectrum. The peak arrays of spectra read by the
+     * native readers are copied directly without creating the map based peak list.
+     */
+    private static RawSpectrum toRawSpectrum(Spectrum spectrum) {
+        if (spectrum instanceof ParsedSpectrum) {
+            ParsedSpectrum parsedSpectrum = (ParsedSpectrum) spectrum;
+
+            return RawSpectrum.fromArrays(spectrum,
+                    spectrum.getPrecursorMZ() != null ? spectrum.getPrecursorMZ() : 0,
+                    spectrum.getPrecursorCharge() != null ? spectrum.getPrecursorCharge() : 0,
+                    parsedSpectrum.getMz().clone(), parsedSpectrum.getIntensity().clone());
+        }
+
+        return RawSpectrum.fromSpectrum(spectrum);
+    }
+
     /**
      * Get the Class for the specific Peak List reader
      * @param file File to be read
@@ -456,6 +780,8 @@ public class MzSpectraReader {
             return MgfIterableReader.class;
         else if(filename.endsWith(MzFileType.CLUSTERING.getExtension()))
             return ObjectDBGreedyClusterStorage.class;
+        else if (isValidMzML(file))
+            return MzMLSpectraReader.class;
 //        else if (filename.endsWith(MzFileType.MS2.getExtension()))
 //            return Ms2File.class;
 //        else if (filename.endsWith(MzFileType.PKL.getExtension()))
@@ -540,4 +866,17 @@ public class MzSpectraReader {
     public void removeSpectrumListener(ISpectrumListener theListener) {
         listener.remove(theListener);
     }
+
+    /**
+     * Sets the collapser used by readClusters to collapse duplicate spectra.
+     *
+     * @param duplicateCollapser The collapser to use, null to disable collapsing.
+     */
+    public void setDuplicateCollapser(DuplicateSpectrumCollapser duplicateCollapser) {
+        this.duplicateCollapser = duplicateCollapser;
+    }
+
+    public DuplicateSpectrumCollapser getDuplicateCollapser() {
+        return duplicateCollapser;
+    }
 }
@@ -0,0 +1,616 @@
+package org.spectra.cluster.io.spectra;
+
+import io.github.bigbio.pgatk.io.properties.StoredProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.exceptions.SpectraClusterException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Reads a single MGF file using multiple threads. The file is split into
+ * byte ranges ("chunks") that always start at a "BEGIN IONS" line. Every
+ * chunk is memory mapped and parsed on its own thread directly into
+ * {@link ParsedSpectrum} objects holding primitive peak arrays.
+ *
+ * Chunks are returned in file order through {@link #nextChunk()}. While a
+ * chunk is being processed by the caller, up to 2 * nThreads following chunks
+ * are already parsed in the background. The spectra's indexes always refer
+ * to the (0-based) position of the spectrum within the complete file.
+ *
+ * The global MGF parameters before the first BEGIN IONS line are parsed when
+ * the reader is created. A global CHARGE is used for all spectra that do not
+ * define their own charge. All other global parameters describe the search
+ * settings and are ignored.
+ *
+ * @author jg
+ */
+@Slf4j
+public class ParallelMgfReader implements Closeable {
+    /** Default size of a chunk in bytes */
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+
+    private static final byte[] BEGIN_IONS = "BEGIN IONS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END_IONS = "END IONS".getBytes(StandardCharsets.US_ASCII);
+    private static final int SEARCH_WINDOW = 64 * 1024;
+
+    /** Powers of 10 that can be represented exactly as doubles */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /** Maximum number of digits that is still guaranteed to be represented exactly as a long / double */
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long[] chunkBoundaries;
+    /** The charge defined in the global parameters, null if not set */
+    private final Integer globalCharge;
+    private final ExecutorService executorService;
+    private final int maxChunksInProgress;
+    private final Deque<Future<List<ParsedSpectrum>>> chunksInProgress = new ArrayDeque<>();
+
+    private int nextChunkToSubmit = 0;
+    private long spectraReturned = 0;
+
+    /**
+     * Creates a new ParallelMgfReader using the default chunk size.
+     *
+     * @param file The MGF file to read.
+     * @param nThreads Number of threads to use for parsing.
+     * @throws SpectraClusterException If the file cannot be opened.
+     */
+    public ParallelMgfReader(File file, int nThreads) throws SpectraClusterException {
+        this(file, nThreads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new ParallelMgfReader.
+     *
+     * @param file The MGF file to read.
+     * @param nThreads Number of threads to use for parsing.
+     * @param chunkSize The (approximate) size of a chunk in bytes.
+     * @throws SpectraClusterException If the file cannot be opened.
+     */
+    public ParallelMgfReader(File file, int nThreads, int chunkSize) throws SpectraClusterException {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("nThreads must be at least 1");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+
+        this.file = file;
+
+        try {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.fileSize = channel.size();
+            this.chunkBoundaries = findChunkBoundaries(chunkSize);
+            // the first chunk always contains the complete global header
+            this.globalCharge = new ChunkParser(mapChunk(0), null).parseGlobalCharge();
+        } catch (IOException e) {
+            throw new SpectraClusterException("Failed to open MGF file " + file.getAbsolutePath(), e);
+        }
+
+        this.maxChunksInProgress = nThreads * 2;
+        this.executorService = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "mgf-reader-" + file.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        log.debug(String.format("Reading %s in %d chunks using %d threads", file.getName(),
+                getNumberOfChunks(), nThreads));
+    }
+
+    /**
+     * @return The charge defined in the file's global parameters or null if none is set.
+     */
+    public Integer getGlobalCharge() {
+        return globalCharge;
+    }
+
+    /**
+     * @return The total number of chunks the file was split into.
+     */
+    public int getNumberOfChunks() {
+        return chunkBoundaries.length - 1;
+    }
+
+    /**
+     * @return Number of spectra returned so far.
+     */
+    public long getSpectraReturned() {
+        return spectraReturned;
+    }
+
+    /**
+     * @return Indicates whether there are more chunks to read.
+     */
+    public boolean hasNextChunk() {
+        return !chunksInProgress.isEmpty() || nextChunkToSubmit < getNumberOfChunks();
+    }
+
+    /**
+     * Returns the spectra of the next chunk in file order.
+     *
+     * @return List of spectra. The list may be empty if the chunk did not contain any spectra.
+     * @throws SpectraClusterException If parsing the chunk failed.
+     */
+    public List<ParsedSpectrum> nextChunk() throws SpectraClusterException {
+        submitChunks();
+
+        Future<List<ParsedSpectrum>> future = chunksInProgress.pollFirst();
+
+        if (future == null) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            List<ParsedSpectrum> localSpectra = future.get();
+            List<ParsedSpectrum> spectra = new ArrayList<>(localSpectra.size());
+
+            // convert the index within the chunk into the index within the file
+            for (ParsedSpectrum spectrum : localSpectra) {
+                long index = spectraReturned + spectrum.getIndex();
+                spectra.add(spectrum.withId("index=" + index, index));
+            }
+
+            spectraReturned += spectra.size();
+
+            // keep the pipeline filled
+            submitChunks();
+
+            return spectra;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpectraClusterException("Interrupted while reading " + file.getName(), e);
+        } catch (ExecutionException e) {
+            throw new SpectraClusterException("Failed to parse " + file.getName() + ": " +
+                    e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        chunksInProgress.clear();
+        channel.close();
+    }
+
+    private void submitChunks() {
+        while (chunksInProgress.size() < maxChunksInProgress && nextChunkToSubmit < getNumberOfChunks()) {
+            final int chunk = nextChunkToSubmit++;
+
+            chunksInProgress.addLast(executorService.submit(() -> new ChunkParser(mapChunk(chunk), globalCharge).parse()));
+        }
+    }
+
+    /**
+     * Splits the file into chunks of approximately chunkSize bytes. Every
+     * chunk starts with a "BEGIN IONS" line (except for the first one
+     * which starts at the beginning of the file).
+     *
+     * @param chunkSize The targeted size of a chunk.
+     * @return The chunk boundaries. Chunk N spans from boundary N (inclusive) to boundary N + 1 (exclusive).
+     */
+    private long[] findChunkBoundaries(int chunkSize) throws IOException {
+        List<Long> boundaries = new ArrayList<>((int) (fileSize / chunkSize) + 2);
+        boundaries.add(0L);
+
+        long lastBoundary = 0;
+
+        while (lastBoundary + chunkSize < fileSize) {
+            long nextBoundary = findNextSpectrumStart(lastBoundary + chunkSize);
+
+            if (nextBoundary < 0) {
+                break;
+            }
+
+            boundaries.add(nextBoundary);
+            lastBoundary = nextBoundary;
+        }
+
+        boundaries.add(fileSize);
+
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Finds the first "BEGIN IONS" line starting at or after the
+     * defined position.
+     *
+     * @param from Position in the file to start searching at.
+     * @return The position of the "BEGIN IONS" line or -1 if there is none.
+     */
+    private long findNextSpectrumStart(long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SEARCH_WINDOW);
+        // start one byte earlier to be able to check for the preceding line break
+        long position = from - 1;
+
+        while (position < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+
+            if (read <= BEGIN_IONS.length) {
+                return -1;
+            }
+
+            for (int i = 1; i + BEGIN_IONS.length <= read; i++) {
+                if (buffer.get(i - 1) == '\n' && startsWith(buffer, i, read, BEGIN_IONS)) {
+                    return position + i;
+                }
+            }
+
+            // keep an overlap to find matches that span two windows
+            position += read - BEGIN_IONS.length;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Memory maps the defined chunk.
+     *
+     * @param chunk Index of the chunk.
+     * @return The chunk's content.
+     */
+    private MappedByteBuffer mapChunk(int chunk) throws IOException {
+        long start = chunkBoundaries[chunk];
+        long end = chunkBoundaries[chunk + 1];
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int position, int limit, byte[] prefix) {
+        if (position + prefix.length > limit) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Parser for a single chunk. Lines are processed directly on the
+     * (memory mapped) buffer without creating String objects for the
+     * peak lines.
+     */
+    private static class ChunkParser {
+        private final ByteBuffer buffer;
+        /** charge of spectra that do not define a charge */
+        private final Integer defaultCharge;
+        private final List<ParsedSpectrum> spectra = new ArrayList<>();
+
+        /** start of the next line */
+        private int nextLineStart;
+        /** current position within the line */
+        private int cursor;
+        /** end of the current line (exclusive, trailing whitespace removed) */
+        private int lineEnd;
+
+        // the state of the current spectrum
+        private Double precursorMz;
+        private Double precursorIntensity;
+        private Integer precursorCharge;
+        private Map<String, String> properties;
+        private double[] mz = new double[256];
+        private double[] intensity = new double[256];
+        private int nPeaks;
+
+        private ChunkParser(ByteBuffer buffer, Integer defaultCharge) {
+            this.buffer = buffer;
+            this.defaultCharge = defaultCharge;
+        }
+
+        /**
+         * Parses the global parameters before the first BEGIN IONS line.
+         *
+         * @return The global charge or null if it is not set.
+         */
+        private Integer parseGlobalCharge() {
+            // the global parameters are parsed like the header of a spectrum
+            startSpectrum();
+
+            while (nextLine()) {
+                if (startsWith(buffer, cursor, lineEnd, BEGIN_IONS)) {
+                    break;
+                }
+
+                parseHeader();
+            }
+
+            return precursorCharge;
+        }
+
+        private List<ParsedSpectrum> parse() {
+            boolean inSpectrum = false;
+
+            while (nextLine()) {
+                if (!inSpectrum) {
+                    if (startsWith(buffer, cursor, lineEnd, BEGIN_IONS)) {
+                        startSpectrum();
+                        inSpectrum = true;
+                    }
+                    continue;
+                }
+
+                byte firstByte = buffer.get(cursor);
+
+                if (firstByte >= '0' && firstByte <= '9') {
+                    parsePeak();
+                } else if (startsWith(buffer, cursor, lineEnd, END_IONS)) {
+                    finishSpectrum();
+                    inSpectrum = false;
+                } else {
+                    parseHeader();
+                }
+            }
+
+            return spectra;
+        }
+
+        /**
+         * Moves the cursor to the next line that is neither empty nor a comment.
+         * Leading and trailing whitespace is removed.
+         *
+         * @return False if the end of the buffer was reached.
+         */
+        private boolean nextLine() {
+            final int limit = buffer.limit();
+
+            while (nextLineStart < limit) {
+                // find the end of the line
+                int lineBreak = nextLineStart;
+                while (lineBreak < limit && buffer.get(lineBreak) != '\n') {
+                    lineBreak++;
+                }
+
+                // remove leading and trailing whitespace
+                cursor = nextLineStart;
+                lineEnd = lineBreak;
+                while (cursor < lineEnd && isWhitespace(buffer.get(cursor))) {
+                    cursor++;
+                }
+                while (lineEnd > cursor && isWhitespace(buffer.get(lineEnd - 1))) {
+                    lineEnd--;
+                }
+
+                nextLineStart = lineBreak + 1;
+
+                // ignore empty lines and comments
+                if (cursor < lineEnd && !isComment(buffer.get(cursor))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void startSpectrum() {
+            precursorMz = null;
+            precursorIntensity = null;
+            precursorCharge = defaultCharge;
+            properties = new HashMap<>(8);
+            nPeaks = 0;
+        }
+
+        private void finishSpectrum() {
+            // the id is set once the chunk's position in the file is known
+            spectra.add(new ParsedSpectrum(null, spectra.size(), precursorMz, precursorIntensity, precursorCharge,
+                    Arrays.copyOf(mz, nPeaks), Arrays.copyOf(intensity, nPeaks), properties));
+        }
+
+        private void parsePeak() {
+            double peakMz = parseNumber();
+            skipWhitespace();
+            double peakIntensity = (cursor < lineEnd) ? parseNumber() : 0;
+
+            if (Double.isNaN(peakMz)) {
+                return;
+            }
+
+            if (nPeaks == mz.length) {
+                mz = Arrays.copyOf(mz, nPeaks * 2);
+                intensity = Arrays.copyOf(intensity, nPeaks * 2);
+            }
+
+            mz[nPeaks] = peakMz;
+            intensity[nPeaks] = Double.isNaN(peakIntensity) ? 0 : peakIntensity;
+            nPeaks++;
+        }
+
+        private void parseHeader() {
+            int separator = cursor;
+            while (separator < lineEnd && buffer.get(separator) != '=') {
+                separator++;
+            }
+
+            // ignore invalid lines
+            if (separator >= lineEnd) {
+                return;
+            }
+
+            String key = decode(cursor, separator).trim().toUpperCase(Locale.ROOT);
+            cursor = separator + 1;
+
+            switch (key) {
+                case "PEPMASS":
+                    skipWhitespace();
+                    double mzValue = parseNumber();
+                    precursorMz = Double.isNaN(mzValue) ? null : mzValue;
+                    skipWhitespace();
+                    if (cursor < lineEnd) {
+                        double intensValue = parseNumber();
+                        precursorIntensity = Double.isNaN(intensValue) ? null : intensValue;
+                    }
+                    break;
+                case "CHARGE":
+                    precursorCharge = parseCharge();
+                    break;
+                case "TITLE":
+                    properties.put(StoredProperties.TITLE, decode(cursor, lineEnd));
+                    break;
+                case "RTINSECONDS":
+                    properties.put(StoredProperties.RETENTION_TIME, decode(cursor, lineEnd));
+                    break;
+                case "SEQ":
+                    properties.put(StoredProperties.SEQUENCE, decode(cursor, lineEnd));
+                    break;
+                default:
+                    properties.put(key, decode(cursor, lineEnd));
+            }
+        }
+
+        /**
+         * Parses charge states in the formats "2", "2+", "+2", "2-" and
+         * "2+ and 3+". In the latter case only the first charge is used.
+         *
+         * @return The charge or null if it cannot be parsed.
+         */
+        private Integer parseCharge() {
+            skipWhitespace();
+            boolean negative = false;
+
+            if (cursor < lineEnd && (buffer.get(cursor) == '+' || buffer.get(cursor) == '-')) {
+                negative = buffer.get(cursor) == '-';
+                cursor++;
+            }
+
+            int charge = 0;
+            int digits = 0;
+
+            while (cursor < lineEnd && buffer.get(cursor) >= '0' && buffer.get(cursor) <= '9') {
+                charge = charge * 10 + (buffer.get(cursor) - '0');
+                digits++;
+                cursor++;
+            }
+
+            if (digits == 0) {
+                return null;
+            }
+
+            if (cursor < lineEnd && buffer.get(cursor) == '-') {
+                negative = true;
+            }
+
+            return negative ? -charge : charge;
+        }
+
+        /**
+         * Parses a decimal number starting at the cursor. Numbers with up to 15 significant
+         * digits and without exponent are parsed without creating any objects. Since both
+         * the digits and the power of 10 are exact doubles, the result is identical
+         * to Double.parseDouble.
+         *
+         * @return The number or NaN if no number is found.
+         */
+        private double parseNumber() {
+            final int start = cursor;
+            boolean negative = false;
+
+            if (cursor < lineEnd && (buffer.get(cursor) == '-' || buffer.get(cursor) == '+')) {
+                negative = buffer.get(cursor) == '-';
+                cursor++;
+            }
+
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = 0;
+            boolean inFraction = false;
+            boolean useSlowPath = false;
+
+            while (cursor < lineEnd) {
+                byte c = buffer.get(cursor);
+
+                if (c >= '0' && c <= '9') {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (inFraction) {
+                        fractionDigits++;
+                    }
+                    if (digits > MAX_FAST_DIGITS) {
+                        useSlowPath = true;
+                    }
+                } else if (c == '.' && !inFraction) {
+                    inFraction = true;
+                } else if (c == 'e' || c == 'E') {
+                    useSlowPath = true;
+                    cursor++;
+                    if (cursor < lineEnd && (buffer.get(cursor) == '-' || buffer.get(cursor) == '+')) {
+                        cursor++;
+                    }
+                    while (cursor < lineEnd && buffer.get(cursor) >= '0' && buffer.get(cursor) <= '9') {
+                        cursor++;
+                    }
+                    break;
+                } else {
+                    break;
+                }
+
+                cursor++;
+            }
+
+            if (digits == 0) {
+                return Double.NaN;
+            }
+
+            if (useSlowPath) {
+                try {
+                    return Double.parseDouble(decode(start, cursor));
+                } catch (NumberFormatException e) {
+                    return Double.NaN;
+                }
+            }
+
+            double value = (fractionDigits == 0) ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+
+            return negative ? -value : value;
+        }
+
+        private void skipWhitespace() {
+            while (cursor < lineEnd && isWhitespace(buffer.get(cursor))) {
+                cursor++;
+            }
+        }
+
+        private String decode(int from, int to) {
+            byte[] bytes = new byte[to - from];
+
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static boolean isWhitespace(byte c) {
+            return c == ' ' || c == '\t' || c == '\r';
+        }
+
+        private static boolean isComment(byte c) {
+            return c == '#' || c == ';' || c == '!' || c == '/';
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.spectra.cluster.io.spectra;
+
+import io.github.bigbio.pgatk.io.common.Param;
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * A spectrum parsed by one of the native readers ({@link ParallelMgfReader},
+ * {@link MzMLSpectraReader}). The peaks are kept as primitive arrays. The map
+ * based peak list required by the {@link Spectrum} interface is only created
+ * if it is requested (ie. by one of the raw peak filters).
+ *
+ * The spectrum's id is already PSI compatible (ie. "index=N" for MGF files or
+ * the nativeID for mzML files).
+ *
+ * Additional fields (title, retention time, ...) are not available as
+ * {@link Param} objects but through {@link #getProperties()} which already
+ * uses the names defined in
+ * {@link io.github.bigbio.pgatk.io.properties.StoredProperties}.
+ *
+ * @author jg
+ */
+public class ParsedSpectrum implements Spectrum {
+    private final String id;
+    private final long index;
+    private final Double precursorMz;
+    private final Double precursorIntensity;
+    private final Integer precursorCharge;
+    private final double[] mz;
+    private final double[] intensity;
+    private final Map<String, String> properties;
+
+    private Map<Double, Double> peakList;
+
+    /**
+     * Creates a new ParsedSpectrum.
+     *
+     * @param id The PSI compatible id of the spectrum.
+     * @param index 0-based index of the spectrum within the file.
+     * @param precursorMz The precursor m/z.
+     * @param precursorIntensity The precursor intensity or null.
+     * @param precursorCharge The precursor charge or null if not set.
+     * @param mz The m/z values of the peaks.
+     * @param intensity The intensity values of the peaks.
+     * @param properties Additional properties (title, retention time, sequence, ...).
+     */
+    public ParsedSpectrum(String id, long index, Double precursorMz, Double precursorIntensity, Integer precursorCharge,
+                       double[] mz, double[] intensity, Map<String, String> properties) {
+        this.id = id;
+        this.index = index;
+        this.precursorMz = precursorMz;
+        this.precursorIntensity = precursorIntensity;
+        this.precursorCharge = precursorCharge;
+        this.mz = mz;
+        this.intensity = intensity;
+        this.properties = properties;
+    }
+
+    /**
+     * Returns a copy of this spectrum using a different id and index. This is used to convert
+     * a chunk-relative index into the index within the complete file.
+     *
+     * @param newId The new id.
+     * @param newIndex The new index.
+     * @return A new ParsedSpectrum sharing this spectrum's peaks.
+     */
+    ParsedSpectrum withId(String newId, long newIndex) {
+        return new ParsedSpectrum(newId, newIndex, precursorMz, precursorIntensity, precursorCharge, mz, intensity, properties);
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public Long getIndex() {
+        return index;
+    }
+
+    @Override
+    public Integer getPrecursorCharge() {
+        return precursorCharge;
+    }
+
+    @Override
+    public Double getPrecursorMZ() {
+        return precursorMz;
+    }
+
+    @Override
+    public Double getPrecursorIntensity() {
+        return precursorIntensity;
+    }
+
+    @Override
+    public Map<Double, Double> getPeakList() {
+        if (peakList == null) {
+            peakList = new HashMap<>(mz.length * 2);
+
+            for (int i = 0; i < mz.length; i++) {
+                peakList.put(mz[i], intensity[i]);
+            }
+        }
+
+        return peakList;
+    }
+
+    /**
+     * Only MS2 spectra are returned by the native readers.
+     *
+     * @return 2
+     */
+    @Override
+    public Integer getMsLevel() {
+        return 2;
+    }
+
+    /**
+     * Additional fields are returned through {@link #getProperties()}.
+     *
+     * @return An empty collection.
+     */
+    @Override
+    public Collection<? extends Param> getAdditional() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * The additional fields of this spectrum. Known fields are already mapped
+     * to the names used in the property storage.
+     *
+     * @return Map with the property name as key.
+     */
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    /**
+     * @return The m/z values of the peaks as they were read from the file. The array must not be changed.
+     */
+    public double[] getMz() {
+        return mz;
+    }
+
+    /**
+     * @return The intensity values of the peaks as they were read from the file. The array must not be changed.
+     */
+    public double[] getIntensity() {
+        return intensity;
+    }
+
+    /**
+     * @return Number of peaks in the spectrum.
+     */
+    public int getNumberOfPeaks() {
+        return mz.length;
+    }
+}
@@ -0,0 +1,47 @@
+package org.spectra.cluster.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe counter. Updates are ignored while the
+ * metrics are disabled.
+ *
+ * @author jg
+ */
+public class Counter {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Increments the counter by one.
+     */
+    public void increment() {
+        if (MetricsRegistry.isEnabled())
+            count.increment();
+    }
+
+    /**
+     * Adds the passed value to the counter.
+     * @param value The value to add.
+     */
+    public void add(long value) {
+        if (MetricsRegistry.isEnabled())
+            count.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    void reset() {
+        count.reset();
+    }
+}
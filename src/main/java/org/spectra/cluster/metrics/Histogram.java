@@ -0,0 +1,125 @@
+package org.spectra.cluster.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of non-negative values. Values are counted
+ * in buckets with power of two upper bounds (0, 1, 2, 4, 8, ...).
+ * Updates are ignored while the metrics are disabled.
+ *
+ * @author jg
+ */
+public class Histogram {
+    /** Bucket i holds values < 2^i, the last bucket all remaining values */
+    private static final int N_BUCKETS = 48;
+
+    private final String name;
+    private final LongAdder[] buckets = new LongAdder[N_BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram(String name) {
+        this.name = name;
+
+        for (int i = 0; i < N_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a single value. Negative values are counted as 0.
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (!MetricsRegistry.isEnabled())
+            return;
+
+        if (value < 0)
+            value = 0;
+
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), N_BUCKETS - 1);
+
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = getCount();
+
+        return (n > 0) ? getSum() / (double) n : 0;
+    }
+
+    /**
+     * Returns the counts per bucket. Bucket i contains all values
+     * smaller than 2^i that are not part of the previous bucket.
+     * @return The counts per bucket.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[N_BUCKETS];
+
+        for (int i = 0; i < N_BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns an approximate quantile based on the bucket upper bounds.
+     * @param quantile The quantile (0 - 1).
+     * @return The upper bound of the bucket containing the quantile.
+     */
+    public long getApproximateQuantile(double quantile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+
+        for (long c : counts) {
+            total += c;
+        }
+
+        if (total < 1)
+            return 0;
+
+        long threshold = (long) Math.ceil(quantile * total);
+        long cumulative = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+
+            if (cumulative >= threshold)
+                return Math.min((i == 0) ? 0 : (1L << i) - 1, getMax());
+        }
+
+        return getMax();
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,101 @@
+package org.spectra.cluster.metrics;
+
+import javax.management.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes all metrics of the MetricsRegistry as read-only JMX attributes.
+ * Counters are exposed using their name, histograms as "[name].count",
+ * "[name].mean" and "[name].max".
+ *
+ * @author jg
+ */
+class MetricsMBean implements DynamicMBean {
+    private static final String COUNT = ".count";
+    private static final String MEAN = ".mean";
+    private static final String MAX = ".max";
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if ("Enabled".equals(attribute))
+            return MetricsRegistry.isEnabled();
+
+        Counter counter = MetricsRegistry.getCounters().get(attribute);
+        if (counter != null)
+            return counter.getCount();
+
+        for (Map.Entry<String, Histogram> entry : MetricsRegistry.getHistograms().entrySet()) {
+            Histogram histogram = entry.getValue();
+
+            if (attribute.equals(entry.getKey() + COUNT))
+                return histogram.getCount();
+            if (attribute.equals(entry.getKey() + MEAN))
+                return histogram.getMean();
+            if (attribute.equals(entry.getKey() + MAX))
+                return histogram.getMax();
+        }
+
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("All metrics are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // ignore unknown attributes
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName)) {
+            MetricsRegistry.reset();
+            return null;
+        }
+
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+        attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "Indicates whether metrics are collected", true, false, true));
+
+        for (String name : MetricsRegistry.getCounters().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", "Counter", true, false, false));
+        }
+
+        for (String name : MetricsRegistry.getHistograms().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name + COUNT, "long", "Number of recorded values", true, false, false));
+            attributes.add(new MBeanAttributeInfo(name + MEAN, "double", "Mean of the recorded values", true, false, false));
+            attributes.add(new MBeanAttributeInfo(name + MAX, "long", "Maximum recorded value", true, false, false));
+        }
+
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Resets all metrics",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+
+        return new MBeanInfo(MetricsRegistry.class.getName(), "spectra-cluster clustering metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null,
+                new MBeanOperationInfo[] {reset}, null);
+    }
+}
@@ -0,0 +1,159 @@
+package org.spectra.cluster.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Global registry of all counters and histograms collected during a
+ * clustering run.
+ *
+ * Metrics are disabled by default. Instrumented code should keep references
+ * to its Counter and Histogram objects, since updates of these objects only
+ * cost a single flag check while the metrics are disabled. Expensive
+ * instrumentation (for example timing) should explicitly check isEnabled.
+ *
+ * @author jg
+ */
+@Slf4j
+public final class MetricsRegistry {
+    public static final String MBEAN_NAME = "org.spectra.cluster:type=ClusteringMetrics";
+
+    private static volatile boolean enabled = false;
+
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the collection of metrics.
+     * @param enabled The new state
+     */
+    public static void setEnabled(boolean enabled) {
+        MetricsRegistry.enabled = enabled;
+    }
+
+    /**
+     * Returns the counter with the defined name. The counter is
+     * created if it does not exist.
+     * @param name The counter's name
+     * @return The counter
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    /**
+     * Returns the histogram with the defined name. The histogram is
+     * created if it does not exist.
+     * @param name The histogram's name
+     * @return The histogram
+     */
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, Histogram::new);
+    }
+
+    /**
+     * Resets all counters and histograms to 0.
+     */
+    public static void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    public static SortedMap<String, Counter> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    public static SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Registers the metrics as MBean with the platform MBean server. Calling this
+     * function multiple times has no effect.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsMBean(), name);
+        } catch (Exception e) {
+            log.warn("Failed to register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a JSON representation of all metrics.
+     * @return The JSON string
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+
+        boolean isFirst = true;
+        for (Map.Entry<String, Counter> counter : getCounters().entrySet()) {
+            json.append(isFirst ? "\n" : ",\n");
+            json.append("    \"").append(counter.getKey()).append("\": ").append(counter.getValue().getCount());
+            isFirst = false;
+        }
+
+        json.append("\n  },\n  \"histograms\": {");
+
+        isFirst = true;
+        for (Map.Entry<String, Histogram> entry : getHistograms().entrySet()) {
+            Histogram histogram = entry.getValue();
+
+            json.append(isFirst ? "\n" : ",\n");
+            json.append("    \"").append(entry.getKey()).append("\": {")
+                    .append("\"count\": ").append(histogram.getCount())
+                    .append(", \"sum\": ").append(histogram.getSum())
+                    .append(", \"mean\": ").append(String.format(Locale.US, "%.3f", histogram.getMean()))
+                    .append(", \"p50\": ").append(histogram.getApproximateQuantile(0.5))
+                    .append(", \"p99\": ").append(histogram.getApproximateQuantile(0.99))
+                    .append(", \"max\": ").append(histogram.getMax())
+                    .append('}');
+            isFirst = false;
+        }
+
+        json.append("\n  }\n}\n");
+
+        return json.toString();
+    }
+
+    /**
+     * Writes all metrics as JSON report.
+     * @param reportFile The file to write to. Existing files are overwritten.
+     * @throws IOException If writing fails
+     */
+    public static void writeJsonReport(Path reportFile) throws IOException {
+        Files.write(reportFile, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,218 @@
+package org.spectra.cluster.model.cluster;
+
+import org.spectra.cluster.model.spectra.BinaryPeak;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Holds the comparison relevant data of all clusters of a bin in
+ * contiguous int arrays.
+ *
+ * Every cluster is stored as a fixed-size record (precursor m/z, charge,
+ * number of spectra and the location of its comparison peaks) at its
+ * index. The sorted m/z values of the comparison filtered consensus peaks
+ * are stored in a second memory region. This allows the clustering engine to
+ * scan a bin linearly without touching the cluster objects. These are only
+ * kept as "heavy" section to calculate the similarity and to merge clusters.
+ *
+ * Comparison peaks are only loaded once they are first requested. Whenever
+ * a cluster changes, it has to be put again so that its record is updated.
+ * Previously stored peaks are not reclaimed, the peak region therefore grows
+ * with the number of merges.
+ *
+ * An arena can be re-used for the next bin through reset. Its arrays only
+ * grow, so a thread that re-uses its arena (see ComparisonContext) stops
+ * allocating once it processed its largest bin.
+ *
+ * This class is not thread-safe.
+ *
+ * @author jg
+ */
+public class ClusterArena {
+    private static final int PRECURSOR_MZ = 0;
+    private static final int PRECURSOR_CHARGE = 1;
+    private static final int SPECTRA_COUNT = 2;
+    private static final int PEAK_OFFSET = 3;
+    private static final int PEAK_COUNT = 4;
+    private static final int RECORD_SIZE = 5;
+
+    /** Marks records whose peaks were not loaded yet */
+    private static final int NO_PEAKS = -1;
+    private static final int INITIAL_PEAKS_PER_CLUSTER = 32;
+
+    private ICluster[] clusters;
+    private int[] records;
+    private int[] peaks;
+    private int peaksEnd = 0;
+
+    /**
+     * Creates a new ClusterArena.
+     *
+     * @param capacity The maximum number of clusters to store.
+     */
+    public ClusterArena(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative");
+
+        this.clusters = new ICluster[capacity];
+        this.records = new int[capacity * RECORD_SIZE];
+        this.peaks = new int[Math.max(1, capacity) * INITIAL_PEAKS_PER_CLUSTER];
+    }
+
+    /**
+     * Removes all stored clusters and ensures that the arena can hold the
+     * defined number of clusters. The arrays are only re-allocated if they
+     * are too small.
+     *
+     * @param capacity The minimum number of clusters to store.
+     */
+    public void reset(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative");
+
+        if (clusters.length < capacity) {
+            clusters = new ICluster[capacity];
+            records = new int[capacity * RECORD_SIZE];
+        } else {
+            release();
+        }
+
+        peaksEnd = 0;
+    }
+
+    /**
+     * Removes the references to all stored clusters so that they can be
+     * garbage collected while the arena is kept for re-use.
+     */
+    public void release() {
+        Arrays.fill(clusters, null);
+    }
+
+    /**
+     * Stores the cluster at the defined index. Any cluster previously stored at
+     * that index is replaced. This function must also be called whenever the
+     * stored cluster changed.
+     *
+     * @param index The index to store the cluster at.
+     * @param cluster The cluster to store.
+     */
+    public void put(int index, ICluster cluster) {
+        int record = index * RECORD_SIZE;
+
+        clusters[index] = cluster;
+        records[record + PRECURSOR_MZ] = cluster.getPrecursorMz();
+        records[record + PRECURSOR_CHARGE] = cluster.getPrecursorCharge();
+        records[record + SPECTRA_COUNT] = cluster.getClusteredSpectraCount();
+        records[record + PEAK_OFFSET] = NO_PEAKS;
+        records[record + PEAK_COUNT] = 0;
+    }
+
+    public ICluster getCluster(int index) {
+        return clusters[index];
+    }
+
+    public int getPrecursorMz(int index) {
+        return records[index * RECORD_SIZE + PRECURSOR_MZ];
+    }
+
+    public int getPrecursorCharge(int index) {
+        return records[index * RECORD_SIZE + PRECURSOR_CHARGE];
+    }
+
+    public int getClusteredSpectraCount(int index) {
+        return records[index * RECORD_SIZE + SPECTRA_COUNT];
+    }
+
+    /**
+     * Counts the comparison peaks shared by the two clusters.
+     *
+     * @param index1 Index of the first cluster.
+     * @param index2 Index of the second cluster.
+     * @param maxCount Counting stops once this number of shared peaks is reached.
+     * @return The number of shared peaks, at most maxCount.
+     */
+    public int countSharedPeaks(int index1, int index2, int maxCount) {
+        loadPeaks(index1);
+        loadPeaks(index2);
+
+        int pos1 = records[index1 * RECORD_SIZE + PEAK_OFFSET];
+        int end1 = pos1 + records[index1 * RECORD_SIZE + PEAK_COUNT];
+        int pos2 = records[index2 * RECORD_SIZE + PEAK_OFFSET];
+        int end2 = pos2 + records[index2 * RECORD_SIZE + PEAK_COUNT];
+        int nShared = 0;
+
+        // both peak lists are sorted by m/z
+        while (pos1 < end1 && pos2 < end2 && nShared < maxCount) {
+            int mz1 = peaks[pos1];
+            int mz2 = peaks[pos2];
+
+            if (mz1 == mz2) {
+                nShared++;
+                pos1++;
+                pos2++;
+            } else if (mz1 < mz2) {
+                pos1++;
+            } else {
+                pos2++;
+            }
+        }
+
+        return nShared;
+    }
+
+    /**
+     * Copies the sorted m/z values of the cluster's comparison peaks.
+     *
+     * @param index The cluster's index.
+     * @return The sorted m/z values.
+     */
+    public int[] getComparisonPeakMz(int index) {
+        loadPeaks(index);
+
+        int offset = records[index * RECORD_SIZE + PEAK_OFFSET];
+
+        return Arrays.copyOfRange(peaks, offset, offset + records[index * RECORD_SIZE + PEAK_COUNT]);
+    }
+
+    public int capacity() {
+        return clusters.length;
+    }
+
+    /**
+     * @return The number of bytes currently allocated by the record and peak arrays.
+     */
+    public long getAllocatedBytes() {
+        return (long) (records.length + peaks.length) * Integer.BYTES;
+    }
+
+    private void loadPeaks(int index) {
+        int record = index * RECORD_SIZE;
+
+        if (records[record + PEAK_OFFSET] != NO_PEAKS)
+            return;
+
+        Set<BinaryPeak> comparisonPeaks = clusters[index].getConsensusSpectrum().getComparisonFilteredPeaks().keySet();
+        int[] mz = new int[comparisonPeaks.size()];
+        int i = 0;
+
+        for (BinaryPeak peak : comparisonPeaks) {
+            mz[i++] = peak.getMz();
+        }
+
+        Arrays.sort(mz);
+        ensurePeakCapacity(mz.length);
+        System.arraycopy(mz, 0, peaks, peaksEnd, mz.length);
+
+        records[record + PEAK_OFFSET] = peaksEnd;
+        records[record + PEAK_COUNT] = mz.length;
+        peaksEnd += mz.length;
+    }
+
+    private void ensurePeakCapacity(int additionalPeaks) {
+        if (peaksEnd + additionalPeaks <= peaks.length)
+            return;
+
+        peaks = Arrays.copyOf(peaks, Math.max(peaks.length * 2, peaksEnd + additionalPeaks));
+    }
+}
@@ -22,6 +22,11 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 public class GreedySpectralCluster extends LongObject implements ICluster {
+    /**
+     * Kept at the value of the first released version so that serialized clusters remain readable.
+     */
+    private static final long serialVersionUID = -4991375153469997187L;
+
     /**
      * The N (defined here) highest comparison matches will be
      * saved
@@ -37,9 +42,22 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
      * Clustered spectra are only stored as their ids
      */
     private Set<String> clusteredSpectraIds = new HashSet<>();
+    /**
+     * The serialized ids of a deserialized cluster. The ids are not required to
+     * compare clusters and are therefore only decoded once they are accessed.
+     */
+    private transient SpectrumIdSection encodedSpectraIds;
+    /** Number of clustered spectra, available without decoding the ids */
+    private int clusteredSpectraCount = 0;
 
     private IConsensusSpectrumBuilder consensusSpectrumBuilder;
 
+    /**
+     * Increased with every change of the cluster. Versions are only used within
+     * a clustering run and are therefore not serialized.
+     */
+    private transient int version = 0;
+
     public GreedySpectralCluster(IConsensusSpectrumBuilder consensusSpectrumBuilder) {
         this.id = consensusSpectrumBuilder.getUUI();
         this.consensusSpectrumBuilder = consensusSpectrumBuilder;
@@ -60,6 +78,7 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
                                  List<ComparisonMatch> bestComparisonMatches, float lowestBestComparisonSimilarity) {
         this.id = id;
         this.clusteredSpectraIds = clusteredSpectraIds;
+        this.clusteredSpectraCount = clusteredSpectraIds.size();
         this.consensusSpectrumBuilder = consensusSpectrumBuilder;
         this.bestComparisonMatches = bestComparisonMatches;
         this.lowestBestComparisonSimilarity = lowestBestComparisonSimilarity;
@@ -73,7 +92,28 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
      */
     @Override
     public Set<String> getClusteredSpectraIds() {
-        return Collections.unmodifiableSet(clusteredSpectraIds);
+        return Collections.unmodifiableSet(getSpectrumIds());
+    }
+
+    /**
+     * @return Indicates whether the spectrum ids were decoded after the cluster was deserialized.
+     */
+    boolean isClusteredSpectraIdsDecoded() {
+        return encodedSpectraIds == null;
+    }
+
+    /**
+     * Returns the (modifiable) set of spectrum ids. The ids are decoded if necessary.
+     *
+     * @return The set of spectrum ids.
+     */
+    private Set<String> getSpectrumIds() {
+        if (encodedSpectraIds != null) {
+            clusteredSpectraIds = encodedSpectraIds.decode();
+            encodedSpectraIds = null;
+        }
+
+        return clusteredSpectraIds;
     }
 
     @Override
@@ -96,9 +136,14 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
         return consensusSpectrumBuilder;
     }
 
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
     @Override
     public int getPrecursorMz() {
-        if (clusteredSpectraIds.isEmpty()) {
+        if (getClusteredSpectraCount() < 1) {
             return -1;
         }
 
@@ -107,7 +152,7 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
 
     @Override
     public Integer getPrecursorCharge() {
-        if (clusteredSpectraIds.isEmpty()) {
+        if (getClusteredSpectraCount() < 1) {
             return -1;
         }
 
@@ -146,7 +191,12 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
 
     @Override
     public int getClusteredSpectraCount() {
-        return clusteredSpectraIds.size();
+        // clusters stored in an ObjectsDB before the count was kept only contain the ids
+        if (clusteredSpectraCount < 1 && encodedSpectraIds == null && clusteredSpectraIds != null) {
+            clusteredSpectraCount = clusteredSpectraIds.size();
+        }
+
+        return clusteredSpectraCount;
     }
 
     @Override
@@ -158,10 +208,12 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
             return;
         }
 
+        Set<String> spectrumIds = getSpectrumIds();
+
         // make sure no duplicate spectra exist
         Set<String> duplicateIds;
 
-        duplicateIds = Arrays.stream(spectraToAdd).filter(x -> clusteredSpectraIds.contains(x.getUUI())).map(IBinarySpectrum::getUUI)
+        duplicateIds = Arrays.stream(spectraToAdd).filter(x -> spectrumIds.contains(x.getUUI())).map(IBinarySpectrum::getUUI)
                 .collect(Collectors.toSet());
 
         // this should generally not happen
@@ -186,9 +238,12 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
         // only put the spectra to the consensus spectrum
         consensusSpectrumBuilder.addSpectra(spectraToAdd);
         // put all spectrum ids
-        clusteredSpectraIds.addAll(Arrays.stream(spectraToAdd)
+        spectrumIds.addAll(Arrays.stream(spectraToAdd)
                 .map(IBinarySpectrum::getUUI)
                 .collect(Collectors.toSet()));
+        clusteredSpectraCount = spectrumIds.size();
+
+        version++;
     }
 
     /**
@@ -198,9 +253,11 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
      */
     @Override
     public void mergeCluster(ICluster cluster) {
+        Set<String> spectrumIds = getSpectrumIds();
+
         // test if the cluster contains duplicate spectra
         for (String id : cluster.getClusteredSpectraIds()) {
-            if (clusteredSpectraIds.contains(id)) {
+            if (spectrumIds.contains(id)) {
                 log.warn(String.format("Adding duplicate spectra to from cluster %s to cluster %s.",
                         cluster.getId(), this.id));
                 break;
@@ -211,12 +268,16 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
         consensusSpectrumBuilder.addConsensusSpectrum(cluster.getConsensusSpectrumBuilder());
 
         // adapt the id
-        if (cluster.getClusteredSpectraCount() > clusteredSpectraIds.size()) {
+        if (cluster.getClusteredSpectraCount() > getClusteredSpectraCount()) {
             id = cluster.getId();
         }
 
         // put the clustered spectra
-        clusteredSpectraIds.addAll(cluster.getClusteredSpectraIds());
+        spectrumIds.addAll(cluster.getClusteredSpectraIds());
+        clusteredSpectraCount = spectrumIds.size();
+
+        // the version must also be higher than the merged cluster's one since its id may have been adopted
+        version = Math.max(version, cluster.getVersion()) + 1;
 
         // put the comparison matches
         if (cluster.getComparisonMatches().size() > 0) {
@@ -255,7 +316,7 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
 
         // remove lowest items in case there are too many
         if (bestComparisonMatches.size() > SAVED_COMPARISON_MATCHES) {
-            bestComparisonMatches = new ArrayList<>(bestComparisonMatches.subList(bestComparisonMatches.size() - SAVED_COMPARISON_MATCHES, bestComparisonMatches.size()));
+            bestComparisonMatches.subList(0, bestComparisonMatches.size() - SAVED_COMPARISON_MATCHES).clear();
         }
 
         lowestBestComparisonSimilarity = bestComparisonMatches.get(0).getSimilarity();
@@ -294,6 +355,46 @@ public class GreedySpectralCluster extends LongObject implements ICluster {
         return bestComparisonMatchIds.contains(clusterId);
     }
 
+    /**
+     * Writes the cluster's fields followed by the spectrum ids as a separate
+     * section. Ids that were not decoded since the cluster was deserialized
+     * are copied as they are.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // clusters stored in an ObjectsDB by earlier versions only get their count once it is accessed
+        clusteredSpectraCount = getClusteredSpectraCount();
+        Set<String> spectrumIds = clusteredSpectraIds;
+
+        // the ids are not part of the default fields
+        clusteredSpectraIds = null;
+        try {
+            out.defaultWriteObject();
+        } finally {
+            clusteredSpectraIds = spectrumIds;
+        }
+
+        if (encodedSpectraIds != null) {
+            encodedSpectraIds.copyTo(out);
+        } else {
+            new SpectrumIdSection().write(spectrumIds, out);
+        }
+    }
+
+    /**
+     * Reads a cluster written by writeObject. Clusters serialized by earlier
+     * versions contain the ids as a regular field and no count.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        if (clusteredSpectraIds == null) {
+            encodedSpectraIds = new SpectrumIdSection();
+            encodedSpectraIds.read(in);
+        } else {
+            clusteredSpectraCount = clusteredSpectraIds.size();
+        }
+    }
+
     @Override
     public byte[] toBytes() throws SpectraClusterException {
         ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
@@ -71,6 +71,16 @@ public interface ICluster extends Serializable, Spectrum, IClusterProperties {
 
     IConsensusSpectrumBuilder getConsensusSpectrumBuilder();
 
+    /**
+     * The cluster's version. The version is increased whenever spectra are
+     * added or another cluster is merged into this one. Thereby, results
+     * based on the cluster's consensus spectrum (f.e. similarity scores)
+     * can be re-used as long as the version did not change.
+     *
+     * @return The cluster's version.
+     */
+    int getVersion();
+
     void saveComparisonResult(String id, float similarity);
 
     /**
@@ -0,0 +1,100 @@
+package org.spectra.cluster.model.cluster;
+
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+
+import java.io.*;
+
+/**
+ * A part of a cluster that is not required to compare clusters, for
+ * example the ids of the clustered spectra. Comparisons only need the
+ * precursor, charge, consensus peaks and comparison matches.
+ *
+ * When a cluster is serialized, the section is written as its own block
+ * of bytes after the cluster's fields. When the cluster is deserialized,
+ * the block is kept as is and only decoded once the value is accessed,
+ * which is generally the case when the cluster is merged or the final
+ * result is written. Sections that were never accessed are written back
+ * using the original bytes.
+ *
+ * The section only exists in the Java serialized form. The value itself
+ * remains a regular field of the cluster so that the ObjectsDB keeps
+ * storing it, and reading clusters that were stored by earlier versions,
+ * in the same way as before.
+ *
+ * @param <T> The type of the section's value.
+ * @author jg
+ */
+public abstract class LazySection<T> {
+    private static final Counter SECTIONS_DECODED = MetricsRegistry.counter("cluster.lazy_sections.decoded");
+    private static final Counter SECTIONS_COPIED = MetricsRegistry.counter("cluster.lazy_sections.copied");
+
+    /** The serialized section */
+    private byte[] encoded;
+
+    /**
+     * Reads a block written by write or copyTo. The block is not decoded.
+     *
+     * @param in The stream to read from.
+     * @throws IOException Thrown if reading the stream failed.
+     */
+    public void read(ObjectInput in) throws IOException {
+        encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+    }
+
+    /**
+     * Decodes the block that was read.
+     *
+     * @return The section's value.
+     */
+    public T decode() {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            SECTIONS_DECODED.increment();
+
+            return decode(in);
+        } catch (IOException e) {
+            // the bytes were read from a valid stream, so this should never happen
+            throw new IllegalStateException("Failed to decode cluster section: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the block that was read without decoding it.
+     *
+     * @param out The stream to write to.
+     * @throws IOException Thrown if writing the stream failed.
+     */
+    public void copyTo(ObjectOutput out) throws IOException {
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        SECTIONS_COPIED.increment();
+    }
+
+    /**
+     * Writes the passed value as one block.
+     *
+     * @param value The value to write.
+     * @param out The stream to write to.
+     * @throws IOException Thrown if writing the stream failed.
+     */
+    public void write(T value, ObjectOutput out) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(buffer);
+        encode(value, dataOut);
+        dataOut.flush();
+
+        out.writeInt(buffer.size());
+        out.write(buffer.toByteArray());
+    }
+
+    /**
+     * Writes the passed value.
+     */
+    protected abstract void encode(T value, DataOutput out) throws IOException;
+
+    /**
+     * Reads a value written by encode.
+     */
+    protected abstract T decode(DataInput in) throws IOException;
+}
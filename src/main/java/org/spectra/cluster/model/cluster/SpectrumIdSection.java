@@ -0,0 +1,35 @@
+package org.spectra.cluster.model.cluster;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Holds the ids of a cluster's spectra as a LazySection.
+ *
+ * @author jg
+ */
+class SpectrumIdSection extends LazySection<Set<String>> {
+    @Override
+    protected void encode(Set<String> spectrumIds, DataOutput out) throws IOException {
+        out.writeInt(spectrumIds.size());
+
+        for (String spectrumId : spectrumIds) {
+            out.writeUTF(spectrumId);
+        }
+    }
+
+    @Override
+    protected Set<String> decode(DataInput in) throws IOException {
+        int nIds = in.readInt();
+        Set<String> spectrumIds = new HashSet<>(nIds * 4 / 3 + 1);
+
+        for (int i = 0; i < nIds; i++) {
+            spectrumIds.add(in.readUTF());
+        }
+
+        return spectrumIds;
+    }
+}
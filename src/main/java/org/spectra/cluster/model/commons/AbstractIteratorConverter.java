@@ -5,64 +5,53 @@ import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
 
 import java.io.File;
 import java.util.Iterator;
-
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Iterator converting the spectra of a {@link SpectrumSpliterator}. Invalid
+ * spectra are skipped by the spliterator. Exceptions thrown while converting
+ * a spectrum are passed on as IllegalStateException.
+ */
 public class AbstractIteratorConverter <K, T> implements Iterator<T> {
 
-    Iterator<Tuple<File, MzIterableReader>> iterator;
-    Converter converter;
-
-    ITuple currentTuple;
-    // cache the spectrum to enable filtering
-    ITuple nextSpectrum;
-
-    ITuple fetchNextValidSpectrum() {
-        ITuple s = fetchNextSpectrum();
-
-        if (s == null) {
-            return null;
-        }
-
-        // check whether it is valid
-        Spectrum spec = (Spectrum) s.getValue();
-
-        if (!isSpecValid(spec)) {
-            return fetchNextValidSpectrum();
-        }
-
-        return s;
-    }
-
-    private ITuple fetchNextSpectrum() {
-        if(((Iterator) currentTuple.getValue()).hasNext())
-            return new Tuple(currentTuple.getKey(), ((Iterator)currentTuple.getValue()).next());
-        if(this.iterator.hasNext()){
-            currentTuple = this.iterator.next();
-            if(((Iterator)currentTuple.getValue()).hasNext())
-                return new Tuple(currentTuple.getKey(), ((Iterator)currentTuple.getValue()).next());
-        }
-        return null;
-    }
+    private final SpectrumSpliterator spectra;
+    private final Iterator<ITuple> iterator;
+    private final Converter<? super ITuple, ? extends T> converter;
 
-    public boolean isSpecValid(Spectrum s) {
-        return s.getPrecursorCharge() != null && s.getPrecursorMZ() != null;
+    protected AbstractIteratorConverter(Stream<Tuple<File, MzIterableReader>> files,
+                                        Converter<? super ITuple, ? extends T> converter,
+                                        Predicate<Spectrum> validityCheck) {
+        this.spectra = new SpectrumSpliterator(files.collect(Collectors.toList()), validityCheck);
+        this.iterator = Spliterators.iterator(spectra);
+        this.converter = converter;
     }
 
     @Override
     public T next() {
+        ITuple tuple = iterator.next();
+
         try {
-            // convert the current spectrum
-            T result = (T) converter.convert(nextSpectrum);
-            // move to the next spectrum
-            nextSpectrum = fetchNextValidSpectrum();
-            return result;
+            return converter.convert(tuple);
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Failed to convert spectrum from " + tuple.getKey() + ": " +
+                    e.getMessage(), e);
         }
-        return null;
     }
 
+    @Override
     public boolean hasNext() {
-        return nextSpectrum != null;
+        return iterator.hasNext();
     }
 
+    /**
+     * @return Number of spectra that were skipped since they failed the validity check.
+     */
+    public long getInvalidSpectra() {
+        return spectra.getInvalidSpectra();
+    }
 }
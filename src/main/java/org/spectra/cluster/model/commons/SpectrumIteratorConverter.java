@@ -17,19 +17,11 @@ import java.util.stream.Stream;
  *
  * @author ypriverol on 19/10/2018.
  */
-public class SpectrumIteratorConverter<K, T> extends AbstractIteratorConverter {
+public class SpectrumIteratorConverter<K, T> extends AbstractIteratorConverter<K, IBinarySpectrum> {
 
     public SpectrumIteratorConverter(Stream<Tuple<File, MzIterableReader>> iterator,
                                      Converter<? super ITuple, ? extends IBinarySpectrum> converter) {
-        this.converter = converter;
-        this.iterator = iterator.iterator();
-        if (this.iterator.hasNext())
-            currentTuple = (ITuple) this.iterator.next();
-        if (currentTuple != null)
-            this.nextSpectrum = fetchNextValidSpectrum();
-        else
-            // no spectra to fetch?
-            this.nextSpectrum = null;
+        super(iterator, converter, SpectrumSpliterator.HAS_PRECURSOR_AND_CHARGE);
     }
 
 }
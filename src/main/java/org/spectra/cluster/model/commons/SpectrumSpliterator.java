@@ -0,0 +1,182 @@
+package org.spectra.cluster.model.commons;
+
+import io.github.bigbio.pgatk.io.common.MzIterableReader;
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Spliterator over the spectra of one or more files. Every element is an ITuple
+ * holding the source file as key and the read object (generally a Spectrum) as value.
+ *
+ * The readers themselves can only be read sequentially. Splits therefore first hand
+ * complete files to the returned spliterator. Once only a single file is left, a
+ * batch of spectra is read and returned as an array based spliterator. This way,
+ * all processing of the spectra (normalization, filters) can run on parallel streams
+ * while every reader is only accessed by a single thread at a time.
+ *
+ * Spectra that fail the validity check are skipped and counted. Exceptions thrown
+ * by the readers are not caught.
+ *
+ * @author jg
+ */
+public class SpectrumSpliterator implements Spliterator<ITuple> {
+    /** Spectra must have a precursor m/z */
+    public static final Predicate<Spectrum> HAS_PRECURSOR = s -> s.getPrecursorMZ() != null;
+    /** Spectra must have a precursor m/z and charge */
+    public static final Predicate<Spectrum> HAS_PRECURSOR_AND_CHARGE =
+            s -> s.getPrecursorMZ() != null && s.getPrecursorCharge() != null;
+
+    /** The size of the first batch, every following batch is larger by this size */
+    public static final int BATCH_SIZE_INCREMENT = 256;
+    public static final int MAX_BATCH_SIZE = 1 << 16;
+
+    private static final Counter INVALID_SPECTRA = MetricsRegistry.counter("reader.invalid_spectra");
+
+    private static final int CHARACTERISTICS = ORDERED | NONNULL;
+
+    private final List<Tuple<File, MzIterableReader>> files;
+    private final Predicate<Spectrum> validityCheck;
+    /** Shared by all spliterators created through splits */
+    private final AtomicLong invalidSpectra;
+
+    /** Index of the next file to open */
+    private int fileIndex;
+    /** Index after the last file to read */
+    private final int fileFence;
+    private File currentFile;
+    private Iterator<?> currentReader;
+    private int batchSize = 0;
+
+    /**
+     * Creates a new SpectrumSpliterator.
+     *
+     * @param files The files and their readers. Every reader must only be used by this spliterator.
+     * @param validityCheck Spectra that fail this check are skipped. Objects that are no
+     *                      Spectrum (f.e. clusters) are not tested.
+     */
+    public SpectrumSpliterator(List<Tuple<File, MzIterableReader>> files, Predicate<Spectrum> validityCheck) {
+        this(new ArrayList<>(files), validityCheck, new AtomicLong(), 0, files.size(), null, null);
+    }
+
+    private SpectrumSpliterator(List<Tuple<File, MzIterableReader>> files, Predicate<Spectrum> validityCheck,
+                                AtomicLong invalidSpectra, int fileIndex, int fileFence,
+                                File currentFile, Iterator<?> currentReader) {
+        this.files = files;
+        this.validityCheck = validityCheck;
+        this.invalidSpectra = invalidSpectra;
+        this.fileIndex = fileIndex;
+        this.fileFence = fileFence;
+        this.currentFile = currentFile;
+        this.currentReader = currentReader;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ITuple> action) {
+        ITuple tuple = nextValidTuple();
+
+        if (tuple == null) {
+            return false;
+        }
+
+        action.accept(tuple);
+
+        return true;
+    }
+
+    /**
+     * Reads the next valid spectrum.
+     *
+     * @return The next valid spectrum or null if all files were read.
+     */
+    private ITuple nextValidTuple() {
+        while (true) {
+            if (currentReader == null || !currentReader.hasNext()) {
+                if (fileIndex >= fileFence) {
+                    currentReader = null;
+                    return null;
+                }
+
+                Tuple<File, MzIterableReader> file = files.get(fileIndex++);
+                currentFile = file.getKey();
+                currentReader = (Iterator<?>) file.getValue();
+                continue;
+            }
+
+            Object value = currentReader.next();
+
+            if (value instanceof Spectrum && !validityCheck.test((Spectrum) value)) {
+                invalidSpectra.incrementAndGet();
+                INVALID_SPECTRA.increment();
+                continue;
+            }
+
+            return new Tuple<>(currentFile, value);
+        }
+    }
+
+    @Override
+    public Spliterator<ITuple> trySplit() {
+        int unopenedFiles = fileFence - fileIndex;
+        boolean hasOpenFile = currentReader != null && currentReader.hasNext();
+
+        // hand the first files (including the open one) to the prefix spliterator
+        if (unopenedFiles > 1 || (unopenedFiles == 1 && hasOpenFile)) {
+            int splitIndex = fileIndex + (hasOpenFile ? unopenedFiles / 2 : Math.max(1, unopenedFiles / 2));
+
+            SpectrumSpliterator prefix = new SpectrumSpliterator(files, validityCheck, invalidSpectra,
+                    fileIndex, splitIndex, currentFile, hasOpenFile ? currentReader : null);
+
+            fileIndex = splitIndex;
+            currentFile = null;
+            currentReader = null;
+
+            return prefix;
+        }
+
+        // only one file left - read the next batch of spectra
+        int nextBatchSize = Math.min(batchSize + BATCH_SIZE_INCREMENT, MAX_BATCH_SIZE);
+        Object[] batch = new Object[nextBatchSize];
+        int nRead = 0;
+        ITuple tuple;
+
+        while (nRead < nextBatchSize && (tuple = nextValidTuple()) != null) {
+            batch[nRead++] = tuple;
+        }
+
+        if (nRead == 0) {
+            return null;
+        }
+
+        batchSize = nRead;
+
+        return Spliterators.spliterator(batch, 0, nRead, CHARACTERISTICS);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+    /**
+     * @return Number of skipped spectra of this and all spliterators split from it.
+     */
+    public long getInvalidSpectra() {
+        return invalidSpectra.get();
+    }
+}
@@ -0,0 +1,43 @@
+package org.spectra.cluster.model.consensus;
+
+import org.spectra.cluster.model.cluster.LazySection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Holds all peaks of a consensus spectrum's spectra as a LazySection. These
+ * peaks are only required when spectra or clusters are added.
+ *
+ * @author jg
+ */
+class ConsensusPeakSection extends LazySection<BinaryConsensusPeak[]> {
+    @Override
+    protected void encode(BinaryConsensusPeak[] peaks, DataOutput out) throws IOException {
+        out.writeInt(peaks.length);
+
+        for (BinaryConsensusPeak peak : peaks) {
+            out.writeInt(peak.getMz());
+            out.writeInt(peak.getIntensity());
+            out.writeInt(peak.getCount());
+            out.writeInt(peak.getRank());
+        }
+    }
+
+    @Override
+    protected BinaryConsensusPeak[] decode(DataInput in) throws IOException {
+        BinaryConsensusPeak[] peaks = new BinaryConsensusPeak[in.readInt()];
+
+        for (int i = 0; i < peaks.length; i++) {
+            int mz = in.readInt();
+            int intensity = in.readInt();
+            int count = in.readInt();
+
+            peaks[i] = new BinaryConsensusPeak(mz, intensity, count);
+            peaks[i].setRank(in.readInt());
+        }
+
+        return peaks;
+    }
+}
@@ -6,7 +6,11 @@ import org.spectra.cluster.filter.binaryspectrum.IBinarySpectrumFunction;
 import org.spectra.cluster.model.spectra.BinaryPeak;
 import org.spectra.cluster.model.spectra.BinarySpectrum;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.model.spectra.PeakBitset;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -29,6 +33,11 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
+    /**
+     * Kept at the value of the first released version so that serialized clusters remain readable.
+     */
+    private static final long serialVersionUID = 6081599817574864759L;
+
     /**
      * Peaks to keep per 100 m/z during noise filtering
      */
@@ -47,12 +56,19 @@ public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
     private BinaryPeak[] consensusPeaks;
     // The peaks after the comparison filter was applied
     private Map<BinaryPeak, BinaryPeak> comparisonFilteredPeaks;
+    // read-only view of comparisonFilteredPeaks, created once per set of peaks
+    private transient Map<BinaryPeak, BinaryPeak> comparisonFilteredPeaksView;
+    // The m/z values of the comparison peaks as bitset, only valid if comparisonPeakBitsetCreated is set
+    private transient PeakBitset comparisonPeakBitset;
+    private transient boolean comparisonPeakBitsetCreated = false;
     private IBinarySpectrumFunction comparisonFilter;
     private int minComparisonMz;
     private int maxComparisonMz;
 
     // All peaks in the Cluster
     private BinaryConsensusPeak[] allPeaksInCluster = new BinaryConsensusPeak[0];
+    // The serialized peaks after deserialization, only decoded once spectra are added
+    private transient ConsensusPeakSection encodedPeaksInCluster;
 
     private boolean isDirty = true;
 
@@ -139,7 +155,7 @@ public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
 
         for (IBinarySpectrum spectrum : newSpectra) {
 
-            allPeaksInCluster = addPeaksToConsensus(allPeaksInCluster, spectrum.getPeaks());
+            allPeaksInCluster = addPeaksToConsensus(getAllPeaksInCluster(), spectrum.getPeaks());
 
             sumCharge += spectrum.getPrecursorCharge();
             nSpectra++;
@@ -161,7 +177,7 @@ public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
             return;
 
         // put the peaks like in a "normal" spectrum - the peak count's are preserved
-        allPeaksInCluster = addPeaksToConsensus(allPeaksInCluster, consensusSpectrumToAdd.getPeaks());
+        allPeaksInCluster = addPeaksToConsensus(getAllPeaksInCluster(), consensusSpectrumToAdd.getPeaks());
 
         // update the general properties
         sumCharge += consensusSpectrumToAdd.getSummedCharge();
@@ -265,13 +281,18 @@ public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
      * adaptPeak and the function filterNoise.
      */
     private void generateConsensusSpectrum() {
-        if (allPeaksInCluster.length < 1) {
+        BinaryConsensusPeak[] allPeaks = getAllPeaksInCluster();
+
+        if (allPeaks.length < 1) {
             consensusPeaks = new BinaryPeak[0];
         }
-        consensusPeaks = adaptPeakWithNoiseFilterIntensities(allPeaksInCluster, nSpectra);
+        consensusPeaks = adaptPeakWithNoiseFilterIntensities(allPeaks, nSpectra);
 
         // invalidate the comparison peaks
         comparisonFilteredPeaks = null;
+        comparisonFilteredPeaksView = null;
+        comparisonPeakBitset = null;
+        comparisonPeakBitsetCreated = false;
 
         setIsDirty(false);
     }
@@ -311,10 +332,12 @@ public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
          * The maxiumn number of peaks to keep will be, the number of intervals * number of peaks per interval.
          */
         List<BinaryConsensusPeak> peaksToKeep = new ArrayList<>((maxMz / windowSizeBins) * peaksPerWindowToKeep);
+        // the list is re-used for all windows
+        List<BinaryConsensusPeak> windowPeaks = new ArrayList<>();
 
         // Keep top N peaks per W m/z
         for (int windowStart = 0; windowStart <= maxMz && peakIndex < adaptedPeaks.length; windowStart += windowSizeBins) {
-            List<BinaryConsensusPeak> windowPeaks = new ArrayList<>((maxMz / windowSizeBins) * peaksPerWindowToKeep);
+            windowPeaks.clear();
 
             for (; peakIndex < adaptedPeaks.length && adaptedPeaks[peakIndex].getMz() < windowStart + windowSizeBins; peakIndex++) {
                 windowPeaks.add(adaptedPeaks[peakIndex]);
@@ -359,6 +382,7 @@ public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
         nSpectra = 0;
 
         allPeaksInCluster = new BinaryConsensusPeak[0];
+        encodedPeaksInCluster = null;
         consensusPeaks = new BinaryPeak[0];
         setIsDirty(false);
     }
@@ -368,6 +392,56 @@ public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
         return nSpectra;
     }
 
+    /**
+     * Returns all peaks in the cluster. The peaks are decoded if necessary.
+     *
+     * @return All peaks in the cluster.
+     */
+    private BinaryConsensusPeak[] getAllPeaksInCluster() {
+        if (encodedPeaksInCluster != null) {
+            allPeaksInCluster = encodedPeaksInCluster.decode();
+            encodedPeaksInCluster = null;
+        }
+
+        return allPeaksInCluster;
+    }
+
+    /**
+     * Writes the spectrum's fields followed by all peaks in the cluster as a
+     * separate section. Peaks that were not decoded since the spectrum was
+     * deserialized are copied as they are.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        BinaryConsensusPeak[] allPeaks = allPeaksInCluster;
+
+        // the peaks are not part of the default fields
+        allPeaksInCluster = null;
+        try {
+            out.defaultWriteObject();
+        } finally {
+            allPeaksInCluster = allPeaks;
+        }
+
+        if (encodedPeaksInCluster != null) {
+            encodedPeaksInCluster.copyTo(out);
+        } else {
+            new ConsensusPeakSection().write(allPeaks, out);
+        }
+    }
+
+    /**
+     * Reads a spectrum written by writeObject. Spectra serialized by earlier
+     * versions contain the peaks as a regular field.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        if (allPeaksInCluster == null) {
+            encodedPeaksInCluster = new ConsensusPeakSection();
+            encodedPeaksInCluster.read(in);
+        }
+    }
+
     private boolean isDirty() {
         return isDirty;
     }
@@ -453,7 +527,23 @@ public class GreedyConsensusSpectrum implements IConsensusSpectrumBuilder {
                     .collect(Collectors.toMap(Function.identity(), peak -> peak));
         }
 
-        return Collections.unmodifiableMap(comparisonFilteredPeaks);
+        if (comparisonFilteredPeaksView == null) {
+            comparisonFilteredPeaksView = Collections.unmodifiableMap(comparisonFilteredPeaks);
+        }
+
+        return comparisonFilteredPeaksView;
+    }
+
+    @Override
+    public PeakBitset getComparisonPeakBitset() {
+        Map<BinaryPeak, BinaryPeak> peaks = getComparisonFilteredPeaks();
+
+        if (!comparisonPeakBitsetCreated) {
+            comparisonPeakBitset = PeakBitset.fromPeaks(peaks.keySet());
+            comparisonPeakBitsetCreated = true;
+        }
+
+        return comparisonPeakBitset;
     }
 
     @Override
@@ -165,13 +165,13 @@ public class BinarySpectrum implements IBinarySpectrum {
             minComparisonMz = filteredSpectrum.getPeaks()[0].mz;
             maxComparisonMz = filteredSpectrum.getPeaks()[filteredSpectrum.getPeaks().length - 1].mz;
 
-            // store the set
-            comparisonPeakSet = Arrays
+            // store the set as read-only view so that it is only wrapped once
+            comparisonPeakSet = Collections.unmodifiableMap(Arrays
                     .stream(filteredSpectrum.getPeaks())
-                    .collect(Collectors.toMap(Function.identity(), peak -> peak));
+                    .collect(Collectors.toMap(Function.identity(), peak -> peak)));
         }
 
-        return Collections.unmodifiableMap(comparisonPeakSet);
+        return comparisonPeakSet;
     }
 
     @Override
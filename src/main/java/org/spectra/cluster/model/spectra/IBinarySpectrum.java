@@ -82,6 +82,15 @@ public interface IBinarySpectrum extends Serializable, Cloneable {
      */
     Map<BinaryPeak, BinaryPeak> getComparisonFilteredPeaks();
 
+    /**
+     * Returns the m/z values of the peaks after the comparison
+     * filter was applied as a bitset.
+     * @return The PeakBitset or null if the peaks' m/z range is too large.
+     */
+    default PeakBitset getComparisonPeakBitset() {
+        return PeakBitset.fromPeaks(getComparisonFilteredPeaks().keySet());
+    }
+
     /**
      * Returns the comparison filter used by the spectrum
      * @return The IBinarySpectrumFunction used as a comparison filter
@@ -0,0 +1,95 @@
+package org.spectra.cluster.model.spectra;
+
+import java.util.Collection;
+
+/**
+ * Represents the m/z values of a set of peaks as a bitset. The
+ * bitset only covers the words between the lowest and highest
+ * m/z value so that the number of shared peaks between two spectra
+ * can be counted using a few AND and bit count operations.
+ *
+ * Objects are immutable.
+ *
+ * @author jg
+ */
+public final class PeakBitset {
+    /**
+     * Maximum m/z range (in bins) that is represented as bitset. Larger ranges
+     * (for example when using high resolution binning) would use too much memory.
+     */
+    public static final int MAX_BITS = 16_384;
+
+    private static final PeakBitset EMPTY = new PeakBitset(0, new long[0]);
+
+    private final int firstWord;
+    private final long[] words;
+
+    private PeakBitset(int firstWord, long[] words) {
+        this.firstWord = firstWord;
+        this.words = words;
+    }
+
+    /**
+     * Creates a new PeakBitset for the passed peaks.
+     *
+     * @param peaks The peaks to represent.
+     * @return The PeakBitset or null in case the peaks' m/z range is larger than MAX_BITS.
+     */
+    public static PeakBitset fromPeaks(Collection<BinaryPeak> peaks) {
+        if (peaks.isEmpty())
+            return EMPTY;
+
+        int minMz = Integer.MAX_VALUE;
+        int maxMz = Integer.MIN_VALUE;
+
+        for (BinaryPeak peak : peaks) {
+            minMz = Math.min(minMz, peak.getMz());
+            maxMz = Math.max(maxMz, peak.getMz());
+        }
+
+        if (minMz < 0 || (long) maxMz - minMz >= MAX_BITS)
+            return null;
+
+        int firstWord = minMz >>> 6;
+        long[] words = new long[(maxMz >>> 6) - firstWord + 1];
+
+        for (BinaryPeak peak : peaks) {
+            words[(peak.getMz() >>> 6) - firstWord] |= 1L << (peak.getMz() & 63);
+        }
+
+        return new PeakBitset(firstWord, words);
+    }
+
+    /**
+     * Counts the m/z values present in both bitsets.
+     *
+     * @param other The bitset to compare to.
+     * @param maxCount Counting stops once this number of shared m/z values is reached.
+     * @return The number of shared m/z values. Once maxCount is reached, the returned
+     *         value may be larger than maxCount.
+     */
+    public int countShared(PeakBitset other, int maxCount) {
+        int start = Math.max(firstWord, other.firstWord);
+        int end = Math.min(firstWord + words.length, other.firstWord + other.words.length);
+        int nShared = 0;
+
+        for (int word = start; word < end && nShared < maxCount; word++) {
+            nShared += Long.bitCount(words[word - firstWord] & other.words[word - other.firstWord]);
+        }
+
+        return nShared;
+    }
+
+    /**
+     * @return The number of m/z values in the bitset.
+     */
+    public int cardinality() {
+        int count = 0;
+
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+}
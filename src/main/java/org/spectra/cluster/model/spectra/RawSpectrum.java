@@ -0,0 +1,301 @@
+package org.spectra.cluster.model.spectra;
+
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Primitive representation of a raw (not yet binned) spectrum used by the
+ * {@link org.spectra.cluster.filter.rawpeaks.IRawPeakArrayFunction} filters.
+ *
+ * The peaks are stored in two double arrays sorted by m/z. Filters change the
+ * arrays in place and reduce the spectrum's size to remove peaks. The arrays
+ * may therefore be longer than the number of peaks.
+ *
+ * <b>Warning:</b> This class is not thread-safe.
+ *
+ * @author jg
+ */
+public class RawSpectrum {
+    /** The spectrum this object was created from, may be null */
+    private final Spectrum source;
+    private final double precursorMz;
+    /** The precursor charge or 0 if unknown */
+    private final int precursorCharge;
+    private final double[] mz;
+    private final double[] intensity;
+    private int size;
+
+    /**
+     * Creates a new RawSpectrum. The passed arrays are used as they are.
+     *
+     * @param source The spectrum the peaks were taken from. May be null.
+     * @param precursorMz The precursor m/z.
+     * @param precursorCharge The precursor charge, 0 if unknown.
+     * @param mz The m/z values sorted in ascending order.
+     * @param intensity The intensity values.
+     * @param size The number of peaks.
+     */
+    public RawSpectrum(Spectrum source, double precursorMz, int precursorCharge,
+                       double[] mz, double[] intensity, int size) {
+        if (mz.length < size || intensity.length < size) {
+            throw new IllegalArgumentException("Peak arrays are shorter than the number of peaks");
+        }
+
+        this.source = source;
+        this.precursorMz = precursorMz;
+        this.precursorCharge = precursorCharge;
+        this.mz = mz;
+        this.intensity = intensity;
+        this.size = size;
+    }
+
+    /**
+     * Creates a new RawSpectrum holding a copy of the spectrum's peaks.
+     *
+     * @param spectrum The spectrum to convert.
+     * @return A new RawSpectrum
+     */
+    public static RawSpectrum fromSpectrum(Spectrum spectrum) {
+        return fromPeaks(spectrum, spectrum.getPrecursorMZ() != null ? spectrum.getPrecursorMZ() : 0,
+                spectrum.getPrecursorCharge() != null ? spectrum.getPrecursorCharge() : 0, spectrum.getPeakList());
+    }
+
+    /**
+     * Creates a new RawSpectrum holding a copy of the passed peaks.
+     *
+     * @param source The spectrum the peaks were taken from. May be null.
+     * @param precursorMz The precursor m/z.
+     * @param precursorCharge The precursor charge, 0 if unknown.
+     * @param peaks The peaks as m/z - intensity map.
+     * @return A new RawSpectrum
+     */
+    public static RawSpectrum fromPeaks(Spectrum source, double precursorMz, int precursorCharge,
+                                        Map<Double, Double> peaks) {
+        double[] mz = new double[peaks.size()];
+        double[] intensity = new double[peaks.size()];
+        int nPeaks = 0;
+        boolean isSorted = true;
+
+        for (Map.Entry<Double, Double> peak : peaks.entrySet()) {
+            mz[nPeaks] = peak.getKey();
+            intensity[nPeaks] = peak.getValue();
+
+            if (nPeaks > 0 && mz[nPeaks] < mz[nPeaks - 1]) {
+                isSorted = false;
+            }
+
+            nPeaks++;
+        }
+
+        // sorted maps do not have to be sorted again
+        if (!isSorted) {
+            sortByMz(mz, intensity, 0, nPeaks - 1);
+        }
+
+        return new RawSpectrum(source, precursorMz, precursorCharge, mz, intensity, nPeaks);
+    }
+
+    /**
+     * Creates a new RawSpectrum using the passed arrays. The arrays are sorted by
+     * m/z if required and changed by all filters. Duplicate m/z values are merged
+     * like in a peak map: the last passed intensity is kept.
+     *
+     * @param source The spectrum the peaks were taken from. May be null.
+     * @param precursorMz The precursor m/z.
+     * @param precursorCharge The precursor charge, 0 if unknown.
+     * @param mz The m/z values.
+     * @param intensity The intensity values.
+     * @return A new RawSpectrum
+     */
+    public static RawSpectrum fromArrays(Spectrum source, double precursorMz, int precursorCharge,
+                                         double[] mz, double[] intensity) {
+        if (mz.length != intensity.length) {
+            throw new IllegalArgumentException("Different number of m/z and intensity values");
+        }
+
+        for (int i = 1; i < mz.length; i++) {
+            if (mz[i] < mz[i - 1]) {
+                // sorting does not retain the order of duplicate m/z values, these rare peak lists use the map
+                Map<Double, Double> peaks = new HashMap<>(mz.length * 2);
+
+                for (int j = 0; j < mz.length; j++) {
+                    peaks.put(mz[j], intensity[j]);
+                }
+
+                return fromPeaks(source, precursorMz, precursorCharge, peaks);
+            }
+        }
+
+        // the sorted arrays only contain duplicates as neighbours
+        int nPeaks = 0;
+
+        for (int i = 0; i < mz.length; i++) {
+            if (nPeaks > 0 && Double.compare(mz[i], mz[nPeaks - 1]) == 0) {
+                intensity[nPeaks - 1] = intensity[i];
+            } else {
+                mz[nPeaks] = mz[i];
+                intensity[nPeaks] = intensity[i];
+                nPeaks++;
+            }
+        }
+
+        return new RawSpectrum(source, precursorMz, precursorCharge, mz, intensity, nPeaks);
+    }
+
+    /**
+     * Returns the peaks as a new m/z - intensity map.
+     *
+     * @return A new map holding all peaks.
+     */
+    public Map<Double, Double> toPeakMap() {
+        Map<Double, Double> peaks = new HashMap<>(size * 4 / 3 + 1);
+
+        for (int i = 0; i < size; i++) {
+            peaks.put(mz[i], intensity[i]);
+        }
+
+        return peaks;
+    }
+
+    /**
+     * Replaces the peaks of the source spectrum with this spectrum's peaks.
+     *
+     * @return The source spectrum.
+     * @throws IllegalStateException If the spectrum has no source.
+     */
+    public Spectrum writeToSource() {
+        if (source == null) {
+            throw new IllegalStateException("RawSpectrum was not created from a Spectrum");
+        }
+
+        source.getPeakList().clear();
+        source.getPeakList().putAll(toPeakMap());
+
+        return source;
+    }
+
+    /**
+     * Sets the peak at the defined index. The m/z order must be retained.
+     */
+    public void setPeak(int index, double mzValue, double intensityValue) {
+        mz[index] = mzValue;
+        intensity[index] = intensityValue;
+    }
+
+    public void setIntensity(int index, double intensityValue) {
+        intensity[index] = intensityValue;
+    }
+
+    /**
+     * Removes all peaks at and above the passed index.
+     *
+     * @param newSize The new number of peaks.
+     */
+    public void truncate(int newSize) {
+        if (newSize > size) {
+            throw new IllegalArgumentException("RawSpectrum can only be truncated");
+        }
+
+        size = newSize;
+    }
+
+    public Spectrum getSource() {
+        return source;
+    }
+
+    public double getPrecursorMz() {
+        return precursorMz;
+    }
+
+    public int getPrecursorCharge() {
+        return precursorCharge;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getMz(int index) {
+        return mz[index];
+    }
+
+    public double getIntensity(int index) {
+        return intensity[index];
+    }
+
+    /**
+     * @return A copy of the m/z values.
+     */
+    public double[] getMzValues() {
+        return Arrays.copyOf(mz, size);
+    }
+
+    /**
+     * @return A copy of the intensity values.
+     */
+    public double[] getIntensityValues() {
+        return Arrays.copyOf(intensity, size);
+    }
+
+    /**
+     * Sorts both arrays by m/z using a quicksort.
+     */
+    private static void sortByMz(double[] mz, double[] intensity, int from, int to) {
+        while (from < to) {
+            // small ranges are sorted using insertion sort
+            if (to - from < 16) {
+                for (int i = from + 1; i <= to; i++) {
+                    double currentMz = mz[i];
+                    double currentIntensity = intensity[i];
+                    int j = i - 1;
+
+                    while (j >= from && mz[j] > currentMz) {
+                        mz[j + 1] = mz[j];
+                        intensity[j + 1] = intensity[j];
+                        j--;
+                    }
+
+                    mz[j + 1] = currentMz;
+                    intensity[j + 1] = currentIntensity;
+                }
+
+                return;
+            }
+
+            double pivot = mz[(from + to) >>> 1];
+            int left = from;
+            int right = to;
+
+            while (left <= right) {
+                while (mz[left] < pivot) left++;
+                while (mz[right] > pivot) right--;
+
+                if (left <= right) {
+                    swap(mz, intensity, left++, right--);
+                }
+            }
+
+            // recurse into the smaller part to limit the stack depth
+            if (right - from < to - left) {
+                sortByMz(mz, intensity, from, right);
+                from = left;
+            } else {
+                sortByMz(mz, intensity, left, to);
+                to = right;
+            }
+        }
+    }
+
+    private static void swap(double[] mz, double[] intensity, int i, int j) {
+        double tmpMz = mz[i];
+        mz[i] = mz[j];
+        mz[j] = tmpMz;
+
+        double tmpIntensity = intensity[i];
+        intensity[i] = intensity[j];
+        intensity[j] = tmpIntensity;
+    }
+}
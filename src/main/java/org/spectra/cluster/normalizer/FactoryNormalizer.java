@@ -2,11 +2,12 @@ package org.spectra.cluster.normalizer;
 
 import lombok.extern.slf4j.Slf4j;
 import org.spectra.cluster.model.spectra.BinaryPeak;
+import org.spectra.cluster.model.spectra.RawSpectrum;
 
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * This code is licensed under the Apache License, Version 2.0 (the
@@ -40,15 +41,41 @@ public class FactoryNormalizer {
      * @throws Exception Exception if normalization breaks the integrity of the spectra.
      */
     public BinaryPeak[] normalizePeaks(Map<Double, Double> peakList) throws Exception {
-        int[] mzValues = mzBinner.binDoubles(peakList
-                .entrySet().stream()
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList()));
+        return normalizePeaks(RawSpectrum.fromPeaks(null, 0, 0, peakList));
+    }
+
+    /**
+     * This function normalize the peaks of a {@link RawSpectrum} to an Array of {@link BinaryPeak}
+     * without creating an intermediate peak map.
+     * @param spectrum The spectrum to normalize
+     * @return Array of BinaryPeak
+     * @throws Exception Exception if normalization breaks the integrity of the spectra.
+     */
+    public BinaryPeak[] normalizePeaks(RawSpectrum spectrum) throws Exception {
+        int[] mzValues = mzBinner.binDoubles(new AbstractList<Double>() {
+            @Override
+            public Double get(int index) {
+                return spectrum.getMz(index);
+            }
+
+            @Override
+            public int size() {
+                return spectrum.size();
+            }
+        });
+
+        int[] intensityValues = intensityBinner.binDoubles(new AbstractList<Double>() {
+            @Override
+            public Double get(int index) {
+                return spectrum.getIntensity(index);
+            }
+
+            @Override
+            public int size() {
+                return spectrum.size();
+            }
+        });
 
-        int[] intensityValues = intensityBinner.binDoubles(peakList
-                .entrySet().stream()
-                .map(Map.Entry::getValue)
-                .collect(Collectors.toList()));
         if(mzValues.length != intensityValues.length){
             log.error("The normalization step has destroy the spectrum structure");
             throw new Exception("The normalization step has destroy the spectrum");
@@ -58,10 +85,9 @@ public class FactoryNormalizer {
         for(int i = 0; i < mzValues.length; i++)
             peaks[i] = new BinaryPeak(mzValues[i], intensityValues[i]);
 
-        // sort the peaks
+        // the raw peaks are already sorted, binning may only change the order of equal m/z values
         Arrays.sort(peaks, Comparator.comparingInt(BinaryPeak::getMz));
 
         return peaks;
     }
-
 }
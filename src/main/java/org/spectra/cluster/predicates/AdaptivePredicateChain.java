@@ -0,0 +1,275 @@
+package org.spectra.cluster.predicates;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.ClusterArena;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.util.ComparisonContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Combines multiple predicates using a logical AND. In contrast to
+ * IComparisonPredicate.and, the order in which the predicates are
+ * tested is adapted at runtime.
+ *
+ * A sample of all tests is timed. For these tests, every predicate's pass
+ * rate and average cost (in ns) is recorded. After a defined number of
+ * timed tests, the predicates are re-ordered by their expected cost to
+ * reject a pair (cost / (1 - pass rate)). Since all predicates must be
+ * fulfilled, the order does not change the result.
+ *
+ * Every evaluation of a stage is counted in the "predicate.[chain].[stage].tested"
+ * and ".passed" counters. The time spent in a stage is only measured for the
+ * timed sample (on average every samplingInterval-th test) and published as
+ * ".sampled_nanos" counter. All stages must be added before the chain is used.
+ * Afterwards, the chain is thread-safe and may be shared between clustering
+ * engines.
+ *
+ * @author jg
+ */
+@Slf4j
+public class AdaptivePredicateChain implements IArenaComparisonPredicate {
+    public static final int DEFAULT_SAMPLING_INTERVAL = 16;
+    public static final int DEFAULT_REORDER_INTERVAL = 10_000;
+
+    private final String name;
+    private final int samplingInterval;
+    private final int reorderInterval;
+    private final List<Stage> stages = new ArrayList<>();
+    private final AtomicLong timedTests = new AtomicLong(0);
+    private final Counter reorders;
+    /** The current order in which the stages are tested */
+    private volatile Stage[] order = new Stage[0];
+
+    /**
+     * Statistics of a single predicate in the chain. All values are
+     * based on the timed tests only.
+     */
+    @Data
+    public static class StageStatistics {
+        private final String name;
+        private final long evaluations;
+        private final double passRate;
+        private final double averageNanos;
+    }
+
+    private static class Stage {
+        private final String name;
+        private final IComparisonPredicate<ICluster> predicate;
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder passes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final Counter testedCounter;
+        private final Counter passedCounter;
+        private final Counter nanosCounter;
+
+        private Stage(String chainName, String name, IComparisonPredicate<ICluster> predicate) {
+            this.name = name;
+            this.predicate = predicate;
+            this.testedCounter = MetricsRegistry.counter("predicate." + chainName + "." + name + ".tested");
+            this.passedCounter = MetricsRegistry.counter("predicate." + chainName + "." + name + ".passed");
+            this.nanosCounter = MetricsRegistry.counter("predicate." + chainName + "." + name + ".sampled_nanos");
+        }
+
+        /**
+         * Counts every evaluation of the stage.
+         */
+        private boolean count(boolean passed) {
+            testedCounter.increment();
+
+            if (passed)
+                passedCounter.increment();
+
+            return passed;
+        }
+
+        /**
+         * Records the statistics of a timed evaluation.
+         */
+        private void record(boolean passed, long duration) {
+            evaluations.increment();
+            nanos.add(duration);
+            nanosCounter.add(duration);
+
+            if (passed) {
+                passes.increment();
+            }
+        }
+
+        private StageStatistics getStatistics() {
+            long n = evaluations.sum();
+
+            return new StageStatistics(name, n, (n > 0) ? (double) passes.sum() / n : 0,
+                    (n > 0) ? (double) nanos.sum() / n : 0);
+        }
+
+        /**
+         * The expected cost to reject a pair. Stages that were never evaluated get
+         * the lowest rank so that they are moved to the front and assessed.
+         */
+        private double getRank() {
+            StageStatistics statistics = getStatistics();
+
+            if (statistics.getEvaluations() < 1)
+                return 0;
+
+            if (statistics.getPassRate() >= 1)
+                return Double.MAX_VALUE;
+
+            return statistics.getAverageNanos() / (1 - statistics.getPassRate());
+        }
+    }
+
+    /**
+     * Creates a new AdaptivePredicateChain using the default sampling and reorder intervals.
+     * @param name The chain's name used for the metrics.
+     */
+    public AdaptivePredicateChain(String name) {
+        this(name, DEFAULT_SAMPLING_INTERVAL, DEFAULT_REORDER_INTERVAL);
+    }
+
+    /**
+     * Creates a new AdaptivePredicateChain.
+     * @param name The chain's name used for the metrics.
+     * @param samplingInterval On average, every n-th test is timed.
+     * @param reorderInterval Number of timed tests after which the predicates are re-ordered.
+     */
+    public AdaptivePredicateChain(String name, int samplingInterval, int reorderInterval) {
+        if (samplingInterval < 1)
+            throw new IllegalArgumentException("Sampling interval must be at least 1");
+        if (reorderInterval < 1)
+            throw new IllegalArgumentException("Reorder interval must be at least 1");
+
+        this.name = name;
+        this.samplingInterval = samplingInterval;
+        this.reorderInterval = reorderInterval;
+        this.reorders = MetricsRegistry.counter("predicate." + name + ".reorders");
+    }
+
+    /**
+     * Adds a predicate to the end of the chain. Must not be called once the chain is used.
+     * @param stageName The name used for the predicate's statistics.
+     * @param predicate The predicate to add.
+     * @return This chain.
+     */
+    public AdaptivePredicateChain addStage(String stageName, IComparisonPredicate<ICluster> predicate) {
+        stages.add(new Stage(name, stageName, predicate));
+        order = stages.toArray(new Stage[0]);
+
+        return this;
+    }
+
+    @Override
+    public boolean test(ICluster o1, ICluster o2) {
+        return test(o1, o2, null, null, -1, -1);
+    }
+
+    @Override
+    public boolean test(ICluster o1, ICluster o2, ComparisonContext context) {
+        return test(o1, o2, context, null, -1, -1);
+    }
+
+    @Override
+    public boolean test(ClusterArena arena, int index1, int index2) {
+        return test(null, null, null, arena, index1, index2);
+    }
+
+    private boolean test(ICluster o1, ICluster o2, ComparisonContext context, ClusterArena arena, int index1, int index2) {
+        Stage[] currentOrder = order;
+
+        if (samplingInterval > 1 && ThreadLocalRandom.current().nextInt(samplingInterval) != 0) {
+            for (Stage stage : currentOrder) {
+                if (!stage.count(evaluate(stage, o1, o2, context, arena, index1, index2)))
+                    return false;
+            }
+
+            return true;
+        }
+
+        // time every stage of this test
+        boolean result = true;
+
+        for (Stage stage : currentOrder) {
+            long start = System.nanoTime();
+            boolean passed = evaluate(stage, o1, o2, context, arena, index1, index2);
+            stage.record(passed, System.nanoTime() - start);
+            stage.count(passed);
+
+            if (!passed) {
+                result = false;
+                break;
+            }
+        }
+
+        if (timedTests.incrementAndGet() % reorderInterval == 0) {
+            reorder();
+        }
+
+        return result;
+    }
+
+    private static boolean evaluate(Stage stage, ICluster o1, ICluster o2, ComparisonContext context,
+                                    ClusterArena arena, int index1, int index2) {
+        if (arena != null)
+            return IArenaComparisonPredicate.test(stage.predicate, arena, index1, index2);
+
+        if (context != null)
+            return stage.predicate.test(o1, o2, context);
+
+        return stage.predicate.test(o1, o2);
+    }
+
+    /**
+     * Re-orders the predicates by their expected cost to reject a pair.
+     */
+    private void reorder() {
+        Stage[] newOrder = stages.stream()
+                .sorted(Comparator.comparingDouble(Stage::getRank))
+                .toArray(Stage[]::new);
+
+        if (!Arrays.equals(newOrder, order)) {
+            reorders.increment();
+            log.debug(String.format("Predicate chain %s re-ordered: %s", name, String.join(", ", getOrder(newOrder))));
+        }
+
+        order = newOrder;
+    }
+
+    /**
+     * @return The names of the stages in the order in which they are currently tested.
+     */
+    public List<String> getOrder() {
+        return getOrder(order);
+    }
+
+    private static List<String> getOrder(Stage[] stages) {
+        List<String> names = new ArrayList<>(stages.length);
+
+        for (Stage stage : stages) {
+            names.add(stage.name);
+        }
+
+        return names;
+    }
+
+    /**
+     * @return The statistics of all stages in the order in which they were added.
+     */
+    public List<StageStatistics> getStatistics() {
+        return stages.stream().map(Stage::getStatistics).collect(Collectors.toList());
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,144 @@
+package org.spectra.cluster.predicates;
+
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.ClusterArena;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.util.ComparisonContext;
+
+/**
+ * Predicates that can also be tested directly on the clusters stored
+ * in a ClusterArena without accessing the cluster objects. Both
+ * test functions must always return the same result.
+ *
+ * Combining two IArenaComparisonPredicates again returns an
+ * IArenaComparisonPredicate.
+ *
+ * @author jg
+ */
+public interface IArenaComparisonPredicate extends IComparisonPredicate<ICluster> {
+    /**
+     * Compare two clusters stored in a ClusterArena.
+     * @param arena The arena holding the clusters.
+     * @param index1 Index of the first cluster.
+     * @param index2 Index of the second cluster.
+     * @return boolean to indicate whether the predicate is fullfilled
+     */
+    boolean test(ClusterArena arena, int index1, int index2);
+
+    /**
+     * Tests any predicate on two clusters stored in a ClusterArena. If the predicate
+     * is not an IArenaComparisonPredicate, it is tested on the cluster objects.
+     */
+    static boolean test(IComparisonPredicate<ICluster> predicate, ClusterArena arena, int index1, int index2) {
+        if (predicate instanceof IArenaComparisonPredicate) {
+            return ((IArenaComparisonPredicate) predicate).test(arena, index1, index2);
+        }
+
+        return predicate.test(arena.getCluster(index1), arena.getCluster(index2));
+    }
+
+    @Override
+    default IComparisonPredicate<ICluster> negate() {
+        IArenaComparisonPredicate self = this;
+
+        return new IArenaComparisonPredicate() {
+            @Override
+            public boolean test(ClusterArena arena, int index1, int index2) {
+                return !self.test(arena, index1, index2);
+            }
+
+            @Override
+            public boolean test(ICluster o1, ICluster o2) {
+                return !self.test(o1, o2);
+            }
+
+            @Override
+            public boolean test(ICluster o1, ICluster o2, ComparisonContext context) {
+                return !self.test(o1, o2, context);
+            }
+        };
+    }
+
+    @Override
+    default IComparisonPredicate<ICluster> and(IComparisonPredicate<ICluster> other) {
+        IArenaComparisonPredicate self = this;
+
+        return new IArenaComparisonPredicate() {
+            @Override
+            public boolean test(ClusterArena arena, int index1, int index2) {
+                return self.test(arena, index1, index2) && IArenaComparisonPredicate.test(other, arena, index1, index2);
+            }
+
+            @Override
+            public boolean test(ICluster o1, ICluster o2) {
+                return self.test(o1, o2) && other.test(o1, o2);
+            }
+
+            @Override
+            public boolean test(ICluster o1, ICluster o2, ComparisonContext context) {
+                return self.test(o1, o2, context) && other.test(o1, o2, context);
+            }
+        };
+    }
+
+    @Override
+    default IComparisonPredicate<ICluster> or(IComparisonPredicate<ICluster> other) {
+        IArenaComparisonPredicate self = this;
+
+        return new IArenaComparisonPredicate() {
+            @Override
+            public boolean test(ClusterArena arena, int index1, int index2) {
+                return self.test(arena, index1, index2) || IArenaComparisonPredicate.test(other, arena, index1, index2);
+            }
+
+            @Override
+            public boolean test(ICluster o1, ICluster o2) {
+                return self.test(o1, o2) || other.test(o1, o2);
+            }
+
+            @Override
+            public boolean test(ICluster o1, ICluster o2, ComparisonContext context) {
+                return self.test(o1, o2, context) || other.test(o1, o2, context);
+            }
+        };
+    }
+
+    @Override
+    default IComparisonPredicate<ICluster> metered(String name) {
+        if (!MetricsRegistry.isEnabled()) {
+            return this;
+        }
+
+        IArenaComparisonPredicate self = this;
+        Counter tested = MetricsRegistry.counter("predicate." + name + ".tested");
+        Counter rejected = MetricsRegistry.counter("predicate." + name + ".rejected");
+
+        return new IArenaComparisonPredicate() {
+            @Override
+            public boolean test(ClusterArena arena, int index1, int index2) {
+                return count(self.test(arena, index1, index2));
+            }
+
+            @Override
+            public boolean test(ICluster o1, ICluster o2) {
+                return count(self.test(o1, o2));
+            }
+
+            @Override
+            public boolean test(ICluster o1, ICluster o2, ComparisonContext context) {
+                return count(self.test(o1, o2, context));
+            }
+
+            private boolean count(boolean result) {
+                tested.increment();
+
+                if (!result) {
+                    rejected.increment();
+                }
+
+                return result;
+            }
+        };
+    }
+}
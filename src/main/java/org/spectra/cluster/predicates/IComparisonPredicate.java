@@ -1,5 +1,9 @@
 package org.spectra.cluster.predicates;
 
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.util.ComparisonContext;
+
 public interface IComparisonPredicate<T> {
     /**
      * Compare two Objects.
@@ -9,26 +13,116 @@ public interface IComparisonPredicate<T> {
      */
     boolean test(T o1, T o2);
 
+    /**
+     * Compare two Objects using the scratch buffers of the passed context. Predicates
+     * that require temporary objects should override this function. The default
+     * implementation ignores the context.
+     * @param o1 The first object
+     * @param o2 The second object
+     * @param context The context of the calling thread.
+     * @return boolean to indicate whether the predicate is fullfilled
+     */
+    default boolean test(T o1, T o2, ComparisonContext context) {
+        return test(o1, o2);
+    }
+
     default IComparisonPredicate<T> negate() {
-        return (o1, o2) -> !this.test(o1, o2);
+        IComparisonPredicate<T> self = this;
+
+        return new IComparisonPredicate<T>() {
+            @Override
+            public boolean test(T o1, T o2) {
+                return !self.test(o1, o2);
+            }
+
+            @Override
+            public boolean test(T o1, T o2, ComparisonContext context) {
+                return !self.test(o1, o2, context);
+            }
+        };
     }
 
     default IComparisonPredicate<T> and(IComparisonPredicate<T> other) {
-        return (o1, o2) -> {
-            if (!this.test(o1, o2)) {
-                return false;
+        IComparisonPredicate<T> self = this;
+
+        return new IComparisonPredicate<T>() {
+            @Override
+            public boolean test(T o1, T o2) {
+                if (!self.test(o1, o2)) {
+                    return false;
+                }
+                return other.test(o1, o2);
+            }
+
+            @Override
+            public boolean test(T o1, T o2, ComparisonContext context) {
+                if (!self.test(o1, o2, context)) {
+                    return false;
+                }
+                return other.test(o1, o2, context);
+            }
+        };
+    }
+
+    /**
+     * Wraps the predicate to count its evaluations and rejections as
+     * "predicate.[name].tested" and "predicate.[name].rejected". If metrics
+     * are disabled when this function is called, the predicate itself is
+     * returned so that it does not add any overhead.
+     * @param name The name to use for the counters.
+     * @return The (wrapped) predicate
+     */
+    default IComparisonPredicate<T> metered(String name) {
+        if (!MetricsRegistry.isEnabled()) {
+            return this;
+        }
+
+        IComparisonPredicate<T> self = this;
+        Counter tested = MetricsRegistry.counter("predicate." + name + ".tested");
+        Counter rejected = MetricsRegistry.counter("predicate." + name + ".rejected");
+
+        return new IComparisonPredicate<T>() {
+            @Override
+            public boolean test(T o1, T o2) {
+                return count(self.test(o1, o2));
+            }
+
+            @Override
+            public boolean test(T o1, T o2, ComparisonContext context) {
+                return count(self.test(o1, o2, context));
+            }
+
+            private boolean count(boolean result) {
+                tested.increment();
+
+                if (!result) {
+                    rejected.increment();
+                }
+
+                return result;
             }
-            return other.test(o1, o2);
         };
     }
 
     default IComparisonPredicate<T> or(IComparisonPredicate<T> other) {
-        return (o1, o2) -> {
-            if (this.test(o1, o2)) {
-                return true;
+        IComparisonPredicate<T> self = this;
+
+        return new IComparisonPredicate<T>() {
+            @Override
+            public boolean test(T o1, T o2) {
+                if (self.test(o1, o2)) {
+                    return true;
+                }
+                return other.test(o1, o2);
             }
-            return other.test(o1, o2);
 
+            @Override
+            public boolean test(T o1, T o2, ComparisonContext context) {
+                if (self.test(o1, o2, context)) {
+                    return true;
+                }
+                return other.test(o1, o2, context);
+            }
         };
     }
 }
@@ -0,0 +1,32 @@
+package org.spectra.cluster.predicates;
+
+import org.spectra.cluster.model.cluster.ClusterArena;
+import org.spectra.cluster.model.cluster.ICluster;
+
+/**
+ * Predicate to test whether the precursor m/z values of two
+ * clusters are within a maximum distance.
+ *
+ * @author jg
+ */
+public class PrecursorDistancePredicate implements IArenaComparisonPredicate {
+    private final int maxDistance;
+
+    /**
+     * Creates a new PrecursorDistancePredicate.
+     * @param maxDistance The maximum distance of the (integer) precursor m/z values.
+     */
+    public PrecursorDistancePredicate(int maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public boolean test(ICluster o1, ICluster o2) {
+        return Math.abs(o1.getPrecursorMz() - o2.getPrecursorMz()) <= maxDistance;
+    }
+
+    @Override
+    public boolean test(ClusterArena arena, int index1, int index2) {
+        return Math.abs(arena.getPrecursorMz(index1) - arena.getPrecursorMz(index2)) <= maxDistance;
+    }
+}
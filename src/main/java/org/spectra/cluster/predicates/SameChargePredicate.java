@@ -1,5 +1,6 @@
 package org.spectra.cluster.predicates;
 
+import org.spectra.cluster.model.cluster.ClusterArena;
 import org.spectra.cluster.model.cluster.ICluster;
 
 /**
@@ -8,9 +9,14 @@ import org.spectra.cluster.model.cluster.ICluster;
  *
  * @author jg
  */
-public class SameChargePredicate implements IComparisonPredicate<ICluster> {
+public class SameChargePredicate implements IArenaComparisonPredicate {
     @Override
     public boolean test(ICluster o1, ICluster o2) {
         return o1.getConsensusSpectrum().getPrecursorCharge() == o2.getConsensusSpectrum().getPrecursorCharge();
     }
+
+    @Override
+    public boolean test(ClusterArena arena, int index1, int index2) {
+        return arena.getPrecursorCharge(index1) == arena.getPrecursorCharge(index2);
+    }
 }
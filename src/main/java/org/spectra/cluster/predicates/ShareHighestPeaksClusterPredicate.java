@@ -2,6 +2,7 @@ package org.spectra.cluster.predicates;
 
 import org.spectra.cluster.model.cluster.ICluster;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.util.ComparisonContext;
 
 /**
  * This predicate simply applies the ShareHighestPeaksPredicate to clusters.
@@ -22,4 +23,9 @@ public class ShareHighestPeaksClusterPredicate implements IComparisonPredicate<I
     public boolean test(ICluster o1, ICluster o2) {
         return highestPeaksPredicate.test(o1.getConsensusSpectrum(), o2.getConsensusSpectrum());
     }
+
+    @Override
+    public boolean test(ICluster o1, ICluster o2, ComparisonContext context) {
+        return highestPeaksPredicate.test(o1.getConsensusSpectrum(), o2.getConsensusSpectrum(), context);
+    }
 }
@@ -3,6 +3,7 @@ package org.spectra.cluster.predicates;
 import lombok.Data;
 import org.spectra.cluster.model.spectra.BinaryPeak;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.util.ComparisonContext;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -39,4 +40,42 @@ public class ShareHighestPeaksPredicate implements IComparisonPredicate<IBinaryS
 
         return false;
     }
+
+    @Override
+    public boolean test(IBinarySpectrum s1, IBinarySpectrum s2, ComparisonContext context) {
+        // store the highest peaks in the context's buffer - N is small enough for a linear search
+        int[] mz1 = context.getMzBuffer(nHighestPeaks);
+        int nMz1 = 0;
+
+        for (BinaryPeak p : s1.getPeaks()) {
+            if (p.getRank() <= nHighestPeaks && !contains(mz1, nMz1, p.getMz())) {
+                mz1[nMz1++] = p.getMz();
+            }
+            if (nMz1 >= nHighestPeaks) {
+                break;
+            }
+        }
+
+        // test if there is any match
+        for (BinaryPeak p : s2.getPeaks()) {
+            if (p.getRank() > nHighestPeaks) {
+                continue;
+            }
+            if (contains(mz1, nMz1, p.getMz())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
 }
@@ -1,5 +1,6 @@
 package org.spectra.cluster.predicates;
 
+import org.spectra.cluster.model.cluster.ClusterArena;
 import org.spectra.cluster.model.cluster.ICluster;
 import org.spectra.cluster.model.spectra.BinaryPeak;
 
@@ -9,7 +10,7 @@ import java.util.Map;
  * Assesses whether two cluster share at least N spectra of
  * their comparison (ie. filtered ConsensusSpectrum) peaks
  */
-public class ShareNComparisonPeaksPredicate implements IComparisonPredicate<ICluster> {
+public class ShareNComparisonPeaksPredicate implements IArenaComparisonPredicate {
     private final int minSharedPeaks;
 
     public ShareNComparisonPeaksPredicate(int minSharedPeaks) {
@@ -21,7 +22,7 @@ public class ShareNComparisonPeaksPredicate implements IComparisonPredicate<IClu
         int nShared = 0;
         Map<BinaryPeak, BinaryPeak> peaks1 = o1.getConsensusSpectrum().getComparisonFilteredPeaks();
         for(BinaryPeak p : o2.getConsensusSpectrum().getComparisonFilteredPeaks().keySet()) {
-            if (peaks1.keySet().contains(p)) {
+            if (peaks1.containsKey(p)) {
                 nShared++;
             }
 
@@ -32,4 +33,9 @@ public class ShareNComparisonPeaksPredicate implements IComparisonPredicate<IClu
 
         return nShared >= minSharedPeaks;
     }
+
+    @Override
+    public boolean test(ClusterArena arena, int index1, int index2) {
+        return arena.countSharedPeaks(index1, index2, minSharedPeaks) >= minSharedPeaks;
+    }
 }
@@ -0,0 +1,41 @@
+package org.spectra.cluster.predicates;
+
+import org.spectra.cluster.model.cluster.ClusterArena;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.spectra.PeakBitset;
+
+/**
+ * Assesses whether two cluster share at least N of their comparison
+ * (ie. filtered ConsensusSpectrum) peaks. The result is identical
+ * to the ShareNComparisonPeaksPredicate but the peaks are compared
+ * using the consensus spectra's PeakBitsets. In case no bitset is
+ * available, the peaks are compared directly.
+ *
+ * @author jg
+ */
+public class SharedPeakBitsetPredicate implements IArenaComparisonPredicate {
+    private final int minSharedPeaks;
+    private final ShareNComparisonPeaksPredicate fallbackPredicate;
+
+    public SharedPeakBitsetPredicate(int minSharedPeaks) {
+        this.minSharedPeaks = minSharedPeaks;
+        this.fallbackPredicate = new ShareNComparisonPeaksPredicate(minSharedPeaks);
+    }
+
+    @Override
+    public boolean test(ICluster o1, ICluster o2) {
+        PeakBitset peaks1 = o1.getConsensusSpectrum().getComparisonPeakBitset();
+        PeakBitset peaks2 = o2.getConsensusSpectrum().getComparisonPeakBitset();
+
+        if (peaks1 == null || peaks2 == null) {
+            return fallbackPredicate.test(o1, o2);
+        }
+
+        return peaks1.countShared(peaks2, minSharedPeaks) >= minSharedPeaks;
+    }
+
+    @Override
+    public boolean test(ClusterArena arena, int index1, int index2) {
+        return arena.countSharedPeaks(index1, index2, minSharedPeaks) >= minSharedPeaks;
+    }
+}
@@ -12,23 +12,45 @@ import java.util.Map;
  * minClusterSize spectra.
  */
 @Data
-public class ClusteredSpectraAssessor implements IQcClusteringResultAssessor {
+public class ClusteredSpectraAssessor implements IQcStreamingResultAssessor {
     private final int minClusterSize;
 
     @Override
     public QcAssessment assessResultQuality(ICluster[] clusters, IPropertyStorage propertyStorage) {
-        int nTotalSpectra = 0;
-        int clusteredSpectra = 0;
+        long[] counts = new long[getNumberOfCounts()];
 
         for (ICluster c : clusters) {
-            int size = c.getClusteredSpectraIds().size();
+            countCluster(c, null, counts);
+        }
+
+        return createAssessment(counts);
+    }
+
+    @Override
+    public int getNumberOfCounts() {
+        return 2;
+    }
+
+    @Override
+    public boolean requiresSequences() {
+        return false;
+    }
+
+    @Override
+    public void countCluster(ICluster cluster, String[] sequences, long[] counts) {
+        int size = cluster.getClusteredSpectraIds().size();
 
-            nTotalSpectra += size;
+        counts[0] += size;
 
-            if (size >= minClusterSize) {
-                clusteredSpectra += size;
-            }
+        if (size >= minClusterSize) {
+            counts[1] += size;
         }
+    }
+
+    @Override
+    public QcAssessment createAssessment(long[] counts) {
+        long nTotalSpectra = counts[0];
+        long clusteredSpectra = counts[1];
 
         double relClusteredSpectra = clusteredSpectra / (double) nTotalSpectra;
 
@@ -18,4 +18,13 @@ public interface IQcClusterAssessor {
      * @return The assessment as a QcAssessment object.
      */
     QcAssessment assessQuality(ICluster cluster, IPropertyStorage storage);
+
+    /**
+     * Assess the quality of the passed cluster based on already resolved
+     * sequences.
+     * @param cluster The cluster to assess.
+     * @param sequences The sequences of the cluster's spectra, null for unidentified spectra.
+     * @return The assessment as a QcAssessment object.
+     */
+    QcAssessment assessQuality(ICluster cluster, String[] sequences);
 }
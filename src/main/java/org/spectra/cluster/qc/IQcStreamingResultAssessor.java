@@ -0,0 +1,42 @@
+package org.spectra.cluster.qc;
+
+import org.spectra.cluster.model.cluster.ICluster;
+
+/**
+ * Defines a result assessor that can be computed on a stream of clusters
+ * instead of a complete result set. The assessment is based on a fixed
+ * number of counts. These counts can be collected independently (for
+ * example per thread) and are summed up before the final assessment
+ * is created.
+ *
+ * @author jg
+ */
+public interface IQcStreamingResultAssessor extends IQcClusteringResultAssessor {
+    /**
+     * The number of counts used by this assessor.
+     * @return The number of counts
+     */
+    int getNumberOfCounts();
+
+    /**
+     * Indicates whether the assessor uses the spectra's sequences.
+     * @return True if the sequences are required
+     */
+    boolean requiresSequences();
+
+    /**
+     * Adds the cluster to the passed counts.
+     * @param cluster The cluster to count.
+     * @param sequences The sequences of the cluster's spectra (null for unidentified
+     *                  spectra). May be null if requiresSequences returns false.
+     * @param counts The counts to update.
+     */
+    void countCluster(ICluster cluster, String[] sequences, long[] counts);
+
+    /**
+     * Creates the final assessment based on the summed up counts.
+     * @param counts The counts of all clusters.
+     * @return The result as a QcAssessment.
+     */
+    QcAssessment createAssessment(long[] counts);
+}
@@ -1,9 +1,7 @@
 package org.spectra.cluster.qc;
 
 import lombok.Data;
-import io.github.bigbio.pgatk.io.common.PgatkIOException;
 import io.github.bigbio.pgatk.io.properties.IPropertyStorage;
-import io.github.bigbio.pgatk.io.properties.StoredProperties;
 import org.spectra.cluster.model.cluster.ICluster;
 
 import java.util.Comparator;
@@ -18,7 +16,7 @@ import java.util.Map;
  * @author jg
  */
 @Data
-public class IncorrectSpectraAssessor implements IQcClusteringResultAssessor, IQcClusterAssessor {
+public class IncorrectSpectraAssessor implements IQcStreamingResultAssessor, IQcClusterAssessor {
     private final int minClusterSize;
 
     /**
@@ -38,7 +36,12 @@ public class IncorrectSpectraAssessor implements IQcClusteringResultAssessor, IQ
 
     @Override
     public QcAssessment assessQuality(ICluster cluster, IPropertyStorage storage) {
-        int[] assessments = assessCluster(cluster, storage);
+        return assessQuality(cluster, SequenceLookup.getSequences(cluster, storage));
+    }
+
+    @Override
+    public QcAssessment assessQuality(ICluster cluster, String[] sequences) {
+        int[] assessments = assessCluster(sequences);
 
         // make sure there are identified spectra
         if (assessments[0] < 1) {
@@ -47,15 +50,6 @@ public class IncorrectSpectraAssessor implements IQcClusteringResultAssessor, IQ
 
         double relIncorrectSpectra = (assessments[0] - assessments[1]) / (double) assessments[0];
 
-        // set the quality
-        QcAssessment.QUALITY quality = QcAssessment.QUALITY.POOR;
-
-        if (relIncorrectSpectra <= 0.01) {
-            quality = QcAssessment.QUALITY.GOOD;
-        } else if (relIncorrectSpectra <= 0.05) {
-            quality = QcAssessment.QUALITY.MEDIUM;
-        }
-
         // set the assessment map
         Map<String, String> assessmentMap = new HashMap<>(3);
         assessmentMap.put("incorrect_spectra", String.valueOf(assessments[0] - assessments[1]));
@@ -63,26 +57,53 @@ public class IncorrectSpectraAssessor implements IQcClusteringResultAssessor, IQ
         assessmentMap.put("rel_incorrect_spectra", String.valueOf(relIncorrectSpectra));
 
         return new QcAssessment("IncorrectSpectra", QcAssessment.SCOPE.CLUSTER,
-                quality, assessmentMap);
+                getQuality(relIncorrectSpectra), assessmentMap);
     }
 
     @Override
     public QcAssessment assessResultQuality(ICluster[] clusters, IPropertyStorage propertyStorage) {
-        int identifiedSpectra = 0;
-        int incorrectSpectra = 0;
+        long[] counts = new long[getNumberOfCounts()];
 
         for (ICluster cluster : clusters) {
             // ignore small clusters
-            if (cluster.getClusteredSpectraIds().size() < minClusterSize) {
+            if (cluster.getClusteredSpectraCount() < minClusterSize) {
                 continue;
             }
 
-            int[] spectra_counts = assessCluster(cluster, propertyStorage);
+            countCluster(cluster, SequenceLookup.getSequences(cluster, propertyStorage), counts);
+        }
+
+        return createAssessment(counts);
+    }
+
+    @Override
+    public int getNumberOfCounts() {
+        return 2;
+    }
+
+    @Override
+    public boolean requiresSequences() {
+        return true;
+    }
 
-            identifiedSpectra += spectra_counts[0];
-            incorrectSpectra += spectra_counts[0] - spectra_counts[1];
+    @Override
+    public void countCluster(ICluster cluster, String[] sequences, long[] counts) {
+        // ignore small clusters
+        if (cluster.getClusteredSpectraCount() < minClusterSize) {
+            return;
         }
 
+        int[] spectra_counts = assessCluster(sequences);
+
+        counts[0] += spectra_counts[0];
+        counts[1] += spectra_counts[0] - spectra_counts[1];
+    }
+
+    @Override
+    public QcAssessment createAssessment(long[] counts) {
+        long identifiedSpectra = counts[0];
+        long incorrectSpectra = counts[1];
+
         // make sure there are identified spectra
         if (identifiedSpectra < 1) {
             return getUnassessable();
@@ -90,15 +111,6 @@ public class IncorrectSpectraAssessor implements IQcClusteringResultAssessor, IQ
 
         double relIncorrectSpectra = incorrectSpectra / (double) identifiedSpectra;
 
-        // set the quality
-        QcAssessment.QUALITY quality = QcAssessment.QUALITY.POOR;
-
-        if (relIncorrectSpectra <= 0.01) {
-            quality = QcAssessment.QUALITY.GOOD;
-        } else if (relIncorrectSpectra <= 0.05) {
-            quality = QcAssessment.QUALITY.MEDIUM;
-        }
-
         // set the assessment map
         Map<String, String> assessmentMap = new HashMap<>(3);
         assessmentMap.put("incorrect_spectra", String.valueOf(incorrectSpectra));
@@ -106,37 +118,36 @@ public class IncorrectSpectraAssessor implements IQcClusteringResultAssessor, IQ
         assessmentMap.put("rel_incorrect_spectra", String.valueOf(relIncorrectSpectra));
 
         return new QcAssessment("IncorrectSpectra", QcAssessment.SCOPE.RESULT_SET,
-                quality, assessmentMap);
+                getQuality(relIncorrectSpectra), assessmentMap);
+    }
+
+    private QcAssessment.QUALITY getQuality(double relIncorrectSpectra) {
+        if (relIncorrectSpectra <= 0.01) {
+            return QcAssessment.QUALITY.GOOD;
+        } else if (relIncorrectSpectra <= 0.05) {
+            return QcAssessment.QUALITY.MEDIUM;
+        }
+
+        return QcAssessment.QUALITY.POOR;
     }
 
     /**
      * Count the total number of identified spectra as well as the frequency of the
      * most commonly identified peptide.
-     * @param cluster The cluster to assess.
-     * @param storage The property storage to use to retrieve the spectra.
+     * @param sequences The sequences of the cluster's spectra, null for unidentified spectra.
      * @return [identified spectra, number spectra identified most commonly identified peptide]
      */
-    private int[] assessCluster(ICluster cluster, IPropertyStorage storage) {
+    private int[] assessCluster(String[] sequences) {
         int identifiedSpectra = 0;
         Map<String, Integer> sequenceCounts = new HashMap<>(20);
 
-        for (String specId : cluster.getClusteredSpectraIds()) {
-            try{
-                String sequence = storage.get(specId, StoredProperties.SEQUENCE);
-
-                if (sequence != null) {
-                    identifiedSpectra++;
-                }
-
-                if (!sequenceCounts.containsKey(sequence)) {
-                    sequenceCounts.put(sequence, 1);
-                } else {
-                    sequenceCounts.put(sequence, sequenceCounts.get(sequence) + 1);
-                }
-            }catch (PgatkIOException ex){
-                //
+        for (String sequence : sequences) {
+            if (sequence == null) {
+                continue;
             }
 
+            identifiedSpectra++;
+            sequenceCounts.merge(sequence, 1, Integer::sum);
         }
 
         if (identifiedSpectra < 1) {
@@ -0,0 +1,88 @@
+package org.spectra.cluster.qc;
+
+import io.github.bigbio.pgatk.io.properties.IPropertyStorage;
+import io.github.bigbio.pgatk.io.properties.StoredProperties;
+import org.spectra.cluster.model.cluster.ICluster;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the identified sequences of clustered spectra
+ * through the property storage.
+ *
+ * @author jg
+ */
+public class SequenceLookup {
+    private final Map<String, String> sequences;
+
+    private SequenceLookup(Map<String, String> sequences) {
+        this.sequences = sequences;
+    }
+
+    /**
+     * Fetches the sequences of all spectra in the passed clusters at once. The
+     * property storage is queried in parallel and every spectrum is only
+     * looked up once.
+     *
+     * @param clusters The clusters to fetch the sequences for.
+     * @param storage The property storage holding the sequences.
+     * @return A SequenceLookup holding the fetched sequences.
+     */
+    public static SequenceLookup fetch(Collection<ICluster> clusters, IPropertyStorage storage) {
+        Map<String, String> sequences = clusters.stream()
+                .flatMap(c -> c.getClusteredSpectraIds().stream())
+                .distinct()
+                .collect(Collectors.toList())
+                .parallelStream()
+                .map(id -> new String[] {id, getSequence(storage, id)})
+                .filter(idSequence -> idSequence[1] != null)
+                .collect(Collectors.toConcurrentMap(idSequence -> idSequence[0], idSequence -> idSequence[1]));
+
+        return new SequenceLookup(sequences);
+    }
+
+    /**
+     * Returns the sequences of the cluster's spectra in the order of
+     * getClusteredSpectraIds. Unidentified spectra are represented by null.
+     *
+     * @param cluster The cluster. Its spectra must have been fetched before.
+     * @return The sequences
+     */
+    public String[] getSequences(ICluster cluster) {
+        return cluster.getClusteredSpectraIds().stream()
+                .map(sequences::get)
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Fetches the sequences of a single cluster directly from the property storage.
+     *
+     * @param cluster The cluster.
+     * @param storage The property storage holding the sequences.
+     * @return The sequences in the order of getClusteredSpectraIds, null for unidentified spectra.
+     */
+    public static String[] getSequences(ICluster cluster, IPropertyStorage storage) {
+        Map<String, String> sequences = new HashMap<>(cluster.getClusteredSpectraCount());
+
+        for (String specId : cluster.getClusteredSpectraIds()) {
+            sequences.put(specId, getSequence(storage, specId));
+        }
+
+        return new SequenceLookup(sequences).getSequences(cluster);
+    }
+
+    /**
+     * Retrieves a sequence from the property storage but converts any
+     * exception to an IllegalStateException
+     */
+    private static String getSequence(IPropertyStorage storage, String specId) {
+        try {
+            return storage.get(specId, StoredProperties.SEQUENCE);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.spectra.cluster.qc;
+
+import io.github.bigbio.pgatk.io.properties.IPropertyStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.exceptions.SpectraClusterException;
+import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the quality assessment on a clustering result file without loading
+ * the complete result into memory.
+ *
+ * Clusters are streamed from the result file in batches. The sequences of all
+ * spectra in a batch are resolved at once and the clusters are then assessed in
+ * parallel. Every worker thread collects its own partial counts which are
+ * merged into the final QcAssessments. Optionally, the per-cluster assessments
+ * are written to a TSV file while the result is being processed.
+ *
+ * @author jg
+ */
+@Slf4j
+public class StreamingQcRunner {
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final int nThreads;
+    private final int batchSize;
+    private final List<IQcStreamingResultAssessor> resultAssessors;
+    private final List<IQcClusterAssessor> clusterAssessors;
+
+    /**
+     * Holds the result of one processed batch.
+     */
+    private static class BatchResult {
+        private final int nClusters;
+        private final long[][] counts;
+        private final String tsvHeader;
+        private final List<String> tsvRows;
+
+        private BatchResult(int nClusters, long[][] counts, String tsvHeader, List<String> tsvRows) {
+            this.nClusters = nClusters;
+            this.counts = counts;
+            this.tsvHeader = tsvHeader;
+            this.tsvRows = tsvRows;
+        }
+    }
+
+    /**
+     * Creates a new StreamingQcRunner using the default batch size.
+     *
+     * @param nThreads Number of threads to use.
+     * @param resultAssessors The assessors to assess the complete result with.
+     * @param clusterAssessors The assessors to assess every single cluster with. These
+     *                         assessments are only written to the TSV file.
+     */
+    public StreamingQcRunner(int nThreads, List<IQcStreamingResultAssessor> resultAssessors,
+                             List<IQcClusterAssessor> clusterAssessors) {
+        this(nThreads, DEFAULT_BATCH_SIZE, resultAssessors, clusterAssessors);
+    }
+
+    /**
+     * Creates a new StreamingQcRunner.
+     *
+     * @param nThreads Number of threads to use.
+     * @param batchSize Number of clusters processed per batch.
+     * @param resultAssessors The assessors to assess the complete result with.
+     * @param clusterAssessors The assessors to assess every single cluster with. These
+     *                         assessments are only written to the TSV file.
+     */
+    public StreamingQcRunner(int nThreads, int batchSize, List<IQcStreamingResultAssessor> resultAssessors,
+                             List<IQcClusterAssessor> clusterAssessors) {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+
+        this.nThreads = nThreads;
+        this.batchSize = batchSize;
+        this.resultAssessors = new ArrayList<>(resultAssessors);
+        this.clusterAssessors = new ArrayList<>(clusterAssessors);
+    }
+
+    /**
+     * Assesses all clusters in the result file.
+     *
+     * @param clusterStorage The clustering result to assess.
+     * @param propertyStorage The property storage holding the spectra's properties.
+     * @param clusterTsvFile If set, the per-cluster assessments are written to this file. The
+     *                       file must not exist.
+     * @return The QcAssessments of the result assessors in the order of the assessors.
+     * @throws Exception If the result cannot be processed.
+     */
+    public List<QcAssessment> run(ObjectDBGreedyClusterStorage clusterStorage, IPropertyStorage propertyStorage,
+                                  Path clusterTsvFile) throws Exception {
+        if (clusterTsvFile != null && Files.exists(clusterTsvFile))
+            throw new Exception(String.format("Error: File '%s' already exists.", clusterTsvFile.toString()));
+
+        long[][] totalCounts = createCounts();
+        ForkJoinPool workerPool = new ForkJoinPool(nThreads);
+        BufferedWriter tsvWriter = null;
+        long nClusters = 0;
+
+        try {
+            if (clusterTsvFile != null) {
+                tsvWriter = new BufferedWriter(new OutputStreamWriter(
+                        Files.newOutputStream(clusterTsvFile, StandardOpenOption.CREATE_NEW), StandardCharsets.UTF_8),
+                        WRITE_BUFFER_SIZE);
+            }
+
+            Future<BatchResult> pendingBatch = null;
+            boolean headerWritten = false;
+
+            while (true) {
+                // the clusters are always read on this thread since the result file is not thread-safe
+                List<ICluster> batch = readBatch(clusterStorage);
+                Future<BatchResult> nextBatch = null;
+
+                if (!batch.isEmpty()) {
+                    boolean createRows = tsvWriter != null;
+                    nextBatch = workerPool.submit(() -> processBatch(batch, propertyStorage, createRows));
+                }
+
+                // merge the previous batch while the next one is being processed
+                if (pendingBatch != null) {
+                    BatchResult result = pendingBatch.get();
+                    addCounts(totalCounts, result.counts);
+
+                    if (tsvWriter != null) {
+                        if (!headerWritten) {
+                            tsvWriter.write(result.tsvHeader);
+                            headerWritten = true;
+                        }
+
+                        for (String row : result.tsvRows) {
+                            tsvWriter.write(row);
+                        }
+                    }
+
+                    nClusters += result.nClusters;
+                }
+
+                if (nextBatch == null)
+                    break;
+
+                pendingBatch = nextBatch;
+            }
+        } finally {
+            workerPool.shutdownNow();
+
+            if (tsvWriter != null)
+                tsvWriter.close();
+        }
+
+        log.debug(String.format("Assessed %d clusters", nClusters));
+
+        List<QcAssessment> assessments = new ArrayList<>(resultAssessors.size());
+
+        for (int i = 0; i < resultAssessors.size(); i++) {
+            assessments.add(resultAssessors.get(i).createAssessment(totalCounts[i]));
+        }
+
+        return assessments;
+    }
+
+    /**
+     * Reads the next batch of clusters. Every cluster is detached from the
+     * underlying database so that it can be safely processed by the
+     * worker threads.
+     */
+    private List<ICluster> readBatch(ObjectDBGreedyClusterStorage clusterStorage) throws SpectraClusterException {
+        List<ICluster> batch = new ArrayList<>(batchSize);
+
+        while (batch.size() < batchSize && clusterStorage.hasNext()) {
+            GreedySpectralCluster cluster = (GreedySpectralCluster) clusterStorage.next();
+            batch.add(GreedySpectralCluster.fromBytes(cluster.toBytes()));
+        }
+
+        return batch;
+    }
+
+    /**
+     * Assesses one batch of clusters.
+     *
+     * @param batch The clusters to assess.
+     * @param propertyStorage The property storage to resolve the sequences with.
+     * @param createRows If set, the TSV rows are created.
+     * @return The batch's counts and TSV rows
+     */
+    private BatchResult processBatch(List<ICluster> batch, IPropertyStorage propertyStorage, boolean createRows) {
+        boolean requiresSequences = !clusterAssessors.isEmpty() ||
+                resultAssessors.stream().anyMatch(IQcStreamingResultAssessor::requiresSequences);
+
+        SequenceLookup sequenceLookup = requiresSequences ?
+                SequenceLookup.fetch(batch, propertyStorage) : null;
+
+        // every thread collects its own counts which are merged afterwards
+        long[][] counts = batch.parallelStream().collect(
+                this::createCounts,
+                (threadCounts, cluster) -> countCluster(cluster, sequenceLookup, threadCounts),
+                StreamingQcRunner::addCounts);
+
+        if (!createRows) {
+            return new BatchResult(batch.size(), counts, null, null);
+        }
+
+        List<List<QcAssessment>> clusterAssessments = batch.parallelStream()
+                .map(c -> assessCluster(c, sequenceLookup))
+                .collect(Collectors.toList());
+
+        List<String> rows = new ArrayList<>(batch.size());
+
+        for (int i = 0; i < batch.size(); i++) {
+            rows.add(formatRow(batch.get(i), clusterAssessments.get(i)));
+        }
+
+        return new BatchResult(batch.size(), counts, formatHeader(clusterAssessments.get(0)), rows);
+    }
+
+    private void countCluster(ICluster cluster, SequenceLookup sequenceLookup, long[][] counts) {
+        String[] sequences = (sequenceLookup != null) ? sequenceLookup.getSequences(cluster) : null;
+
+        for (int i = 0; i < resultAssessors.size(); i++) {
+            resultAssessors.get(i).countCluster(cluster, sequences, counts[i]);
+        }
+    }
+
+    private List<QcAssessment> assessCluster(ICluster cluster, SequenceLookup sequenceLookup) {
+        if (clusterAssessors.isEmpty())
+            return Collections.emptyList();
+
+        String[] sequences = sequenceLookup.getSequences(cluster);
+
+        return clusterAssessors.stream()
+                .map(assessor -> assessor.assessQuality(cluster, sequences))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Creates the TSV header. Every cluster assessor adds a quality column followed
+     * by one column for each of its (sorted) assessment values.
+     */
+    private String formatHeader(List<QcAssessment> assessments) {
+        StringBuilder header = new StringBuilder("cluster_id\tn_spectra\tprecursor_mz\tcharge");
+
+        for (QcAssessment assessment : assessments) {
+            header.append('\t').append(assessment.getName()).append("_quality");
+
+            for (String key : new TreeSet<>(assessment.getAssessments().keySet())) {
+                header.append('\t').append(assessment.getName()).append('_').append(key);
+            }
+        }
+
+        return header.append('\n').toString();
+    }
+
+    private String formatRow(ICluster cluster, List<QcAssessment> assessments) {
+        StringBuilder row = new StringBuilder(128);
+
+        row.append(cluster.getId()).append('\t')
+                .append(cluster.getClusteredSpectraCount()).append('\t')
+                .append(cluster.getPrecursorMz() / (double) BasicIntegerNormalizer.MZ_CONSTANT).append('\t')
+                .append(cluster.getPrecursorCharge());
+
+        for (QcAssessment assessment : assessments) {
+            row.append('\t').append(assessment.getQuality());
+
+            for (String key : new TreeSet<>(assessment.getAssessments().keySet())) {
+                String value = assessment.getAssessments().get(key);
+                row.append('\t').append(value != null ? value : "");
+            }
+        }
+
+        return row.append('\n').toString();
+    }
+
+    private long[][] createCounts() {
+        long[][] counts = new long[resultAssessors.size()][];
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new long[resultAssessors.get(i).getNumberOfCounts()];
+        }
+
+        return counts;
+    }
+
+    private static void addCounts(long[][] target, long[][] source) {
+        for (int i = 0; i < target.length; i++) {
+            for (int j = 0; j < target[i].length; j++) {
+                target[i][j] += source[i][j];
+            }
+        }
+    }
+}
@@ -1,16 +1,15 @@
 package org.spectra.cluster.similarity;
 
-import cern.jet.random.HyperGeometric;
-import cern.jet.random.Normal;
 import cern.jet.random.engine.RandomEngine;
 import org.apache.commons.math3.distribution.ChiSquaredDistribution;
 import org.apache.commons.math3.util.FastMath;
 import org.spectra.cluster.model.spectra.BinaryPeak;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.util.ComparisonContext;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Implementation of the combined FisherIntensity test as it
@@ -55,36 +54,115 @@ public class CombinedFisherIntensityTest implements IBinarySpectrumSimilarity {
 
     @Override
     public double correlation(IBinarySpectrum spectrum1, IBinarySpectrum spectrum2) {
-        // use copies since these will be changed
-        Set<BinaryPeak> peakSet1 = new HashSet<>(spectrum1.getComparisonFilteredPeaks().keySet());
-        Set<BinaryPeak> peakSet2 = new HashSet<>(spectrum2.getComparisonFilteredPeaks().keySet());
+        return correlation(spectrum1, spectrum2, new ComparisonContext());
+    }
+
+    @Override
+    public double correlation(IBinarySpectrum spectrum1, IBinarySpectrum spectrum2, ComparisonContext context) {
+        Map<BinaryPeak, BinaryPeak> comparisonPeaks1 = spectrum1.getComparisonFilteredPeaks();
+        Map<BinaryPeak, BinaryPeak> comparisonPeaks2 = spectrum2.getComparisonFilteredPeaks();
+
+        // collect the intensities of the shared peaks
+        int maxSharedPeaks = FastMath.min(comparisonPeaks1.size(), comparisonPeaks2.size());
+        int[] intensities1 = context.getSharedIntensities1(maxSharedPeaks);
+        int[] intensities2 = context.getSharedIntensities2(maxSharedPeaks);
+        int nSharedPeaks = 0;
 
-        // retain shared peaks
-        peakSet1.retainAll(peakSet2);
-        peakSet2.retainAll(peakSet1);
+        for (BinaryPeak p2 : comparisonPeaks2.values()) {
+            BinaryPeak p1 = comparisonPeaks1.get(p2);
+
+            if (p1 != null) {
+                intensities1[nSharedPeaks] = p1.getIntensity();
+                intensities2[nSharedPeaks++] = p2.getIntensity();
+            }
+        }
 
         // return 0 if no intensities are shared
-        if (peakSet1.size() < minSharedPeaks) {
+        if (nSharedPeaks < minSharedPeaks) {
             return BAD_SCORE;
         }
 
+        return scoreSharedPeaks(spectrum1, spectrum2, comparisonPeaks1.size(), comparisonPeaks2.size(), nSharedPeaks,
+                intensities1, intensities2, context);
+    }
+
+    @Override
+    public void correlation(IBinarySpectrum query, IBinarySpectrum[] candidates, int from, int to, double[] scores) {
+        correlation(query, candidates, from, to, scores, new ComparisonContext());
+    }
+
+    /**
+     * Scores the query against all candidates. The query's comparison peaks are put
+     * in a lookup table once. Thereby, every candidate only requires one lookup per
+     * peak instead of creating and intersecting two peak sets.
+     */
+    @Override
+    public void correlation(IBinarySpectrum query, IBinarySpectrum[] candidates, int from, int to, double[] scores,
+                            ComparisonContext context) {
+        Map<BinaryPeak, BinaryPeak> queryPeaks = query.getComparisonFilteredPeaks();
+
+        if (queryPeaks.size() < minSharedPeaks) {
+            Arrays.fill(scores, 0, to - from, BAD_SCORE);
+            return;
+        }
+
+        QueryPeakLookup lookup = new QueryPeakLookup(queryPeaks.keySet(), context);
+        // every m/z value can only be shared once
+        int[] queryIntensities = context.getSharedIntensities1(queryPeaks.size());
+        int[] candidateIntensities = context.getSharedIntensities2(queryPeaks.size());
+
+        for (int i = from; i < to; i++) {
+            Map<BinaryPeak, BinaryPeak> candidatePeaks = candidates[i].getComparisonFilteredPeaks();
+            int nSharedPeaks = 0;
+
+            for (BinaryPeak peak : candidatePeaks.values()) {
+                int queryIntensity = lookup.getIntensity(peak.getMz());
+
+                if (queryIntensity != QueryPeakLookup.NO_PEAK) {
+                    queryIntensities[nSharedPeaks] = queryIntensity;
+                    candidateIntensities[nSharedPeaks++] = peak.getIntensity();
+                }
+            }
+
+            scores[i - from] = (nSharedPeaks < minSharedPeaks) ? BAD_SCORE :
+                    scoreSharedPeaks(query, candidates[i], queryPeaks.size(), candidatePeaks.size(), nSharedPeaks,
+                            queryIntensities, candidateIntensities, context);
+        }
+    }
+
+    /**
+     * Calculates the score based on the shared peaks.
+     *
+     * @param spectrum1 The first spectrum.
+     * @param spectrum2 The second spectrum.
+     * @param nPeaks1 Number of comparison peaks of spectrum1.
+     * @param nPeaks2 Number of comparison peaks of spectrum2.
+     * @param nSharedPeaks Number of shared peaks.
+     * @param intensities1 The shared peaks' intensities in spectrum1.
+     * @param intensities2 The shared peaks' intensities in spectrum2 in the same order.
+     * @param context The context to take the distributions and buffers from.
+     * @return The score
+     */
+    private double scoreSharedPeaks(IBinarySpectrum spectrum1, IBinarySpectrum spectrum2, int nPeaks1, int nPeaks2,
+                                    int nSharedPeaks, int[] intensities1, int[] intensities2,
+                                    ComparisonContext context) {
         // calculate the hypergeometric score
         int minBin = FastMath.min(spectrum1.getMinComparisonMz(), spectrum2.getMinComparisonMz());
         int maxBin = FastMath.max(spectrum1.getMaxComparisonMz(), spectrum2.getMaxComparisonMz());
 
-        int morePeaks = spectrum1.getComparisonFilteredPeaks().size();
-        int lessPeaks = spectrum2.getComparisonFilteredPeaks().size();
+        int morePeaks = nPeaks1;
+        int lessPeaks = nPeaks2;
 
         if (morePeaks < lessPeaks) {
-            morePeaks = peakSet2.size();
-            lessPeaks = peakSet1.size();
+            morePeaks = nSharedPeaks;
+            lessPeaks = nSharedPeaks;
         }
 
         // the (maxBin - minBin) * 2 formula is used to keep the scores consistent with version
         // 1.x where the bins were evaluated based on the set fragment tolerance. Estimating based
         // on fragment tolerance leads to roughly twice as many bins.
         // -- JG 08.10.2018
-        double hgtScore = new HyperGeometric((maxBin - minBin) * 2, morePeaks, lessPeaks, RANDOM_ENGINE).pdf(peakSet1.size());
+        double hgtScore = context.getHyperGeometric((maxBin - minBin) * 2, morePeaks, lessPeaks).pdf(nSharedPeaks);
 
         if (hgtScore == 0) {
             hgtScore = 1;
@@ -95,17 +173,8 @@ public class CombinedFisherIntensityTest implements IBinarySpectrumSimilarity {
             return -FastMath.log(hgtScore);
         }
 
-        // create the list of intensities
-        Map<BinaryPeak, BinaryPeak> comparisonPeaks2 = spectrum2.getComparisonFilteredPeaks();
-        IntPair[] pairs = new IntPair[peakSet1.size()];
-
-        int counter = 0;
-        for (BinaryPeak p : peakSet1) {
-            pairs[counter++] = new IntPair(p.getIntensity(), comparisonPeaks2.get(p).getIntensity());
-        }
-
         // calculate the fisher p
-        double kendallP = assessKendallCorrelation(pairs);
+        double kendallP = assessKendallCorrelation(intensities1, intensities2, nSharedPeaks, context);
 
         // combine the two
         return combineProbabilities(hgtScore, kendallP);
@@ -142,9 +211,10 @@ public class CombinedFisherIntensityTest implements IBinarySpectrumSimilarity {
      * Assess the Kendall Tau's correlation converted to a probability score.
      * @return Probability as a double
      */
-    private double assessKendallCorrelation(IntPair[] pairs) {
+    private double assessKendallCorrelation(int[] intensities1, int[] intensities2, int nSharedPeaks,
+                                            ComparisonContext context) {
         // get the Tau score
-        double correlation = kendallsCorrelation.correlation(pairs);
+        double correlation = kendallsCorrelation.correlation(intensities1, intensities2, nSharedPeaks, context);
 
         // map to p-value
         // if the correlation cannot be calculated, assume that there is none
@@ -154,7 +224,7 @@ public class CombinedFisherIntensityTest implements IBinarySpectrumSimilarity {
 
         // convert correlation into probability using the distribution used in Peptidome
         // Normal Distribution with mean = 0 and SD^2 = 2(2k + 5)/9k(k − 1)
-        double k = (double) pairs.length;
+        double k = (double) nSharedPeaks;
 
         // this cannot be calculated for only 1 shared peak
         if (k == 1)
@@ -163,9 +233,77 @@ public class CombinedFisherIntensityTest implements IBinarySpectrumSimilarity {
         double sdSquare = (2 * (2 * k + 5)) / (9 * k * (k - 1) );
         double sd = FastMath.sqrt(sdSquare);
 
-        Normal normal = new Normal(0, sd, RANDOM_ENGINE);
-        double probability = normal.cdf(correlation);
+        double probability = context.getNormal(0, sd).cdf(correlation);
 
         return 1 - probability;
     }
+
+    /**
+     * Returns the intensity of a (query) peak by its m/z value. Narrow m/z ranges are
+     * stored in a dense array, wide (f.e. high resolution) ranges as sorted arrays.
+     * All arrays are taken from the ComparisonContext.
+     */
+    private static final class QueryPeakLookup {
+        /** Maximum m/z range stored as dense array */
+        private static final int MAX_DENSE_RANGE = 1 << 14;
+        private static final int NO_PEAK = Integer.MIN_VALUE;
+
+        private final int minMz;
+        private final int maxMz;
+        private final int nPeaks;
+        private final boolean isDense;
+        /** Intensities by m/z offset if dense, otherwise the sorted m/z values */
+        private final int[] lookup;
+        private final int[] sortedIntensities;
+
+        private QueryPeakLookup(Collection<BinaryPeak> peaks, ComparisonContext context) {
+            // sort the peaks by m/z as packed longs
+            nPeaks = peaks.size();
+            long[] sortedPeaks = context.getPeakSortKeys(nPeaks);
+            int index = 0;
+
+            for (BinaryPeak peak : peaks) {
+                sortedPeaks[index++] = ((long) peak.getMz() << 32) | (peak.getIntensity() & 0xFFFFFFFFL);
+            }
+
+            Arrays.sort(sortedPeaks, 0, nPeaks);
+
+            minMz = (int) (sortedPeaks[0] >> 32);
+            maxMz = (int) (sortedPeaks[nPeaks - 1] >> 32);
+            isDense = (long) maxMz - minMz < MAX_DENSE_RANGE;
+
+            if (isDense) {
+                lookup = context.getLookupBuffer(maxMz - minMz + 1);
+                Arrays.fill(lookup, 0, maxMz - minMz + 1, NO_PEAK);
+
+                for (int i = 0; i < nPeaks; i++) {
+                    lookup[(int) (sortedPeaks[i] >> 32) - minMz] = (int) sortedPeaks[i];
+                }
+
+                sortedIntensities = null;
+            } else {
+                lookup = context.getLookupBuffer(nPeaks);
+                sortedIntensities = context.getLookupIntensities(nPeaks);
+
+                for (int i = 0; i < nPeaks; i++) {
+                    lookup[i] = (int) (sortedPeaks[i] >> 32);
+                    sortedIntensities[i] = (int) sortedPeaks[i];
+                }
+            }
+        }
+
+        private int getIntensity(int mz) {
+            if (mz < minMz || mz > maxMz) {
+                return NO_PEAK;
+            }
+
+            if (isDense) {
+                return lookup[mz - minMz];
+            }
+
+            int index = Arrays.binarySearch(lookup, 0, nPeaks, mz);
+
+            return (index >= 0) ? sortedIntensities[index] : NO_PEAK;
+        }
+    }
 }
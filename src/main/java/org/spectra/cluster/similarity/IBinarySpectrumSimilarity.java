@@ -1,6 +1,7 @@
 package org.spectra.cluster.similarity;
 
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.util.ComparisonContext;
 
 import java.io.Serializable;
 
@@ -17,4 +18,49 @@ public interface IBinarySpectrumSimilarity extends Serializable {
      * @return The similarity score as a double.
      */
     double correlation(IBinarySpectrum spectrumA, IBinarySpectrum spectrumB);
+
+    /**
+     * Compute the correlation between one query spectrum and a block of candidate spectra. The
+     * score of candidates[i] is written to scores[i - from] and must be identical to
+     * correlation(query, candidates[i]).
+     *
+     * Implementations should prepare the query only once for all candidates.
+     *
+     * @param query The spectrum to compare against all candidates. Used as spectrumA.
+     * @param candidates The candidate spectra. Used as spectrumB.
+     * @param from Index of the first candidate to score (inclusive).
+     * @param to Index of the last candidate to score (exclusive).
+     * @param scores Array to write the scores to. Must hold at least to - from scores.
+     */
+    default void correlation(IBinarySpectrum query, IBinarySpectrum[] candidates, int from, int to, double[] scores) {
+        for (int i = from; i < to; i++) {
+            scores[i - from] = correlation(query, candidates[i]);
+        }
+    }
+
+    /**
+     * Compute the correlation between two spectra using the scratch buffers of the
+     * passed context. Implementations that require temporary objects should override
+     * this function. The default implementation ignores the context.
+     *
+     * @param spectrumA The first spectrum to compare.
+     * @param spectrumB The second spectrum to compare.
+     * @param context The context of the calling thread.
+     * @return The similarity score as a double.
+     */
+    default double correlation(IBinarySpectrum spectrumA, IBinarySpectrum spectrumB, ComparisonContext context) {
+        return correlation(spectrumA, spectrumB);
+    }
+
+    /**
+     * Compute the correlation between one query spectrum and a block of candidate spectra
+     * using the scratch buffers of the passed context. The default implementation ignores
+     * the context.
+     *
+     * @see #correlation(IBinarySpectrum, IBinarySpectrum[], int, int, double[])
+     */
+    default void correlation(IBinarySpectrum query, IBinarySpectrum[] candidates, int from, int to, double[] scores,
+                             ComparisonContext context) {
+        correlation(query, candidates, from, to, scores);
+    }
 }
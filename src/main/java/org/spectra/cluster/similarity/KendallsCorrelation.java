@@ -3,7 +3,8 @@ package org.spectra.cluster.similarity;
 /*
  * This is an adapted version of the KendallsCorrelation class from the
  * Apache Commons Math3 package. The only changes made are that this version
- * of the class works with List<Integer>.
+ * of the class works with int pairs and takes its temporary arrays from a
+ * ComparisonContext.
  *
  * Licensed to the Apache Software Foundation (ASF) under one or more
  * contributor license agreements.  See the NOTICE file distributed with
@@ -23,9 +24,9 @@ package org.spectra.cluster.similarity;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.util.FastMath;
+import org.spectra.cluster.util.ComparisonContext;
 
 import java.util.Arrays;
-import java.util.Comparator;
 
 /**
  * Implementation of Kendall's Tau-b rank correlation</a>.
@@ -79,20 +80,48 @@ public class KendallsCorrelation {
     public double correlation(IntPair[] pairs)
             throws DimensionMismatchException {
         final int n = pairs.length;
+        int[] xArray = new int[n];
+        int[] yArray = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            xArray[i] = pairs[i].getFirst();
+            yArray[i] = pairs[i].getSecond();
+        }
+
+        return correlation(xArray, yArray, n, new ComparisonContext());
+    }
+
+    /**
+     * Computes the Kendall's Tau rank correlation coefficient between the first n values
+     * of the two arrays. All temporary arrays are taken from the passed context. The
+     * passed arrays are not changed.
+     *
+     * @param xArray The first values of the pairs.
+     * @param yArray The second values of the pairs.
+     * @param n The number of pairs.
+     * @param context The context to take the scratch buffers from.
+     * @return Returns Kendall's Tau rank correlation coefficient for the two arrays
+     */
+    public double correlation(int[] xArray, int[] yArray, int n, ComparisonContext context) {
         final int numPairs = sum(n - 1);
 
-        Arrays.sort(pairs, Comparator.comparingInt(IntPair::getFirst).thenComparingInt(IntPair::getSecond));
+        // sort the pairs by x and y as packed longs
+        long[] pairs = context.getSortKeys(n);
+
+        for (int i = 0; i < n; i++) {
+            pairs[i] = ((long) xArray[i] << 32) | (yArray[i] - (long) Integer.MIN_VALUE);
+        }
+
+        Arrays.sort(pairs, 0, n);
 
         int tiedXPairs = 0;
         int tiedXYPairs = 0;
         int consecutiveXTies = 1;
         int consecutiveXYTies = 1;
-        IntPair prev = pairs[0];
         for (int i = 1; i < n; i++) {
-            final IntPair curr = pairs[i];
-            if (curr.getFirst() == prev.getFirst()) {
+            if (getFirst(pairs[i]) == getFirst(pairs[i - 1])) {
                 consecutiveXTies++;
-                if (curr.getSecond() == prev.getSecond()) {
+                if (pairs[i] == pairs[i - 1]) {
                     consecutiveXYTies++;
                 } else {
                     tiedXYPairs += sum(consecutiveXYTies - 1);
@@ -104,14 +133,19 @@ public class KendallsCorrelation {
                 tiedXYPairs += sum(consecutiveXYTies - 1);
                 consecutiveXYTies = 1;
             }
-            prev = curr;
         }
         tiedXPairs += sum(consecutiveXTies - 1);
         tiedXYPairs += sum(consecutiveXYTies - 1);
 
+        // only the y values are required for the merge sort
+        int[] ySorted = context.getMergeBuffer1(n);
+        int[] yDestination = context.getMergeBuffer2(n);
+
+        for (int i = 0; i < n; i++) {
+            ySorted[i] = getSecond(pairs[i]);
+        }
+
         int swaps = 0;
-        @SuppressWarnings("unchecked")
-        IntPair[] pairsDestination = new IntPair[n];
         for (int segmentSize = 1; segmentSize < n; segmentSize <<= 1) {
             for (int offset = 0; offset < n; offset += 2 * segmentSize) {
                 int i = offset;
@@ -123,42 +157,39 @@ public class KendallsCorrelation {
                 while (i < iEnd || j < jEnd) {
                     if (i < iEnd) {
                         if (j < jEnd) {
-                            if (pairs[i].getSecond() <= pairs[j].getSecond()) {
-                                pairsDestination[copyLocation] = pairs[i];
+                            if (ySorted[i] <= ySorted[j]) {
+                                yDestination[copyLocation] = ySorted[i];
                                 i++;
                             } else {
-                                pairsDestination[copyLocation] = pairs[j];
+                                yDestination[copyLocation] = ySorted[j];
                                 j++;
                                 swaps += iEnd - i;
                             }
                         } else {
-                            pairsDestination[copyLocation] = pairs[i];
+                            yDestination[copyLocation] = ySorted[i];
                             i++;
                         }
                     } else {
-                        pairsDestination[copyLocation] = pairs[j];
+                        yDestination[copyLocation] = ySorted[j];
                         j++;
                     }
                     copyLocation++;
                 }
             }
-            final IntPair[] pairsTemp = pairs;
-            pairs = pairsDestination;
-            pairsDestination = pairsTemp;
+            final int[] yTemp = ySorted;
+            ySorted = yDestination;
+            yDestination = yTemp;
         }
 
         int tiedYPairs = 0;
         int consecutiveYTies = 1;
-        prev = pairs[0];
         for (int i = 1; i < n; i++) {
-            final IntPair curr = pairs[i];
-            if (curr.getSecond() == prev.getSecond()) {
+            if (ySorted[i] == ySorted[i - 1]) {
                 consecutiveYTies++;
             } else {
                 tiedYPairs += sum(consecutiveYTies - 1);
                 consecutiveYTies = 1;
             }
-            prev = curr;
         }
         tiedYPairs += sum(consecutiveYTies - 1);
 
@@ -167,6 +198,14 @@ public class KendallsCorrelation {
         return concordantMinusDiscordant / FastMath.sqrt(nonTiedPairsMultiplied);
     }
 
+    private static int getFirst(long pair) {
+        return (int) (pair >> 32);
+    }
+
+    private static int getSecond(long pair) {
+        return (int) ((pair & 0xFFFFFFFFL) + Integer.MIN_VALUE);
+    }
+
     /**
      * Returns the sum of the number from 1 .. n according to Gauss' summation formula:
      * \[ \sum\limits_{k=1}^n k = \frac{n(n + 1)}{2} \]
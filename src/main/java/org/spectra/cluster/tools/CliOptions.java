@@ -17,6 +17,8 @@ public class CliOptions {
         CONFIG_FILE("config", "c"),
         OUTPUT_PATH("output.path", "o"),
         OUTPUT_MSP("output.msp", "om"),
+        OUTPUT_DOT_CLUSTERING("output.clustering", "oc"),
+        METRICS("metrics", "m"),
 
         PRECURSOR_TOLERANCE("precursor.tolerance", "p"),
         FRAGMENT_PRECISION("fragment.precision", "f"),
@@ -42,6 +44,12 @@ public class CliOptions {
         VERBOSE("verbose", "v"),
 
         TEMP_DIRECTORY("temp_directory", "tmp"),
+        STRIPE_DIRECTORIES("stripe.directories", "sd"),
+
+        PLAN("plan", "pl"),
+        PLAN_SAMPLE_FRACTION("plan.sample.fraction", "psf"),
+
+        COLLAPSE_DUPLICATES("collapse.duplicates", "cd"),
 
         // Advanced options
         ADVANCED_MIN_NUMBER_COMPARISONS("x.min.comparisons", "mc"),
@@ -111,6 +119,18 @@ public class CliOptions {
                 .create(OPTIONS.OUTPUT_MSP.getValue());
         options.addOption(outputMsp);
 
+        Option outputDotClustering = OptionBuilder
+                .withDescription("If set, a .clustering file is written to the same location as the outputfile.")
+                .withLongOpt(OPTIONS.OUTPUT_DOT_CLUSTERING.getLongValue())
+                .create(OPTIONS.OUTPUT_DOT_CLUSTERING.getValue());
+        options.addOption(outputDotClustering);
+
+        Option metrics = OptionBuilder
+                .withDescription("If set, clustering metrics are exposed through JMX and written as JSON report to the same location as the outputfile.")
+                .withLongOpt(OPTIONS.METRICS.getLongValue())
+                .create(OPTIONS.METRICS.getValue());
+        options.addOption(metrics);
+
         Option startThreshold = OptionBuilder
                 .hasArg()
                 .withDescription("(Highest) starting threshold")
@@ -146,6 +166,34 @@ public class CliOptions {
                 .create(OPTIONS.BINARY_TMP_DIR.getValue());
         options.addOption(binaryDirectory);
 
+        Option stripeDirectories = OptionBuilder
+                .hasArg()
+                .withDescription("Comma separated list of directories (ideally on different devices) to distribute the temporary cluster files across.")
+                .withLongOpt(OPTIONS.STRIPE_DIRECTORIES.getLongValue())
+                .create(OPTIONS.STRIPE_DIRECTORIES.getValue());
+        options.addOption(stripeDirectories);
+
+        Option plan = OptionBuilder
+                .withDescription("If set, the clustering is not run. Instead, the expected runtime, memory and disk usage are estimated based on a sample of the input spectra.")
+                .withLongOpt(OPTIONS.PLAN.getLongValue())
+                .create(OPTIONS.PLAN.getValue());
+        options.addOption(plan);
+
+        Option planSampleFraction = OptionBuilder
+                .hasArg()
+                .withDescription("Fraction of spectra (0 - 1) used to estimate the resource usage in plan mode.")
+                .withLongOpt(OPTIONS.PLAN_SAMPLE_FRACTION.getLongValue())
+                .create(OPTIONS.PLAN_SAMPLE_FRACTION.getValue());
+        options.addOption(planSampleFraction);
+
+        Option collapseDuplicates = OptionBuilder
+                .hasArg()
+                .withArgName("MODE")
+                .withDescription("Collapses duplicate spectra into one cluster while loading. Possible MODES are 'none', 'exact' (same precursor, charge and peaks) and 'near' (same charge, precursor within tolerance and same most intense peaks).")
+                .withLongOpt(OPTIONS.COLLAPSE_DUPLICATES.getLongValue())
+                .create(OPTIONS.COLLAPSE_DUPLICATES.getValue());
+        options.addOption(collapseDuplicates);
+
         Option keepBinary = OptionBuilder
                 .withDescription("If this options is set, the binary files are not deleted after clustering.")
                 .withLongOpt(OPTIONS.KEEP_BINARY_FILE.getLongValue())
@@ -7,17 +7,26 @@ import io.github.bigbio.pgatk.io.objectdb.ObjectsDB;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.spectra.cluster.binning.IClusterBinner;
+import org.spectra.cluster.cdf.SpectraPerBinNumberComparisonAssessor;
+import org.spectra.cluster.engine.ClusteringEngineFactory;
 import org.spectra.cluster.engine.IClusteringEngine;
 import org.spectra.cluster.exceptions.SpectraClusterException;
 import org.spectra.cluster.io.cluster.ClusterStorageFactory;
 import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.io.cluster.StripedClusterStorage;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.Histogram;
+import org.spectra.cluster.metrics.MetricsRegistry;
 import org.spectra.cluster.model.cluster.GreedySpectralCluster;
 import org.spectra.cluster.model.cluster.ICluster;
 import org.spectra.cluster.model.cluster.IClusterProperties;
 import org.spectra.cluster.util.ClusteringParameters;
+import org.spectra.cluster.util.ComparisonContext;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 
 /**
@@ -29,16 +38,34 @@ import java.util.concurrent.ForkJoinPool;
 @Data
 @Slf4j
 public class LocalParallelBinnedClusteringTool {
+    private static final Counter BINS = MetricsRegistry.counter("clustering.bins");
+    private static final Histogram BIN_SIZE = MetricsRegistry.histogram("clustering.bin_size");
+    private static final Histogram BIN_TIME = MetricsRegistry.histogram("clustering.bin_time_ms");
+    private static final Histogram BIN_RESULT_SIZE = MetricsRegistry.histogram("clustering.bin_result_size");
+    private static final Counter BOUNDARY_CLUSTERS = MetricsRegistry.counter("clustering.second_round.boundary_clusters");
+    private static final Counter PASS_THROUGH_CLUSTERS = MetricsRegistry.counter("clustering.second_round.pass_through_clusters");
+
     private final int parallelJobs;
     private final File temporaryStorageDir;
     private final IClusterBinner binner;
     private final Class clusterClass;
+    /** If set, the temporary storages are striped across these directories instead of using temporaryStorageDir */
+    private File[] stripeDirectories;
 
     public void runClustering(IClusterProperties[] clusters, IMapStorage<ICluster> clusterStorage,
                               ClusteringParameters clusteringParameters) throws SpectraClusterException {
         log.debug("------ Local parallel binned clustering -----");
 
         try {
+            // all engines share the precursor density of the loaded spectra
+            SpectraPerBinNumberComparisonAssessor precursorDensity = clusteringParameters.createPrecursorDensityHistogram();
+
+            for (IClusterProperties cluster : clusters) {
+                precursorDensity.countSpectrum(cluster.getPrecursorMz());
+            }
+
+            ClusteringEngineFactory engineFactory = clusteringParameters.createClusteringEngineFactory(precursorDensity);
+
             // bin the spectra
             log.debug("Binning spectra...");
             String[][] binnedClusterIds = binner.binClusters(clusters, false);
@@ -46,43 +73,64 @@ public class LocalParallelBinnedClusteringTool {
             log.debug(String.format("Clusters binned in %d bins. Starting parallel clustering using %d threads...", binnedClusterIds.length, parallelJobs));
 
             // need a temporary storage for the result of the first round
-            File firstRoundStorageDir = new File(temporaryStorageDir.getAbsolutePath(), "first_round");
-            if (!firstRoundStorageDir.mkdir())
-                throw new SpectraClusterException("Failed to create storage directory " + firstRoundStorageDir.getAbsolutePath());
-
-            IMapStorage<ICluster> firstRoundStorage = ClusterStorageFactory.buildTemporaryDynamicStorage(firstRoundStorageDir, clusterClass);
+            IMapStorage<ICluster> firstRoundStorage = createTemporaryStorage("first_round");
 
             // ensure that all clusters were written in the initial storage
             clusterStorage.flush();
 
             // cluster the initially binned clusters
             IClusterProperties[][] firstRoundResult = clusterMapped(binnedClusterIds, clusterStorage, firstRoundStorage,
-                    clusteringParameters);
+                    engineFactory);
 
             // close the initial storage
             clusterStorage.close();
 
-            // flatten the first round result
-            IClusterProperties[] flatFirstRoundResult = Arrays.stream(firstRoundResult)
-                    .flatMap(Arrays::stream)
-                    .toArray(IClusterProperties[]::new);
+            // select the clusters for the second round with shifted windows
+            String[][] rebinnedClusterIds;
+            List<IClusterProperties> passThroughClusters = new ArrayList<>();
 
-            // repeat for the second round with shifted windows
-            String[][] rebinnedClusterIds = binner.binClusters(flatFirstRoundResult, true);
+            if (clusteringParameters.isFastMode()) {
+                // fast mode skips the second round, all clusters are taken from the first round
+                Arrays.stream(firstRoundResult).flatMap(Arrays::stream).forEach(passThroughClusters::add);
+                rebinnedClusterIds = new String[0][];
+            } else if (clusteringParameters.isBoundaryOnlySecondRound()) {
+                // only clusters close to a first round bin boundary can be merged in the second round
+                boolean[][] isBoundaryCluster = findBoundaryClusters(firstRoundResult,
+                        clusteringParameters.getIntPrecursorTolerance(), !clusteringParameters.isIgnoreCharge());
+                List<IClusterProperties> boundaryClusters = new ArrayList<>();
 
-            // need another temporary storage for the final result
-            File secondRoundStorageDir = new File(temporaryStorageDir.getAbsolutePath(), "second_round");
-            if (!secondRoundStorageDir.mkdir())
-                throw new SpectraClusterException("Failed to create storage directory " + secondRoundStorageDir.getAbsolutePath());
+                for (int binIndex = 0; binIndex < firstRoundResult.length; binIndex++) {
+                    for (int i = 0; i < firstRoundResult[binIndex].length; i++) {
+                        if (isBoundaryCluster[binIndex][i])
+                            boundaryClusters.add(firstRoundResult[binIndex][i]);
+                        else
+                            passThroughClusters.add(firstRoundResult[binIndex][i]);
+                    }
+                }
 
-            IMapStorage<ICluster> secondRoundStorage = ClusterStorageFactory.buildTemporaryDynamicStorage(secondRoundStorageDir, clusterClass);
+                log.debug(String.format("Re-clustering %d boundary clusters, %d clusters passed through",
+                        boundaryClusters.size(), passThroughClusters.size()));
+                BOUNDARY_CLUSTERS.add(boundaryClusters.size());
+                PASS_THROUGH_CLUSTERS.add(passThroughClusters.size());
+
+                rebinnedClusterIds = (boundaryClusters.isEmpty()) ? new String[0][] :
+                        binner.binClusters(boundaryClusters.toArray(new IClusterProperties[0]), true);
+            } else {
+                // flatten the first round result
+                IClusterProperties[] flatFirstRoundResult = Arrays.stream(firstRoundResult)
+                        .flatMap(Arrays::stream)
+                        .toArray(IClusterProperties[]::new);
+
+                // repeat for the second round with shifted windows
+                rebinnedClusterIds = binner.binClusters(flatFirstRoundResult, true);
+            }
+
+            // need another temporary storage for the final result
+            IMapStorage<ICluster> secondRoundStorage = createTemporaryStorage("second_round");
 
             // run the clustering again on the re-binned ids
             IClusterProperties[][] secondRoundResult = clusterMapped(rebinnedClusterIds, firstRoundStorage, secondRoundStorage,
-                    clusteringParameters);
-
-            // close the first round storage - thereby deleting the temporary data
-            firstRoundStorage.close();
+                    engineFactory);
 
             // write the final clusters to file
             ObjectDBGreedyClusterStorage writer = new ObjectDBGreedyClusterStorage(
@@ -90,15 +138,13 @@ public class LocalParallelBinnedClusteringTool {
 
             // write all clusters to storage
             Arrays.stream(secondRoundResult).flatMap(Arrays::stream)
-                    .forEach((IClusterProperties cp) -> {
-                        try {
-                            GreedySpectralCluster cluster = (GreedySpectralCluster) secondRoundStorage.get(cp.getId());
-                            writer.addGreedySpectralCluster(LongObject.asLongHash(cluster.getId()), cluster);
-                        }
-                        catch (Exception e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
+                    .forEach((IClusterProperties cp) -> writeFinalCluster(cp, secondRoundStorage, writer));
+
+            // clusters that were not part of the second round are taken from the first round
+            passThroughClusters.forEach((IClusterProperties cp) -> writeFinalCluster(cp, firstRoundStorage, writer));
+
+            // close the first round storage - thereby deleting the temporary data
+            firstRoundStorage.close();
 
             // save the final file
             writer.writeDBMode();
@@ -111,10 +157,113 @@ public class LocalParallelBinnedClusteringTool {
         }
     }
 
+    /**
+     * Creates a temporary storage that is deleted on close. In case stripe directories are
+     * set, the storage is striped across them.
+     *
+     * @param name Name of the storage's directory.
+     * @return The storage
+     * @throws SpectraClusterException If the storage cannot be created.
+     */
+    private IMapStorage<ICluster> createTemporaryStorage(String name) throws SpectraClusterException {
+        if (stripeDirectories != null && stripeDirectories.length > 0) {
+            log.debug(String.format("Striping %s storage across %d directories", name, stripeDirectories.length));
+            return ClusterStorageFactory.buildTemporaryStripedStorage(stripeDirectories, name, clusterClass);
+        }
+
+        File storageDir = new File(temporaryStorageDir.getAbsolutePath(), name);
+        if (!storageDir.mkdir())
+            throw new SpectraClusterException("Failed to create storage directory " + storageDir.getAbsolutePath());
+
+        return ClusterStorageFactory.buildTemporaryDynamicStorage(storageDir, clusterClass);
+    }
+
+    private void writeFinalCluster(IClusterProperties clusterProperties, IMapStorage<ICluster> storage,
+                                   ObjectDBGreedyClusterStorage writer) {
+        try {
+            GreedySpectralCluster cluster = (GreedySpectralCluster) storage.get(clusterProperties.getId());
+            writer.addGreedySpectralCluster(LongObject.asLongHash(cluster.getId()), cluster);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Finds all clusters that lie within the precursor tolerance of a cluster in a
+     * neighbouring bin. Only these clusters can be merged with clusters of other bins.
+     * All other clusters were already compared with every potential partner in their
+     * own bin.
+     *
+     * The bins must be sorted by (charge and) precursor m/z as returned by the binner.
+     * Since the bins are sorted, only the directly adjacent non-empty bins have to be
+     * considered.
+     *
+     * @param bins The (clustered) bins.
+     * @param precursorTolerance The (integer) precursor tolerance.
+     * @param useCharge If set, bins containing clusters of different charge states are not considered neighbours.
+     * @return A flag for every cluster whether it is a boundary cluster, in the same layout as bins.
+     */
+    public static boolean[][] findBoundaryClusters(IClusterProperties[][] bins, int precursorTolerance, boolean useCharge) {
+        boolean[][] isBoundaryCluster = new boolean[bins.length][];
+        int[] minPrecursor = new int[bins.length];
+        int[] maxPrecursor = new int[bins.length];
+        Integer[] charge = new Integer[bins.length];
+
+        for (int binIndex = 0; binIndex < bins.length; binIndex++) {
+            isBoundaryCluster[binIndex] = new boolean[bins[binIndex].length];
+            minPrecursor[binIndex] = Integer.MAX_VALUE;
+            maxPrecursor[binIndex] = Integer.MIN_VALUE;
+
+            for (IClusterProperties cluster : bins[binIndex]) {
+                minPrecursor[binIndex] = Math.min(minPrecursor[binIndex], cluster.getPrecursorMz());
+                maxPrecursor[binIndex] = Math.max(maxPrecursor[binIndex], cluster.getPrecursorMz());
+
+                if (charge[binIndex] == null)
+                    charge[binIndex] = cluster.getPrecursorCharge();
+            }
+        }
+
+        int previousBin = -1;
+
+        for (int binIndex = 0; binIndex < bins.length; binIndex++) {
+            if (bins[binIndex].length == 0)
+                continue;
+
+            if (previousBin >= 0 && isNeighbour(previousBin, binIndex, minPrecursor, charge, useCharge)) {
+                // clusters at the upper end of the previous bin
+                for (int i = 0; i < bins[previousBin].length; i++) {
+                    if (bins[previousBin][i].getPrecursorMz() >= minPrecursor[binIndex] - precursorTolerance)
+                        isBoundaryCluster[previousBin][i] = true;
+                }
+
+                // clusters at the lower end of the current bin
+                for (int i = 0; i < bins[binIndex].length; i++) {
+                    if (bins[binIndex][i].getPrecursorMz() <= maxPrecursor[previousBin] + precursorTolerance)
+                        isBoundaryCluster[binIndex][i] = true;
+                }
+            }
+
+            previousBin = binIndex;
+        }
+
+        return isBoundaryCluster;
+    }
+
+    private static boolean isNeighbour(int lowerBin, int upperBin, int[] minPrecursor, Integer[] charge, boolean useCharge) {
+        // a new charge state starts with lower precursors again
+        if (minPrecursor[upperBin] < minPrecursor[lowerBin])
+            return false;
+
+        return !useCharge || charge[lowerBin] == null || charge[upperBin] == null ||
+                charge[lowerBin].equals(charge[upperBin]);
+    }
+
     /**
      * Write clusters to a shared storage.
      *
-     * The function ensures that only one writing process is active at a time.
+     * The function ensures that only one writing process is active at a time. Striped
+     * storages synchronize every stripe separately and are therefore written in parallel.
      *
      * Clusters are stored with their id as key.
      *
@@ -122,7 +271,20 @@ public class LocalParallelBinnedClusteringTool {
      * @param clusters The clusters to write.
      * @throws PgatkIOException Thrown on I/O errors.
      */
-    private synchronized void writeClusters(IMapStorage<ICluster> storage, ICluster[] clusters) throws PgatkIOException {
+    private void writeClusters(IMapStorage<ICluster> storage, ICluster[] clusters) throws PgatkIOException {
+        // every stripe has its own writer, the stripes are written in parallel
+        if (storage instanceof StripedClusterStorage) {
+            StripedClusterStorage stripedStorage = (StripedClusterStorage) storage;
+            stripedStorage.putAll(clusters);
+            stripedStorage.flush();
+
+            return;
+        }
+
+        writeClustersSynchronized(storage, clusters);
+    }
+
+    private synchronized void writeClustersSynchronized(IMapStorage<ICluster> storage, ICluster[] clusters) throws PgatkIOException {
         log.debug("Writing clusters...");
         for (ICluster cluster : clusters)  {
             storage.put(cluster.getId(), cluster);
@@ -140,12 +302,15 @@ public class LocalParallelBinnedClusteringTool {
     }
 
     private IClusterProperties[][] clusterMapped(String[][] binnedClusterIds, IMapStorage<ICluster> clusterStorage,
-                                                 IMapStorage<ICluster> resultStorage, ClusteringParameters clusteringParameters) throws Exception {
+                                                 IMapStorage<ICluster> resultStorage, ClusteringEngineFactory engineFactory) throws Exception {
         // start the clustering
         ForkJoinPool clusteringPool = new ForkJoinPool(parallelJobs, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        // every worker thread re-uses its scratch buffers for all bins it clusters
+        ThreadLocal<ComparisonContext> comparisonContexts = ThreadLocal.withInitial(ComparisonContext::new);
         return clusteringPool.submit(() -> Arrays.stream(binnedClusterIds).parallel().map((String[] clusterIds) -> {
             try {
-                IClusteringEngine engine = clusteringParameters.createGreedyClusteringEngine();
+                long startTime = MetricsRegistry.isEnabled() ? System.nanoTime() : 0;
+                IClusteringEngine engine = engineFactory.createEngine(comparisonContexts.get());
 
                 // load the clusters - parallel reads are not a problem
                 ICluster[] loadedClusters = new ICluster[clusterIds.length];
@@ -164,6 +329,13 @@ public class LocalParallelBinnedClusteringTool {
                 // save the clusters
                 writeClusters(resultStorage, result);
 
+                if (MetricsRegistry.isEnabled()) {
+                    BINS.increment();
+                    BIN_SIZE.record(clusterIds.length);
+                    BIN_RESULT_SIZE.record(result.length);
+                    BIN_TIME.record((System.nanoTime() - startTime) / 1_000_000);
+                }
+
                 // return the properties
                 return Arrays.stream(result).map(ICluster::getProperties).toArray(IClusterProperties[]::new);
             } catch (Exception e) {
@@ -17,28 +17,35 @@ import org.spectra.cluster.exceptions.MissingParameterException;
 import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
 import org.spectra.cluster.io.cluster.ClusterStorageFactory;
 import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.io.result.DotClusteringResultWriter;
 import org.spectra.cluster.io.result.IClusteringResultWriter;
 import org.spectra.cluster.io.result.MspWriter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.io.spectra.DuplicateSpectrumCollapser;
 import org.spectra.cluster.io.spectra.MzSpectraReader;
 import org.spectra.cluster.model.cluster.GreedySpectralCluster;
 import org.spectra.cluster.model.cluster.ICluster;
 import org.spectra.cluster.model.cluster.IClusterProperties;
 import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
 import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.tools.plan.ClusteringPlan;
+import org.spectra.cluster.tools.plan.ClusteringPlanner;
 import org.spectra.cluster.tools.utils.IProgressListener;
 import org.spectra.cluster.tools.utils.ProgressUpdate;
+import org.spectra.cluster.util.ClusterUtils;
 import org.spectra.cluster.util.ClusteringParameters;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This code is licensed under the Apache License, Version 2.0 (the
@@ -53,6 +60,10 @@ import java.util.List;
  */
 @Slf4j
 public class SpectraClusterTool implements IProgressListener {
+    /**
+     * Seed used to draw the sample in plan mode
+     */
+    private static final long PLAN_SEED = 42;
 
     public static void main(String[] args) {
         SpectraClusterTool instance = new SpectraClusterTool();
@@ -86,8 +97,11 @@ public class SpectraClusterTool implements IProgressListener {
             // merge all other command line parameters overwriting the config file values
             clusteringParameters.mergeCommandLineArgs(commandLine);
 
+            // in plan mode, the resource usage is only estimated
+            boolean planMode = commandLine.hasOption(CliOptions.OPTIONS.PLAN.getValue());
+
             // make sure that the set parameters are valid
-            checkParameterValidity(clusteringParameters);
+            checkParameterValidity(clusteringParameters, planMode);
 
             // all remaining parameters are treated as input files
             String[] peakFiles = commandLine.getArgs();
@@ -98,11 +112,19 @@ public class SpectraClusterTool implements IProgressListener {
             }
 
             // create the temporary directory in case it wasn't set
-            if (clusteringParameters.getBinaryDirectory() == null)
-                clusteringParameters.setBinaryDirectory(createTempFolderPath(clusteringParameters.getOutputFile(), "binary-clustering-files"));
+            if (clusteringParameters.getBinaryDirectory() == null) {
+                if (planMode)
+                    clusteringParameters.setBinaryDirectory(Files.createTempDirectory("spectra-cluster-").toString());
+                else
+                    clusteringParameters.setBinaryDirectory(createTempFolderPath(clusteringParameters.getOutputFile(), "binary-clustering-files"));
+            }
 
-            // start the clustering
-            runClustering(peakFiles, clusteringParameters);
+            if (planMode) {
+                runPlan(peakFiles, clusteringParameters);
+            } else {
+                // start the clustering
+                runClustering(peakFiles, clusteringParameters);
+            }
 
             // exit nicely
             System.exit(0);
@@ -126,12 +148,26 @@ public class SpectraClusterTool implements IProgressListener {
      * @throws Exception
      */
     private void runClustering(String[] peakFiles, ClusteringParameters clusteringParameters) throws Exception {
+        if (clusteringParameters.isCollectMetrics()) {
+            MetricsRegistry.setEnabled(true);
+            MetricsRegistry.registerMBean();
+        }
+
         // create the storage to load the spectra
         IPropertyStorage propertyStorage = PropertyStorageFactory
                 .buildDynamicLevelDBPropertyStorage(new File(clusteringParameters.getBinaryDirectory()));
 
-        File clusterStorageDir = createUniqueDirectory(new File(clusteringParameters.getBinaryDirectory(), "loaded-clusters"));
-        IMapStorage<ICluster> clusterStorage = ClusterStorageFactory.buildTemporaryDynamicStorage(clusterStorageDir, GreedySpectralCluster.class);
+        File[] stripeDirectories = clusteringParameters.getStripeDirectoryFiles();
+        IMapStorage<ICluster> clusterStorage;
+
+        if (stripeDirectories != null) {
+            // distribute the cluster storage across multiple devices
+            clusterStorage = ClusterStorageFactory.buildTemporaryStripedStorage(stripeDirectories, "loaded-clusters",
+                    GreedySpectralCluster.class);
+        } else {
+            File clusterStorageDir = createUniqueDirectory(new File(clusteringParameters.getBinaryDirectory(), "loaded-clusters"));
+            clusterStorage = ClusterStorageFactory.buildTemporaryDynamicStorage(clusterStorageDir, GreedySpectralCluster.class);
+        }
 
         // load the spectra
         IClusterProperties[] loadedClusters = loadInputFiles(peakFiles, clusteringParameters, propertyStorage, clusterStorage);
@@ -141,10 +177,11 @@ public class SpectraClusterTool implements IProgressListener {
 
         IClusterBinner clusterBinner = new SimilarSizedClusterBinner(
                 2 * clusteringParameters.getIntPrecursorTolerance(),
-                1_000, !clusteringParameters.isIgnoreCharge());
+                1_000, !clusteringParameters.isIgnoreCharge(), clusteringParameters.getMaxBinSize());
 
         LocalParallelBinnedClusteringTool clusteringTool = new LocalParallelBinnedClusteringTool(
                 clusteringParameters.getNThreads(), clusteringTmpDir, clusterBinner, GreedySpectralCluster.class);
+        clusteringTool.setStripeDirectories(stripeDirectories);
 
         LocalDateTime startTime = LocalDateTime.now();
         log.debug("Starting clustering...");
@@ -171,11 +208,59 @@ public class SpectraClusterTool implements IProgressListener {
             writer.writeResult(mspFile, resultReader, propertyStorage);
         }
 
-        // TODO: Create .clustering output file
+        // create the .clustering file
+        if (clusteringParameters.isOutputDotClustering()) {
+            Path dotClusteringFile = Paths.get(clusteringParameters.getOutputFile().toString() + ".clustering");
+            IClusteringResultWriter writer = new DotClusteringResultWriter(
+                    new AverageConsensusSpectrumBuilder(clusteringParameters), clusteringParameters.getNThreads());
+
+            // open the result file again
+            ObjectDBGreedyClusterStorage resultReader = new ObjectDBGreedyClusterStorage(
+                    new ObjectsDB(clusteringParameters.getOutputFile().getAbsolutePath(), false));
+
+            log.info("Saving clustering results as .clustering file at " + dotClusteringFile.toString());
+            writer.writeResult(dotClusteringFile, resultReader, propertyStorage);
+        }
 
         // close the storage
         clusterStorage.close();
         propertyStorage.close();
+
+        if (clusteringParameters.isCollectMetrics()) {
+            Path metricsFile = Paths.get(clusteringParameters.getOutputFile().toString() + ".metrics.json");
+            log.info("Writing clustering metrics to " + metricsFile.toString());
+            MetricsRegistry.writeJsonReport(metricsFile);
+        }
+    }
+
+    /**
+     * Estimates the runtime, memory and disk usage of clustering the passed files
+     * and prints the result.
+     *
+     * @param peakFiles Files to cluster.
+     * @param clusteringParameters Clustering parameters to use.
+     * @throws Exception
+     */
+    private void runPlan(String[] peakFiles, ClusteringParameters clusteringParameters) throws Exception {
+        File[] inputFiles = Arrays.stream(peakFiles)
+                .map(File::new)
+                .toArray(File[]::new);
+
+        Files.createDirectories(Paths.get(clusteringParameters.getBinaryDirectory()));
+        File planDirectory = createUniqueDirectory(new File(clusteringParameters.getBinaryDirectory(), "plan-files"));
+
+        log.info(String.format("Estimating the resource usage based on %.1f%% of the spectra...",
+                clusteringParameters.getPlanSampleFraction() * 100));
+
+        try {
+            ClusteringPlanner planner = new ClusteringPlanner(clusteringParameters,
+                    clusteringParameters.getPlanSampleFraction(), planDirectory, PLAN_SEED);
+            ClusteringPlan plan = planner.createPlan(inputFiles);
+
+            System.out.println(plan.toReport());
+        } finally {
+            ClusterUtils.cleanFilePersistence(planDirectory);
+        }
     }
 
     /**
@@ -204,24 +289,45 @@ public class SpectraClusterTool implements IProgressListener {
                 new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), clusteringParameters.createLoadingFilter(),
                 GreedyClusteringEngine.COMPARISON_FILTER, clusteringParameters.createGreedyClusteringEngine(), inputFiles);
 
-        // create the iterator to load the clusters
-        Iterator<ICluster> iterator = reader.readClusterIterator(propertyStorage);
+        // duplicate spectra are added to the stored cluster of their first copy once all clusters are stored
+        DuplicateSpectrumCollapser duplicateCollapser = clusteringParameters.createDuplicateCollapser(clusterStorage);
+        reader.setDuplicateCollapser(duplicateCollapser);
 
         List<IClusterProperties> loadedClusters = new ArrayList<>(1000);
 
-        while (iterator.hasNext()) {
-            ICluster cluster = iterator.next();
-
+        // MGF files are parsed and pre-processed using multiple threads
+        reader.readClusters(propertyStorage, clusteringParameters.getNThreads(), cluster -> {
             // all clusters are primarily stored in the cluster storage
-            clusterStorage.put(cluster.getId(), cluster);
+            try {
+                clusterStorage.put(cluster.getId(), cluster);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
 
             // only retain the basic properties
             loadedClusters.add(cluster.getProperties());
+        });
+
+        if (duplicateCollapser != null) {
+            // the precursor of clusters containing near duplicates may have changed
+            Map<String, IClusterProperties> changedClusters = duplicateCollapser.mergeDuplicates();
+
+            for (int i = 0; i < loadedClusters.size() && !changedClusters.isEmpty(); i++) {
+                IClusterProperties changedCluster = changedClusters.get(loadedClusters.get(i).getId());
+
+                if (changedCluster != null) {
+                    loadedClusters.set(i, changedCluster);
+                }
+            }
+
+            log.info(String.format("Collapsed %d duplicate spectra (%s) into %d clusters",
+                    duplicateCollapser.getCollapsedSpectra(), duplicateCollapser.getMode().name().toLowerCase(),
+                    loadedClusters.size()));
         }
 
         // some nice output
         LocalDateTime loadingCompleteTime = LocalDateTime.now();
-        log.debug(String.format("Loaded %d spectra in %d seconds", loadedClusters.size(),
+        log.debug(String.format("Loaded %d clusters in %d seconds", loadedClusters.size(),
                 Duration.between(startTime, loadingCompleteTime).getSeconds()));
 
         return loadedClusters.toArray(new IClusterProperties[0]);
@@ -256,24 +362,38 @@ public class SpectraClusterTool implements IProgressListener {
      * Ensures that the set user parameters are valid. In case they are not, an Exception is thrown.
      *
      * @param clusteringParameters The set parameters
+     * @param planMode If set, only the parameters required to estimate the resource usage are checked.
      * @throws Exception In case something is invalid.
      * @throws MissingParameterException
      */
-    private void checkParameterValidity(ClusteringParameters clusteringParameters) throws Exception, MissingParameterException {
-        // RESULT FILE PATH
-        if (clusteringParameters.getOutputFile() == null)
-            throw new MissingParameterException("Missing required option " +
-                    CliOptions.OPTIONS.OUTPUT_PATH.getValue());
-
-        // ensure that the output file does not exist
-        if (clusteringParameters.getOutputFile().exists())
-            throw new Exception("Result file " + clusteringParameters.getOutputFile().getAbsolutePath() + " already exists");
+    private void checkParameterValidity(ClusteringParameters clusteringParameters, boolean planMode) throws Exception, MissingParameterException {
+        // no result file is written in plan mode
+        if (planMode) {
+            if (clusteringParameters.getPlanSampleFraction() <= 0 || clusteringParameters.getPlanSampleFraction() > 1)
+                throw new Exception("Invalid sample fraction set. The fraction must be > 0 and <= 1");
+        } else {
+            // RESULT FILE PATH
+            if (clusteringParameters.getOutputFile() == null)
+                throw new MissingParameterException("Missing required option " +
+                        CliOptions.OPTIONS.OUTPUT_PATH.getValue());
+
+            // ensure that the output file does not exist
+            if (clusteringParameters.getOutputFile().exists())
+                throw new Exception("Result file " + clusteringParameters.getOutputFile().getAbsolutePath() + " already exists");
+        }
 
         // check whether the fragment tolerance is valid
         if (!"high".equalsIgnoreCase(clusteringParameters.getFragmentIonPrecision()) &&
             !"low".equalsIgnoreCase(clusteringParameters.getFragmentIonPrecision())) {
             throw new Exception("Invalid fragment precision set. Allowed values are 'low' and 'high'");
         }
+
+        // check whether the duplicate collapsing mode is valid
+        try {
+            DuplicateSpectrumCollapser.Mode.fromName(clusteringParameters.getDuplicateCollapsing());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Invalid duplicate collapsing mode set. Allowed values are 'none', 'exact' and 'near'");
+        }
     }
 
     /**
@@ -0,0 +1,121 @@
+package org.spectra.cluster.tools.plan;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The expected resource usage of a clustering run as estimated by the
+ * {@link ClusteringPlanner}, together with the recommended settings.
+ *
+ * All estimates are extrapolated from a sample of the input spectra and
+ * should be seen as upper bounds rather than exact predictions.
+ *
+ * @author jg
+ */
+@Data
+public class ClusteringPlan {
+    /**
+     * The estimated resource usage of a single stage.
+     */
+    @Data
+    public static class StageEstimate {
+        private final String name;
+        /** Estimated wall time in seconds */
+        private final double seconds;
+        /** Estimated peak heap usage in bytes */
+        private final long heapBytes;
+        /** Estimated disk usage of the temporary files created in this stage in bytes */
+        private final long diskBytes;
+    }
+
+    private long totalSpectra;
+    private long sampledSpectra;
+    private int nThreads;
+
+    private int estimatedBins;
+    private int medianBinSize;
+    private int largestBinSize;
+    private long estimatedComparisons;
+    private double nanosPerComparison;
+
+    private final List<StageEstimate> stages = new ArrayList<>();
+
+    private long peakHeapBytes;
+    private long availableHeapBytes;
+    private long peakDiskBytes;
+    private long availableDiskBytes;
+
+    private int recommendedThreads;
+    private int recommendedMaxBinSize;
+    private String recommendedStorage;
+
+    public void addStage(StageEstimate stage) {
+        stages.add(stage);
+    }
+
+    /**
+     * @return The estimated total wall time of all stages in seconds.
+     */
+    public double getTotalSeconds() {
+        return stages.stream().mapToDouble(StageEstimate::getSeconds).sum();
+    }
+
+    /**
+     * Formats the plan as human readable report.
+     *
+     * @return The report.
+     */
+    public String toReport() {
+        StringBuilder report = new StringBuilder();
+
+        report.append("-- Clustering plan --\n");
+        report.append(String.format("Input spectra: %d (%d sampled, %.1f%%)\n", totalSpectra, sampledSpectra,
+                totalSpectra > 0 ? sampledSpectra * 100.0 / totalSpectra : 0));
+        report.append(String.format("Bins: %d (median size %d, largest %d)\n", estimatedBins, medianBinSize,
+                largestBinSize));
+        report.append(String.format("Comparisons: %d (%.0f ns per comparison)\n", estimatedComparisons,
+                nanosPerComparison));
+        report.append(String.format("Threads: %d\n\n", nThreads));
+
+        report.append(String.format("%-16s %12s %12s %12s\n", "Stage", "Time", "Heap", "Disk"));
+
+        for (StageEstimate stage : stages) {
+            report.append(String.format("%-16s %12s %12s %12s\n", stage.getName(), formatSeconds(stage.getSeconds()),
+                    formatBytes(stage.getHeapBytes()), formatBytes(stage.getDiskBytes())));
+        }
+
+        report.append(String.format("%-16s %12s %12s %12s\n\n", "Total", formatSeconds(getTotalSeconds()),
+                formatBytes(peakHeapBytes), formatBytes(peakDiskBytes)));
+
+        report.append(String.format("Peak heap: %s (maximum heap: %s)\n", formatBytes(peakHeapBytes),
+                formatBytes(availableHeapBytes)));
+        report.append(String.format("Peak temporary disk: %s (available: %s)\n\n", formatBytes(peakDiskBytes),
+                formatBytes(availableDiskBytes)));
+
+        report.append("-- Recommended settings --\n");
+        report.append(String.format("Threads (n.threads): %d\n", recommendedThreads));
+        report.append(String.format("Maximum bin size (binning.max.bin.size): %d\n", recommendedMaxBinSize));
+        report.append(String.format("Storage: %s\n", recommendedStorage));
+
+        return report.toString();
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+
+        String units = "KMGTP";
+        int unit = (int) (Math.log(bytes) / Math.log(1024));
+        unit = Math.min(unit, units.length());
+
+        return String.format("%.1f %sB", bytes / Math.pow(1024, unit), units.charAt(unit - 1));
+    }
+
+    static String formatSeconds(double seconds) {
+        long totalSeconds = Math.round(seconds);
+
+        return String.format("%d:%02d:%02d", totalSeconds / 3600, (totalSeconds / 60) % 60, totalSeconds % 60);
+    }
+}
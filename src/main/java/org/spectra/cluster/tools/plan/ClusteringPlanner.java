@@ -0,0 +1,527 @@
+package org.spectra.cluster.tools.plan;
+
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.binning.SimilarSizedClusterBinner;
+import org.spectra.cluster.cdf.SpectraPerBinNumberComparisonAssessor;
+import org.spectra.cluster.engine.ClusteringEngineFactory;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.exceptions.SpectraClusterException;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.io.cluster.ClusterStorageFactory;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.cluster.IClusterProperties;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.tools.LocalParallelBinnedClusteringTool;
+import org.spectra.cluster.util.ClusterUtils;
+import org.spectra.cluster.util.ClusteringParameters;
+import org.spectra.cluster.util.ComparisonContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Estimates the runtime, memory and disk usage of a clustering run without
+ * running the complete clustering.
+ *
+ * All input files are parsed to get the exact number of spectra, the loading
+ * time and the precursor distribution. Only a random sample of the spectra is
+ * kept. The sample is binned using the real binner with bin size limits
+ * scaled by the sampling fraction, and both clustering rounds are run on the
+ * sampled bins using the real engine.
+ *
+ * The measured values are extrapolated to the complete dataset:
+ * - Since every sampled bin represents a full-size bin, the number of candidate
+ * pairs grows by 1 / fraction^2. Clustering times are extrapolated using the
+ * measured time per candidate pair.
+ * - Storage sizes are extrapolated from the measured (SparkKey) storage size
+ * per sampled cluster. Merged clusters are smaller in the full dataset since
+ * more spectra are merged, the estimates are therefore upper bounds.
+ * - Heap use is estimated from the serialized cluster sizes, the largest bin and
+ * the number of threads.
+ *
+ * @author jg
+ */
+@Slf4j
+public class ClusteringPlanner {
+    /**
+     * Estimated heap use of a loaded cluster relative to its serialized size.
+     */
+    public static final int HEAP_BYTES_PER_SERIALIZED_BYTE = 4;
+    /**
+     * Estimated heap use of the basic properties kept for every spectrum,
+     * excluding the id's characters. Includes the binner's sort arrays.
+     */
+    public static final int PROPERTIES_HEAP_BYTES = 112;
+    /**
+     * Estimated size of the stored properties (title, charge, ...) of every spectrum
+     * excluding the original peak list.
+     */
+    public static final int PROPERTY_STORAGE_BYTES = 256;
+    /**
+     * Estimated size of every stored original peak.
+     */
+    public static final int PROPERTY_STORAGE_BYTES_PER_PEAK = 20;
+    /**
+     * Maximum number of original peaks stored per spectrum.
+     */
+    public static final int MAX_STORED_PEAKS = 50;
+    /**
+     * Minimum number of spectra per bin as used by the SpectraClusterTool.
+     */
+    public static final int MIN_BIN_SIZE = 1_000;
+    /**
+     * Fraction of the maximum heap that may be used for clustering.
+     */
+    public static final double USABLE_HEAP_FRACTION = 0.8;
+
+    private static final Counter PEAKS_LOADED = MetricsRegistry.counter("reader.peaks_loaded");
+    private static final Counter CANDIDATE_PAIRS = MetricsRegistry.counter("engine.candidate_pairs");
+
+    private final ClusteringParameters clusteringParameters;
+    private final double sampleFraction;
+    private final File workingDirectory;
+    private final long seed;
+
+    /**
+     * Creates a new ClusteringPlanner.
+     *
+     * @param clusteringParameters The parameters of the planned run.
+     * @param sampleFraction Fraction of spectra to use for the estimation (0 - 1].
+     * @param workingDirectory Directory to create temporary files in.
+     * @param seed Seed used to draw the sample.
+     */
+    public ClusteringPlanner(ClusteringParameters clusteringParameters, double sampleFraction,
+                             File workingDirectory, long seed) {
+        if (sampleFraction <= 0 || sampleFraction > 1)
+            throw new IllegalArgumentException("Sample fraction must be > 0 and <= 1");
+
+        this.clusteringParameters = clusteringParameters;
+        this.sampleFraction = sampleFraction;
+        this.workingDirectory = workingDirectory;
+        this.seed = seed;
+    }
+
+    /**
+     * Estimates the resource usage of clustering the passed files.
+     *
+     * @param inputFiles The files to cluster.
+     * @return The plan.
+     * @throws Exception If loading or clustering the sample failed.
+     */
+    public ClusteringPlan createPlan(File[] inputFiles) throws Exception {
+        // the engine's counters are used to measure the number of comparisons
+        boolean metricsEnabled = MetricsRegistry.isEnabled();
+        MetricsRegistry.setEnabled(true);
+
+        try {
+            return estimate(inputFiles);
+        } finally {
+            MetricsRegistry.setEnabled(metricsEnabled);
+        }
+    }
+
+    private ClusteringPlan estimate(File[] inputFiles) throws Exception {
+        int nThreads = clusteringParameters.getNThreads();
+        ClusteringPlan plan = new ClusteringPlan();
+        plan.setNThreads(nThreads);
+
+        // ---- loading
+        log.debug(String.format("Loading %d files, sampling %.1f%% of spectra", inputFiles.length, sampleFraction * 100));
+
+        SpectraPerBinNumberComparisonAssessor precursorDensity = clusteringParameters.createPrecursorDensityHistogram();
+        Random random = new Random(seed);
+        List<ICluster> sample = new ArrayList<>();
+        AtomicLong totalSpectra = new AtomicLong();
+        AtomicLong idCharacters = new AtomicLong();
+
+        MzSpectraReader reader = new MzSpectraReader(clusteringParameters.createMzBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), clusteringParameters.createLoadingFilter(),
+                GreedyClusteringEngine.COMPARISON_FILTER, clusteringParameters.createGreedyClusteringEngine(), inputFiles);
+
+        long peaksBefore = PEAKS_LOADED.getCount();
+        long loadingStart = System.nanoTime();
+
+        // the consumer is always called from this thread in file order, the sample is therefore reproducible
+        reader.readClusters(null, nThreads, cluster -> {
+            totalSpectra.incrementAndGet();
+            idCharacters.addAndGet(cluster.getId().length());
+            precursorDensity.countSpectrum(cluster.getPrecursorMz());
+
+            if (random.nextDouble() < sampleFraction)
+                sample.add(cluster);
+        });
+
+        double loadingSeconds = (System.nanoTime() - loadingStart) / 1e9;
+        long nSpectra = totalSpectra.get();
+        double peaksPerSpectrum = nSpectra > 0 ? (PEAKS_LOADED.getCount() - peaksBefore) / (double) nSpectra : 0;
+
+        if (sample.size() < 2)
+            throw new SpectraClusterException(String.format("Only %d of %d spectra sampled. Increase the sample fraction.",
+                    sample.size(), nSpectra));
+
+        plan.setTotalSpectra(nSpectra);
+        plan.setSampledSpectra(sample.size());
+
+        // the actually sampled fraction
+        double fraction = sample.size() / (double) nSpectra;
+
+        // ---- storage of the loaded clusters
+        long sampleSerializedBytes = getSerializedBytes(sample);
+        StorageMeasurement storageMeasurement = measureStorage(sample);
+
+        double storageBytesPerSerializedByte = storageMeasurement.bytes / (double) sampleSerializedBytes;
+        long loadedStorageBytes = Math.round(storageMeasurement.bytes / fraction);
+        long propertyStorageBytes = Math.round(nSpectra *
+                (PROPERTY_STORAGE_BYTES + Math.min(peaksPerSpectrum, MAX_STORED_PEAKS) * PROPERTY_STORAGE_BYTES_PER_PEAK));
+        long propertiesHeapBytes = nSpectra * PROPERTIES_HEAP_BYTES + 2 * idCharacters.get();
+        long heapBytesPerCluster = (sampleSerializedBytes / sample.size()) * HEAP_BYTES_PER_SERIALIZED_BYTE;
+
+        plan.addStage(new ClusteringPlan.StageEstimate("loading",
+                loadingSeconds + storageMeasurement.seconds / fraction,
+                propertiesHeapBytes, loadedStorageBytes + propertyStorageBytes));
+
+        // ---- clustering
+        ClusteringEngineFactory engineFactory = clusteringParameters.createClusteringEngineFactory(precursorDensity);
+        SimilarSizedClusterBinner sampleBinner = new SimilarSizedClusterBinner(
+                2 * clusteringParameters.getIntPrecursorTolerance(),
+                scaleBinSize(MIN_BIN_SIZE, fraction, 1), !clusteringParameters.isIgnoreCharge(),
+                scaleBinSize(clusteringParameters.getMaxBinSize(), fraction, 2));
+
+        log.debug("Clustering the first round of the sample...");
+        RoundMeasurement firstRound = clusterSample(sample.toArray(new ICluster[0]), sampleBinner, false, engineFactory);
+
+        // select the clusters for the second round
+        ICluster[] secondRoundInput;
+        List<ICluster> passThroughClusters = new ArrayList<>();
+
+        if (clusteringParameters.isFastMode()) {
+            // fast mode skips the second round
+            secondRoundInput = new ICluster[0];
+            Arrays.stream(firstRound.results).flatMap(Arrays::stream).forEach(passThroughClusters::add);
+        } else if (clusteringParameters.isBoundaryOnlySecondRound()) {
+            boolean[][] isBoundary = LocalParallelBinnedClusteringTool.findBoundaryClusters(
+                    firstRound.getResultProperties(), clusteringParameters.getIntPrecursorTolerance(),
+                    !clusteringParameters.isIgnoreCharge());
+            List<ICluster> boundaryClusters = new ArrayList<>();
+
+            for (int bin = 0; bin < firstRound.results.length; bin++) {
+                for (int i = 0; i < firstRound.results[bin].length; i++) {
+                    if (isBoundary[bin][i])
+                        boundaryClusters.add(firstRound.results[bin][i]);
+                    else
+                        passThroughClusters.add(firstRound.results[bin][i]);
+                }
+            }
+
+            secondRoundInput = boundaryClusters.toArray(new ICluster[0]);
+        } else {
+            secondRoundInput = Arrays.stream(firstRound.results).flatMap(Arrays::stream).toArray(ICluster[]::new);
+        }
+
+        log.debug("Clustering the second round of the sample...");
+        RoundMeasurement secondRound = clusterSample(secondRoundInput, sampleBinner, true, engineFactory);
+
+        long firstRoundStorageBytes = extrapolateStorage(firstRound.getResultSerializedBytes(),
+                storageBytesPerSerializedByte, fraction);
+        long secondRoundStorageBytes = extrapolateStorage(secondRound.getResultSerializedBytes(),
+                storageBytesPerSerializedByte, fraction);
+        long resultBytes = Math.round((secondRound.getResultSerializedBytes() + getSerializedBytes(passThroughClusters))
+                / fraction);
+
+        int largestBinSize = Math.min(clusteringParameters.getMaxBinSize(),
+                (int) Math.ceil(firstRound.getLargestBinSize() / fraction));
+        long binHeapBytes = largestBinSize * heapBytesPerCluster;
+
+        plan.addStage(new ClusteringPlan.StageEstimate("first round", firstRound.getWallSeconds(fraction, nThreads),
+                propertiesHeapBytes + nThreads * binHeapBytes, firstRoundStorageBytes));
+        plan.addStage(new ClusteringPlan.StageEstimate("second round", secondRound.getWallSeconds(fraction, nThreads),
+                propertiesHeapBytes + nThreads * binHeapBytes, secondRoundStorageBytes));
+        // the result is written from the second round storage at roughly the speed of loading it
+        plan.addStage(new ClusteringPlan.StageEstimate("writing result",
+                storageMeasurement.seconds / fraction * resultBytes / Math.max(1, loadedStorageBytes),
+                propertiesHeapBytes, resultBytes));
+
+        int[] firstRoundBinSizes = firstRound.binSizes.clone();
+        Arrays.sort(firstRoundBinSizes);
+
+        plan.setEstimatedBins(firstRoundBinSizes.length);
+        plan.setMedianBinSize((int) Math.ceil(firstRoundBinSizes[firstRoundBinSizes.length / 2] / fraction));
+        plan.setLargestBinSize(largestBinSize);
+        plan.setEstimatedComparisons(Math.round((firstRound.candidatePairs + secondRound.candidatePairs) /
+                (fraction * fraction)));
+        plan.setNanosPerComparison(firstRound.getNanosPerPair());
+
+        // the initial storage is only closed after the first round, the first round storage
+        // only after writing the result
+        plan.setPeakHeapBytes(propertiesHeapBytes + nThreads * binHeapBytes);
+        plan.setPeakDiskBytes(propertyStorageBytes + firstRoundStorageBytes +
+                Math.max(loadedStorageBytes, secondRoundStorageBytes + resultBytes));
+        plan.setAvailableHeapBytes(Runtime.getRuntime().maxMemory());
+        plan.setAvailableDiskBytes(getAvailableDiskBytes());
+
+        // ---- recommendations
+        addRecommendations(plan, propertiesHeapBytes, heapBytesPerCluster, firstRound, fraction);
+
+        return plan;
+    }
+
+    /**
+     * Recommends the number of threads, the maximum bin size and the storage.
+     */
+    private void addRecommendations(ClusteringPlan plan, long propertiesHeapBytes, long heapBytesPerCluster,
+                                    RoundMeasurement firstRound, double fraction) {
+        long usableHeap = (long) (plan.getAvailableHeapBytes() * USABLE_HEAP_FRACTION) - propertiesHeapBytes;
+        long binHeapBytes = Math.max(1, plan.getLargestBinSize() * heapBytesPerCluster);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        if (usableHeap <= 0)
+            log.warn("The spectra's basic properties alone are expected to exceed the available heap");
+
+        // threads are limited by the cores and the memory required for the largest bins
+        int recommendedThreads = (int) Math.max(1, Math.min(cores, usableHeap / binHeapBytes));
+        plan.setRecommendedThreads(recommendedThreads);
+
+        // the bins must fit into memory
+        long maxBinSize = Math.max(MIN_BIN_SIZE, usableHeap / ((long) recommendedThreads * Math.max(1, heapBytesPerCluster)));
+
+        // the largest bin should not take longer than all other bins on one thread
+        double largestBinSeconds = firstRound.getLargestBinNanos() / (fraction * fraction) / 1e9;
+        double secondsPerThread = firstRound.getTotalBinNanos() / (fraction * fraction) / 1e9 / recommendedThreads;
+
+        if (largestBinSeconds > secondsPerThread && largestBinSeconds > 0) {
+            // the clustering time grows quadratically with the bin size
+            maxBinSize = Math.min(maxBinSize, (long) (plan.getLargestBinSize() * Math.sqrt(secondsPerThread / largestBinSeconds)));
+        }
+
+        plan.setRecommendedMaxBinSize((int) Math.max(MIN_BIN_SIZE,
+                Math.min(maxBinSize, clusteringParameters.getMaxBinSize())));
+
+        // storage
+        File[] stripeDirectories = clusteringParameters.getStripeDirectoryFiles();
+
+        if (plan.getPeakDiskBytes() > plan.getAvailableDiskBytes()) {
+            plan.setRecommendedStorage(String.format("The temporary files are expected to exceed the available " +
+                    "disk space. Use additional stripe directories (binary.temp.stripe.directories) on other devices " +
+                    "providing at least %s.", ClusteringPlan.formatBytes(plan.getPeakDiskBytes() - plan.getAvailableDiskBytes())));
+        } else if (stripeDirectories != null) {
+            plan.setRecommendedStorage(String.format("Striped across %d directories", stripeDirectories.length));
+        } else if (recommendedThreads > 1 && plan.getPeakDiskBytes() > plan.getAvailableHeapBytes()) {
+            plan.setRecommendedStorage("Single directory. To reduce I/O contention between the threads, stripe the " +
+                    "temporary files across multiple devices (binary.temp.stripe.directories).");
+        } else {
+            plan.setRecommendedStorage("Single directory");
+        }
+    }
+
+    /**
+     * Scales a bin size limit by the sampled fraction.
+     */
+    private static int scaleBinSize(int binSize, double fraction, int minimum) {
+        if (binSize == Integer.MAX_VALUE)
+            return binSize;
+
+        return Math.max(minimum, (int) Math.ceil(binSize * fraction));
+    }
+
+    private static long extrapolateStorage(long sampleSerializedBytes, double storageBytesPerSerializedByte,
+                                           double fraction) {
+        return Math.round(sampleSerializedBytes * storageBytesPerSerializedByte / fraction);
+    }
+
+    private static long getSerializedBytes(Collection<ICluster> clusters) throws SpectraClusterException {
+        long bytes = 0;
+
+        for (ICluster cluster : clusters) {
+            bytes += cluster.toBytes().length;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Writes the sample into a temporary storage of the type used by the
+     * SpectraClusterTool.
+     */
+    private StorageMeasurement measureStorage(List<ICluster> sample) throws Exception {
+        File storageDirectory = new File(workingDirectory, "plan-storage");
+
+        if (!storageDirectory.mkdirs())
+            throw new SpectraClusterException("Failed to create " + storageDirectory.getAbsolutePath());
+
+        IMapStorage<ICluster> storage = ClusterStorageFactory.buildTemporaryDynamicStorage(storageDirectory,
+                GreedySpectralCluster.class);
+
+        try {
+            long start = System.nanoTime();
+
+            for (ICluster cluster : sample) {
+                storage.put(cluster.getId(), cluster);
+            }
+
+            storage.flush();
+
+            StorageMeasurement measurement = new StorageMeasurement();
+            measurement.seconds = (System.nanoTime() - start) / 1e9;
+            measurement.bytes = getDirectorySize(storageDirectory.toPath());
+
+            return measurement;
+        } finally {
+            storage.close();
+
+            if (storageDirectory.exists())
+                ClusterUtils.cleanFilePersistence(storageDirectory);
+        }
+    }
+
+    private static long getDirectorySize(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            return walk.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    /**
+     * Returns the usable space of the temporary directories.
+     */
+    private long getAvailableDiskBytes() {
+        File[] stripeDirectories = clusteringParameters.getStripeDirectoryFiles();
+        long availableBytes = getUsableSpace(new File(clusteringParameters.getBinaryDirectory()));
+
+        if (stripeDirectories != null) {
+            for (File stripeDirectory : stripeDirectories) {
+                availableBytes += getUsableSpace(stripeDirectory);
+            }
+        }
+
+        return availableBytes;
+    }
+
+    private static long getUsableSpace(File directory) {
+        File existingDirectory = directory.getAbsoluteFile();
+
+        while (existingDirectory != null && !existingDirectory.exists()) {
+            existingDirectory = existingDirectory.getParentFile();
+        }
+
+        return existingDirectory != null ? existingDirectory.getUsableSpace() : 0;
+    }
+
+    /**
+     * Clusters the sample using the same process as the LocalParallelBinnedClusteringTool.
+     */
+    private RoundMeasurement clusterSample(ICluster[] clusters, SimilarSizedClusterBinner binner, boolean shift,
+                                           ClusteringEngineFactory engineFactory) throws Exception {
+        RoundMeasurement measurement = new RoundMeasurement();
+
+        if (clusters.length == 0) {
+            measurement.binSizes = new int[0];
+            measurement.binNanos = new long[0];
+            measurement.results = new ICluster[0][];
+
+            return measurement;
+        }
+
+        Map<String, ICluster> clustersById = new HashMap<>(clusters.length);
+
+        for (ICluster cluster : clusters) {
+            clustersById.put(cluster.getId(), cluster);
+        }
+
+        String[][] bins = binner.binClusters(Arrays.stream(clusters)
+                .map(ICluster::getProperties).toArray(IClusterProperties[]::new), shift);
+
+        measurement.binSizes = Arrays.stream(bins).mapToInt(bin -> bin.length).toArray();
+        measurement.binNanos = new long[bins.length];
+        measurement.results = new ICluster[bins.length][];
+
+        long pairsBefore = CANDIDATE_PAIRS.getCount();
+        ForkJoinPool pool = new ForkJoinPool(clusteringParameters.getNThreads());
+        // same as in the LocalParallelBinnedClusteringTool
+        ThreadLocal<ComparisonContext> comparisonContexts = ThreadLocal.withInitial(ComparisonContext::new);
+
+        try {
+            pool.submit(() -> IntStream.range(0, bins.length).parallel().forEach(binIndex -> {
+                ICluster[] binClusters = Arrays.stream(bins[binIndex]).map(clustersById::get).toArray(ICluster[]::new);
+
+                long start = System.nanoTime();
+                measurement.results[binIndex] = engineFactory.createEngine(comparisonContexts.get())
+                        .clusterSpectra(binClusters);
+                measurement.binNanos[binIndex] = System.nanoTime() - start;
+            })).get();
+        } finally {
+            pool.shutdown();
+        }
+
+        measurement.candidatePairs = CANDIDATE_PAIRS.getCount() - pairsBefore;
+        measurement.resultSerializedBytes = getSerializedBytes(Arrays.stream(measurement.results)
+                .flatMap(Arrays::stream).collect(Collectors.toList()));
+
+        return measurement;
+    }
+
+    private static class StorageMeasurement {
+        private double seconds;
+        private long bytes;
+    }
+
+    /**
+     * The measured values of clustering the sample in one round.
+     */
+    private static class RoundMeasurement {
+        private int[] binSizes;
+        private long[] binNanos;
+        private ICluster[][] results;
+        private long candidatePairs;
+        private long resultSerializedBytes;
+
+        long getResultSerializedBytes() {
+            return resultSerializedBytes;
+        }
+
+        IClusterProperties[][] getResultProperties() {
+            return Arrays.stream(results)
+                    .map(bin -> Arrays.stream(bin).map(ICluster::getProperties).toArray(IClusterProperties[]::new))
+                    .toArray(IClusterProperties[][]::new);
+        }
+
+        int getLargestBinSize() {
+            return Arrays.stream(binSizes).max().orElse(0);
+        }
+
+        long getTotalBinNanos() {
+            return Arrays.stream(binNanos).sum();
+        }
+
+        long getLargestBinNanos() {
+            return Arrays.stream(binNanos).max().orElse(0);
+        }
+
+        double getNanosPerPair() {
+            return candidatePairs > 0 ? getTotalBinNanos() / (double) candidatePairs : 0;
+        }
+
+        /**
+         * Extrapolates the wall time of the full-size bins. Every bin contains 1 / fraction
+         * more clusters and thereby 1 / fraction^2 more candidate pairs. The round takes at
+         * least as long as its largest bin.
+         */
+        double getWallSeconds(double fraction, int nThreads) {
+            double scale = 1 / (fraction * fraction);
+
+            return Math.max(getTotalBinNanos() * scale / nThreads, getLargestBinNanos() * scale) / 1e9;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.spectra.cluster.tools.sweep;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compact on-disk representation of the first round similarity scores.
+ *
+ * Every clustered spectrum is a node identified by its index. The node
+ * file holds the spectra's ids together with the number of comparisons
+ * used to assess the spectrum's matches. The edge file holds one
+ * fixed-size record (int source, int target, float score) for every
+ * candidate pair that was scored. The target is always the node with
+ * the higher index.
+ *
+ * Edges are streamed from disk and are never loaded into memory at once.
+ *
+ * @author jg
+ */
+public class SimilarityGraph {
+    public static final String NODE_FILE = "nodes.bin";
+    public static final String EDGE_FILE = "edges.bin";
+    /** Size of one edge record in bytes */
+    public static final int EDGE_SIZE = 2 * Integer.BYTES + Float.BYTES;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path directory;
+    private final String[] nodeIds;
+    private final int[] numberOfComparisons;
+    private final long numberOfEdges;
+
+    /**
+     * Receives the edges of the graph.
+     */
+    public interface IEdgeConsumer {
+        void accept(int source, int target, float score);
+    }
+
+    private SimilarityGraph(Path directory, String[] nodeIds, int[] numberOfComparisons, long numberOfEdges) {
+        this.directory = directory;
+        this.nodeIds = nodeIds;
+        this.numberOfComparisons = numberOfComparisons;
+        this.numberOfEdges = numberOfEdges;
+    }
+
+    /**
+     * Opens a graph previously written by a SimilarityGraphWriter. Only the
+     * nodes are loaded into memory.
+     *
+     * @param directory The directory holding the graph's files.
+     * @return The SimilarityGraph
+     * @throws IOException If the graph cannot be read.
+     */
+    public static SimilarityGraph open(Path directory) throws IOException {
+        Path edgeFile = directory.resolve(EDGE_FILE);
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(directory.resolve(NODE_FILE)), BUFFER_SIZE))) {
+            int nNodes = input.readInt();
+            String[] nodeIds = new String[nNodes];
+            int[] numberOfComparisons = new int[nNodes];
+
+            for (int i = 0; i < nNodes; i++) {
+                nodeIds[i] = input.readUTF();
+                numberOfComparisons[i] = input.readInt();
+            }
+
+            long edgeFileSize = Files.size(edgeFile);
+
+            if (edgeFileSize % EDGE_SIZE != 0)
+                throw new IOException("Corrupt edge file " + edgeFile.toString());
+
+            return new SimilarityGraph(directory, nodeIds, numberOfComparisons, edgeFileSize / EDGE_SIZE);
+        }
+    }
+
+    /**
+     * Streams all edges in the order in which they were written.
+     *
+     * @param consumer Receives every edge.
+     * @throws IOException If the edge file cannot be read.
+     */
+    public void forEachEdge(IEdgeConsumer consumer) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(directory.resolve(EDGE_FILE)), BUFFER_SIZE))) {
+            for (long i = 0; i < numberOfEdges; i++) {
+                consumer.accept(input.readInt(), input.readInt(), input.readFloat());
+            }
+        }
+    }
+
+    public int getNumberOfNodes() {
+        return nodeIds.length;
+    }
+
+    public long getNumberOfEdges() {
+        return numberOfEdges;
+    }
+
+    public String getNodeId(int node) {
+        return nodeIds[node];
+    }
+
+    /**
+     * @param node The node's index.
+     * @return The number of comparisons used to assess the matches of this node with lower index nodes.
+     */
+    public int getNumberOfComparisons(int node) {
+        return numberOfComparisons[node];
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
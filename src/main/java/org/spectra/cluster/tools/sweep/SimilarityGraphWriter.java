@@ -0,0 +1,82 @@
+package org.spectra.cluster.tools.sweep;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a SimilarityGraph. Edges may be added by multiple
+ * threads, every call to addEdges is written as one block.
+ *
+ * @author jg
+ */
+public class SimilarityGraphWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path directory;
+    private final DataOutputStream edgeOutput;
+    private long numberOfEdges = 0;
+
+    /**
+     * Creates a new SimilarityGraphWriter.
+     *
+     * @param directory The (existing) directory to write the graph to. It must not contain a graph yet.
+     * @throws IOException If the edge file cannot be created.
+     */
+    public SimilarityGraphWriter(Path directory) throws IOException {
+        this.directory = directory;
+        this.edgeOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                directory.resolve(SimilarityGraph.EDGE_FILE), StandardOpenOption.CREATE_NEW), BUFFER_SIZE));
+    }
+
+    /**
+     * Writes the graph's nodes.
+     *
+     * @param nodeIds The ids of all nodes in the order of their index.
+     * @param numberOfComparisons The number of comparisons of every node.
+     * @throws IOException If the node file cannot be written.
+     */
+    public void writeNodes(String[] nodeIds, int[] numberOfComparisons) throws IOException {
+        if (nodeIds.length != numberOfComparisons.length)
+            throw new IllegalArgumentException("Every node requires its number of comparisons");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                directory.resolve(SimilarityGraph.NODE_FILE), StandardOpenOption.CREATE_NEW), BUFFER_SIZE))) {
+            output.writeInt(nodeIds.length);
+
+            for (int i = 0; i < nodeIds.length; i++) {
+                output.writeUTF(nodeIds[i]);
+                output.writeInt(numberOfComparisons[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds a block of edges.
+     *
+     * @param sources The edges' source nodes.
+     * @param targets The edges' target nodes.
+     * @param scores The edges' similarity scores.
+     * @param nEdges The number of edges to write from the arrays.
+     * @throws IOException If the edges cannot be written.
+     */
+    public synchronized void addEdges(int[] sources, int[] targets, float[] scores, int nEdges) throws IOException {
+        for (int i = 0; i < nEdges; i++) {
+            edgeOutput.writeInt(sources[i]);
+            edgeOutput.writeInt(targets[i]);
+            edgeOutput.writeFloat(scores[i]);
+        }
+
+        numberOfEdges += nEdges;
+    }
+
+    public synchronized long getNumberOfEdges() {
+        return numberOfEdges;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        edgeOutput.close();
+    }
+}
@@ -0,0 +1,363 @@
+package org.spectra.cluster.tools.sweep;
+
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import io.github.bigbio.pgatk.io.objectdb.LongObject;
+import io.github.bigbio.pgatk.io.objectdb.ObjectsDB;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.spectra.cluster.cdf.CdfThresholdTable;
+import org.spectra.cluster.cdf.CumulativeDistributionFunction;
+import org.spectra.cluster.engine.ClusteringEngineFactory;
+import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.cluster.IClusterProperties;
+import org.spectra.cluster.predicates.IComparisonPredicate;
+import org.spectra.cluster.similarity.IBinarySpectrumSimilarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Derives clustering results for multiple thresholds from a single
+ * scoring pass.
+ *
+ * All spectra are only compared once using the first round predicate
+ * of the engine factory. Every scored pair is stored in a SimilarityGraph.
+ * The clustering for a threshold is then derived from the graph by
+ * linking all spectra whose match is accepted by the CDF at this
+ * threshold (single linkage). The consensus spectra are only built when
+ * writing the result.
+ *
+ * Since the scores are not re-calculated against the growing consensus
+ * spectra, the derived clusters are an approximation of the greedy
+ * clustering engine's result. They are intended to choose the thresholds
+ * for the actual clustering run.
+ *
+ * @author jg
+ */
+@Slf4j
+public class ThresholdSweep {
+    public static final int DEFAULT_CHUNK_SIZE = 5_000;
+    private static final int EDGE_BUFFER_SIZE = 64 * 1024;
+    private static final Counter EDGES = MetricsRegistry.counter("sweep.edges");
+    private static final Counter CANDIDATE_PAIRS = MetricsRegistry.counter("sweep.candidate_pairs");
+
+    private final ClusteringEngineFactory engineFactory;
+    private final boolean useCharge;
+    private final int nThreads;
+    private final int chunkSize;
+
+    /**
+     * The clustering derived for one threshold.
+     */
+    @Data
+    public static class SweepClustering {
+        private final float threshold;
+        /** The representative node of every node's cluster */
+        private final int[] clusterOfNode;
+        private final int numberOfClusters;
+        private final long acceptedEdges;
+    }
+
+    /**
+     * Creates a new ThresholdSweep using the default chunk size.
+     *
+     * @param engineFactory Provides the similarity measure, predicate, CDF and number of comparison assessor to use.
+     * @param useCharge If set, only spectra with the same charge state are compared.
+     * @param nThreads Number of threads to use.
+     */
+    public ThresholdSweep(ClusteringEngineFactory engineFactory, boolean useCharge, int nThreads) {
+        this(engineFactory, useCharge, nThreads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new ThresholdSweep.
+     *
+     * @param engineFactory Provides the similarity measure, predicate, CDF and number of comparison assessor to use.
+     * @param useCharge If set, only spectra with the same charge state are compared.
+     * @param nThreads Number of threads to use.
+     * @param chunkSize Number of spectra scored per task.
+     */
+    public ThresholdSweep(ClusteringEngineFactory engineFactory, boolean useCharge, int nThreads, int chunkSize) {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+
+        this.engineFactory = engineFactory;
+        this.useCharge = useCharge;
+        this.nThreads = nThreads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Scores all candidate pairs of the passed clusters and writes the
+     * SimilarityGraph. The graph's nodes are sorted by (charge and) precursor m/z.
+     *
+     * @param clusters The properties of the clusters to score.
+     * @param clusterStorage The storage holding the clusters.
+     * @param graphDirectory The (existing, empty) directory to write the graph to.
+     * @return The written SimilarityGraph
+     * @throws Exception If the clusters cannot be loaded or the graph cannot be written.
+     */
+    public SimilarityGraph buildGraph(IClusterProperties[] clusters, IMapStorage<ICluster> clusterStorage,
+                                      Path graphDirectory) throws Exception {
+        IClusterProperties[] sortedClusters = clusters.clone();
+        Arrays.parallelSort(sortedClusters, Comparator.comparingInt(this::getChargeKey)
+                .thenComparingInt(IClusterProperties::getPrecursorMz));
+
+        // the first node within the precursor tolerance of every node
+        int[] windowStart = new int[sortedClusters.length];
+        int[] numberOfComparisons = new int[sortedClusters.length];
+        String[] nodeIds = new String[sortedClusters.length];
+        int start = 0;
+
+        for (int node = 0; node < sortedClusters.length; node++) {
+            while (start < node && !isInWindow(sortedClusters[start], sortedClusters[node]))
+                start++;
+
+            windowStart[node] = start;
+            nodeIds[node] = sortedClusters[node].getId();
+            // same number of comparisons as in the engine's first round
+            numberOfComparisons[node] = engineFactory.getNumberOfComparisonAssessor().getNumberOfComparisons(
+                    sortedClusters[node].getPrecursorMz(), node - start + 1);
+        }
+
+        int nChunks = (sortedClusters.length + chunkSize - 1) / chunkSize;
+        log.debug(String.format("Scoring %d spectra in %d chunks using %d threads...", sortedClusters.length,
+                nChunks, nThreads));
+
+        ForkJoinPool scoringPool = new ForkJoinPool(nThreads);
+
+        try (SimilarityGraphWriter writer = new SimilarityGraphWriter(graphDirectory)) {
+            writer.writeNodes(nodeIds, numberOfComparisons);
+
+            scoringPool.submit(() -> IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+                try {
+                    scoreChunk(sortedClusters, windowStart, chunk * chunkSize,
+                            Math.min(sortedClusters.length, (chunk + 1) * chunkSize), clusterStorage, writer);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            })).get();
+
+            log.debug(String.format("Similarity graph with %d edges written to %s", writer.getNumberOfEdges(),
+                    graphDirectory.toString()));
+        } finally {
+            scoringPool.shutdownNow();
+        }
+
+        return SimilarityGraph.open(graphDirectory);
+    }
+
+    /**
+     * Scores all nodes in [chunkStart, chunkEnd) against the lower nodes in their
+     * precursor window.
+     */
+    private void scoreChunk(IClusterProperties[] sortedClusters, int[] windowStart, int chunkStart, int chunkEnd,
+                            IMapStorage<ICluster> clusterStorage, SimilarityGraphWriter writer) throws Exception {
+        IComparisonPredicate<ICluster> predicate = engineFactory.getFirstRoundPredicate();
+        IBinarySpectrumSimilarity similarityMeasure = engineFactory.getSimilarityMeasure();
+
+        // the chunk's clusters preceded by the windows of its first nodes
+        int firstNode = windowStart[chunkStart];
+        ICluster[] loadedClusters = new ICluster[chunkEnd - firstNode];
+
+        for (int node = firstNode; node < chunkEnd; node++) {
+            loadedClusters[node - firstNode] = clusterStorage.get(sortedClusters[node].getId());
+        }
+
+        int[] sources = new int[EDGE_BUFFER_SIZE];
+        int[] targets = new int[EDGE_BUFFER_SIZE];
+        float[] scores = new float[EDGE_BUFFER_SIZE];
+        int nEdges = 0;
+        long nCandidatePairs = 0;
+
+        for (int target = chunkStart; target < chunkEnd; target++) {
+            ICluster targetCluster = loadedClusters[target - firstNode];
+
+            for (int source = windowStart[target]; source < target; source++) {
+                ICluster sourceCluster = loadedClusters[source - firstNode];
+                nCandidatePairs++;
+
+                if (!predicate.test(sourceCluster, targetCluster))
+                    continue;
+
+                sources[nEdges] = source;
+                targets[nEdges] = target;
+                scores[nEdges] = (float) similarityMeasure.correlation(targetCluster.getConsensusSpectrum(),
+                        sourceCluster.getConsensusSpectrum());
+                nEdges++;
+
+                if (nEdges == EDGE_BUFFER_SIZE) {
+                    writer.addEdges(sources, targets, scores, nEdges);
+                    EDGES.add(nEdges);
+                    nEdges = 0;
+                }
+            }
+        }
+
+        writer.addEdges(sources, targets, scores, nEdges);
+        EDGES.add(nEdges);
+        CANDIDATE_PAIRS.add(nCandidatePairs);
+    }
+
+    /**
+     * Derives the clustering for one threshold. Two spectra are linked if the CDF
+     * accepts their score at the threshold. Like the GreedyClusteringEngine, the
+     * threshold is converted to the maximum mixture probability (1 - threshold),
+     * higher thresholds are therefore stricter.
+     *
+     * @param graph The similarity graph.
+     * @param cdf The CDF to assess the scores with.
+     * @param threshold The clustering threshold, equivalent to the engine's final threshold.
+     * @return The derived clustering.
+     * @throws IOException If the graph's edges cannot be read.
+     */
+    public static SweepClustering deriveClusters(SimilarityGraph graph, CumulativeDistributionFunction cdf,
+                                                 float threshold) throws IOException {
+        int[] parent = new int[graph.getNumberOfNodes()];
+        int[] size = new int[parent.length];
+        long[] acceptedEdges = new long[1];
+        // same conversion as in the GreedyClusteringEngine
+        CdfThresholdTable thresholdTable = cdf.getThresholdTable(1 - threshold);
+
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+
+        graph.forEachEdge((source, target, score) -> {
+            if (thresholdTable.isSaveMatch(score, graph.getNumberOfComparisons(target))) {
+                acceptedEdges[0]++;
+                union(parent, size, source, target);
+            }
+        });
+
+        int nClusters = 0;
+
+        for (int node = 0; node < parent.length; node++) {
+            parent[node] = find(parent, node);
+
+            if (parent[node] == node)
+                nClusters++;
+        }
+
+        return new SweepClustering(threshold, parent, nClusters, acceptedEdges[0]);
+    }
+
+    private static int find(int[] parent, int node) {
+        while (parent[node] != node) {
+            // path halving
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }
+
+        return node;
+    }
+
+    private static void union(int[] parent, int[] size, int node1, int node2) {
+        int root1 = find(parent, node1);
+        int root2 = find(parent, node2);
+
+        if (root1 == root2)
+            return;
+
+        if (size[root1] < size[root2]) {
+            int tmp = root1;
+            root1 = root2;
+            root2 = tmp;
+        }
+
+        parent[root2] = root1;
+        size[root1] += size[root2];
+    }
+
+    /**
+     * Builds the clusters of a derived clustering and writes them as result file. The
+     * spectra of every cluster are merged in the order of their precursor m/z.
+     *
+     * @param graph The similarity graph the clustering was derived from.
+     * @param clustering The derived clustering.
+     * @param clusterStorage The storage holding the (single spectrum) clusters.
+     * @param resultFile The result file to create.
+     * @throws Exception If the clusters cannot be loaded or written.
+     */
+    public void writeResult(SimilarityGraph graph, SweepClustering clustering, IMapStorage<ICluster> clusterStorage,
+                            File resultFile) throws Exception {
+        int[] clusterOfNode = clustering.getClusterOfNode();
+
+        // group the nodes by cluster while keeping them sorted
+        int[] offsets = new int[clusterOfNode.length + 1];
+
+        for (int cluster : clusterOfNode) {
+            offsets[cluster + 1]++;
+        }
+
+        for (int i = 0; i < clusterOfNode.length; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+
+        int[] members = new int[clusterOfNode.length];
+        int[] position = Arrays.copyOf(offsets, clusterOfNode.length);
+
+        for (int node = 0; node < clusterOfNode.length; node++) {
+            members[position[clusterOfNode[node]]++] = node;
+        }
+
+        ObjectDBGreedyClusterStorage writer = new ObjectDBGreedyClusterStorage(
+                new ObjectsDB(resultFile.getAbsolutePath(), true));
+        ForkJoinPool mergingPool = new ForkJoinPool(nThreads);
+
+        try {
+            mergingPool.submit(() -> IntStream.range(0, clusterOfNode.length)
+                    .filter(cluster -> offsets[cluster + 1] > offsets[cluster])
+                    .parallel()
+                    .forEach(cluster -> {
+                        try {
+                            ICluster mergedCluster = clusterStorage.get(graph.getNodeId(members[offsets[cluster]]));
+
+                            for (int i = offsets[cluster] + 1; i < offsets[cluster + 1]; i++) {
+                                mergedCluster.mergeCluster(clusterStorage.get(graph.getNodeId(members[i])));
+                            }
+
+                            synchronized (writer) {
+                                writer.addGreedySpectralCluster(LongObject.asLongHash(mergedCluster.getId()),
+                                        (GreedySpectralCluster) mergedCluster);
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    })).get();
+        } finally {
+            mergingPool.shutdownNow();
+        }
+
+        writer.writeDBMode();
+        writer.flush();
+        writer.close();
+
+        log.debug(String.format("%d clusters for threshold %.3f written to %s", clustering.getNumberOfClusters(),
+                clustering.getThreshold(), resultFile.getAbsolutePath()));
+    }
+
+    private int getChargeKey(IClusterProperties cluster) {
+        if (!useCharge || cluster.getPrecursorCharge() == null)
+            return 0;
+
+        return cluster.getPrecursorCharge();
+    }
+
+    private boolean isInWindow(IClusterProperties lowerCluster, IClusterProperties cluster) {
+        return getChargeKey(lowerCluster) == getChargeKey(cluster) &&
+                cluster.getPrecursorMz() - lowerCluster.getPrecursorMz() <= engineFactory.getPrecursorTolerance();
+    }
+}
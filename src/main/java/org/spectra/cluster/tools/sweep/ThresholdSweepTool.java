@@ -0,0 +1,272 @@
+package org.spectra.cluster.tools.sweep;
+
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import io.github.bigbio.pgatk.io.objectdb.ObjectsDB;
+import io.github.bigbio.pgatk.io.properties.IPropertyStorage;
+import io.github.bigbio.pgatk.io.properties.PropertyStorageFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.cli.*;
+import org.spectra.cluster.cdf.SpectraPerBinNumberComparisonAssessor;
+import org.spectra.cluster.engine.ClusteringEngineFactory;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.io.cluster.ClusterStorageFactory;
+import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.cluster.IClusterProperties;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.qc.*;
+import org.spectra.cluster.util.ClusteringParameters;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Command line tool to evaluate multiple clustering thresholds. The spectra
+ * are only loaded and scored once (see ThresholdSweep). For every threshold,
+ * a result file is written and assessed. The assessments of all thresholds
+ * are summarised in "sweep_summary.tsv".
+ *
+ * @author jg
+ */
+@Slf4j
+public class ThresholdSweepTool {
+    public static final String SUMMARY_FILE = "sweep_summary.tsv";
+    /** Minimum cluster size used by the QC assessors */
+    private static final int QC_MIN_CLUSTER_SIZE = 3;
+
+    private static final Options options = new Options();
+
+    static {
+        options.addOption(OptionBuilder.hasArg().withDescription("Input file with all the configuration parameters")
+                .withLongOpt("config").create("c"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Directory to write the results to. The directory must not exist.")
+                .withLongOpt("output.directory").create("o"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Comma separated list of (final) clustering thresholds to evaluate (e.g. '0.99,0.995,0.999').")
+                .withLongOpt("thresholds").create("th"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Number of threads to use.")
+                .withLongOpt("n.threads").create("t"));
+        options.addOption(new Option("h", "help", false, "Print this message."));
+    }
+
+    public static void main(String[] args) {
+        try {
+            CommandLine commandLine = new PosixParser().parse(options, args);
+
+            if (commandLine.hasOption("h") || !commandLine.hasOption("o") || !commandLine.hasOption("th") ||
+                    commandLine.getArgs().length < 1) {
+                new HelpFormatter().printHelp("ThresholdSweepTool [OPTIONS] [PEAK LIST FILES]",
+                        "Evaluates multiple clustering thresholds using a single scoring pass.\n", options, "\n", true);
+                System.exit(commandLine.hasOption("h") ? 0 : 1);
+            }
+
+            ClusteringParameters clusteringParameters = new ClusteringParameters();
+
+            if (commandLine.hasOption("c"))
+                clusteringParameters.mergeParameters(commandLine.getOptionValue("c"));
+            if (commandLine.hasOption("t"))
+                clusteringParameters.setNThreads(Integer.parseInt(commandLine.getOptionValue("t")));
+
+            float[] thresholds = parseThresholds(commandLine.getOptionValue("th"));
+            File[] inputFiles = Arrays.stream(commandLine.getArgs()).map(File::new).toArray(File[]::new);
+
+            Path summaryFile = runSweep(inputFiles, thresholds, Paths.get(commandLine.getOptionValue("o")),
+                    clusteringParameters);
+
+            System.out.println("Sweep summary written to " + summaryFile.toString());
+            System.exit(0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error: " + e.getMessage());
+
+            System.exit(1);
+        }
+    }
+
+    private static float[] parseThresholds(String thresholdString) {
+        String[] fields = thresholdString.split(",");
+        float[] thresholds = new float[fields.length];
+
+        for (int i = 0; i < fields.length; i++) {
+            thresholds[i] = Float.parseFloat(fields[i].trim());
+        }
+
+        return thresholds;
+    }
+
+    /**
+     * Runs the threshold sweep.
+     *
+     * @param inputFiles The peak list files to cluster.
+     * @param thresholds The (final) clustering thresholds to evaluate.
+     * @param outputDirectory The directory to write the results to. Must not exist.
+     * @param clusteringParameters The parameters to load and score the spectra with.
+     * @return Path to the summary file.
+     * @throws Exception If the sweep fails.
+     */
+    public static Path runSweep(File[] inputFiles, float[] thresholds, Path outputDirectory,
+                                ClusteringParameters clusteringParameters) throws Exception {
+        if (Files.exists(outputDirectory))
+            throw new Exception(String.format("Error: Directory '%s' already exists.", outputDirectory.toString()));
+
+        File propertyDirectory = outputDirectory.resolve("properties").toFile();
+        File clusterDirectory = outputDirectory.resolve("loaded-clusters").toFile();
+        Path graphDirectory = outputDirectory.resolve("similarity-graph");
+
+        if (!propertyDirectory.mkdirs() || !clusterDirectory.mkdirs() || !graphDirectory.toFile().mkdirs())
+            throw new Exception("Failed to create output directory " + outputDirectory.toString());
+
+        IPropertyStorage propertyStorage = PropertyStorageFactory.buildDynamicLevelDBPropertyStorage(propertyDirectory);
+        IMapStorage<ICluster> clusterStorage = ClusterStorageFactory.buildTemporaryDynamicStorage(
+                clusterDirectory, GreedySpectralCluster.class);
+
+        try {
+            // load and score the spectra once
+            LocalDateTime startTime = LocalDateTime.now();
+            IClusterProperties[] loadedClusters = loadInputFiles(inputFiles, clusteringParameters, propertyStorage,
+                    clusterStorage);
+            clusterStorage.flush();
+
+            SpectraPerBinNumberComparisonAssessor precursorDensity = clusteringParameters.createPrecursorDensityHistogram();
+
+            for (IClusterProperties cluster : loadedClusters) {
+                precursorDensity.countSpectrum(cluster.getPrecursorMz());
+            }
+
+            ClusteringEngineFactory engineFactory = clusteringParameters.createClusteringEngineFactory(precursorDensity);
+            ThresholdSweep sweep = new ThresholdSweep(engineFactory, !clusteringParameters.isIgnoreCharge(),
+                    clusteringParameters.getNThreads());
+            SimilarityGraph graph = sweep.buildGraph(loadedClusters, clusterStorage, graphDirectory);
+
+            log.info(String.format("Scored %d spectra (%d edges) in %d seconds", graph.getNumberOfNodes(),
+                    graph.getNumberOfEdges(), Duration.between(startTime, LocalDateTime.now()).getSeconds()));
+
+            // derive, write and assess the result of every threshold
+            StreamingQcRunner qcRunner = new StreamingQcRunner(clusteringParameters.getNThreads(),
+                    Arrays.asList(new ClusteredSpectraAssessor(QC_MIN_CLUSTER_SIZE),
+                            new IncorrectSpectraAssessor(QC_MIN_CLUSTER_SIZE)),
+                    Collections.emptyList());
+            List<String> summaryRows = new ArrayList<>(thresholds.length);
+            String summaryHeader = null;
+
+            for (float threshold : thresholds) {
+                ThresholdSweep.SweepClustering clustering = ThresholdSweep.deriveClusters(graph,
+                        engineFactory.getCdf(), threshold);
+                File resultFile = outputDirectory.resolve("clustering_" + threshold + ".cls").toFile();
+                sweep.writeResult(graph, clustering, clusterStorage, resultFile);
+
+                ObjectDBGreedyClusterStorage resultReader = new ObjectDBGreedyClusterStorage(
+                        new ObjectsDB(resultFile.getAbsolutePath(), false));
+                List<QcAssessment> assessments;
+
+                try {
+                    assessments = qcRunner.run(resultReader, propertyStorage, null);
+                } finally {
+                    resultReader.close();
+                }
+
+                if (summaryHeader == null)
+                    summaryHeader = formatHeader(assessments);
+
+                summaryRows.add(formatRow(clustering, resultFile, assessments));
+                log.info(String.format("Threshold %s: %d clusters", String.valueOf(threshold),
+                        clustering.getNumberOfClusters()));
+            }
+
+            Path summaryFile = outputDirectory.resolve(SUMMARY_FILE);
+
+            try (BufferedWriter writer = Files.newBufferedWriter(summaryFile, StandardCharsets.UTF_8)) {
+                writer.write(summaryHeader != null ? summaryHeader : "threshold\tn_clusters\taccepted_edges\tresult_file\n");
+
+                for (String row : summaryRows) {
+                    writer.write(row);
+                }
+            }
+
+            log.debug(String.format("Sweep of %d thresholds completed in %d seconds", thresholds.length,
+                    Duration.between(startTime, LocalDateTime.now()).getSeconds()));
+
+            return summaryFile;
+        } finally {
+            clusterStorage.close();
+            propertyStorage.close();
+        }
+    }
+
+    /**
+     * Loads all spectra using the same pipeline as the SpectraClusterTool.
+     */
+    private static IClusterProperties[] loadInputFiles(File[] inputFiles, ClusteringParameters clusteringParameters,
+                                                       IPropertyStorage propertyStorage,
+                                                       IMapStorage<ICluster> clusterStorage) throws Exception {
+        MzSpectraReader reader = new MzSpectraReader(clusteringParameters.createMzBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), clusteringParameters.createLoadingFilter(),
+                GreedyClusteringEngine.COMPARISON_FILTER, clusteringParameters.createGreedyClusteringEngine(), inputFiles);
+
+        List<IClusterProperties> loadedClusters = new ArrayList<>(1000);
+
+        reader.readClusters(propertyStorage, clusteringParameters.getNThreads(), cluster -> {
+            try {
+                clusterStorage.put(cluster.getId(), cluster);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+
+            loadedClusters.add(cluster.getProperties());
+        });
+
+        return loadedClusters.toArray(new IClusterProperties[0]);
+    }
+
+    private static String formatHeader(List<QcAssessment> assessments) {
+        StringBuilder header = new StringBuilder("threshold\tn_clusters\taccepted_edges\tresult_file");
+
+        for (QcAssessment assessment : assessments) {
+            header.append('\t').append(assessment.getName()).append("_quality");
+
+            for (String key : new TreeSet<>(assessment.getAssessments().keySet())) {
+                header.append('\t').append(assessment.getName()).append('_').append(key);
+            }
+        }
+
+        return header.append('\n').toString();
+    }
+
+    private static String formatRow(ThresholdSweep.SweepClustering clustering, File resultFile,
+                                    List<QcAssessment> assessments) {
+        StringBuilder row = new StringBuilder(128);
+
+        row.append(clustering.getThreshold()).append('\t')
+                .append(clustering.getNumberOfClusters()).append('\t')
+                .append(clustering.getAcceptedEdges()).append('\t')
+                .append(resultFile.getName());
+
+        for (QcAssessment assessment : assessments) {
+            row.append('\t').append(assessment.getQuality());
+
+            for (String key : new TreeSet<>(assessment.getAssessments().keySet())) {
+                String value = assessment.getAssessments().get(key);
+                row.append('\t').append(value != null ? value : "");
+            }
+        }
+
+        return row.append('\n').toString();
+    }
+}
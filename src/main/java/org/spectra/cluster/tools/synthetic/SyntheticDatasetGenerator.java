@@ -0,0 +1,419 @@
+package org.spectra.cluster.tools.synthetic;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Creates synthetic MGF datasets with a known ground truth cluster
+ * assignment.
+ *
+ * Every ground truth cluster is based on a random template spectrum
+ * (precursor m/z, charge, fragment peaks). The spectra of a cluster
+ * are created by randomly dropping template peaks, adding m/z and
+ * intensity noise, and adding random noise peaks. All spectra of an
+ * identified cluster carry the same synthetic peptide sequence in the
+ * MGF's SEQ field so that the existing QC assessors can be used to
+ * evaluate a clustering result.
+ *
+ * The dataset is written in a streaming manner. Only the currently
+ * active clusters are kept in memory which makes it possible to create
+ * datasets with tens of millions of spectra.
+ *
+ * @author jg
+ */
+@Slf4j
+public class SyntheticDatasetGenerator {
+    private static final double PROTON_MASS = 1.007276;
+    private static final double MIN_FRAGMENT_MZ = 100;
+    private static final double MAX_FRAGMENT_MZ = 2000;
+    private static final double MEAN_SIGNAL_INTENSITY = 1000;
+    private static final double MEAN_NOISE_INTENSITY = 100;
+    private static final double MAX_RETENTION_TIME = 7200;
+    private static final double RETENTION_TIME_SD = 30;
+    /** amino acids used to encode the synthetic sequences. K and R are only used as C-terminus */
+    private static final char[] AMINO_ACIDS = "ACDEFGHILMNPQSTVWY".toCharArray();
+    private static final int MIN_SEQUENCE_LENGTH = 7;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final SyntheticDatasetParameters parameters;
+    private final double[] clusterSizeCdf;
+    private final double[] chargeCdf;
+
+    /**
+     * Summary of a created dataset.
+     */
+    @Data
+    public static class SyntheticDataset {
+        private final List<File> mgfFiles;
+        private final File groundTruthFile;
+        private final long nSpectra;
+        private final long nClusters;
+        private final long nIdentifiedSpectra;
+    }
+
+    /**
+     * The template of a ground truth cluster.
+     */
+    private static class ClusterTemplate {
+        private final String id;
+        private final String sequence;
+        private final int charge;
+        private final double precursorMz;
+        private final double retentionTime;
+        private final double[] mz;
+        private final double[] intensity;
+        private int remainingSpectra;
+
+        private ClusterTemplate(String id, String sequence, int charge, double precursorMz, double retentionTime,
+                                double[] mz, double[] intensity, int size) {
+            this.id = id;
+            this.sequence = sequence;
+            this.charge = charge;
+            this.precursorMz = precursorMz;
+            this.retentionTime = retentionTime;
+            this.mz = mz;
+            this.intensity = intensity;
+            this.remainingSpectra = size;
+        }
+    }
+
+    public SyntheticDatasetGenerator(SyntheticDatasetParameters parameters) {
+        parameters.validate();
+
+        this.parameters = parameters;
+        this.clusterSizeCdf = createClusterSizeCdf(parameters.getClusterSizeExponent(), parameters.getMaxClusterSize());
+        this.chargeCdf = createCdf(parameters.getChargeDistribution());
+    }
+
+    /**
+     * Creates the dataset. The MGF files are named {name}-{N}.mgf and the ground
+     * truth is written to {name}.ground_truth.tsv. None of these files may exist.
+     *
+     * @param outputDirectory The directory to write the files to.
+     * @param name The dataset's name used as prefix for all files.
+     * @return A summary of the created dataset.
+     * @throws IOException If writing the files failed.
+     */
+    public SyntheticDataset generate(Path outputDirectory, String name) throws IOException {
+        Random random = new Random(parameters.getSeed());
+        List<ClusterTemplate> activeClusters = new ArrayList<>(parameters.getActiveClusters());
+        List<File> mgfFiles = new ArrayList<>();
+
+        File groundTruthFile = outputDirectory.resolve(name + ".ground_truth.tsv").toFile();
+        long nSpectra = parameters.getNSpectra();
+        long assignedSpectra = 0;
+        long nClusters = 0;
+        long nIdentifiedSpectra = 0;
+
+        // buffers to create the spectra
+        int maxPeaks = (int) Math.ceil(parameters.getMaxSignalPeaks() / (1 - parameters.getNoisePeakFraction())) + 1;
+        double[] mzBuffer = new double[maxPeaks];
+        double[] intensityBuffer = new double[maxPeaks];
+        StringBuilder spectrumBuilder = new StringBuilder(4096);
+
+        BufferedWriter mgfWriter = null;
+
+        try (BufferedWriter groundTruthWriter = createWriter(groundTruthFile.toPath())) {
+            groundTruthWriter.write("title\tcluster_id\tsequence\tcharge\tprecursor_mz\n");
+
+            for (long spectrumIndex = 0; spectrumIndex < nSpectra; spectrumIndex++) {
+                // fill the pool of active clusters
+                while (activeClusters.size() < parameters.getActiveClusters() && assignedSpectra < nSpectra) {
+                    int size = (int) Math.min(sampleClusterSize(random), nSpectra - assignedSpectra);
+                    activeClusters.add(createCluster(nClusters++, size, random));
+                    assignedSpectra += size;
+                }
+
+                // start a new file if needed
+                if (spectrumIndex % parameters.getSpectraPerFile() == 0) {
+                    if (mgfWriter != null) {
+                        mgfWriter.close();
+                        log.info(String.format("Created %d of %d spectra", spectrumIndex, nSpectra));
+                    }
+
+                    File mgfFile = outputDirectory.resolve(
+                            String.format("%s-%05d.mgf", name, mgfFiles.size() + 1)).toFile();
+                    mgfFiles.add(mgfFile);
+                    mgfWriter = createWriter(mgfFile.toPath());
+                }
+
+                // draw the spectrum from a random active cluster
+                int clusterIndex = random.nextInt(activeClusters.size());
+                ClusterTemplate cluster = activeClusters.get(clusterIndex);
+                String title = "synthetic." + spectrumIndex;
+
+                spectrumBuilder.setLength(0);
+                double precursorMz = createSpectrum(cluster, title, random, mzBuffer, intensityBuffer, spectrumBuilder);
+                mgfWriter.write(spectrumBuilder.toString());
+
+                groundTruthWriter.write(title);
+                groundTruthWriter.write('\t');
+                groundTruthWriter.write(cluster.id);
+                groundTruthWriter.write('\t');
+                groundTruthWriter.write(cluster.sequence != null ? cluster.sequence : "");
+                groundTruthWriter.write('\t');
+                groundTruthWriter.write(String.valueOf(cluster.charge));
+                groundTruthWriter.write('\t');
+                spectrumBuilder.setLength(0);
+                appendFixed(spectrumBuilder, precursorMz, 6);
+                groundTruthWriter.write(spectrumBuilder.append('\n').toString());
+
+                if (cluster.sequence != null)
+                    nIdentifiedSpectra++;
+
+                // remove completed clusters
+                if (--cluster.remainingSpectra == 0) {
+                    activeClusters.set(clusterIndex, activeClusters.get(activeClusters.size() - 1));
+                    activeClusters.remove(activeClusters.size() - 1);
+                }
+            }
+        } finally {
+            if (mgfWriter != null)
+                mgfWriter.close();
+        }
+
+        log.info(String.format("Created %d spectra in %d clusters (%d MGF files)", nSpectra, nClusters, mgfFiles.size()));
+
+        return new SyntheticDataset(mgfFiles, groundTruthFile, nSpectra, nClusters, nIdentifiedSpectra);
+    }
+
+    private BufferedWriter createWriter(Path file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(file, StandardOpenOption.CREATE_NEW), StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new cluster template.
+     */
+    private ClusterTemplate createCluster(long clusterIndex, int size, Random random) {
+        int charge = sample(chargeCdf, random) + 1;
+
+        // u^(1 + skew) moves the precursors towards the lower end of the range
+        double precursorMz = parameters.getMinPrecursorMz() +
+                (parameters.getMaxPrecursorMz() - parameters.getMinPrecursorMz()) *
+                Math.pow(random.nextDouble(), 1 + parameters.getPrecursorDensitySkew());
+
+        double maxFragmentMz = Math.min(MAX_FRAGMENT_MZ, (precursorMz - PROTON_MASS) * charge);
+        int nPeaks = parameters.getMinSignalPeaks() +
+                random.nextInt(parameters.getMaxSignalPeaks() - parameters.getMinSignalPeaks() + 1);
+
+        double[] mz = new double[nPeaks];
+        double[] intensity = new double[nPeaks];
+
+        for (int i = 0; i < nPeaks; i++) {
+            mz[i] = MIN_FRAGMENT_MZ + random.nextDouble() * Math.max(maxFragmentMz - MIN_FRAGMENT_MZ, 1);
+            intensity[i] = -Math.log(1 - random.nextDouble()) * MEAN_SIGNAL_INTENSITY;
+        }
+
+        String sequence = (random.nextDouble() < parameters.getIdentifiedFraction()) ?
+                createSequence(clusterIndex) : null;
+
+        return new ClusterTemplate("cluster_" + clusterIndex, sequence, charge, precursorMz,
+                random.nextDouble() * MAX_RETENTION_TIME, mz, intensity, size);
+    }
+
+    /**
+     * Creates one spectrum of the defined cluster and writes it in MGF format
+     * to the builder.
+     *
+     * @return The spectrum's precursor m/z
+     */
+    private double createSpectrum(ClusterTemplate cluster, String title, Random random, double[] mzBuffer,
+                                  double[] intensityBuffer, StringBuilder mgf) {
+        int nPeaks = 0;
+        int highestTemplatePeak = 0;
+
+        // signal peaks
+        for (int i = 0; i < cluster.mz.length; i++) {
+            if (cluster.intensity[i] > cluster.intensity[highestTemplatePeak])
+                highestTemplatePeak = i;
+
+            if (random.nextDouble() >= parameters.getPeakRetention())
+                continue;
+
+            mzBuffer[nPeaks] = cluster.mz[i] + random.nextGaussian() * parameters.getFragmentMzSd();
+            intensityBuffer[nPeaks] = cluster.intensity[i] * Math.exp(random.nextGaussian() * parameters.getIntensityNoiseSd());
+            nPeaks++;
+        }
+
+        // every spectrum contains at least the highest peak
+        if (nPeaks == 0) {
+            mzBuffer[0] = cluster.mz[highestTemplatePeak];
+            intensityBuffer[0] = cluster.intensity[highestTemplatePeak];
+            nPeaks = 1;
+        }
+
+        // noise peaks
+        double maxFragmentMz = Math.min(MAX_FRAGMENT_MZ, (cluster.precursorMz - PROTON_MASS) * cluster.charge);
+        int nNoisePeaks = (int) Math.round(nPeaks * parameters.getNoisePeakFraction() / (1 - parameters.getNoisePeakFraction()));
+
+        for (int i = 0; i < nNoisePeaks && nPeaks < mzBuffer.length; i++) {
+            mzBuffer[nPeaks] = MIN_FRAGMENT_MZ + random.nextDouble() * Math.max(maxFragmentMz - MIN_FRAGMENT_MZ, 1);
+            intensityBuffer[nPeaks] = -Math.log(1 - random.nextDouble()) * MEAN_NOISE_INTENSITY;
+            nPeaks++;
+        }
+
+        sortPeaks(mzBuffer, intensityBuffer, nPeaks);
+
+        double precursorMz = cluster.precursorMz + random.nextGaussian() * parameters.getPrecursorMzSd();
+        double retentionTime = Math.max(0, cluster.retentionTime + random.nextGaussian() * RETENTION_TIME_SD);
+
+        mgf.append("BEGIN IONS\nTITLE=").append(title).append('\n');
+
+        if (cluster.sequence != null)
+            mgf.append("SEQ=").append(cluster.sequence).append('\n');
+
+        mgf.append("RTINSECONDS=");
+        appendFixed(mgf, retentionTime, 3);
+        mgf.append("\nPEPMASS=");
+        appendFixed(mgf, precursorMz, 6);
+        mgf.append("\nCHARGE=").append(cluster.charge).append("+\n");
+
+        for (int i = 0; i < nPeaks; i++) {
+            appendFixed(mgf, mzBuffer[i], 5);
+            mgf.append(' ');
+            appendFixed(mgf, intensityBuffer[i], 3);
+            mgf.append('\n');
+        }
+
+        mgf.append("END IONS\n\n");
+
+        return precursorMz;
+    }
+
+    /**
+     * Creates a unique, tryptic-like peptide sequence for the cluster index.
+     */
+    static String createSequence(long clusterIndex) {
+        StringBuilder sequence = new StringBuilder(16);
+        long remaining = clusterIndex;
+
+        do {
+            sequence.append(AMINO_ACIDS[(int) (remaining % AMINO_ACIDS.length)]);
+            remaining /= AMINO_ACIDS.length;
+        } while (remaining > 0);
+
+        // the padding character is not part of the encoding alphabet to keep the sequences unique
+        while (sequence.length() < MIN_SEQUENCE_LENGTH) {
+            sequence.append('K');
+        }
+
+        return sequence.append('R').toString();
+    }
+
+    private int sampleClusterSize(Random random) {
+        return sample(clusterSizeCdf, random) + 1;
+    }
+
+    /**
+     * Returns a random index based on the cumulative distribution.
+     */
+    private static int sample(double[] cdf, Random random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+
+        if (index < 0)
+            index = -index - 1;
+
+        return Math.min(index, cdf.length - 1);
+    }
+
+    /**
+     * Creates the cumulative distribution of a truncated power law P(size = k) ~ k^-exponent.
+     */
+    static double[] createClusterSizeCdf(double exponent, int maxClusterSize) {
+        double[] frequencies = new double[maxClusterSize];
+
+        for (int k = 1; k <= maxClusterSize; k++) {
+            frequencies[k - 1] = Math.pow(k, -exponent);
+        }
+
+        return createCdf(frequencies);
+    }
+
+    private static double[] createCdf(double[] frequencies) {
+        double[] cdf = new double[frequencies.length];
+        double sum = Arrays.stream(frequencies).sum();
+
+        if (sum <= 0)
+            throw new IllegalArgumentException("Frequencies must not all be 0");
+
+        double cumulative = 0;
+
+        for (int i = 0; i < frequencies.length; i++) {
+            cumulative += frequencies[i];
+            cdf[i] = cumulative / sum;
+        }
+
+        return cdf;
+    }
+
+    /**
+     * Insertion sort by m/z. Spectra only contain a few dozen peaks.
+     */
+    private static void sortPeaks(double[] mz, double[] intensity, int nPeaks) {
+        for (int i = 1; i < nPeaks; i++) {
+            double currentMz = mz[i];
+            double currentIntensity = intensity[i];
+            int j = i - 1;
+
+            while (j >= 0 && mz[j] > currentMz) {
+                mz[j + 1] = mz[j];
+                intensity[j + 1] = intensity[j];
+                j--;
+            }
+
+            mz[j + 1] = currentMz;
+            intensity[j + 1] = currentIntensity;
+        }
+    }
+
+    /**
+     * Appends the value with a fixed number of decimals. This is considerably
+     * faster than String.format, which matters for millions of spectra.
+     */
+    static void appendFixed(StringBuilder builder, double value, int decimals) {
+        long factor = 1;
+
+        for (int i = 0; i < decimals; i++) {
+            factor *= 10;
+        }
+
+        long scaled = Math.round(Math.abs(value) * factor);
+
+        if (value < 0 && scaled != 0)
+            builder.append('-');
+
+        builder.append(scaled / factor);
+
+        if (decimals > 0) {
+            builder.append('.');
+            String fraction = Long.toString(scaled % factor);
+
+            for (int i = fraction.length(); i < decimals; i++) {
+                builder.append('0');
+            }
+
+            builder.append(fraction);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.spectra.cluster.tools.synthetic;
+
+import lombok.Data;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Parameters controlling the synthetic datasets created by the
+ * {@link SyntheticDatasetGenerator}. The defaults resemble a typical
+ * high-resolution HCD dataset.
+ *
+ * @author jg
+ */
+@Data
+public class SyntheticDatasetParameters {
+    /** Total number of spectra to create */
+    private long nSpectra = 100_000;
+    /** Maximum number of spectra written to a single MGF file */
+    private long spectraPerFile = 1_000_000;
+    /** Seed of the random number generator. The same seed always creates the same dataset. */
+    private long seed = 42;
+
+    /** Exponent of the power-law (Zipf) cluster size distribution. Higher values create more singletons. */
+    private double clusterSizeExponent = 2.0;
+    /** Largest cluster size */
+    private int maxClusterSize = 500;
+
+    /** Fraction of peaks in every spectrum that are random noise peaks */
+    private double noisePeakFraction = 0.3;
+    /** Probability that a signal peak of the cluster's template is present in a spectrum */
+    private double peakRetention = 0.8;
+    /** Minimum number of signal peaks per template */
+    private int minSignalPeaks = 20;
+    /** Maximum number of signal peaks per template */
+    private int maxSignalPeaks = 60;
+
+    /** Relative frequency of the charge states starting at 1+ */
+    private double[] chargeDistribution = {0.05, 0.6, 0.3, 0.05};
+
+    private double minPrecursorMz = 350;
+    private double maxPrecursorMz = 1500;
+    /**
+     * Skew of the precursor m/z distribution. 0 creates uniformly distributed precursors,
+     * higher values concentrate the precursors towards the lower end of the m/z range.
+     */
+    private double precursorDensitySkew = 1.0;
+
+    /** Standard deviation of the spectra's precursor m/z around the cluster's precursor m/z */
+    private double precursorMzSd = 0.005;
+    /** Standard deviation of the fragment m/z values around the template's peaks */
+    private double fragmentMzSd = 0.005;
+    /** Standard deviation of the log-normal noise applied to the signal peaks' intensities */
+    private double intensityNoiseSd = 0.3;
+
+    /** Fraction of clusters that get a (synthetic) peptide sequence */
+    private double identifiedFraction = 1.0;
+
+    /**
+     * Number of clusters that are created at the same time. Spectra are randomly drawn
+     * from these clusters so that the members of a cluster are spread across the files.
+     */
+    private int activeClusters = 1_000;
+
+    /**
+     * Ensures that all parameters are valid.
+     *
+     * @throws IllegalArgumentException If a parameter is invalid.
+     */
+    public void validate() {
+        if (nSpectra < 1)
+            throw new IllegalArgumentException("Number of spectra must be at least 1");
+        if (spectraPerFile < 1)
+            throw new IllegalArgumentException("Number of spectra per file must be at least 1");
+        if (clusterSizeExponent < 0)
+            throw new IllegalArgumentException("Cluster size exponent must not be negative");
+        if (maxClusterSize < 1)
+            throw new IllegalArgumentException("Maximum cluster size must be at least 1");
+        if (noisePeakFraction < 0 || noisePeakFraction >= 1)
+            throw new IllegalArgumentException("Noise peak fraction must be in [0, 1)");
+        if (peakRetention <= 0 || peakRetention > 1)
+            throw new IllegalArgumentException("Peak retention must be in (0, 1]");
+        if (minSignalPeaks < 1 || maxSignalPeaks < minSignalPeaks)
+            throw new IllegalArgumentException("Invalid number of signal peaks");
+        if (chargeDistribution == null || chargeDistribution.length < 1)
+            throw new IllegalArgumentException("Missing charge distribution");
+        for (double frequency : chargeDistribution) {
+            if (frequency < 0)
+                throw new IllegalArgumentException("Charge frequencies must not be negative");
+        }
+        if (minPrecursorMz <= 0 || maxPrecursorMz <= minPrecursorMz)
+            throw new IllegalArgumentException("Invalid precursor m/z range");
+        if (precursorDensitySkew < 0)
+            throw new IllegalArgumentException("Precursor density skew must not be negative");
+        if (identifiedFraction < 0 || identifiedFraction > 1)
+            throw new IllegalArgumentException("Identified fraction must be in [0, 1]");
+        if (activeClusters < 1)
+            throw new IllegalArgumentException("Number of active clusters must be at least 1");
+    }
+}
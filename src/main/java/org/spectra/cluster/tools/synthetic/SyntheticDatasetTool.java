@@ -0,0 +1,187 @@
+package org.spectra.cluster.tools.synthetic;
+
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import io.github.bigbio.pgatk.io.properties.IPropertyStorage;
+import io.github.bigbio.pgatk.io.properties.PropertyStorageFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.cli.*;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.io.cluster.ClusterStorageFactory;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.util.ClusteringParameters;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Command line tool to create synthetic datasets for scaling tests. Next to the
+ * MGF files and the ground truth, the spectra can optionally be converted into
+ * the binary cluster and property storage using the default loading pipeline.
+ *
+ * @author jg
+ */
+@Slf4j
+public class SyntheticDatasetTool {
+    private static final Options options = new Options();
+
+    static {
+        options.addOption(OptionBuilder.hasArg().withDescription("Directory to write the dataset to.")
+                .withLongOpt("output.directory").create("o"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Name of the dataset used as file prefix (default 'synthetic').")
+                .withLongOpt("name").create("nm"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Number of spectra to create.")
+                .withLongOpt("n.spectra").create("n"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Maximum number of spectra per MGF file.")
+                .withLongOpt("spectra.per.file").create("pf"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Seed of the random number generator.")
+                .withLongOpt("seed").create("sd"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Exponent of the power-law cluster size distribution.")
+                .withLongOpt("cluster.size.exponent").create("ce"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Largest cluster size.")
+                .withLongOpt("max.cluster.size").create("cm"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Fraction of noise peaks per spectrum.")
+                .withLongOpt("noise.fraction").create("nf"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Comma separated relative frequencies of the charge states starting at 1+ (e.g. '0.05,0.6,0.3,0.05').")
+                .withLongOpt("charges").create("z"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Skew of the precursor m/z distribution. 0 creates uniformly distributed precursors.")
+                .withLongOpt("precursor.skew").create("ps"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Fraction of clusters with a synthetic peptide sequence.")
+                .withLongOpt("identified.fraction").create("if"));
+        options.addOption(OptionBuilder.hasArg().withDescription("If set, the spectra are additionally loaded into the binary storage in this directory.")
+                .withLongOpt("binary.directory").create("b"));
+        options.addOption(OptionBuilder.hasArg().withDescription("Number of threads used to create the binary storage.")
+                .withLongOpt("n.threads").create("t"));
+        options.addOption(new Option("h", "help", false, "Print this message."));
+    }
+
+    public static void main(String[] args) {
+        try {
+            CommandLine commandLine = new PosixParser().parse(options, args);
+
+            if (commandLine.hasOption("h") || !commandLine.hasOption("o")) {
+                new HelpFormatter().printHelp("SyntheticDatasetTool",
+                        "Creates synthetic MGF files with a known ground truth.\n", options, "\n", true);
+                System.exit(commandLine.hasOption("h") ? 0 : 1);
+            }
+
+            SyntheticDatasetParameters parameters = parseParameters(commandLine);
+            Path outputDirectory = Paths.get(commandLine.getOptionValue("o"));
+            Files.createDirectories(outputDirectory);
+
+            SyntheticDatasetGenerator.SyntheticDataset dataset = new SyntheticDatasetGenerator(parameters)
+                    .generate(outputDirectory, commandLine.getOptionValue("nm", "synthetic"));
+
+            System.out.println(String.format("Created %d spectra in %d clusters. Ground truth written to %s",
+                    dataset.getNSpectra(), dataset.getNClusters(), dataset.getGroundTruthFile()));
+
+            if (commandLine.hasOption("b")) {
+                ClusteringParameters clusteringParameters = new ClusteringParameters();
+
+                if (commandLine.hasOption("t"))
+                    clusteringParameters.setNThreads(Integer.parseInt(commandLine.getOptionValue("t")));
+
+                long nLoaded = writeBinaryStorage(dataset.getMgfFiles().toArray(new File[0]),
+                        new File(commandLine.getOptionValue("b")), clusteringParameters);
+
+                System.out.println(String.format("Stored %d spectra in %s", nLoaded, commandLine.getOptionValue("b")));
+            }
+
+            System.exit(0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error: " + e.getMessage());
+
+            System.exit(1);
+        }
+    }
+
+    private static SyntheticDatasetParameters parseParameters(CommandLine commandLine) {
+        SyntheticDatasetParameters parameters = new SyntheticDatasetParameters();
+
+        if (commandLine.hasOption("n"))
+            parameters.setNSpectra(Long.parseLong(commandLine.getOptionValue("n")));
+        if (commandLine.hasOption("pf"))
+            parameters.setSpectraPerFile(Long.parseLong(commandLine.getOptionValue("pf")));
+        if (commandLine.hasOption("sd"))
+            parameters.setSeed(Long.parseLong(commandLine.getOptionValue("sd")));
+        if (commandLine.hasOption("ce"))
+            parameters.setClusterSizeExponent(Double.parseDouble(commandLine.getOptionValue("ce")));
+        if (commandLine.hasOption("cm"))
+            parameters.setMaxClusterSize(Integer.parseInt(commandLine.getOptionValue("cm")));
+        if (commandLine.hasOption("nf"))
+            parameters.setNoisePeakFraction(Double.parseDouble(commandLine.getOptionValue("nf")));
+        if (commandLine.hasOption("z"))
+            parameters.setChargeDistribution(Arrays.stream(commandLine.getOptionValue("z").split(","))
+                    .mapToDouble(s -> Double.parseDouble(s.trim())).toArray());
+        if (commandLine.hasOption("ps"))
+            parameters.setPrecursorDensitySkew(Double.parseDouble(commandLine.getOptionValue("ps")));
+        if (commandLine.hasOption("if"))
+            parameters.setIdentifiedFraction(Double.parseDouble(commandLine.getOptionValue("if")));
+
+        return parameters;
+    }
+
+    /**
+     * Loads the MGF files into a persistent binary cluster storage ("loaded-clusters")
+     * and property storage ("properties") using the same loading pipeline as the
+     * SpectraClusterTool.
+     *
+     * @param mgfFiles The files to load.
+     * @param binaryDirectory The directory to create the storages in.
+     * @param clusteringParameters The parameters defining the loading pipeline.
+     * @return Number of stored spectra.
+     * @throws Exception If loading or storing failed.
+     */
+    public static long writeBinaryStorage(File[] mgfFiles, File binaryDirectory,
+                                          ClusteringParameters clusteringParameters) throws Exception {
+        File clusterDirectory = new File(binaryDirectory, "loaded-clusters");
+        File propertyDirectory = new File(binaryDirectory, "properties");
+
+        if (!clusterDirectory.mkdirs() || !propertyDirectory.mkdirs())
+            throw new Exception("Failed to create binary storage in " + binaryDirectory.getAbsolutePath());
+
+        IPropertyStorage propertyStorage = PropertyStorageFactory.buildDynamicLevelDBPropertyStorage(propertyDirectory);
+        IMapStorage<ICluster> clusterStorage = ClusterStorageFactory.buildDynamicStorage(clusterDirectory, GreedySpectralCluster.class);
+
+        MzSpectraReader reader = new MzSpectraReader(clusteringParameters.createMzBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), clusteringParameters.createLoadingFilter(),
+                GreedyClusteringEngine.COMPARISON_FILTER, clusteringParameters.createGreedyClusteringEngine(), mgfFiles);
+
+        AtomicLong nLoaded = new AtomicLong();
+
+        try {
+            reader.readClusters(propertyStorage, Math.max(1, clusteringParameters.getNThreads()), cluster -> {
+                try {
+                    clusterStorage.put(cluster.getId(), cluster);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+
+                nLoaded.incrementAndGet();
+            });
+        } finally {
+            clusterStorage.close();
+            propertyStorage.close();
+        }
+
+        log.debug(String.format("Stored %d spectra in %s", nLoaded.get(), binaryDirectory.getAbsolutePath()));
+
+        return nLoaded.get();
+    }
+}
@@ -1,18 +1,23 @@
 package org.spectra.cluster.util;
 
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
 import lombok.Data;
 import org.apache.commons.cli.CommandLine;
+import org.spectra.cluster.cdf.INumberOfComparisonAssessor;
 import org.spectra.cluster.cdf.SpectraPerBinNumberComparisonAssessor;
+import org.spectra.cluster.engine.ClusteringEngineFactory;
+import org.spectra.cluster.engine.ClusteringEngineOptions;
 import org.spectra.cluster.engine.GreedyClusteringEngine;
 import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.spectra.DuplicateSpectrumCollapser;
 import org.spectra.cluster.model.cluster.ICluster;
 import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
 import org.spectra.cluster.normalizer.HighResolutionMzBinner;
 import org.spectra.cluster.normalizer.IMzBinner;
 import org.spectra.cluster.normalizer.TideBinner;
-import org.spectra.cluster.predicates.IComparisonPredicate;
+import org.spectra.cluster.predicates.AdaptivePredicateChain;
 import org.spectra.cluster.predicates.SameChargePredicate;
-import org.spectra.cluster.predicates.ShareNComparisonPeaksPredicate;
+import org.spectra.cluster.predicates.SharedPeakBitsetPredicate;
 import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
 import org.spectra.cluster.tools.CliOptions;
 
@@ -21,6 +26,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Properties;
 
 /**
@@ -38,6 +44,8 @@ import java.util.Properties;
 public class ClusteringParameters {
 
     private String binaryDirectory;
+    /** Comma separated list of directories to stripe the temporary cluster storages across */
+    private String stripeDirectories;
     private boolean reuseBinary;
     private boolean fastMode;
     private Integer clusterRounds;
@@ -54,6 +62,18 @@ public class ClusteringParameters {
 
     private File outputFile;
     private boolean outputMsp;
+    private boolean outputDotClustering;
+    private boolean collectMetrics;
+
+    private int maxBinSize = Integer.MAX_VALUE;
+    private boolean boundaryOnlySecondRound;
+    private boolean dirtyWindowsOnly;
+    private boolean useClusterArena;
+
+    private double planSampleFraction = 0.05;
+
+    /** Mode used to collapse duplicate spectra while loading: "none", "exact" or "near" */
+    private String duplicateCollapsing = "none";
 
     private int nThreads;
 
@@ -87,6 +107,8 @@ public class ClusteringParameters {
             this.clusterRounds = Integer.parseInt(properties.getProperty("cluster.rounds"));
         if(properties.containsKey("binary.temp.directory"))
             this.binaryDirectory = properties.getProperty("binary.temp.directory");
+        if(properties.containsKey("binary.temp.stripe.directories"))
+            this.stripeDirectories = properties.getProperty("binary.temp.stripe.directories").trim();
         if(properties.containsKey("reuse.binary.files"))
             this.reuseBinary = Boolean.parseBoolean(properties.getProperty("reuse.binary.files"));
         if(properties.containsKey("ignore.charge"))
@@ -101,6 +123,22 @@ public class ClusteringParameters {
             this.minNumberOfComparisons = Integer.parseInt(properties.getProperty("x.min.comparisons"));
         if(properties.contains("output.msp"))
             this.outputMsp = Boolean.parseBoolean(properties.getProperty("output.msp"));
+        if(properties.containsKey("output.clustering"))
+            this.outputDotClustering = Boolean.parseBoolean(properties.getProperty("output.clustering"));
+        if(properties.containsKey("metrics.enabled"))
+            this.collectMetrics = Boolean.parseBoolean(properties.getProperty("metrics.enabled"));
+        if(properties.containsKey("binning.max.bin.size"))
+            this.maxBinSize = Integer.parseInt(properties.getProperty("binning.max.bin.size").trim());
+        if(properties.containsKey("second.round.boundary.only"))
+            this.boundaryOnlySecondRound = Boolean.parseBoolean(properties.getProperty("second.round.boundary.only").trim());
+        if(properties.containsKey("engine.dirty.windows.only"))
+            this.dirtyWindowsOnly = Boolean.parseBoolean(properties.getProperty("engine.dirty.windows.only").trim());
+        if(properties.containsKey("engine.cluster.arena"))
+            this.useClusterArena = Boolean.parseBoolean(properties.getProperty("engine.cluster.arena").trim());
+        if(properties.containsKey("plan.sample.fraction"))
+            this.planSampleFraction = Double.parseDouble(properties.getProperty("plan.sample.fraction").trim());
+        if(properties.containsKey("loading.collapse.duplicates"))
+            this.duplicateCollapsing = properties.getProperty("loading.collapse.duplicates").trim();
     }
 
     public Properties readProperties() throws URISyntaxException {
@@ -143,9 +181,15 @@ public class ClusteringParameters {
 
         ignoreCharge = commandLine.hasOption(CliOptions.OPTIONS.IGNORE_CHARGE.getValue());
 
+        if (commandLine.hasOption(CliOptions.OPTIONS.FAST_MODE.getValue()))
+            fastMode = true;
+
         if (commandLine.hasOption(CliOptions.OPTIONS.TEMP_DIRECTORY.getValue()))
             binaryDirectory = commandLine.getOptionValue(CliOptions.OPTIONS.TEMP_DIRECTORY.getValue());
 
+        if (commandLine.hasOption(CliOptions.OPTIONS.STRIPE_DIRECTORIES.getValue()))
+            stripeDirectories = commandLine.getOptionValue(CliOptions.OPTIONS.STRIPE_DIRECTORIES.getValue());
+
         if (commandLine.hasOption(CliOptions.OPTIONS.ADVANCED_MIN_NUMBER_COMPARISONS.getValue()))
             minNumberOfComparisons = Integer.parseInt(commandLine.getOptionValue(CliOptions.OPTIONS.ADVANCED_MIN_NUMBER_COMPARISONS.getValue()));
 
@@ -155,7 +199,17 @@ public class ClusteringParameters {
         if (commandLine.hasOption(CliOptions.OPTIONS.N_THREADS.getValue()))
             nThreads = Integer.parseInt(commandLine.getOptionValue(CliOptions.OPTIONS.N_THREADS.getValue()));
 
+        if (commandLine.hasOption(CliOptions.OPTIONS.PLAN_SAMPLE_FRACTION.getValue()))
+            planSampleFraction = Double.parseDouble(commandLine.getOptionValue(CliOptions.OPTIONS.PLAN_SAMPLE_FRACTION.getValue()));
+
+        if (commandLine.hasOption(CliOptions.OPTIONS.COLLAPSE_DUPLICATES.getValue()))
+            duplicateCollapsing = commandLine.getOptionValue(CliOptions.OPTIONS.COLLAPSE_DUPLICATES.getValue());
+
         outputMsp = commandLine.hasOption(CliOptions.OPTIONS.OUTPUT_MSP.getValue());
+        outputDotClustering = commandLine.hasOption(CliOptions.OPTIONS.OUTPUT_DOT_CLUSTERING.getValue());
+
+        if (commandLine.hasOption(CliOptions.OPTIONS.METRICS.getValue()))
+            collectMetrics = true;
     }
 
     public void mergeParameters(String configFile) throws IOException {
@@ -189,28 +243,74 @@ public class ClusteringParameters {
      * @throws Exception
      */
     public GreedyClusteringEngine createGreedyClusteringEngine() throws Exception {
-        int precursorTolerance = getIntPrecursorTolerance();
+        return createClusteringEngineFactory(createPrecursorDensityHistogram()).createEngine();
+    }
 
-        SpectraPerBinNumberComparisonAssessor numberOfComparisonAssessor = new SpectraPerBinNumberComparisonAssessor(
-                precursorTolerance * 2, minNumberOfComparisons, BasicIntegerNormalizer.MZ_CONSTANT * 2500
+    /**
+     * Creates a new, empty precursor density histogram based on the currently set
+     * parameters. Every loaded spectrum must be counted in the histogram before it is
+     * used to derive the number of comparisons.
+     *
+     * @return A new SpectraPerBinNumberComparisonAssessor
+     */
+    public SpectraPerBinNumberComparisonAssessor createPrecursorDensityHistogram() {
+        return new SpectraPerBinNumberComparisonAssessor(
+                getIntPrecursorTolerance() * 2, minNumberOfComparisons, BasicIntegerNormalizer.MZ_CONSTANT * 2500
         );
+    }
 
-        IComparisonPredicate<ICluster> firstRoundPredicate = new ShareNComparisonPeaksPredicate(
-                nInitiallySharedPeaks);
+    /**
+     * Returns the directories to stripe the temporary cluster storages across.
+     *
+     * @return The directories or null in case no stripe directories are set.
+     */
+    public File[] getStripeDirectoryFiles() {
+        if (stripeDirectories == null || stripeDirectories.trim().isEmpty())
+            return null;
+
+        return Arrays.stream(stripeDirectories.split(","))
+                .map(String::trim)
+                .filter(path -> !path.isEmpty())
+                .map(File::new)
+                .toArray(File[]::new);
+    }
+
+    /**
+     * Creates a new ClusteringEngineFactory based on the currently set parameters. All engines
+     * created by the factory share the same (thread-safe) components.
+     *
+     * Note: The validity of these parameters is not checked in this function but
+     * must be checked before calling it.
+     *
+     * @param numberOfComparisonAssessor The (shared) number of comparison assessor to use.
+     * @return A new ClusteringEngineFactory
+     * @throws Exception Thrown if the CDF cannot be loaded.
+     */
+    public ClusteringEngineFactory createClusteringEngineFactory(INumberOfComparisonAssessor numberOfComparisonAssessor)
+            throws Exception {
+        // the order of the predicates is adapted at runtime based on their cost and selectivity
+        AdaptivePredicateChain firstRoundPredicate = new AdaptivePredicateChain("first_round");
 
         if (!ignoreCharge) {
-            firstRoundPredicate = new SameChargePredicate().and(firstRoundPredicate);
+            firstRoundPredicate.addStage("same_charge", new SameChargePredicate());
+        }
+
+        // in fast mode, the candidates are already selected based on their shared highest peaks
+        if (!fastMode) {
+            firstRoundPredicate.addStage("shared_peaks", new SharedPeakBitsetPredicate(nInitiallySharedPeaks));
         }
 
         int windowSizeNoiseFilter = (fragmentIonPrecision.equalsIgnoreCase("high")) ? 3000 : 100;
 
-        GreedyClusteringEngine engine = new GreedyClusteringEngine(
-                precursorTolerance,
+        return new ClusteringEngineFactory(
+                getIntPrecursorTolerance(),
                 thresholdStart, thresholdEnd, clusterRounds, new CombinedFisherIntensityTest(),
                 numberOfComparisonAssessor, firstRoundPredicate,
-                windowSizeNoiseFilter);
-
-        return engine;
+                windowSizeNoiseFilter, ClusteringEngineOptions.builder()
+                        .dirtyWindowsOnly(dirtyWindowsOnly)
+                        .useClusterArena(useClusterArena)
+                        .fastMode(fastMode)
+                        .build());
     }
 
     /**
@@ -231,6 +331,25 @@ public class ClusteringParameters {
 
     }
 
+    /**
+     * Creates a new DuplicateSpectrumCollapser based on the currently set parameters.
+     *
+     * Note: The validity of these parameters is not checked in this function but
+     * must be checked before calling it.
+     *
+     * @param clusterStorage The storage the loaded clusters are written to.
+     * @return A new DuplicateSpectrumCollapser or null in case duplicates should not be collapsed.
+     */
+    public DuplicateSpectrumCollapser createDuplicateCollapser(IMapStorage<ICluster> clusterStorage) {
+        DuplicateSpectrumCollapser.Mode mode = DuplicateSpectrumCollapser.Mode.fromName(duplicateCollapsing);
+
+        if (mode == DuplicateSpectrumCollapser.Mode.NONE)
+            return null;
+
+        return new DuplicateSpectrumCollapser(mode, getIntPrecursorTolerance(),
+                DuplicateSpectrumCollapser.DEFAULT_SIGNATURE_PEAKS, clusterStorage);
+    }
+
     /**
      * Creates a new instance of the matching m/z binner.
      *
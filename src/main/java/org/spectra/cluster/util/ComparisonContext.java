@@ -0,0 +1,222 @@
+package org.spectra.cluster.util;
+
+import cern.jet.random.HyperGeometric;
+import cern.jet.random.Normal;
+import cern.jet.random.engine.RandomEngine;
+import org.spectra.cluster.model.cluster.ClusterArena;
+import org.spectra.cluster.model.spectra.BinaryPeak;
+
+/**
+ * Scratch space used while comparing spectra and clusters. Similarity
+ * measures, predicates and filters take their temporary arrays and
+ * distribution objects from the context instead of allocating them for
+ * every comparison.
+ *
+ * All buffers only grow. Once the largest spectra of a clustering round
+ * were compared, no further memory is allocated. The content of a buffer
+ * is only valid until the next call of the same getter.
+ *
+ * A context must only be used by a single thread. Every clustering task
+ * owns its own context.
+ *
+ * @author jg
+ */
+public class ComparisonContext {
+    /** Static RandomEngine since it is not used */
+    private static final RandomEngine RANDOM_ENGINE = RandomEngine.makeDefault();
+    private static final int INITIAL_SIZE = 64;
+
+    private int[] sharedIntensities1 = new int[INITIAL_SIZE];
+    private int[] sharedIntensities2 = new int[INITIAL_SIZE];
+    private long[] sortKeys = new long[INITIAL_SIZE];
+    private int[] mergeBuffer1 = new int[INITIAL_SIZE];
+    private int[] mergeBuffer2 = new int[INITIAL_SIZE];
+    private long[] peakSortKeys = new long[INITIAL_SIZE];
+    private BinaryPeak[] peakBuffer = new BinaryPeak[INITIAL_SIZE];
+    private int[] mzBuffer = new int[INITIAL_SIZE];
+    private int[] lookupBuffer = new int[INITIAL_SIZE];
+    private int[] lookupIntensities = new int[INITIAL_SIZE];
+
+    private HyperGeometric hyperGeometric;
+    private Normal normal;
+    private ClusterArena clusterArena;
+
+    private long bufferGrowths = 0;
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Buffer for the intensities of the shared peaks of the first spectrum.
+     */
+    public int[] getSharedIntensities1(int minLength) {
+        if (sharedIntensities1.length < minLength)
+            sharedIntensities1 = new int[grow(sharedIntensities1.length, minLength)];
+
+        return sharedIntensities1;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Buffer for the intensities of the shared peaks of the second spectrum.
+     */
+    public int[] getSharedIntensities2(int minLength) {
+        if (sharedIntensities2.length < minLength)
+            sharedIntensities2 = new int[grow(sharedIntensities2.length, minLength)];
+
+        return sharedIntensities2;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Buffer for packed sort keys (f.e. intensity pairs).
+     */
+    public long[] getSortKeys(int minLength) {
+        if (sortKeys.length < minLength)
+            sortKeys = new long[grow(sortKeys.length, minLength)];
+
+        return sortKeys;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return First buffer used by merge sorts.
+     */
+    public int[] getMergeBuffer1(int minLength) {
+        if (mergeBuffer1.length < minLength)
+            mergeBuffer1 = new int[grow(mergeBuffer1.length, minLength)];
+
+        return mergeBuffer1;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Second buffer used by merge sorts.
+     */
+    public int[] getMergeBuffer2(int minLength) {
+        if (mergeBuffer2.length < minLength)
+            mergeBuffer2 = new int[grow(mergeBuffer2.length, minLength)];
+
+        return mergeBuffer2;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Buffer for packed sort keys of a spectrum's peaks.
+     */
+    public long[] getPeakSortKeys(int minLength) {
+        if (peakSortKeys.length < minLength)
+            peakSortKeys = new long[grow(peakSortKeys.length, minLength)];
+
+        return peakSortKeys;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Buffer for a spectrum's peaks.
+     */
+    public BinaryPeak[] getPeakBuffer(int minLength) {
+        if (peakBuffer.length < minLength)
+            peakBuffer = new BinaryPeak[grow(peakBuffer.length, minLength)];
+
+        return peakBuffer;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Buffer for m/z values.
+     */
+    public int[] getMzBuffer(int minLength) {
+        if (mzBuffer.length < minLength)
+            mzBuffer = new int[grow(mzBuffer.length, minLength)];
+
+        return mzBuffer;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Buffer for peak lookup tables.
+     */
+    public int[] getLookupBuffer(int minLength) {
+        if (lookupBuffer.length < minLength)
+            lookupBuffer = new int[grow(lookupBuffer.length, minLength)];
+
+        return lookupBuffer;
+    }
+
+    /**
+     * @param minLength Minimum length of the buffer.
+     * @return Buffer for the intensities of peak lookup tables.
+     */
+    public int[] getLookupIntensities(int minLength) {
+        if (lookupIntensities.length < minLength)
+            lookupIntensities = new int[grow(lookupIntensities.length, minLength)];
+
+        return lookupIntensities;
+    }
+
+    /**
+     * Returns the context's HyperGeometric distribution set to the passed parameters.
+     *
+     * @param n The population size.
+     * @param s The number of successes in the population.
+     * @param nSample The sample size.
+     * @return The HyperGeometric distribution.
+     */
+    public HyperGeometric getHyperGeometric(int n, int s, int nSample) {
+        if (hyperGeometric == null) {
+            hyperGeometric = new HyperGeometric(n, s, nSample, RANDOM_ENGINE);
+        } else {
+            hyperGeometric.setState(n, s, nSample);
+        }
+
+        return hyperGeometric;
+    }
+
+    /**
+     * Returns the context's Normal distribution set to the passed parameters.
+     *
+     * @param mean The mean.
+     * @param standardDeviation The standard deviation.
+     * @return The Normal distribution.
+     */
+    public Normal getNormal(double mean, double standardDeviation) {
+        if (normal == null) {
+            normal = new Normal(mean, standardDeviation, RANDOM_ENGINE);
+        } else {
+            normal.setState(mean, standardDeviation);
+        }
+
+        return normal;
+    }
+
+    /**
+     * Returns the context's ClusterArena. All previously stored clusters are removed.
+     *
+     * @param capacity The minimum number of clusters the arena must hold.
+     * @return The empty ClusterArena.
+     */
+    public ClusterArena getClusterArena(int capacity) {
+        if (clusterArena == null) {
+            clusterArena = new ClusterArena(capacity);
+        } else {
+            if (clusterArena.capacity() < capacity)
+                bufferGrowths++;
+
+            clusterArena.reset(capacity);
+        }
+
+        return clusterArena;
+    }
+
+    /**
+     * @return Number of times a buffer had to be enlarged.
+     */
+    public long getBufferGrowths() {
+        return bufferGrowths;
+    }
+
+    private int grow(int currentLength, int minLength) {
+        bufferGrowths++;
+
+        return Math.max(minLength, currentLength * 2);
+    }
+}
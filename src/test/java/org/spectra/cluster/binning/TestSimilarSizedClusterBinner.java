@@ -149,6 +149,94 @@ public class TestSimilarSizedClusterBinner {
         Assert.assertEquals(2, bins[1].length);
     }
 
+    @Test
+    public void testRadixSortedBins() throws Exception {
+        Random random = new Random(1);
+        IClusterProperties[] testCluster = new IClusterProperties[10_000];
+
+        for (int i = 0; i < testCluster.length; i++) {
+            testCluster[i] = new BasicClusterProperties(3_000_000 + random.nextInt(5_000_000),
+                    1 + random.nextInt(4), "c" + i);
+        }
+
+        SimilarSizedClusterBinner binner = new SimilarSizedClusterBinner(
+                BasicIntegerNormalizer.MZ_CONSTANT, 10, true);
+
+        String[][] bins = binner.binClusters(testCluster, false);
+        Map<String, IClusterProperties> clusterById = new HashMap<>();
+
+        for (IClusterProperties cluster : testCluster) {
+            clusterById.put(cluster.getId(), cluster);
+        }
+
+        int nClusters = 0;
+
+        for (String[] bin : bins) {
+            nClusters += bin.length;
+
+            for (int i = 1; i < bin.length; i++) {
+                IClusterProperties previous = clusterById.get(bin[i - 1]);
+                IClusterProperties current = clusterById.get(bin[i]);
+
+                Assert.assertEquals(previous.getPrecursorCharge(), current.getPrecursorCharge());
+                Assert.assertTrue(previous.getPrecursorMz() <= current.getPrecursorMz());
+            }
+        }
+
+        Assert.assertEquals(testCluster.length, nClusters);
+    }
+
+    @Test
+    public void testSplitOversizedBins() throws Exception {
+        BasicIntegerNormalizer normalizer = new BasicIntegerNormalizer();
+        List<IClusterProperties> clusters = new ArrayList<>();
+
+        // 3 dense groups within the same 2 m/z bin separated by gaps
+        for (int i = 0; i < 10; i++) {
+            clusters.add(new BasicClusterProperties(normalizer.binValue(300.10) + i, 2, "a" + i));
+            clusters.add(new BasicClusterProperties(normalizer.binValue(300.50) + i, 2, "b" + i));
+            clusters.add(new BasicClusterProperties(normalizer.binValue(300.60) + i, 2, "c" + i));
+        }
+
+        SimilarSizedClusterBinner binner = new SimilarSizedClusterBinner(
+                BasicIntegerNormalizer.MZ_CONSTANT * 2, 1, false, 20);
+
+        String[][] bins = binner.binClusters(clusters.toArray(new IClusterProperties[0]), false);
+
+        // the bin is split at the largest gap (between group a and b)
+        Assert.assertEquals(2, bins.length);
+        Assert.assertEquals(10, bins[0].length);
+        Assert.assertEquals(20, bins[1].length);
+        Assert.assertTrue(Arrays.stream(bins[0]).allMatch(id -> id.startsWith("a")));
+        Assert.assertEquals(1, binner.getSplitPrecursors().length);
+
+        // the shifted round must not split at the same position but at the next largest gap
+        String[][] shiftedBins = binner.binClusters(clusters.toArray(new IClusterProperties[0]), true);
+
+        Assert.assertEquals(2, shiftedBins.length);
+        Assert.assertEquals(20, shiftedBins[0].length);
+        Assert.assertEquals(10, shiftedBins[1].length);
+    }
+
+    @Test
+    public void testBoundedBinSize() throws Exception {
+        IClusterProperties[] testCluster = new IClusterProperties[5_000];
+
+        // all clusters share the same precursor
+        for (int i = 0; i < testCluster.length; i++) {
+            testCluster[i] = new BasicClusterProperties(5_000_000, 2, "c" + i);
+        }
+
+        SimilarSizedClusterBinner binner = new SimilarSizedClusterBinner(
+                BasicIntegerNormalizer.MZ_CONSTANT, 10, true, 1_000);
+
+        String[][] bins = binner.binClusters(testCluster, false);
+
+        Assert.assertTrue(bins.length >= 5);
+        Assert.assertTrue(Arrays.stream(bins).allMatch(bin -> bin.length <= 1_000));
+        Assert.assertEquals(testCluster.length, Arrays.stream(bins).mapToInt(bin -> bin.length).sum());
+    }
+
     @Test
     public void testSortedClusters() throws Exception {
         // load all clusters
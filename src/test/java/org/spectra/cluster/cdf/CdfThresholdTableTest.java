@@ -0,0 +1,33 @@
+package org.spectra.cluster.cdf;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+
+public class CdfThresholdTableTest {
+    @Test
+    public void testSameResultAsCdf() throws Exception {
+        CumulativeDistributionFunction cdf = CumulativeDistributionFunctionFactory.getCumulativeDistributionFunctionForSimilarityMetric(CombinedFisherIntensityTest.class);
+        double[] mixtureProbabilities = {0, 0.001, 0.01, 0.05, 0.1, 0.5, 1};
+        int[] nComparisons = {0, 1, 2, 10, 100, 1000, 100_000, Integer.MAX_VALUE};
+
+        for (double mixtureProbability : mixtureProbabilities) {
+            CdfThresholdTable table = cdf.getThresholdTable(mixtureProbability);
+
+            for (double similarity = 0; similarity < 150; similarity += 0.25) {
+                for (int n : nComparisons) {
+                    Assert.assertEquals(cdf.isSaveMatch(similarity, n, mixtureProbability),
+                            table.isSaveMatch(similarity, n));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTableIsShared() throws Exception {
+        CumulativeDistributionFunction cdf = CumulativeDistributionFunctionFactory.getCumulativeDistributionFunctionForSimilarityMetric(CombinedFisherIntensityTest.class);
+
+        Assert.assertSame(cdf.getThresholdTable(0.01), cdf.getThresholdTable(0.01));
+        Assert.assertEquals(0.01, cdf.getThresholdTable(0.01).getMaximumMixtureProbability(), 0);
+    }
+}
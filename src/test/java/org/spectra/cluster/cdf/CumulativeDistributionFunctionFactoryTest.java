@@ -13,4 +13,12 @@ public class CumulativeDistributionFunctionFactoryTest {
         Assert.assertEquals(0.5, cdf.scoreIncrements, 0.00001);
         Assert.assertTrue(cdf.isSaveMatch(100, 100, 0.9));
     }
+
+    @Test
+    public void testCdfIsLoadedOnce() throws Exception {
+        CumulativeDistributionFunction cdf1 = CumulativeDistributionFunctionFactory.getCumulativeDistributionFunctionForSimilarityMetric(CombinedFisherIntensityTest.class);
+        CumulativeDistributionFunction cdf2 = CumulativeDistributionFunctionFactory.getCumulativeDistributionFunctionForSimilarityMetric(CombinedFisherIntensityTest.class);
+
+        Assert.assertSame(cdf1, cdf2);
+    }
 }
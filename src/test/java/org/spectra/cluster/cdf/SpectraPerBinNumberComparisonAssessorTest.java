@@ -18,6 +18,7 @@ import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
 
 import java.io.File;
 import java.util.Iterator;
+import java.util.stream.IntStream;
 
 public class SpectraPerBinNumberComparisonAssessorTest {
     @Test
@@ -40,6 +41,17 @@ public class SpectraPerBinNumberComparisonAssessorTest {
         Assert.assertEquals(50, assessor.getNumberOfComparisons(40, 1));
     }
 
+    @Test
+    public void testParallelCounting() {
+        SpectraPerBinNumberComparisonAssessor assessor = new SpectraPerBinNumberComparisonAssessor(10, 1, 2000);
+
+        IntStream.range(0, 100_000).parallel().forEach(i -> assessor.countSpectrum(i % 20));
+
+        Assert.assertEquals(50_000, assessor.getNumberOfComparisons(0, 1));
+        Assert.assertEquals(50_000, assessor.getNumberOfComparisons(15, 1));
+        Assert.assertEquals(1, assessor.getNumberOfComparisons(25, 1));
+    }
+
     @Test
     public void testLoadingFiles() throws Exception {
         File testFile = new File(MzSpectraReaderTest.class.getClassLoader().getResource("same_sequence_cluster.mgf").toURI());
@@ -0,0 +1,146 @@
+package org.spectra.cluster.engine;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+public class ClusterPairScoreCacheTest {
+    private List<IBinarySpectrum> spectra;
+
+    @Before
+    public void setUp() throws Exception {
+        File testFile = new File(Objects.requireNonNull(ClusterPairScoreCacheTest.class.getClassLoader().getResource("same_sequence_cluster.mgf")).toURI());
+        MzSpectraReader reader = new MzSpectraReader(testFile, GreedyClusteringEngine.COMPARISON_FILTER);
+
+        Iterator<IBinarySpectrum> spectrumIterator = reader.readBinarySpectraIterator();
+        spectra = new ArrayList<>();
+
+        while (spectrumIterator.hasNext()) {
+            spectra.add(spectrumIterator.next());
+        }
+    }
+
+    private GreedySpectralCluster createCluster(String id, IBinarySpectrum spectrum) {
+        GreedySpectralCluster cluster = new GreedySpectralCluster(new GreedyConsensusSpectrum(id, GreedyClusteringEngine.COMPARISON_FILTER));
+        cluster.addSpectra(spectrum);
+
+        return cluster;
+    }
+
+    @Test
+    public void testCachedScore() {
+        ClusterPairScoreCache cache = new ClusterPairScoreCache(10);
+        GreedySpectralCluster c1 = createCluster("c1", spectra.get(0));
+        GreedySpectralCluster c2 = createCluster("c2", spectra.get(1));
+
+        Assert.assertTrue(Double.isNaN(cache.get(c1, c2)));
+
+        cache.put(c1, c2, 42.5);
+
+        // the order of the clusters must not matter
+        Assert.assertEquals(42.5, cache.get(c1, c2), 0);
+        Assert.assertEquals(42.5, cache.get(c2, c1), 0);
+
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(2 / 3.0, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testChangedClusters() {
+        ClusterPairScoreCache cache = new ClusterPairScoreCache(10);
+        GreedySpectralCluster c1 = createCluster("c1", spectra.get(0));
+        GreedySpectralCluster c2 = createCluster("c2", spectra.get(1));
+        GreedySpectralCluster c3 = createCluster("c3", spectra.get(2));
+
+        cache.put(c1, c2, 10);
+        cache.put(c1, c3, 20);
+
+        // adding spectra invalidates the scores
+        int version = c1.getVersion();
+        c1.addSpectra(spectra.get(3));
+
+        Assert.assertTrue(c1.getVersion() > version);
+        Assert.assertTrue(Double.isNaN(cache.get(c1, c2)));
+        Assert.assertTrue(Double.isNaN(cache.get(c1, c3)));
+
+        // so does merging another cluster
+        cache.put(c2, c3, 30);
+        c3.mergeCluster(c1);
+
+        Assert.assertTrue(c3.getVersion() > c1.getVersion());
+        Assert.assertTrue(Double.isNaN(cache.get(c2, c3)));
+    }
+
+    @Test
+    public void testEviction() {
+        ClusterPairScoreCache cache = new ClusterPairScoreCache(2);
+        GreedySpectralCluster c1 = createCluster("c1", spectra.get(0));
+        GreedySpectralCluster c2 = createCluster("c2", spectra.get(1));
+        GreedySpectralCluster c3 = createCluster("c3", spectra.get(2));
+
+        cache.put(c1, c2, 1);
+        cache.put(c1, c3, 2);
+
+        // access the first entry so that the second one is the least recently used
+        Assert.assertFalse(Double.isNaN(cache.get(c1, c2)));
+
+        cache.put(c2, c3, 3);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertFalse(Double.isNaN(cache.get(c1, c2)));
+        Assert.assertTrue(Double.isNaN(cache.get(c1, c3)));
+        Assert.assertFalse(Double.isNaN(cache.get(c2, c3)));
+    }
+
+    @Test
+    public void testGrowth() {
+        ClusterPairScoreCache cache = new ClusterPairScoreCache(5000);
+        List<GreedySpectralCluster> clusters = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            clusters.add(createCluster("c" + i, spectra.get(i)));
+        }
+
+        // 4950 pairs, the table grows from 1024 to 8192 slots
+        for (int i = 0; i < clusters.size(); i++) {
+            for (int j = i + 1; j < clusters.size(); j++) {
+                cache.put(clusters.get(i), clusters.get(j), i * 1000 + j);
+            }
+        }
+
+        Assert.assertEquals(8192, cache.capacity());
+
+        int nCached = 0;
+
+        for (int i = 0; i < clusters.size(); i++) {
+            for (int j = i + 1; j < clusters.size(); j++) {
+                double score = cache.get(clusters.get(j), clusters.get(i));
+
+                // a score may only be evicted, but never be wrong
+                if (!Double.isNaN(score)) {
+                    Assert.assertEquals(i * 1000 + j, score, 0);
+                    nCached++;
+                }
+            }
+        }
+
+        Assert.assertEquals(cache.size(), nCached);
+        Assert.assertTrue(nCached > 4500);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new ClusterPairScoreCache(0);
+    }
+}
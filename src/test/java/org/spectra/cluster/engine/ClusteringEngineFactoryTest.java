@@ -0,0 +1,35 @@
+package org.spectra.cluster.engine;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.spectra.cluster.cdf.CumulativeDistributionFunctionFactory;
+import org.spectra.cluster.cdf.SpectraPerBinNumberComparisonAssessor;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+import org.spectra.cluster.util.ClusteringParameters;
+
+import java.security.InvalidParameterException;
+
+public class ClusteringEngineFactoryTest {
+    @Test
+    public void testSharedComponents() throws Exception {
+        ClusteringParameters params = new ClusteringParameters();
+        SpectraPerBinNumberComparisonAssessor precursorDensity = params.createPrecursorDensityHistogram();
+        ClusteringEngineFactory factory = params.createClusteringEngineFactory(precursorDensity);
+
+        Assert.assertSame(precursorDensity, factory.getNumberOfComparisonAssessor());
+        Assert.assertSame(CumulativeDistributionFunctionFactory.getCumulativeDistributionFunctionForSimilarityMetric(
+                CombinedFisherIntensityTest.class), factory.getCdf());
+
+        GreedyClusteringEngine engine1 = factory.createEngine();
+        GreedyClusteringEngine engine2 = factory.createEngine();
+
+        Assert.assertNotSame(engine1, engine2);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testInvalidThresholds() throws Exception {
+        new ClusteringEngineFactory(10, 0.9f, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new SpectraPerBinNumberComparisonAssessor(10, 1, 100), null, 100,
+                ClusteringEngineOptions.DEFAULT);
+    }
+}
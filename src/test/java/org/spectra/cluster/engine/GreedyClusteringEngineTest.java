@@ -11,13 +11,18 @@ import org.spectra.cluster.filter.rawpeaks.*;
 import org.spectra.cluster.io.cluster.old_writer.DotClusteringWriter;
 import org.spectra.cluster.io.cluster.old_writer.IClusterWriter;
 import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.metrics.MetricsRegistry;
 import org.spectra.cluster.model.cluster.GreedySpectralCluster;
 import org.spectra.cluster.model.cluster.ICluster;
 import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.model.spectra.BinaryPeak;
+import org.spectra.cluster.model.spectra.BinarySpectrum;
 import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
 import org.spectra.cluster.normalizer.MaxPeakNormalizer;
 import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.SameChargePredicate;
 import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.predicates.ShareNComparisonPeaksPredicate;
 import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
 
 import java.io.File;
@@ -150,6 +155,154 @@ public class GreedyClusteringEngineTest {
         }
     }
 
+    @Test
+    public void testDirtyWindowsOnly() throws Exception {
+        // the engine changes the clusters, the copies keep the shared test data intact
+        ICluster[] copies = new ICluster[singleClusters.size()];
+
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = GreedySpectralCluster.fromBytes(singleClusters.get(i).toBytes());
+        }
+
+        IClusteringEngine dirtyEngine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT,
+                ClusteringEngineOptions.builder().dirtyWindowsOnly(true).build());
+
+        int nSpectra = singleClusters.size();
+        ICluster[] dirtyResult = dirtyEngine.clusterSpectra(copies);
+        ICluster[] fullResult = engine.clusterSpectra(singleClusters.toArray(new ICluster[0]));
+
+        Assert.assertEquals(nSpectra, Arrays.stream(dirtyResult).mapToInt(ICluster::getClusteredSpectraCount).sum());
+
+        // unchanged clusters must be merged back in order
+        for (int i = 1; i < dirtyResult.length; i++) {
+            Assert.assertTrue(dirtyResult[i - 1].getPrecursorMz() <= dirtyResult[i].getPrecursorMz());
+        }
+
+        // no merge is performed in the first round, the pairs passing the final threshold must be kept
+        Assert.assertEquals(8, fullResult.length);
+        Assert.assertEquals(fullResult.length, dirtyResult.length);
+
+        for (int i = 0; i < fullResult.length; i++) {
+            Assert.assertEquals(fullResult[i].getClusteredSpectraIds(), dirtyResult[i].getClusteredSpectraIds());
+        }
+    }
+
+    @Test
+    public void testDirtyWindowsSkipUnchangedClusters() throws Exception {
+        BinaryPeak[] peaks = singleClusters.get(0).getConsensusSpectrum().getPeaks();
+        int precursorMz = singleClusters.get(0).getPrecursorMz();
+
+        MetricsRegistry.reset();
+        MetricsRegistry.setEnabled(true);
+
+        try {
+            IClusteringEngine dirtyEngine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                    1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                    new MinNumberComparisonsAssessor(10000), new SameChargePredicate(),
+                    GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT,
+                    ClusteringEngineOptions.builder().dirtyWindowsOnly(true).build());
+
+            ICluster[] dirtyResult = dirtyEngine.clusterSpectra(createCopies(dirtyEngine, peaks, precursorMz));
+            long skippedClusters = MetricsRegistry.counter("engine.dirty_windows.skipped_clusters").getCount();
+
+            // the single copy is skipped in rounds 2 - 5, the merged pair once nothing changes in round 3
+            Assert.assertEquals(6, skippedClusters);
+
+            IClusteringEngine fullEngine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                    1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                    new MinNumberComparisonsAssessor(10000), new SameChargePredicate(),
+                    GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+            ICluster[] fullResult = fullEngine.clusterSpectra(createCopies(fullEngine, peaks, precursorMz));
+
+            // the full mode processes all clusters in every round
+            Assert.assertEquals(skippedClusters, MetricsRegistry.counter("engine.dirty_windows.skipped_clusters").getCount());
+
+            // skipping the unchanged clusters must not change the result
+            Assert.assertEquals(2, fullResult.length);
+            Assert.assertEquals(fullResult.length, dirtyResult.length);
+
+            for (int i = 0; i < fullResult.length; i++) {
+                Assert.assertEquals(fullResult[i].getClusteredSpectraCount(), dirtyResult[i].getClusteredSpectraCount());
+            }
+        } finally {
+            MetricsRegistry.setEnabled(false);
+            MetricsRegistry.reset();
+        }
+    }
+
+    /**
+     * Creates two identical spectra and a third copy in a distant precursor window.
+     */
+    private ICluster[] createCopies(IClusteringEngine engine, BinaryPeak[] peaks, int precursorMz) {
+        return new ICluster[] {
+                engine.createSingleSpectrumCluster(new BinarySpectrum(precursorMz, 2, peaks, GreedyClusteringEngine.COMPARISON_FILTER)),
+                engine.createSingleSpectrumCluster(new BinarySpectrum(precursorMz, 2, peaks, GreedyClusteringEngine.COMPARISON_FILTER)),
+                engine.createSingleSpectrumCluster(new BinarySpectrum(precursorMz + 10 * BasicIntegerNormalizer.MZ_CONSTANT, 2,
+                        peaks, GreedyClusteringEngine.COMPARISON_FILTER))
+        };
+    }
+
+    @Test
+    public void testClusterArena() throws Exception {
+        // the engine changes the clusters, the copies keep the shared test data intact
+        ICluster[] copies = new ICluster[singleClusters.size()];
+
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = GreedySpectralCluster.fromBytes(singleClusters.get(i).toBytes());
+        }
+
+        IClusteringEngine arenaEngine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new SameChargePredicate().and(new ShareNComparisonPeaksPredicate(5)),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT,
+                ClusteringEngineOptions.builder().useClusterArena(true).build());
+        IClusteringEngine heapEngine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new SameChargePredicate().and(new ShareNComparisonPeaksPredicate(5)),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        ICluster[] arenaResult = arenaEngine.clusterSpectra(copies);
+        ICluster[] heapResult = heapEngine.clusterSpectra(singleClusters.toArray(new ICluster[0]));
+
+        // the arena must not change the result
+        Assert.assertEquals(heapResult.length, arenaResult.length);
+
+        for (int i = 0; i < heapResult.length; i++) {
+            Assert.assertEquals(heapResult[i].getClusteredSpectraIds(), arenaResult[i].getClusteredSpectraIds());
+        }
+    }
+
+    @Test
+    public void testFastMode() throws Exception {
+        // the engine changes the clusters, the copies keep the shared test data intact
+        ICluster[] copies = new ICluster[singleClusters.size()];
+
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = GreedySpectralCluster.fromBytes(singleClusters.get(i).toBytes());
+        }
+
+        IClusteringEngine fastEngine = new ClusteringEngineFactory(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new SameChargePredicate(),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT,
+                ClusteringEngineOptions.builder().fastMode(true).build()).createEngine();
+
+        int nSpectra = singleClusters.size();
+        ICluster[] fastResult = fastEngine.clusterSpectra(copies);
+
+        // no spectrum may get lost
+        Assert.assertEquals(nSpectra, Arrays.stream(fastResult).mapToInt(ICluster::getClusteredSpectraCount).sum());
+        Assert.assertTrue(fastResult.length < nSpectra);
+
+        for (int i = 1; i < fastResult.length; i++) {
+            Assert.assertTrue(fastResult[i - 1].getPrecursorMz() <= fastResult[i].getPrecursorMz());
+        }
+    }
+
     @Test
     public void localTestSyntheticPeptides() throws Exception {
         if (!runLocalTests) {
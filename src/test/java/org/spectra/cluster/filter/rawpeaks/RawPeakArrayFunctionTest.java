@@ -0,0 +1,117 @@
+package org.spectra.cluster.filter.rawpeaks;
+
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import io.github.bigbio.pgatk.io.mgf.MgfIterableReader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.model.spectra.RawSpectrum;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+
+public class RawPeakArrayFunctionTest {
+    private List<Spectrum> allSpectra = new ArrayList<>(100);
+
+    @Before
+    public void setUp() throws Exception {
+        URI uri = Objects.requireNonNull(getClass().getClassLoader().getResource("single-spectra.mgf")).toURI();
+        MgfIterableReader mgfFile = new MgfIterableReader(new File(uri), true, false, true);
+
+        while (mgfFile.hasNext()) {
+            allSpectra.add(mgfFile.next());
+        }
+    }
+
+    @Test
+    public void testKeepHighestPeaks() {
+        Map<Double, Double> peaks = new HashMap<>();
+        peaks.put(1.0, 100.0);
+        peaks.put(2.0, 10.0);
+        peaks.put(10.0, 100.0);
+        peaks.put(15.0, 50.0);
+        peaks.put(100.0, 20.0);
+        peaks.put(110.0, 0.01);
+
+        RawSpectrum spectrum = RawSpectrum.fromPeaks(null, 0, 0, peaks);
+        RawSpectrum filtered = new KeepNHighestRawPeaks(3).filter(spectrum);
+
+        // the peaks remain sorted by m/z
+        Assert.assertArrayEquals(new double[]{1.0, 10.0, 15.0}, filtered.getMzValues(), 0);
+        Assert.assertArrayEquals(new double[]{100.0, 100.0, 50.0}, filtered.getIntensityValues(), 0);
+    }
+
+    @Test
+    public void testDuplicateMzValues() {
+        // duplicate m/z values keep the last intensity, as in a peak map
+        RawSpectrum sorted = RawSpectrum.fromArrays(null, 0, 0,
+                new double[]{1.0, 2.0, 2.0, 3.0}, new double[]{10.0, 20.0, 30.0, 40.0});
+        Assert.assertArrayEquals(new double[]{1.0, 2.0, 3.0}, sorted.getMzValues(), 0);
+        Assert.assertArrayEquals(new double[]{10.0, 30.0, 40.0}, sorted.getIntensityValues(), 0);
+
+        RawSpectrum unsorted = RawSpectrum.fromArrays(null, 0, 0,
+                new double[]{3.0, 2.0, 1.0, 2.0}, new double[]{40.0, 20.0, 10.0, 30.0});
+        Assert.assertArrayEquals(new double[]{1.0, 2.0, 3.0}, unsorted.getMzValues(), 0);
+        Assert.assertArrayEquals(new double[]{10.0, 30.0, 40.0}, unsorted.getIntensityValues(), 0);
+    }
+
+    @Test
+    public void testImpossiblyHighPeaksWithoutCharge() {
+        Map<Double, Double> peaks = new HashMap<>();
+        peaks.put(100.0, 1.0);
+        peaks.put(1000.0, 1.0);
+
+        // without a charge the maximum m/z is unknown
+        RawSpectrum filtered = new RemoveImpossiblyHighPeaksFunction().filter(RawSpectrum.fromPeaks(null, 400, 0, peaks));
+        Assert.assertEquals(2, filtered.size());
+
+        filtered = new RemoveImpossiblyHighPeaksFunction().filter(RawSpectrum.fromPeaks(null, 400, 1, peaks));
+        Assert.assertEquals(1, filtered.size());
+    }
+
+    @Test
+    public void testArrayChainEqualsMapChain() {
+        IRawSpectrumFunction chain = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)))
+                .specAndThen(new DeisotoperFunction(40));
+
+        Assert.assertTrue(chain instanceof IRawPeakArrayFunction);
+
+        for (Spectrum spectrum : allSpectra) {
+            RawSpectrum filtered = ((IRawPeakArrayFunction) chain).filter(RawSpectrum.fromSpectrum(spectrum));
+            Map<Double, Double> arrayPeaks = filtered.toPeakMap();
+
+            Map<Double, Double> mapPeaks = new HashMap<>(chain.apply(spectrum).getPeakList());
+
+            Assert.assertEquals(mapPeaks, arrayPeaks);
+        }
+    }
+
+    @Test
+    public void testMapFunctionAdapter() {
+        // remove every second peak using the map based interface only
+        IRawPeakFunction mapFunction = peaks -> {
+            Map<Double, Double> filtered = new HashMap<>();
+            List<Double> mzValues = new ArrayList<>(new TreeSet<>(peaks.keySet()));
+
+            for (int i = 0; i < mzValues.size(); i += 2) {
+                filtered.put(mzValues.get(i), peaks.get(mzValues.get(i)));
+            }
+
+            return filtered;
+        };
+
+        RawSpectrum spectrum = RawSpectrum.fromSpectrum(allSpectra.get(0));
+        int before = spectrum.size();
+
+        RawSpectrum filtered = RawPeakArrayAdapter.of(mapFunction).filter(spectrum);
+
+        Assert.assertEquals((before + 1) / 2, filtered.size());
+
+        for (int i = 1; i < filtered.size(); i++) {
+            Assert.assertTrue(filtered.getMz(i) > filtered.getMz(i - 1));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.spectra.cluster.io;
+
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.cluster.ClusterStorageFactory;
+import org.spectra.cluster.io.spectra.DuplicateSpectrumCollapser;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.cluster.IClusterProperties;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.model.spectra.BinaryPeak;
+import org.spectra.cluster.model.spectra.BinarySpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class DuplicateSpectrumCollapserTest {
+    private File orgFile;
+    private File duplicatedFile;
+
+    @Before
+    public void setUp() throws Exception {
+        orgFile = new File(getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI());
+
+        // every spectrum is contained twice
+        Path duplicatedPath = Files.createTempFile("duplicated-", ".mgf");
+        Files.write(duplicatedPath, Files.readAllBytes(orgFile.toPath()));
+        Files.write(duplicatedPath, "\n".getBytes(), StandardOpenOption.APPEND);
+        Files.write(duplicatedPath, Files.readAllBytes(orgFile.toPath()), StandardOpenOption.APPEND);
+        duplicatedFile = duplicatedPath.toFile();
+        duplicatedFile.deleteOnExit();
+    }
+
+    @Test
+    public void testExactDuplicates() throws Exception {
+        int nSpectra = loadClusters(orgFile, null).size();
+
+        IMapStorage<ICluster> storage = createStorage();
+        DuplicateSpectrumCollapser collapser = new DuplicateSpectrumCollapser(DuplicateSpectrumCollapser.Mode.EXACT,
+                BasicIntegerNormalizer.MZ_CONSTANT, DuplicateSpectrumCollapser.DEFAULT_SIGNATURE_PEAKS, storage);
+
+        List<String> clusterIds = loadClusters(duplicatedFile, collapser, storage);
+
+        // at least every second copy must be collapsed
+        Assert.assertTrue(collapser.getCollapsedSpectra() >= nSpectra);
+        Assert.assertEquals(2 * nSpectra, clusterIds.size() + collapser.getCollapsedSpectra());
+        // duplicates are only merged once all clusters are stored
+        Assert.assertEquals(collapser.getCollapsedSpectra(), collapser.getPendingDuplicates());
+
+        // exact duplicates never change the precursor
+        Map<String, IClusterProperties> changedClusters = collapser.mergeDuplicates();
+        Assert.assertTrue(changedClusters.isEmpty());
+        Assert.assertEquals(0, collapser.getPendingDuplicates());
+
+        // every spectrum is part of a stored cluster
+        int nClusteredSpectra = 0;
+
+        for (String clusterId : clusterIds) {
+            ICluster cluster = storage.get(clusterId);
+            Assert.assertTrue(cluster.getClusteredSpectraCount() >= 2);
+            nClusteredSpectra += cluster.getClusteredSpectraCount();
+        }
+
+        Assert.assertEquals(2 * nSpectra, nClusteredSpectra);
+
+        storage.close();
+    }
+
+    @Test
+    public void testNearDuplicates() throws Exception {
+        IMapStorage<ICluster> exactStorage = createStorage();
+        DuplicateSpectrumCollapser exactCollapser = new DuplicateSpectrumCollapser(DuplicateSpectrumCollapser.Mode.EXACT,
+                BasicIntegerNormalizer.MZ_CONSTANT, DuplicateSpectrumCollapser.DEFAULT_SIGNATURE_PEAKS, exactStorage);
+        int nExactClusters = loadClusters(duplicatedFile, exactCollapser, exactStorage).size();
+        exactCollapser.mergeDuplicates();
+        exactStorage.close();
+
+        IMapStorage<ICluster> nearStorage = createStorage();
+        DuplicateSpectrumCollapser nearCollapser = new DuplicateSpectrumCollapser(DuplicateSpectrumCollapser.Mode.NEAR,
+                BasicIntegerNormalizer.MZ_CONSTANT, DuplicateSpectrumCollapser.DEFAULT_SIGNATURE_PEAKS, nearStorage);
+        List<String> nearClusterIds = loadClusters(duplicatedFile, nearCollapser, nearStorage);
+        int nNearClusters = nearClusterIds.size();
+
+        // changed clusters are returned with their merged properties
+        for (Map.Entry<String, IClusterProperties> changedCluster : nearCollapser.mergeDuplicates().entrySet()) {
+            Assert.assertTrue(nearClusterIds.contains(changedCluster.getKey()));
+            Assert.assertEquals(nearStorage.get(changedCluster.getKey()).getPrecursorMz(),
+                    changedCluster.getValue().getPrecursorMz());
+        }
+
+        nearStorage.close();
+
+        // exact duplicates are always also near duplicates
+        Assert.assertTrue(nNearClusters <= nExactClusters);
+        Assert.assertTrue(nearCollapser.getCollapsedSpectra() >= exactCollapser.getCollapsedSpectra());
+    }
+
+    @Test
+    public void testExactDuplicatesRequireIdenticalPeaks() throws Exception {
+        IMapStorage<ICluster> storage = createStorage();
+        DuplicateSpectrumCollapser collapser = new DuplicateSpectrumCollapser(DuplicateSpectrumCollapser.Mode.EXACT,
+                BasicIntegerNormalizer.MZ_CONSTANT, DuplicateSpectrumCollapser.DEFAULT_SIGNATURE_PEAKS, storage);
+
+        BinaryPeak[] peaks = {new BinaryPeak(100, 10), new BinaryPeak(200, 20)};
+        BinaryPeak[] otherPeaks = {new BinaryPeak(100, 10), new BinaryPeak(200, 21)};
+        BinaryPeak[] swappedPeaks = {new BinaryPeak(100, 20), new BinaryPeak(200, 10)};
+
+        Assert.assertFalse(collapser.collapse(new BinarySpectrum(1000, 2, peaks, GreedyClusteringEngine.COMPARISON_FILTER)));
+        Assert.assertTrue(collapser.collapse(new BinarySpectrum(1000, 2, peaks, GreedyClusteringEngine.COMPARISON_FILTER)));
+        Assert.assertFalse(collapser.collapse(new BinarySpectrum(1000, 2, otherPeaks, GreedyClusteringEngine.COMPARISON_FILTER)));
+        Assert.assertFalse(collapser.collapse(new BinarySpectrum(1000, 2, swappedPeaks, GreedyClusteringEngine.COMPARISON_FILTER)));
+        Assert.assertFalse(collapser.collapse(new BinarySpectrum(1000, 3, peaks, GreedyClusteringEngine.COMPARISON_FILTER)));
+        Assert.assertFalse(collapser.collapse(new BinarySpectrum(1001, 2, peaks, GreedyClusteringEngine.COMPARISON_FILTER)));
+
+        Assert.assertEquals(1, collapser.getCollapsedSpectra());
+
+        storage.close();
+    }
+
+    private IMapStorage<ICluster> createStorage() throws Exception {
+        return ClusterStorageFactory.buildTemporaryDynamicStorage(
+                Files.createTempDirectory("collapsed-clusters-").toFile(), GreedySpectralCluster.class);
+    }
+
+    private List<String> loadClusters(File file, DuplicateSpectrumCollapser collapser) throws Exception {
+        IMapStorage<ICluster> storage = createStorage();
+        List<String> clusterIds = loadClusters(file, collapser, storage);
+        storage.close();
+
+        return clusterIds;
+    }
+
+    private List<String> loadClusters(File file, DuplicateSpectrumCollapser collapser, IMapStorage<ICluster> storage)
+            throws Exception {
+        IRawSpectrumFunction loadingFilter = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)));
+
+        GreedyClusteringEngine engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        MzSpectraReader reader = new MzSpectraReader(file, new TideBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), loadingFilter,
+                GreedyClusteringEngine.COMPARISON_FILTER, engine);
+        reader.setDuplicateCollapser(collapser);
+
+        List<String> clusterIds = new ArrayList<>();
+
+        reader.readClusters(new InMemoryPropertyStorage(), 2, cluster -> {
+            try {
+                storage.put(cluster.getId(), cluster);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            clusterIds.add(cluster.getId());
+        });
+
+        return clusterIds;
+    }
+}
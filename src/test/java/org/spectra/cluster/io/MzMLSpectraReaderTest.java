@@ -0,0 +1,156 @@
+package org.spectra.cluster.io;
+
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import io.github.bigbio.pgatk.io.properties.StoredProperties;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.io.spectra.MzMLSpectraReader;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.io.spectra.ParallelMgfReader;
+import org.spectra.cluster.io.spectra.ParsedSpectrum;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * The test mzML file was created from same_sequence_cluster.mgf. It contains an
+ * additional MS1 spectrum at the beginning, zlib compressed 64-bit m/z arrays and
+ * uncompressed 32-bit intensity arrays defined through a referenceableParamGroup.
+ *
+ * @author jg
+ */
+public class MzMLSpectraReaderTest {
+    private File mzMLFile;
+    private File mgfFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mzMLFile = new File(getClass().getClassLoader().getResource("same_sequence_cluster.mzML").toURI());
+        mgfFile = new File(getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI());
+    }
+
+    private List<ParsedSpectrum> readAll(MzMLSpectraReader reader) {
+        List<ParsedSpectrum> spectra = new ArrayList<>();
+
+        while (reader.hasNext()) {
+            spectra.add((ParsedSpectrum) reader.next());
+        }
+
+        return spectra;
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        MzMLSpectraReader reader = new MzMLSpectraReader(mzMLFile, 3);
+        List<ParsedSpectrum> spectra = readAll(reader);
+        reader.close();
+
+        // the MS1 spectrum must be ignored
+        Assert.assertEquals(158, spectra.size());
+
+        ParsedSpectrum first = spectra.get(0);
+        Assert.assertEquals("controllerType=0 controllerNumber=1 scan=2", first.getId());
+        Assert.assertEquals(1, first.getIndex().longValue());
+        Assert.assertEquals(977.023010253906, first.getPrecursorMZ(), 0);
+        Assert.assertEquals(26346.642578125, first.getPrecursorIntensity(), 0);
+        Assert.assertEquals(2, first.getPrecursorCharge().intValue());
+        Assert.assertEquals("2755.54188", first.getProperties().get(StoredProperties.RETENTION_TIME));
+        Assert.assertTrue(first.getProperties().get(StoredProperties.TITLE).startsWith("20170206_QexHF1_RSLC5_old_Hela25ng_1901_03.11783.11783.2"));
+    }
+
+    @Test
+    public void testSameAsMgf() throws Exception {
+        MzMLSpectraReader reader = new MzMLSpectraReader(mzMLFile, 2);
+        List<ParsedSpectrum> mzMLSpectra = readAll(reader);
+        reader.close();
+
+        List<ParsedSpectrum> mgfSpectra = new ArrayList<>();
+
+        try (ParallelMgfReader mgfReader = new ParallelMgfReader(mgfFile, 1)) {
+            while (mgfReader.hasNextChunk()) {
+                mgfSpectra.addAll(mgfReader.nextChunk());
+            }
+        }
+
+        Assert.assertEquals(mgfSpectra.size(), mzMLSpectra.size());
+
+        for (int i = 0; i < mgfSpectra.size(); i++) {
+            ParsedSpectrum mgfSpectrum = mgfSpectra.get(i);
+            ParsedSpectrum mzMLSpectrum = mzMLSpectra.get(i);
+
+            Assert.assertEquals(mgfSpectrum.getPrecursorMZ(), mzMLSpectrum.getPrecursorMZ(), 0);
+            Assert.assertEquals(mgfSpectrum.getPrecursorCharge(), mzMLSpectrum.getPrecursorCharge());
+            // m/z values are stored as 64-bit values
+            Assert.assertArrayEquals(mgfSpectrum.getMz(), mzMLSpectrum.getMz(), 0);
+
+            // intensities are stored as 32-bit values
+            Assert.assertEquals(mgfSpectrum.getNumberOfPeaks(), mzMLSpectrum.getNumberOfPeaks());
+            for (int j = 0; j < mgfSpectrum.getNumberOfPeaks(); j++) {
+                Assert.assertEquals((float) mgfSpectrum.getIntensity()[j], mzMLSpectrum.getIntensity()[j], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws Exception {
+        MzMLSpectraReader reader = new MzMLSpectraReader(mzMLFile, 2);
+
+        Assert.assertTrue(reader.isIndexed());
+        Assert.assertEquals(159, reader.getSpectrumIds().size());
+
+        List<ParsedSpectrum> spectra = readAll(reader);
+
+        // access the spectra in reverse order
+        for (int i = spectra.size() - 1; i >= 0; i -= 17) {
+            ParsedSpectrum expected = spectra.get(i);
+            ParsedSpectrum loaded = reader.getSpectrumById(expected.getId());
+
+            Assert.assertEquals(expected.getIndex(), loaded.getIndex());
+            Assert.assertEquals(expected.getPrecursorMZ(), loaded.getPrecursorMZ(), 0);
+            Assert.assertArrayEquals(expected.getMz(), loaded.getMz(), 0);
+            Assert.assertArrayEquals(expected.getIntensity(), loaded.getIntensity(), 0);
+        }
+
+        // MS1 spectra are available through random access
+        ParsedSpectrum ms1Spectrum = reader.getSpectrumById(reader.getSpectrumIds().get(0));
+        Assert.assertEquals(3, ms1Spectrum.getNumberOfPeaks());
+        Assert.assertEquals("30.0", ms1Spectrum.getProperties().get(StoredProperties.RETENTION_TIME));
+
+        reader.close();
+    }
+
+    @Test
+    public void testMzSpectraReader() throws Exception {
+        MzSpectraReader reader = new MzSpectraReader(mzMLFile, GreedyClusteringEngine.COMPARISON_FILTER);
+        InMemoryPropertyStorage storage = new InMemoryPropertyStorage();
+
+        Iterator<IBinarySpectrum> iterator = reader.readBinarySpectraIterator(storage);
+        List<String> specIds = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            specIds.add(iterator.next().getUUI());
+        }
+
+        Assert.assertEquals(158, specIds.size());
+
+        for (String id : specIds) {
+            Assert.assertNotNull(storage.get(id, StoredProperties.TITLE));
+            Assert.assertNotNull(storage.get(id, StoredProperties.RETENTION_TIME));
+            Assert.assertTrue(storage.get(id, StoredProperties.FILE_INDEX).startsWith("controllerType=0"));
+        }
+
+        Assert.assertEquals(8, storage.getAvailableProperties().size());
+    }
+}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 /**
  * This code is licensed under the Apache License, Version 2.0 (the
@@ -144,4 +145,31 @@ public class MzSpectraReaderTest {
 
         Assert.assertEquals(1, assessor.getNumberOfComparisons(BasicIntegerNormalizer.MZ_CONSTANT * 300, 1));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParallelSpectraStream() throws Exception {
+        File testFile = new File(MzSpectraReaderTest.class.getClassLoader().getResource("same_sequence_cluster.mgf").toURI());
+
+        List<Integer> iteratorPrecursors = new ArrayList<>();
+        Iterator<IBinarySpectrum> iterator = new MzSpectraReader(testFile, GreedyClusteringEngine.COMPARISON_FILTER)
+                .readBinarySpectraIterator();
+
+        while (iterator.hasNext()) {
+            iteratorPrecursors.add(iterator.next().getPrecursorMz());
+        }
+
+        InMemoryPropertyStorage storage = new InMemoryPropertyStorage();
+        List<IBinarySpectrum> spectra = new MzSpectraReader(testFile, GreedyClusteringEngine.COMPARISON_FILTER)
+                .readBinarySpectraStream(storage)
+                .parallel()
+                .collect(Collectors.toList());
+
+        Assert.assertEquals(158, spectra.size());
+        // the parallel stream must retain the order
+        Assert.assertEquals(iteratorPrecursors, spectra.stream().map(IBinarySpectrum::getPrecursorMz).collect(Collectors.toList()));
+
+        for (IBinarySpectrum spectrum : spectra) {
+            Assert.assertNotNull("Missing title for " + spectrum.getUUI(), storage.get(spectrum.getUUI(), "spectrum title"));
+        }
+    }
+}
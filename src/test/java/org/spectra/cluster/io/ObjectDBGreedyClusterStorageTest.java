@@ -0,0 +1,50 @@
+package org.spectra.cluster.io;
+
+import io.github.bigbio.pgatk.io.objectdb.ObjectsDB;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ObjectDBGreedyClusterStorageTest {
+    @Test
+    public void testReadPreviousClusters() throws Exception {
+        File clusterFile = new File(getClass().getClassLoader().getResource("previous-clusters.zcl").toURI());
+
+        // the file was written by an earlier version, the copy keeps the resource unchanged
+        Path dbFile = Files.createTempDirectory("clusters-").resolve(clusterFile.getName());
+        Files.copy(clusterFile.toPath(), dbFile);
+
+        ObjectDBGreedyClusterStorage clusterStorage = new ObjectDBGreedyClusterStorage(
+                new ObjectsDB(dbFile.toAbsolutePath().toString(), false));
+        Set<String> spectrumIds = new HashSet<>();
+        int nClusters = 0;
+
+        while (clusterStorage.hasNext()) {
+            GreedySpectralCluster cluster = (GreedySpectralCluster) clusterStorage.next();
+            nClusters++;
+
+            // these clusters were stored before the number of spectra was kept
+            Assert.assertTrue(cluster.getClusteredSpectraCount() > 0);
+            Assert.assertEquals(cluster.getClusteredSpectraIds().size(), cluster.getClusteredSpectraCount());
+            Assert.assertTrue(cluster.getPrecursorMz() > 0);
+            Assert.assertTrue(cluster.getPrecursorCharge() > 0);
+            Assert.assertTrue(cluster.getConsensusSpectrum().getNumberOfPeaks() > 0);
+
+            // every spectrum is only part of one cluster
+            for (String spectrumId : cluster.getClusteredSpectraIds()) {
+                Assert.assertTrue(spectrumIds.add(spectrumId));
+            }
+        }
+
+        Assert.assertTrue(nClusters > 0);
+
+        clusterStorage.close();
+    }
+}
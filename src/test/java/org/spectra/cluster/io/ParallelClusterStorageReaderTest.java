@@ -0,0 +1,96 @@
+package org.spectra.cluster.io;
+
+import io.github.bigbio.pgatk.io.objectdb.ObjectsDB;
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.io.cluster.ParallelClusterStorageReader;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+public class ParallelClusterStorageReaderTest {
+    private File clusterFile;
+    private ObjectDBGreedyClusterStorage clusterStorage;
+    private Map<String, ICluster> clustersById;
+
+    @Before
+    public void setUp() throws Exception {
+        IRawSpectrumFunction loadingFilter = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)));
+
+        GreedyClusteringEngine engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        MzSpectraReader reader = new MzSpectraReader(
+                new File(getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI()),
+                new TideBinner(), new MaxPeakNormalizer(), new BasicIntegerNormalizer(),
+                new HighestPeakPerBinFunction(), loadingFilter, GreedyClusteringEngine.COMPARISON_FILTER, engine);
+
+        Iterator<ICluster> iterator = reader.readClusterIterator(new InMemoryPropertyStorage());
+        clustersById = new HashMap<>();
+
+        while (iterator.hasNext()) {
+            ICluster cluster = iterator.next();
+            clustersById.put(cluster.getId(), cluster);
+        }
+
+        clusterFile = new File(Files.createTempDirectory("clusters-").toFile(), "clustering-results.zcl");
+        clusterStorage = new ObjectDBGreedyClusterStorage(new ObjectsDB(clusterFile.getParent(), clusterFile.getName()));
+        clusterStorage.addGreedySpectralClusters(clustersById.values().toArray(new ICluster[0]));
+        clusterStorage.flush();
+    }
+
+    @Test
+    public void testReadAllClusters() throws Exception {
+        Set<String> loadedIds = new HashSet<>();
+        int nBatches = 0;
+
+        try (ParallelClusterStorageReader reader = new ParallelClusterStorageReader(clusterFile, clusterStorage, 3, 20)) {
+            Assert.assertEquals(158, reader.getNumberOfClusters());
+            Assert.assertEquals(8, reader.getNumberOfBatches());
+
+            while (reader.hasNextBatch()) {
+                List<ICluster> batch = reader.nextBatch();
+                nBatches++;
+
+                for (ICluster loadedCluster : batch) {
+                    ICluster orgCluster = clustersById.get(loadedCluster.getId());
+
+                    Assert.assertNotNull(orgCluster);
+                    Assert.assertTrue(loadedIds.add(loadedCluster.getId()));
+                    // the stored consensus spectrum is re-used
+                    Assert.assertEquals(orgCluster.getConsensusSpectrum().getNumberOfPeaks(),
+                            loadedCluster.getConsensusSpectrum().getNumberOfPeaks());
+                    Assert.assertEquals(orgCluster.getClusteredSpectraCount(), loadedCluster.getClusteredSpectraCount());
+                    Assert.assertEquals(orgCluster.getClusteredSpectraIds(), loadedCluster.getClusteredSpectraIds());
+                }
+            }
+
+            Assert.assertEquals(158, reader.getClustersReturned());
+        }
+
+        Assert.assertEquals(8, nBatches);
+        Assert.assertEquals(clustersById.keySet(), loadedIds);
+
+        clusterStorage.close();
+    }
+}
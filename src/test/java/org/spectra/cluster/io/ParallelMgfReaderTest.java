@@ -0,0 +1,196 @@
+package org.spectra.cluster.io;
+
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import io.github.bigbio.pgatk.io.mgf.MgfIterableReader;
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import io.github.bigbio.pgatk.io.properties.StoredProperties;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.engine.IClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.KeepNHighestRawPeaks;
+import org.spectra.cluster.filter.rawpeaks.RawPeaksWrapperFunction;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.io.spectra.ParallelMgfReader;
+import org.spectra.cluster.io.spectra.ParsedSpectrum;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * @author jg
+ */
+public class ParallelMgfReaderTest {
+    private File testFile;
+
+    @Before
+    public void setUp() throws Exception {
+        testFile = new File(getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI());
+    }
+
+    private List<ParsedSpectrum> readAll(int nThreads, int chunkSize) throws Exception {
+        List<ParsedSpectrum> spectra = new ArrayList<>();
+
+        try (ParallelMgfReader reader = new ParallelMgfReader(testFile, nThreads, chunkSize)) {
+            while (reader.hasNextChunk()) {
+                spectra.addAll(reader.nextChunk());
+            }
+
+            Assert.assertEquals(spectra.size(), reader.getSpectraReturned());
+        }
+
+        return spectra;
+    }
+
+    @Test
+    public void testReadInChunks() throws Exception {
+        try (ParallelMgfReader reader = new ParallelMgfReader(testFile, 4, 4096)) {
+            Assert.assertTrue(reader.getNumberOfChunks() > 10);
+        }
+
+        List<ParsedSpectrum> spectra = readAll(4, 4096);
+
+        Assert.assertEquals(158, spectra.size());
+
+        int nIdentified = 0;
+        int[] nSpectraPerCharge = new int[4];
+
+        for (int i = 0; i < spectra.size(); i++) {
+            ParsedSpectrum spectrum = spectra.get(i);
+
+            // the index must be the position in the file
+            Assert.assertEquals(i, spectrum.getIndex().longValue());
+            Assert.assertEquals("index=" + i, spectrum.getId());
+            Assert.assertNotNull(spectrum.getPrecursorMZ());
+            nSpectraPerCharge[spectrum.getPrecursorCharge()]++;
+            Assert.assertTrue(spectrum.getNumberOfPeaks() > 0);
+            Assert.assertNotNull(spectrum.getProperties().get(StoredProperties.TITLE));
+            Assert.assertNotNull(spectrum.getProperties().get(StoredProperties.RETENTION_TIME));
+
+            if (spectrum.getProperties().containsKey(StoredProperties.SEQUENCE)) {
+                nIdentified++;
+            }
+        }
+
+        Assert.assertEquals(136, nIdentified);
+        Assert.assertEquals(54, nSpectraPerCharge[2]);
+        Assert.assertEquals(104, nSpectraPerCharge[3]);
+
+        ParsedSpectrum first = spectra.get(0);
+        Assert.assertEquals(977.023010253906, first.getPrecursorMZ(), 0);
+        Assert.assertEquals(26346.642578125, first.getPrecursorIntensity(), 0);
+        Assert.assertEquals(136.0754547, first.getMz()[0], 0);
+        Assert.assertEquals(158.1593780518, first.getIntensity()[0], 0);
+        Assert.assertEquals("+42.011EVQLVETGGGLIQPGGSLR", first.getProperties().get(StoredProperties.SEQUENCE));
+        Assert.assertEquals(2, first.getPrecursorCharge().intValue());
+    }
+
+    @Test
+    public void testGlobalCharge() throws Exception {
+        testFile = new File(getClass().getClassLoader().getResource("global_charge.mgf").toURI());
+
+        try (ParallelMgfReader reader = new ParallelMgfReader(testFile, 2, 100)) {
+            Assert.assertEquals(3, reader.getGlobalCharge().intValue());
+            Assert.assertEquals(3, reader.getNumberOfChunks());
+        }
+
+        List<ParsedSpectrum> spectra = readAll(2, 100);
+
+        Assert.assertEquals(3, spectra.size());
+        // spectra without a charge use the global one
+        Assert.assertEquals(3, spectra.get(0).getPrecursorCharge().intValue());
+        Assert.assertEquals(2, spectra.get(1).getPrecursorCharge().intValue());
+        Assert.assertEquals(3, spectra.get(2).getPrecursorCharge().intValue());
+
+        // the global parameters are not stored as spectrum properties
+        Assert.assertEquals("id=1,sequence=A", spectra.get(0).getProperties().get(StoredProperties.TITLE));
+        Assert.assertEquals(1, spectra.get(0).getProperties().size());
+        Assert.assertEquals(1250.5, spectra.get(2).getPrecursorIntensity(), 0);
+    }
+
+    @Test
+    public void testNoGlobalCharge() throws Exception {
+        try (ParallelMgfReader reader = new ParallelMgfReader(testFile, 1)) {
+            Assert.assertNull(reader.getGlobalCharge());
+        }
+    }
+
+    @Test
+    public void testChunkSizeIndependence() throws Exception {
+        List<ParsedSpectrum> singleChunk = readAll(1, ParallelMgfReader.DEFAULT_CHUNK_SIZE);
+        List<ParsedSpectrum> manyChunks = readAll(3, 1000);
+
+        Assert.assertEquals(singleChunk.size(), manyChunks.size());
+
+        for (int i = 0; i < singleChunk.size(); i++) {
+            Assert.assertEquals(singleChunk.get(i).getProperties(), manyChunks.get(i).getProperties());
+            Assert.assertArrayEquals(singleChunk.get(i).getMz(), manyChunks.get(i).getMz(), 0);
+            Assert.assertArrayEquals(singleChunk.get(i).getIntensity(), manyChunks.get(i).getIntensity(), 0);
+        }
+    }
+
+    @Test
+    public void testSameAsMgfIterableReader() throws Exception {
+        List<ParsedSpectrum> spectra = readAll(2, 8192);
+        MgfIterableReader mgfReader = new MgfIterableReader(testFile, true, true, true);
+
+        int index = 0;
+
+        while (mgfReader.hasNext()) {
+            Spectrum expected = mgfReader.next();
+            ParsedSpectrum spectrum = spectra.get(index++);
+
+            Assert.assertEquals(expected.getPrecursorMZ(), spectrum.getPrecursorMZ(), 0);
+            Assert.assertEquals(expected.getPrecursorCharge(), spectrum.getPrecursorCharge());
+            Assert.assertEquals(expected.getPeakList(), spectrum.getPeakList());
+        }
+
+        mgfReader.close();
+
+        Assert.assertEquals(spectra.size(), index);
+    }
+
+    @Test
+    public void testReadClusters() throws Exception {
+        IClusteringEngine engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        MzSpectraReader reader = new MzSpectraReader(new TideBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(),
+                new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)),
+                GreedyClusteringEngine.COMPARISON_FILTER, engine, testFile);
+
+        InMemoryPropertyStorage storage = new InMemoryPropertyStorage();
+        List<ICluster> clusters = new ArrayList<>();
+
+        reader.readClusters(storage, 4, clusters::add);
+
+        Assert.assertEquals(158, clusters.size());
+        Assert.assertEquals(9, storage.getAvailableProperties().size());
+
+        for (int i = 0; i < clusters.size(); i++) {
+            String spectrumId = clusters.get(i).getClusteredSpectraIds().iterator().next();
+            Assert.assertEquals("index=" + i, storage.get(spectrumId, StoredProperties.FILE_INDEX));
+        }
+    }
+}
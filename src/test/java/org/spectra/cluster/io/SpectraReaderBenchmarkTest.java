@@ -0,0 +1,122 @@
+package org.spectra.cluster.io;
+
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.engine.IClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This code is licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ *
+ * Compares the loading throughput of the MGF and mzML path. The same 158 spectra
+ * are loaded from same_sequence_cluster.mgf and same_sequence_cluster.mzML using
+ * the complete loading pipeline (filters, normalization, property storage).
+ *
+ * @author jg
+ */
+public class SpectraReaderBenchmarkTest {
+    private static final int ITERATIONS = 200;
+    private static final int N_THREADS = 4;
+
+    private File mgfFile;
+    private File mzMLFile;
+    private IClusteringEngine engine;
+    private IRawSpectrumFunction loadingFilter;
+
+    @Before
+    public void setUp() throws Exception {
+        mgfFile = new File(getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI());
+        mzMLFile = new File(getClass().getClassLoader().getResource("same_sequence_cluster.mzML").toURI());
+
+        engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        loadingFilter = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)));
+    }
+
+    private MzSpectraReader createReader(File file) throws Exception {
+        return new MzSpectraReader(new TideBinner(), new MaxPeakNormalizer(), new BasicIntegerNormalizer(),
+                new HighestPeakPerBinFunction(), loadingFilter, GreedyClusteringEngine.COMPARISON_FILTER,
+                engine, file);
+    }
+
+    @Ignore
+    @Test
+    public void benchmarkLoading() throws Exception {
+        // warm up
+        loadWithIterator(mgfFile, 10);
+        loadInParallel(mgfFile, 10);
+        loadInParallel(mzMLFile, 10);
+
+        long time = System.currentTimeMillis();
+        long nSpectra = loadWithIterator(mgfFile, ITERATIONS);
+        printThroughput("MGF (MgfIterableReader)", nSpectra, System.currentTimeMillis() - time);
+
+        time = System.currentTimeMillis();
+        nSpectra = loadInParallel(mgfFile, ITERATIONS);
+        printThroughput("MGF (ParallelMgfReader)", nSpectra, System.currentTimeMillis() - time);
+
+        time = System.currentTimeMillis();
+        long nMzMLSpectra = loadInParallel(mzMLFile, ITERATIONS);
+        printThroughput("mzML (MzMLSpectraReader)", nMzMLSpectra, System.currentTimeMillis() - time);
+
+        Assert.assertEquals(nSpectra, nMzMLSpectra);
+    }
+
+    private long loadWithIterator(File file, int iterations) throws Exception {
+        long nSpectra = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            Iterator<ICluster> iterator = createReader(file).readClusterIterator(new InMemoryPropertyStorage());
+
+            while (iterator.hasNext()) {
+                iterator.next();
+                nSpectra++;
+            }
+        }
+
+        return nSpectra;
+    }
+
+    private long loadInParallel(File file, int iterations) throws Exception {
+        AtomicLong nSpectra = new AtomicLong();
+
+        for (int i = 0; i < iterations; i++) {
+            createReader(file).readClusters(new InMemoryPropertyStorage(), N_THREADS, cluster -> nSpectra.incrementAndGet());
+        }
+
+        return nSpectra.get();
+    }
+
+    private void printThroughput(String name, long nSpectra, long millis) {
+        System.out.println(String.format("%s: %d spectra in %d ms (%.0f spectra / s)",
+                name, nSpectra, millis, nSpectra * 1000.0 / Math.max(millis, 1)));
+    }
+}
@@ -0,0 +1,115 @@
+package org.spectra.cluster.io;
+
+import io.github.bigbio.pgatk.io.mapcache.IMapStorage;
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.cluster.ClusterStorageFactory;
+import org.spectra.cluster.io.cluster.StripedClusterStorage;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class StripedClusterStorageTest {
+    private File[] scratchDirectories;
+    private ICluster[] clusters;
+
+    @Before
+    public void setUp() throws Exception {
+        scratchDirectories = new File[] {
+                Files.createTempDirectory("scratch-1-").toFile(),
+                Files.createTempDirectory("scratch-2-").toFile(),
+                Files.createTempDirectory("scratch-3-").toFile()};
+
+        IRawSpectrumFunction loadingFilter = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)));
+
+        GreedyClusteringEngine engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        MzSpectraReader reader = new MzSpectraReader(
+                new File(getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI()),
+                new TideBinner(), new MaxPeakNormalizer(), new BasicIntegerNormalizer(),
+                new HighestPeakPerBinFunction(), loadingFilter, GreedyClusteringEngine.COMPARISON_FILTER, engine);
+
+        Iterator<ICluster> iterator = reader.readClusterIterator(new InMemoryPropertyStorage());
+        List<ICluster> loadedClusters = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            loadedClusters.add(iterator.next());
+        }
+
+        clusters = loadedClusters.toArray(new ICluster[0]);
+    }
+
+    @Test
+    public void testReadWriteStripes() throws Exception {
+        IMapStorage<ICluster> storage = ClusterStorageFactory.buildTemporaryStripedStorage(
+                scratchDirectories, "loaded-clusters", GreedySpectralCluster.class);
+
+        Assert.assertTrue(storage instanceof StripedClusterStorage);
+        Assert.assertEquals(3, ((StripedClusterStorage) storage).getNumberOfStripes());
+
+        // write half of the clusters one by one and the rest as block
+        for (int i = 0; i < clusters.length / 2; i++) {
+            storage.put(clusters[i].getId(), clusters[i]);
+        }
+
+        ICluster[] remaining = new ICluster[clusters.length - clusters.length / 2];
+        System.arraycopy(clusters, clusters.length / 2, remaining, 0, remaining.length);
+        ((StripedClusterStorage) storage).putAll(remaining);
+        storage.flush();
+
+        Assert.assertEquals(158, storage.storageSize());
+
+        for (ICluster cluster : clusters) {
+            ICluster loadedCluster = storage.get(cluster.getId());
+            Assert.assertNotNull(loadedCluster);
+            Assert.assertEquals(cluster.getId(), loadedCluster.getId());
+        }
+
+        Assert.assertNull(storage.get("does-not-exist"));
+
+        // every scratch directory holds a stripe
+        for (File scratchDirectory : scratchDirectories) {
+            Assert.assertTrue(new File(scratchDirectory, "loaded-clusters").isDirectory());
+        }
+
+        // a second storage with the same name gets its own directories
+        IMapStorage<ICluster> secondStorage = ClusterStorageFactory.buildTemporaryStripedStorage(
+                scratchDirectories, "loaded-clusters", GreedySpectralCluster.class);
+
+        for (File scratchDirectory : scratchDirectories) {
+            Assert.assertTrue(new File(scratchDirectory, "loaded-clusters-1").isDirectory());
+        }
+
+        secondStorage.close();
+        storage.close();
+
+        // the stripes are removed on close
+        for (File scratchDirectory : scratchDirectories) {
+            Assert.assertEquals(0, scratchDirectory.list().length);
+            Files.delete(scratchDirectory.toPath());
+        }
+    }
+}
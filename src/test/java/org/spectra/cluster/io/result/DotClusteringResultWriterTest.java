@@ -0,0 +1,132 @@
+package org.spectra.cluster.io.result;
+
+import io.github.bigbio.pgatk.io.objectdb.LongObject;
+import io.github.bigbio.pgatk.io.objectdb.ObjectsDB;
+import io.github.bigbio.pgatk.io.properties.IPropertyStorage;
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.consensus.AverageConsensusSpectrumBuilder;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+import org.spectra.cluster.util.ClusteringParameters;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+
+public class DotClusteringResultWriterTest {
+    private Path testDir;
+    private IPropertyStorage propertyStorage;
+    private ObjectDBGreedyClusterStorage clusterStorage;
+    private int nClusters;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("clusters-");
+        propertyStorage = new InMemoryPropertyStorage();
+
+        IRawSpectrumFunction loadingFilter = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)));
+
+        GreedyClusteringEngine engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        File mgfFile = new File(getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI());
+
+        MzSpectraReader reader = new MzSpectraReader(new TideBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), loadingFilter,
+                GreedyClusteringEngine.COMPARISON_FILTER, engine, mgfFile);
+
+        Iterator<ICluster> iterator = reader.readClusterIterator(propertyStorage);
+
+        Path clusteringResult = Paths.get(testDir.toString(), "clustering_result.cls");
+        clusterStorage = new ObjectDBGreedyClusterStorage(new ObjectsDB(clusteringResult.toString(), true));
+        nClusters = 0;
+
+        while (iterator.hasNext()) {
+            GreedySpectralCluster c = (GreedySpectralCluster) iterator.next();
+            clusterStorage.addGreedySpectralCluster(LongObject.asLongHash(c.getId()), c);
+            nClusters++;
+        }
+
+        clusterStorage.writeDBMode();
+        clusterStorage.flush();
+    }
+
+    @Test
+    public void testDotClusteringWriting() throws Exception {
+        Path resultFile = Paths.get(testDir.toString(), "clusters.clustering");
+
+        DotClusteringResultWriter writer = new DotClusteringResultWriter(
+                new AverageConsensusSpectrumBuilder(new ClusteringParameters()), 3, 7);
+        writer.writeResult(resultFile, clusterStorage, propertyStorage);
+
+        Assert.assertTrue(Files.exists(resultFile));
+
+        List<String> lines = Files.readAllLines(resultFile);
+        Assert.assertEquals("algorithm=spectra-cluster v2", lines.get(0));
+
+        long nClusterLines = lines.stream().filter(l -> l.equals("=Cluster=")).count();
+        long nSpecLines = lines.stream().filter(l -> l.startsWith("SPEC\t")).count();
+
+        Assert.assertEquals(nClusters, nClusterLines);
+        Assert.assertEquals(158, nSpecLines);
+
+        // every spectrum is loaded as a single cluster
+        int clusterStart = lines.indexOf("=Cluster=");
+        Assert.assertTrue(lines.get(clusterStart + 2).startsWith("av_precursor_mz="));
+        Assert.assertTrue(lines.get(clusterStart + 4).startsWith("sequence=["));
+        Assert.assertTrue(lines.get(clusterStart + 5).startsWith("consensus_mz="));
+        Assert.assertTrue(lines.get(clusterStart + 6).startsWith("consensus_intens="));
+
+        String[] specFields = lines.get(clusterStart + 7).split("\t");
+        Assert.assertEquals(10, specFields.length);
+        Assert.assertTrue(specFields[1].startsWith("#file="));
+        Assert.assertTrue(specFields[9].startsWith("{") && specFields[9].endsWith("}"));
+
+        // the precursor m/z is written as the actual m/z value
+        double precursorMz = Double.parseDouble(lines.get(clusterStart + 2).substring("av_precursor_mz=".length()));
+        Assert.assertTrue(precursorMz > 900 && precursorMz < 1000);
+    }
+
+    @Test
+    public void testBatchingIndependence() throws Exception {
+        Path singleBatchFile = Paths.get(testDir.toString(), "single.clustering");
+        Path manyBatchesFile = Paths.get(testDir.toString(), "many.clustering");
+
+        new DotClusteringResultWriter(new AverageConsensusSpectrumBuilder(new ClusteringParameters()), 1, 1_000)
+                .writeResult(singleBatchFile, new ObjectDBGreedyClusterStorage(clusterStorage.getObjectsDB()), propertyStorage);
+        new DotClusteringResultWriter(new AverageConsensusSpectrumBuilder(new ClusteringParameters()), 4, 3)
+                .writeResult(manyBatchesFile, new ObjectDBGreedyClusterStorage(clusterStorage.getObjectsDB()), propertyStorage);
+
+        Assert.assertEquals(Files.readAllLines(singleBatchFile), Files.readAllLines(manyBatchesFile));
+    }
+
+    @Test(expected = Exception.class)
+    public void testExistingFile() throws Exception {
+        Path resultFile = Files.createFile(Paths.get(testDir.toString(), "existing.clustering"));
+
+        new DotClusteringResultWriter(new AverageConsensusSpectrumBuilder(new ClusteringParameters()), 1)
+                .writeResult(resultFile, clusterStorage, propertyStorage);
+    }
+}
@@ -0,0 +1,108 @@
+package org.spectra.cluster.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.predicates.IComparisonPredicate;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.stream.IntStream;
+
+public class MetricsRegistryTest {
+    @Before
+    public void setUp() {
+        MetricsRegistry.reset();
+    }
+
+    @After
+    public void tearDown() {
+        MetricsRegistry.setEnabled(false);
+        MetricsRegistry.reset();
+    }
+
+    @Test
+    public void testDisabled() {
+        MetricsRegistry.setEnabled(false);
+
+        Counter counter = MetricsRegistry.counter("test.disabled");
+        counter.increment();
+        counter.add(10);
+        MetricsRegistry.histogram("test.disabled_histogram").record(5);
+
+        Assert.assertEquals(0, counter.getCount());
+        Assert.assertEquals(0, MetricsRegistry.histogram("test.disabled_histogram").getCount());
+
+        // disabled predicates are not wrapped
+        IComparisonPredicate<Integer> predicate = (o1, o2) -> o1.equals(o2);
+        Assert.assertSame(predicate, predicate.metered("test"));
+    }
+
+    @Test
+    public void testParallelCounting() {
+        MetricsRegistry.setEnabled(true);
+
+        Counter counter = MetricsRegistry.counter("test.parallel");
+        Assert.assertSame(counter, MetricsRegistry.counter("test.parallel"));
+
+        IntStream.range(0, 100_000).parallel().forEach(i -> counter.increment());
+
+        Assert.assertEquals(100_000, counter.getCount());
+    }
+
+    @Test
+    public void testHistogram() {
+        MetricsRegistry.setEnabled(true);
+
+        Histogram histogram = MetricsRegistry.histogram("test.histogram");
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(5050, histogram.getSum());
+        Assert.assertEquals(100, histogram.getMax());
+        Assert.assertEquals(50.5, histogram.getMean(), 0.0001);
+
+        // values 32 - 63 are in the bucket containing the median
+        Assert.assertEquals(63, histogram.getApproximateQuantile(0.5));
+        Assert.assertEquals(100, histogram.getApproximateQuantile(0.99));
+    }
+
+    @Test
+    public void testMeteredPredicate() {
+        MetricsRegistry.setEnabled(true);
+
+        IComparisonPredicate<Integer> predicate = ((IComparisonPredicate<Integer>) Integer::equals).metered("test_equal");
+
+        predicate.test(1, 1);
+        predicate.test(1, 2);
+        predicate.test(2, 3);
+
+        Assert.assertEquals(3, MetricsRegistry.counter("predicate.test_equal.tested").getCount());
+        Assert.assertEquals(2, MetricsRegistry.counter("predicate.test_equal.rejected").getCount());
+    }
+
+    @Test
+    public void testJsonAndJmx() throws Exception {
+        MetricsRegistry.setEnabled(true);
+        MetricsRegistry.counter("test.json").add(42);
+        MetricsRegistry.histogram("test.json_histogram").record(3);
+
+        String json = MetricsRegistry.toJson();
+
+        Assert.assertTrue(json.contains("\"test.json\": 42"));
+        Assert.assertTrue(json.contains("\"test.json_histogram\": {\"count\": 1, \"sum\": 3, \"mean\": 3.000"));
+
+        MetricsRegistry.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MetricsRegistry.MBEAN_NAME);
+
+        Assert.assertEquals(42L, server.getAttribute(name, "test.json"));
+        Assert.assertEquals(1L, server.getAttribute(name, "test.json_histogram.count"));
+        Assert.assertEquals(true, server.getAttribute(name, "Enabled"));
+    }
+}
@@ -0,0 +1,134 @@
+package org.spectra.cluster.model.cluster;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.predicates.IArenaComparisonPredicate;
+import org.spectra.cluster.predicates.IComparisonPredicate;
+import org.spectra.cluster.predicates.SameChargePredicate;
+import org.spectra.cluster.predicates.ShareNComparisonPeaksPredicate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+public class ClusterArenaTest {
+    private List<ICluster> clusters;
+
+    @Before
+    public void setUp() throws Exception {
+        File testFile = new File(Objects.requireNonNull(ClusterArenaTest.class.getClassLoader().getResource("same_sequence_cluster.mgf")).toURI());
+        MzSpectraReader reader = new MzSpectraReader(testFile, GreedyClusteringEngine.COMPARISON_FILTER);
+
+        Iterator<IBinarySpectrum> spectrumIterator = reader.readBinarySpectraIterator();
+        clusters = new ArrayList<>();
+
+        while (spectrumIterator.hasNext()) {
+            IBinarySpectrum spectrum = spectrumIterator.next();
+            GreedySpectralCluster cluster = new GreedySpectralCluster(
+                    new GreedyConsensusSpectrum(spectrum.getUUI(), GreedyClusteringEngine.COMPARISON_FILTER));
+            cluster.addSpectra(spectrum);
+            clusters.add(cluster);
+        }
+    }
+
+    @Test
+    public void testStoredProperties() {
+        ClusterArena arena = new ClusterArena(clusters.size());
+
+        for (int i = 0; i < clusters.size(); i++) {
+            arena.put(i, clusters.get(i));
+        }
+
+        for (int i = 0; i < clusters.size(); i++) {
+            Assert.assertSame(clusters.get(i), arena.getCluster(i));
+            Assert.assertEquals(clusters.get(i).getPrecursorMz(), arena.getPrecursorMz(i));
+            Assert.assertEquals((int) clusters.get(i).getPrecursorCharge(), arena.getPrecursorCharge(i));
+            Assert.assertEquals(1, arena.getClusteredSpectraCount(i));
+
+            int[] mz = arena.getComparisonPeakMz(i);
+            Assert.assertEquals(clusters.get(i).getConsensusSpectrum().getComparisonFilteredPeaks().size(), mz.length);
+
+            for (int j = 1; j < mz.length; j++) {
+                Assert.assertTrue(mz[j - 1] < mz[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testPredicatesMatchClusters() {
+        // a capacity of 2 forces the peak memory to grow
+        ClusterArena arena = new ClusterArena(2);
+        IComparisonPredicate<ICluster> predicate = new SameChargePredicate().and(new ShareNComparisonPeaksPredicate(5));
+        int nPassed = 0;
+
+        Assert.assertTrue(predicate instanceof IArenaComparisonPredicate);
+
+        for (int i = 1; i < clusters.size(); i++) {
+            arena.put(0, clusters.get(i - 1));
+            arena.put(1, clusters.get(i));
+
+            boolean expected = predicate.test(clusters.get(i - 1), clusters.get(i));
+            Assert.assertEquals(expected, IArenaComparisonPredicate.test(predicate, arena, 0, 1));
+
+            if (expected)
+                nPassed++;
+        }
+
+        Assert.assertTrue(nPassed > 0);
+    }
+
+    @Test
+    public void testUpdatedCluster() {
+        ClusterArena arena = new ClusterArena(2);
+        arena.put(0, clusters.get(0));
+        arena.put(1, clusters.get(1));
+
+        Assert.assertEquals(clusters.get(0).getConsensusSpectrum().getComparisonFilteredPeaks().size(),
+                arena.getComparisonPeakMz(0).length);
+
+        clusters.get(0).mergeCluster(clusters.get(1));
+        arena.put(0, clusters.get(0));
+
+        Assert.assertEquals(2, arena.getClusteredSpectraCount(0));
+        Assert.assertEquals(clusters.get(0).getPrecursorMz(), arena.getPrecursorMz(0));
+        Assert.assertEquals(clusters.get(0).getConsensusSpectrum().getComparisonFilteredPeaks().size(),
+                arena.getComparisonPeakMz(0).length);
+        Assert.assertTrue(arena.countSharedPeaks(0, 1, 1) <= 1);
+    }
+
+    @Test
+    public void testReset() {
+        ClusterArena arena = new ClusterArena(2);
+        arena.put(0, clusters.get(0));
+        arena.put(1, clusters.get(1));
+        arena.getComparisonPeakMz(0);
+
+        long allocatedBytes = arena.getAllocatedBytes();
+
+        // a smaller bin re-uses the arrays
+        arena.reset(1);
+        Assert.assertNull(arena.getCluster(0));
+        Assert.assertEquals(allocatedBytes, arena.getAllocatedBytes());
+
+        arena.put(0, clusters.get(2));
+        Assert.assertEquals(clusters.get(2).getConsensusSpectrum().getComparisonFilteredPeaks().size(),
+                arena.getComparisonPeakMz(0).length);
+
+        // a larger bin grows them
+        arena.reset(clusters.size());
+        Assert.assertTrue(arena.capacity() >= clusters.size());
+
+        for (int i = 0; i < clusters.size(); i++) {
+            arena.put(i, clusters.get(i));
+        }
+
+        Assert.assertEquals(clusters.get(clusters.size() - 1).getPrecursorMz(), arena.getPrecursorMz(clusters.size() - 1));
+    }
+}
@@ -8,6 +8,7 @@ import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
 import org.spectra.cluster.model.spectra.IBinarySpectrum;
 
 import java.io.File;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -82,4 +83,92 @@ public class GreedySpectralClusterTest {
         Assert.assertEquals(precursorMz, properties.getPrecursorMz());
         Assert.assertEquals(cluster.getPrecursorCharge(), properties.getPrecursorCharge());
     }
+
+    @Test
+    public void testLazySpectrumIds() throws Exception {
+        File testFile = new File(Objects.requireNonNull(GreedySpectralClusterTest.class.getClassLoader().getResource("same_sequence_cluster.mgf")).toURI());
+        MzSpectraReader reader = new MzSpectraReader(testFile, GreedyClusteringEngine.COMPARISON_FILTER);
+
+        Iterator<IBinarySpectrum> spectrumIterator = reader.readBinarySpectraIterator();
+        List<IBinarySpectrum> spectra = new ArrayList<>();
+
+        while (spectrumIterator.hasNext()) {
+            spectra.add(spectrumIterator.next());
+        }
+
+        int half = spectra.size() / 2;
+        GreedySpectralCluster cluster1 = new GreedySpectralCluster(new GreedyConsensusSpectrum("test1", GreedyClusteringEngine.COMPARISON_FILTER));
+        cluster1.addSpectra(spectra.subList(0, half).toArray(new IBinarySpectrum[0]));
+        GreedySpectralCluster cluster2 = new GreedySpectralCluster(new GreedyConsensusSpectrum("test2", GreedyClusteringEngine.COMPARISON_FILTER));
+        cluster2.addSpectra(spectra.subList(half, spectra.size()).toArray(new IBinarySpectrum[0]));
+
+        // the engine always creates the consensus spectrum before clusters are stored
+        cluster1.getConsensusSpectrum();
+        cluster2.getConsensusSpectrum();
+
+        GreedySpectralCluster loaded1 = (GreedySpectralCluster) GreedySpectralCluster.fromBytes(cluster1.toBytes());
+        GreedySpectralCluster loaded2 = (GreedySpectralCluster) GreedySpectralCluster.fromBytes(cluster2.toBytes());
+
+        // the comparison relevant properties are available without decoding the ids
+        Assert.assertEquals(cluster1.getClusteredSpectraCount(), loaded1.getClusteredSpectraCount());
+        Assert.assertEquals(cluster1.getPrecursorMz(), loaded1.getPrecursorMz());
+        Assert.assertEquals(cluster1.getPrecursorCharge(), loaded1.getPrecursorCharge());
+        Assert.assertEquals(cluster1.getConsensusSpectrum().getComparisonFilteredPeaks().keySet(),
+                loaded1.getConsensusSpectrum().getComparisonFilteredPeaks().keySet());
+        Assert.assertFalse(loaded1.isClusteredSpectraIdsDecoded());
+
+        // clusters that were not changed are written using the original bytes
+        GreedySpectralCluster reloaded1 = (GreedySpectralCluster) GreedySpectralCluster.fromBytes(loaded1.toBytes());
+        Assert.assertFalse(loaded1.isClusteredSpectraIdsDecoded());
+        Assert.assertEquals(cluster1.getClusteredSpectraIds(), reloaded1.getClusteredSpectraIds());
+        Assert.assertTrue(reloaded1.isClusteredSpectraIdsDecoded());
+
+        // merging the loaded clusters must lead to the same result
+        cluster1.mergeCluster(cluster2);
+        loaded1.mergeCluster(loaded2);
+
+        Assert.assertTrue(loaded1.isClusteredSpectraIdsDecoded());
+        Assert.assertEquals(cluster1.getClusteredSpectraCount(), loaded1.getClusteredSpectraCount());
+        Assert.assertEquals(cluster1.getClusteredSpectraIds(), loaded1.getClusteredSpectraIds());
+        Assert.assertEquals(cluster1.getPrecursorMz(), loaded1.getPrecursorMz());
+        Assert.assertEquals(cluster1.getConsensusSpectrum().getPeaks().length, loaded1.getConsensusSpectrum().getPeaks().length);
+
+        for (int i = 0; i < cluster1.getConsensusSpectrum().getPeaks().length; i++) {
+            Assert.assertEquals(cluster1.getConsensusSpectrum().getPeaks()[i].getMz(), loaded1.getConsensusSpectrum().getPeaks()[i].getMz());
+            Assert.assertEquals(cluster1.getConsensusSpectrum().getPeaks()[i].getIntensity(), loaded1.getConsensusSpectrum().getPeaks()[i].getIntensity());
+        }
+    }
+
+    @Test
+    public void testClusterStoredWithoutCount() throws Exception {
+        File testFile = new File(Objects.requireNonNull(GreedySpectralClusterTest.class.getClassLoader().getResource("same_sequence_cluster.mgf")).toURI());
+        MzSpectraReader reader = new MzSpectraReader(testFile, GreedyClusteringEngine.COMPARISON_FILTER);
+
+        Iterator<IBinarySpectrum> spectrumIterator = reader.readBinarySpectraIterator();
+        List<IBinarySpectrum> spectra = new ArrayList<>();
+
+        while (spectrumIterator.hasNext()) {
+            spectra.add(spectrumIterator.next());
+        }
+
+        GreedySpectralCluster cluster = new GreedySpectralCluster(new GreedyConsensusSpectrum("test", GreedyClusteringEngine.COMPARISON_FILTER));
+        cluster.addSpectra(spectra.toArray(new IBinarySpectrum[0]));
+        int precursorMz = cluster.getPrecursorMz();
+
+        // the ObjectsDB sets the fields directly, clusters stored by earlier versions do not contain the count
+        Field countField = GreedySpectralCluster.class.getDeclaredField("clusteredSpectraCount");
+        countField.setAccessible(true);
+        countField.setInt(cluster, 0);
+
+        Assert.assertEquals(precursorMz, cluster.getPrecursorMz());
+        Assert.assertEquals(spectra.size(), cluster.getClusteredSpectraCount());
+
+        // the count is also written when the cluster is serialized again
+        countField.setInt(cluster, 0);
+        GreedySpectralCluster loaded = (GreedySpectralCluster) GreedySpectralCluster.fromBytes(cluster.toBytes());
+
+        Assert.assertEquals(spectra.size(), loaded.getClusteredSpectraCount());
+        Assert.assertEquals(precursorMz, loaded.getPrecursorMz());
+        Assert.assertEquals(cluster.getClusteredSpectraIds(), loaded.getClusteredSpectraIds());
+    }
 }
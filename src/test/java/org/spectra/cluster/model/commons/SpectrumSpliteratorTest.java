@@ -0,0 +1,261 @@
+package org.spectra.cluster.model.commons;
+
+import io.github.bigbio.pgatk.io.common.DefaultSpectrum;
+import io.github.bigbio.pgatk.io.common.MzIterableReader;
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spectra.cluster.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Tests the SpectrumSpliterator using in-memory readers.
+ *
+ * @author jg
+ */
+public class SpectrumSpliteratorTest {
+    @Test
+    public void testSequentialRead() {
+        SpectrumSpliterator spliterator = new SpectrumSpliterator(Arrays.asList(
+                createFile("a.mgf", 3), createFile("b.mgf", 2)), SpectrumSpliterator.HAS_PRECURSOR);
+
+        List<ITuple> tuples = new ArrayList<>();
+        while (spliterator.tryAdvance(tuples::add));
+
+        Assert.assertEquals(5, tuples.size());
+        Assert.assertEquals(Arrays.asList("a.mgf_0", "a.mgf_1", "a.mgf_2", "b.mgf_0", "b.mgf_1"), getIds(tuples));
+
+        for (ITuple tuple : tuples) {
+            Assert.assertTrue(((Spectrum) tuple.getValue()).getId().startsWith(((File) tuple.getKey()).getName()));
+        }
+
+        Assert.assertFalse(spliterator.tryAdvance(tuples::add));
+        Assert.assertEquals(0, spliterator.getInvalidSpectra());
+    }
+
+    @Test
+    public void testSplitFiles() {
+        SpectrumSpliterator spliterator = new SpectrumSpliterator(Arrays.asList(
+                createFile("a.mgf", 3), createFile("b.mgf", 3), createFile("c.mgf", 3), createFile("d.mgf", 3)),
+                SpectrumSpliterator.HAS_PRECURSOR);
+
+        // the first half of the files is handed to the prefix
+        Spliterator<ITuple> prefix = spliterator.trySplit();
+        Assert.assertNotNull(prefix);
+
+        List<ITuple> prefixTuples = new ArrayList<>();
+        prefix.forEachRemaining(prefixTuples::add);
+        Assert.assertEquals(Arrays.asList("a.mgf", "b.mgf"), getFileNames(prefixTuples));
+
+        // the open file is kept by the prefix
+        List<ITuple> remaining = new ArrayList<>();
+        Assert.assertTrue(spliterator.tryAdvance(remaining::add));
+
+        Spliterator<ITuple> secondPrefix = spliterator.trySplit();
+        Assert.assertNotNull(secondPrefix);
+
+        List<ITuple> secondPrefixTuples = new ArrayList<>();
+        secondPrefix.forEachRemaining(secondPrefixTuples::add);
+        Assert.assertEquals(Arrays.asList("c.mgf_1", "c.mgf_2"), getIds(secondPrefixTuples));
+
+        spliterator.forEachRemaining(remaining::add);
+        Assert.assertEquals(Arrays.asList("c.mgf_0", "d.mgf_0", "d.mgf_1", "d.mgf_2"), getIds(remaining));
+    }
+
+    @Test
+    public void testSplitBatches() {
+        int nSpectra = SpectrumSpliterator.BATCH_SIZE_INCREMENT * 3 + 10;
+        SpectrumSpliterator spliterator = new SpectrumSpliterator(
+                Collections.singletonList(createFile("a.mgf", nSpectra)), SpectrumSpliterator.HAS_PRECURSOR);
+
+        List<ITuple> tuples = new ArrayList<>();
+        List<Long> batchSizes = new ArrayList<>();
+        Spliterator<ITuple> batch;
+
+        while ((batch = spliterator.trySplit()) != null) {
+            batchSizes.add(batch.getExactSizeIfKnown());
+            batch.forEachRemaining(tuples::add);
+        }
+
+        // every batch is larger than the previous one
+        Assert.assertEquals(Arrays.asList((long) SpectrumSpliterator.BATCH_SIZE_INCREMENT,
+                (long) SpectrumSpliterator.BATCH_SIZE_INCREMENT * 2, 10L), batchSizes);
+        Assert.assertEquals(nSpectra, tuples.size());
+
+        for (int i = 0; i < nSpectra; i++) {
+            Assert.assertEquals("a.mgf_" + i, ((Spectrum) tuples.get(i).getValue()).getId());
+        }
+
+        Assert.assertFalse(spliterator.tryAdvance(tuples::add));
+    }
+
+    @Test
+    public void testParallelStream() {
+        List<Tuple<File, MzIterableReader>> files = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            files.add(createFile("file_" + i + ".mgf", 1000 + i));
+        }
+
+        Set<String> ids = StreamSupport.stream(new SpectrumSpliterator(files, SpectrumSpliterator.HAS_PRECURSOR), true)
+                .map(t -> ((Spectrum) t.getValue()).getId())
+                .collect(Collectors.toSet());
+
+        Assert.assertEquals(5010, ids.size());
+        Assert.assertTrue(ids.contains("file_4.mgf_1003"));
+    }
+
+    @Test
+    public void testInvalidSpectra() {
+        MetricsRegistry.reset();
+        MetricsRegistry.setEnabled(true);
+
+        try {
+            List<Spectrum> spectra = new ArrayList<>();
+            spectra.add(createSpectrum("valid_1", 500.0, 2));
+            spectra.add(createSpectrum("no_precursor", null, 2));
+            spectra.add(createSpectrum("no_charge", 500.0, null));
+            spectra.add(createSpectrum("valid_2", 600.0, 3));
+
+            SpectrumSpliterator spliterator = new SpectrumSpliterator(Arrays.asList(
+                    new Tuple<>(new File("a.mgf"), new ListReader(spectra)), createFile("b.mgf", 2)),
+                    SpectrumSpliterator.HAS_PRECURSOR);
+
+            // the invalid spectra of split spliterators are counted as well
+            Spliterator<ITuple> prefix = spliterator.trySplit();
+            List<ITuple> tuples = new ArrayList<>();
+            prefix.forEachRemaining(tuples::add);
+            spliterator.forEachRemaining(tuples::add);
+
+            Assert.assertEquals(Arrays.asList("valid_1", "no_charge", "valid_2", "b.mgf_0", "b.mgf_1"), getIds(tuples));
+            Assert.assertEquals(1, spliterator.getInvalidSpectra());
+            Assert.assertEquals(1, MetricsRegistry.counter("reader.invalid_spectra").getCount());
+
+            // spectra without charge are skipped as well
+            SpectrumSpliterator chargeSpliterator = new SpectrumSpliterator(Collections.singletonList(
+                    new Tuple<>(new File("a.mgf"), new ListReader(spectra))), SpectrumSpliterator.HAS_PRECURSOR_AND_CHARGE);
+            tuples.clear();
+            chargeSpliterator.forEachRemaining(tuples::add);
+
+            Assert.assertEquals(Arrays.asList("valid_1", "valid_2"), getIds(tuples));
+            Assert.assertEquals(2, chargeSpliterator.getInvalidSpectra());
+            Assert.assertEquals(3, MetricsRegistry.counter("reader.invalid_spectra").getCount());
+        } finally {
+            MetricsRegistry.setEnabled(false);
+            MetricsRegistry.reset();
+        }
+    }
+
+    @Test
+    public void testReaderErrorsPropagate() {
+        List<Tuple<File, MzIterableReader>> files = Arrays.asList(
+                createFile("a.mgf", 2), new Tuple<>(new File("broken.mgf"), new FailingReader()));
+
+        // sequential read
+        SpectrumSpliterator spliterator = new SpectrumSpliterator(files, SpectrumSpliterator.HAS_PRECURSOR);
+        List<ITuple> tuples = new ArrayList<>();
+
+        try {
+            spliterator.forEachRemaining(tuples::add);
+            Assert.fail("Reader error was not thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Corrupt file", e.getMessage());
+        }
+
+        Assert.assertEquals(2, tuples.size());
+
+        // read in batches
+        SpectrumSpliterator batchSpliterator = new SpectrumSpliterator(Collections.singletonList(
+                new Tuple<>(new File("broken.mgf"), new FailingReader())), SpectrumSpliterator.HAS_PRECURSOR);
+
+        try {
+            batchSpliterator.trySplit();
+            Assert.fail("Reader error was not thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Corrupt file", e.getMessage());
+        }
+
+        // parallel stream
+        try {
+            StreamSupport.stream(new SpectrumSpliterator(Arrays.asList(
+                    createFile("a.mgf", 2), new Tuple<>(new File("broken.mgf"), new FailingReader())),
+                    SpectrumSpliterator.HAS_PRECURSOR), true).count();
+            Assert.fail("Reader error was not thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Corrupt file", e.getMessage());
+        }
+    }
+
+    private static Tuple<File, MzIterableReader> createFile(String name, int nSpectra) {
+        List<Spectrum> spectra = new ArrayList<>(nSpectra);
+
+        for (int i = 0; i < nSpectra; i++) {
+            spectra.add(createSpectrum(name + "_" + i, 400.0 + i, 2));
+        }
+
+        return new Tuple<>(new File(name), new ListReader(spectra));
+    }
+
+    private static Spectrum createSpectrum(String id, Double precursorMz, Integer charge) {
+        Map<Double, Double> peaks = new HashMap<>();
+        peaks.put(100.0, 10.0);
+
+        return new DefaultSpectrum(id, 1L, charge, precursorMz, 1.0, peaks, 2, Collections.emptyList());
+    }
+
+    private static List<String> getIds(List<ITuple> tuples) {
+        return tuples.stream().map(t -> ((Spectrum) t.getValue()).getId()).collect(Collectors.toList());
+    }
+
+    private static List<String> getFileNames(List<ITuple> tuples) {
+        return tuples.stream().map(t -> ((File) t.getKey()).getName()).distinct().collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the passed spectra.
+     */
+    private static class ListReader implements MzIterableReader {
+        private final Iterator<Spectrum> iterator;
+
+        private ListReader(List<Spectrum> spectra) {
+            this.iterator = spectra.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Spectrum next() throws NoSuchElementException {
+            return iterator.next();
+        }
+
+        public void close() {
+
+        }
+    }
+
+    /**
+     * Fails when the first spectrum is read.
+     */
+    private static class FailingReader implements MzIterableReader {
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public Spectrum next() throws NoSuchElementException {
+            throw new IllegalStateException("Corrupt file");
+        }
+
+        public void close() {
+
+        }
+    }
+}
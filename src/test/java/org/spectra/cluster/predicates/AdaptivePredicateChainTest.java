@@ -0,0 +1,106 @@
+package org.spectra.cluster.predicates;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class AdaptivePredicateChainTest {
+    @Test
+    public void testReordering() {
+        IComparisonPredicate<ICluster> slowPass = (o1, o2) -> {
+            long sum = 0;
+            for (int i = 0; i < 10_000; i++) {
+                sum += i;
+            }
+            return sum > 0;
+        };
+        IComparisonPredicate<ICluster> fastReject = (o1, o2) -> false;
+
+        AdaptivePredicateChain chain = new AdaptivePredicateChain("test", 1, 100)
+                .addStage("slow_pass", slowPass)
+                .addStage("fast_reject", fastReject);
+
+        Assert.assertEquals(Arrays.asList("slow_pass", "fast_reject"), chain.getOrder());
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertFalse(chain.test(null, null));
+        }
+
+        // the rejecting predicate must now be tested first
+        Assert.assertEquals(Arrays.asList("fast_reject", "slow_pass"), chain.getOrder());
+
+        for (int i = 0; i < 50; i++) {
+            Assert.assertFalse(chain.test(null, null));
+        }
+
+        List<AdaptivePredicateChain.StageStatistics> statistics = chain.getStatistics();
+
+        Assert.assertEquals("slow_pass", statistics.get(0).getName());
+        Assert.assertEquals(100, statistics.get(0).getEvaluations());
+        Assert.assertEquals(1.0, statistics.get(0).getPassRate(), 0);
+        Assert.assertEquals(150, statistics.get(1).getEvaluations());
+        Assert.assertEquals(0.0, statistics.get(1).getPassRate(), 0);
+    }
+
+    @Test
+    public void testSameResultAsAnd() {
+        IComparisonPredicate<ICluster> first = (o1, o2) -> o1 == null;
+        IComparisonPredicate<ICluster> second = (o1, o2) -> o2 == null;
+
+        AdaptivePredicateChain chain = new AdaptivePredicateChain("test", 2, 10)
+                .addStage("first", first)
+                .addStage("second", second);
+        IComparisonPredicate<ICluster> and = first.and(second);
+
+        ICluster[] values = {null, new GreedySpectralCluster()};
+
+        for (int i = 0; i < 100; i++) {
+            for (ICluster o1 : values) {
+                for (ICluster o2 : values) {
+                    Assert.assertEquals(and.test(o1, o2), chain.test(o1, o2));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCountersCountEveryEvaluation() {
+        MetricsRegistry.reset();
+        MetricsRegistry.setEnabled(true);
+
+        try {
+            IComparisonPredicate<ICluster> pass = (o1, o2) -> true;
+            IComparisonPredicate<ICluster> reject = (o1, o2) -> false;
+
+            // only every 16th test is timed
+            AdaptivePredicateChain chain = new AdaptivePredicateChain("test_counters", 16, 1_000_000)
+                    .addStage("pass", pass)
+                    .addStage("reject", reject);
+
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertFalse(chain.test(null, null));
+            }
+
+            Assert.assertEquals(1000, MetricsRegistry.counter("predicate.test_counters.pass.tested").getCount());
+            Assert.assertEquals(1000, MetricsRegistry.counter("predicate.test_counters.pass.passed").getCount());
+            Assert.assertEquals(1000, MetricsRegistry.counter("predicate.test_counters.reject.tested").getCount());
+            Assert.assertEquals(0, MetricsRegistry.counter("predicate.test_counters.reject.passed").getCount());
+
+            // the statistics are only based on the timed sample
+            Assert.assertTrue(chain.getStatistics().get(0).getEvaluations() < 1000);
+        } finally {
+            MetricsRegistry.setEnabled(false);
+            MetricsRegistry.reset();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSamplingInterval() {
+        new AdaptivePredicateChain("test", 0, 10);
+    }
+}
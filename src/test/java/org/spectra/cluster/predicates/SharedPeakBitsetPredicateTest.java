@@ -0,0 +1,70 @@
+package org.spectra.cluster.predicates;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.model.spectra.BinaryPeak;
+import org.spectra.cluster.model.spectra.BinarySpectrum;
+import org.spectra.cluster.model.spectra.PeakBitset;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SharedPeakBitsetPredicateTest {
+    @Test
+    public void testPeakBitset() {
+        PeakBitset bitset1 = PeakBitset.fromPeaks(Arrays.asList(
+                new BinaryPeak(63, 1), new BinaryPeak(64, 1), new BinaryPeak(200, 1)));
+        PeakBitset bitset2 = PeakBitset.fromPeaks(Arrays.asList(
+                new BinaryPeak(64, 1), new BinaryPeak(200, 1), new BinaryPeak(1000, 1)));
+
+        Assert.assertEquals(3, bitset1.cardinality());
+        Assert.assertEquals(2, bitset1.countShared(bitset2, Integer.MAX_VALUE));
+        Assert.assertEquals(2, bitset2.countShared(bitset1, Integer.MAX_VALUE));
+        Assert.assertEquals(0, bitset1.countShared(PeakBitset.fromPeaks(Collections.emptyList()), Integer.MAX_VALUE));
+
+        // ranges that are too large are not represented
+        Assert.assertNull(PeakBitset.fromPeaks(Arrays.asList(
+                new BinaryPeak(1, 1), new BinaryPeak(PeakBitset.MAX_BITS + 1, 1))));
+    }
+
+    @Test
+    public void testManualSpectra() {
+        ICluster c1 = clusterForPeaklist(new BinaryPeak[] {
+                new BinaryPeak(10, 10), new BinaryPeak(20, 10), new BinaryPeak(30, 10)});
+        ICluster c2 = clusterForPeaklist(new BinaryPeak[] {
+                new BinaryPeak(10, 10), new BinaryPeak(20, 10), new BinaryPeak(30, 10)});
+        ICluster c3 = clusterForPeaklist(new BinaryPeak[] {
+                new BinaryPeak(50, 10), new BinaryPeak(60, 10), new BinaryPeak(70, 10)});
+
+        for (int minShared = 0; minShared <= 5; minShared++) {
+            SharedPeakBitsetPredicate predicate = new SharedPeakBitsetPredicate(minShared);
+            ShareNComparisonPeaksPredicate expected = new ShareNComparisonPeaksPredicate(minShared);
+
+            Assert.assertEquals(expected.test(c1, c2), predicate.test(c1, c2));
+            Assert.assertEquals(expected.test(c2, c3), predicate.test(c2, c3));
+        }
+
+        Assert.assertTrue(new SharedPeakBitsetPredicate(3).test(c1, c2));
+        Assert.assertFalse(new SharedPeakBitsetPredicate(1).test(c2, c3));
+    }
+
+    @Test
+    public void testPrecursorDistance() {
+        ICluster c1 = clusterForPeaklist(new BinaryPeak[] {new BinaryPeak(10, 10)});
+        ICluster c2 = clusterForPeaklist(new BinaryPeak[] {new BinaryPeak(10, 10)});
+
+        Assert.assertTrue(new PrecursorDistancePredicate(0).test(c1, c2));
+    }
+
+    private ICluster clusterForPeaklist(BinaryPeak[] peaklist) {
+        BinarySpectrum s1 = new BinarySpectrum("test1", 100, 1, peaklist, GreedyClusteringEngine.COMPARISON_FILTER);
+        ICluster c = new GreedySpectralCluster(new GreedyConsensusSpectrum(GreedyClusteringEngine.COMPARISON_FILTER));
+        c.addSpectra(s1);
+
+        return c;
+    }
+}
@@ -0,0 +1,192 @@
+package org.spectra.cluster.qc;
+
+import io.github.bigbio.pgatk.io.objectdb.LongObject;
+import io.github.bigbio.pgatk.io.objectdb.ObjectsDB;
+import io.github.bigbio.pgatk.io.properties.IPropertyStorage;
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.cdf.SpectraPerBinNumberComparisonAssessor;
+import org.spectra.cluster.engine.ClusteringEngineFactory;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.engine.IClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.cluster.ObjectDBGreedyClusterStorage;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.GreedySpectralCluster;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+import org.spectra.cluster.util.ClusteringParameters;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+public class StreamingQcRunnerTest {
+    private Path testDir;
+    private ICluster[] clusters;
+    private IPropertyStorage properties;
+    private ObjectDBGreedyClusterStorage clusterStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("qc-");
+        properties = new InMemoryPropertyStorage();
+
+        GreedyClusteringEngine engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        clusters = engine.clusterSpectra(loadSpectra("same_sequence_cluster.mgf", engine));
+        clusterStorage = storeClusters(clusters, "result.cls");
+    }
+
+    /**
+     * Loads the spectra of a test file as single spectrum clusters sorted by precursor m/z.
+     * The spectra's properties are stored in the test's property storage.
+     */
+    private ICluster[] loadSpectra(String resource, IClusteringEngine engine) throws Exception {
+        IRawSpectrumFunction loadingFilter = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)));
+
+        File mgfFile = new File(getClass().getClassLoader().getResource(resource).toURI());
+
+        MzSpectraReader reader = new MzSpectraReader(new TideBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), loadingFilter,
+                GreedyClusteringEngine.COMPARISON_FILTER, engine, mgfFile);
+
+        List<ICluster> spectra = new ArrayList<>(158);
+        Iterator<ICluster> iterator = reader.readClusterIterator(properties);
+
+        while (iterator.hasNext()) {
+            spectra.add(iterator.next());
+        }
+
+        spectra.sort(Comparator.comparingInt(ICluster::getPrecursorMz));
+
+        return spectra.toArray(new ICluster[0]);
+    }
+
+    /**
+     * Stores the clusters in a new result file in the test directory.
+     */
+    private ObjectDBGreedyClusterStorage storeClusters(ICluster[] clusters, String filename) throws Exception {
+        ObjectDBGreedyClusterStorage storage = new ObjectDBGreedyClusterStorage(
+                new ObjectsDB(Paths.get(testDir.toString(), filename).toString(), true));
+
+        for (ICluster c : clusters) {
+            storage.addGreedySpectralCluster(LongObject.asLongHash(c.getId()), (GreedySpectralCluster) c);
+        }
+
+        storage.writeDBMode();
+        storage.flush();
+
+        return storage;
+    }
+
+    @Test
+    public void testSameAsMaterializedAssessment() throws Exception {
+        IncorrectSpectraAssessor incorrectSpectraAssessor = new IncorrectSpectraAssessor(3);
+        ClusteredSpectraAssessor clusteredSpectraAssessor = new ClusteredSpectraAssessor(3);
+
+        StreamingQcRunner runner = new StreamingQcRunner(3, 2,
+                Arrays.asList(incorrectSpectraAssessor, clusteredSpectraAssessor), Collections.emptyList());
+
+        List<QcAssessment> assessments = runner.run(clusterStorage, properties, null);
+
+        Assert.assertEquals(2, assessments.size());
+        Assert.assertEquals(incorrectSpectraAssessor.assessResultQuality(clusters, properties), assessments.get(0));
+        Assert.assertEquals(clusteredSpectraAssessor.assessResultQuality(clusters, properties), assessments.get(1));
+        Assert.assertEquals("158", assessments.get(1).getAssessments().get("total_spectra"));
+    }
+
+    @Test
+    public void testClusterTsv() throws Exception {
+        Path tsvFile = Paths.get(testDir.toString(), "clusters.tsv");
+
+        StreamingQcRunner runner = new StreamingQcRunner(2, 3,
+                Collections.singletonList(new ClusteredSpectraAssessor(1)),
+                Collections.singletonList(new IncorrectSpectraAssessor(1)));
+
+        runner.run(clusterStorage, properties, tsvFile);
+
+        List<String> lines = Files.readAllLines(tsvFile);
+
+        Assert.assertEquals(clusters.length + 1, lines.size());
+        Assert.assertEquals("cluster_id\tn_spectra\tprecursor_mz\tcharge\tIncorrectSpectra_quality\t" +
+                "IncorrectSpectra_identified_spectra\tIncorrectSpectra_incorrect_spectra\t" +
+                "IncorrectSpectra_rel_incorrect_spectra", lines.get(0));
+
+        int nSpectra = 0;
+
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split("\t", -1);
+            Assert.assertEquals(8, fields.length);
+            nSpectra += Integer.parseInt(fields[1]);
+        }
+
+        Assert.assertEquals(158, nSpectra);
+    }
+
+    @Test
+    public void testFastModeQuality() throws Exception {
+        // the numbers reported in the README's fast mode section
+        List<QcAssessment> full = assessMode("same_sequence_cluster.mgf", false);
+        List<QcAssessment> fast = assessMode("same_sequence_cluster.mgf", true);
+
+        Assert.assertEquals("24", full.get(0).getAssessments().get("incorrect_spectra"));
+        Assert.assertEquals("134", full.get(0).getAssessments().get("identified_spectra"));
+        Assert.assertEquals("156", full.get(1).getAssessments().get("clustered_spectra"));
+
+        Assert.assertEquals("34", fast.get(0).getAssessments().get("incorrect_spectra"));
+        Assert.assertEquals("136", fast.get(0).getAssessments().get("identified_spectra"));
+        Assert.assertEquals("158", fast.get(1).getAssessments().get("clustered_spectra"));
+
+        full = assessMode("most_similar_1.mgf", false);
+        fast = assessMode("most_similar_1.mgf", true);
+
+        Assert.assertEquals("7", full.get(0).getAssessments().get("incorrect_spectra"));
+        Assert.assertEquals("36", full.get(1).getAssessments().get("clustered_spectra"));
+        Assert.assertEquals("7", fast.get(0).getAssessments().get("incorrect_spectra"));
+        Assert.assertEquals("37", fast.get(1).getAssessments().get("clustered_spectra"));
+    }
+
+    /**
+     * Clusters the test file using the default parameters in the selected mode and assesses the
+     * result with the IncorrectSpectraAssessor and ClusteredSpectraAssessor.
+     */
+    private List<QcAssessment> assessMode(String resource, boolean fastMode) throws Exception {
+        ClusteringParameters parameters = new ClusteringParameters();
+        parameters.setFastMode(fastMode);
+
+        SpectraPerBinNumberComparisonAssessor precursorDensity = parameters.createPrecursorDensityHistogram();
+        ClusteringEngineFactory engineFactory = parameters.createClusteringEngineFactory(precursorDensity);
+        IClusteringEngine engine = engineFactory.createEngine();
+
+        ICluster[] spectra = loadSpectra(resource, engine);
+
+        for (ICluster spectrum : spectra) {
+            precursorDensity.countSpectrum(spectrum.getPrecursorMz());
+        }
+
+        ICluster[] result = engine.clusterSpectra(spectra);
+
+        StreamingQcRunner runner = new StreamingQcRunner(2, 10,
+                Arrays.asList(new IncorrectSpectraAssessor(3), new ClusteredSpectraAssessor(3)),
+                Collections.emptyList());
+
+        return runner.run(storeClusters(result, resource + (fastMode ? ".fast.cls" : ".full.cls")), properties, null);
+    }
+}
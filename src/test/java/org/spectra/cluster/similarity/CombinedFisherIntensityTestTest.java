@@ -134,6 +134,49 @@ public class CombinedFisherIntensityTestTest {
         }
     }
 
+    @Test
+    public void testBatchCorrelation() {
+        IBinarySpectrumSimilarity similarity = new CombinedFisherIntensityTest();
+        IBinarySpectrum[] candidates = impSpectra.toArray(new IBinarySpectrum[0]);
+        double[] scores = new double[candidates.length];
+
+        // skip the first candidate
+        similarity.correlation(candidates[0], candidates, 1, candidates.length, scores);
+
+        for (int i = 1; i < candidates.length; i++) {
+            Assert.assertEquals(similarity.correlation(candidates[0], candidates[i]), scores[i - 1], 0.000001);
+        }
+    }
+
+    @Test
+    public void testBatchCorrelationWideMzRange() {
+        IBinarySpectrumSimilarity similarity = new CombinedFisherIntensityTest();
+        IBinarySpectrumFunction noFilter = (IBinarySpectrum s) -> s;
+
+        // the m/z range is too wide for a dense lookup
+        IBinarySpectrum query = new BinarySpectrum(1000, 2, new BinaryPeak[] {
+                new BinaryPeak(100, 10), new BinaryPeak(500, 20), new BinaryPeak(20_000, 30),
+                new BinaryPeak(50_000, 40), new BinaryPeak(90_000, 50)}, noFilter);
+        IBinarySpectrum[] candidates = new IBinarySpectrum[] {
+                new BinarySpectrum(1000, 2, new BinaryPeak[] {
+                        new BinaryPeak(100, 15), new BinaryPeak(500, 25), new BinaryPeak(50_000, 35),
+                        new BinaryPeak(90_000, 55)}, noFilter),
+                new BinarySpectrum(1000, 2, new BinaryPeak[] {
+                        new BinaryPeak(50, 15), new BinaryPeak(501, 25), new BinaryPeak(95_000, 35)}, noFilter),
+                new BinarySpectrum(1000, 2, new BinaryPeak[] {
+                        new BinaryPeak(100, 50), new BinaryPeak(20_000, 40), new BinaryPeak(90_000, 10)}, noFilter)};
+        double[] scores = new double[candidates.length];
+
+        similarity.correlation(query, candidates, 0, candidates.length, scores);
+
+        // no shared peaks
+        Assert.assertEquals(CombinedFisherIntensityTest.BAD_SCORE, scores[1], 0);
+
+        for (int i = 0; i < candidates.length; i++) {
+            Assert.assertEquals(similarity.correlation(query, candidates[i]), scores[i], 0.000001);
+        }
+    }
+
     @Test
     public void testHgt() {
         // Fails: minBin = 134, maxBin = 1789, peaks1 = 87, peaks2 = 383, shared = 62
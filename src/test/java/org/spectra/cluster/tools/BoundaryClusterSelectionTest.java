@@ -0,0 +1,72 @@
+package org.spectra.cluster.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.spectra.cluster.model.cluster.BasicClusterProperties;
+import org.spectra.cluster.model.cluster.IClusterProperties;
+
+public class BoundaryClusterSelectionTest {
+    @Test
+    public void testBoundaryClusters() {
+        IClusterProperties[][] bins = {
+                {new BasicClusterProperties(1000, 2, "a1"), new BasicClusterProperties(1500, 2, "a2"),
+                        new BasicClusterProperties(1950, 2, "a3")},
+                {new BasicClusterProperties(2050, 2, "b1"), new BasicClusterProperties(2500, 2, "b2"),
+                        new BasicClusterProperties(2990, 2, "b3")},
+                {new BasicClusterProperties(3200, 2, "c1"), new BasicClusterProperties(3500, 2, "c2")}
+        };
+
+        boolean[][] isBoundary = LocalParallelBinnedClusteringTool.findBoundaryClusters(bins, 100, true);
+
+        Assert.assertArrayEquals(new boolean[] {false, false, true}, isBoundary[0]);
+        // b3 is not within tolerance of c1
+        Assert.assertArrayEquals(new boolean[] {true, false, false}, isBoundary[1]);
+        Assert.assertArrayEquals(new boolean[] {false, false}, isBoundary[2]);
+
+        // with a larger tolerance b3 and c1 become boundary clusters
+        isBoundary = LocalParallelBinnedClusteringTool.findBoundaryClusters(bins, 250, true);
+
+        Assert.assertArrayEquals(new boolean[] {true, false}, isBoundary[2]);
+        Assert.assertTrue(isBoundary[1][2]);
+    }
+
+    @Test
+    public void testChargeStates() {
+        IClusterProperties[][] bins = {
+                {new BasicClusterProperties(1000, 2, "a1"), new BasicClusterProperties(1950, 2, "a2")},
+                {new BasicClusterProperties(2000, 3, "b1"), new BasicClusterProperties(2500, 3, "b2")},
+                {new BasicClusterProperties(1000, 4, "c1")}
+        };
+
+        // bins of different charge states are never neighbours
+        boolean[][] isBoundary = LocalParallelBinnedClusteringTool.findBoundaryClusters(bins, 100, true);
+
+        for (boolean[] bin : isBoundary) {
+            for (boolean flag : bin) {
+                Assert.assertFalse(flag);
+            }
+        }
+
+        // ignoring the charge only joins bins with increasing precursors
+        isBoundary = LocalParallelBinnedClusteringTool.findBoundaryClusters(bins, 100, false);
+
+        Assert.assertArrayEquals(new boolean[] {false, true}, isBoundary[0]);
+        Assert.assertArrayEquals(new boolean[] {true, false}, isBoundary[1]);
+        Assert.assertArrayEquals(new boolean[] {false}, isBoundary[2]);
+    }
+
+    @Test
+    public void testEmptyBins() {
+        IClusterProperties[][] bins = {
+                {new BasicClusterProperties(1000, 2, "a1")},
+                {},
+                {new BasicClusterProperties(1050, 2, "b1")}
+        };
+
+        boolean[][] isBoundary = LocalParallelBinnedClusteringTool.findBoundaryClusters(bins, 100, true);
+
+        Assert.assertTrue(isBoundary[0][0]);
+        Assert.assertEquals(0, isBoundary[1].length);
+        Assert.assertTrue(isBoundary[2][0]);
+    }
+}
@@ -36,19 +36,14 @@ import java.util.Iterator;
 import java.util.List;
 
 public class LocalParallelBinnedClusteringToolTest {
-    private URI[] mgfFiles;
     private Path testDir;
 
     @Before
     public void setUp() throws Exception {
-        mgfFiles = new URI[] {
-                getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI(),
-                getClass().getClassLoader().getResource("synthetic_mixed_runs.mgf").toURI()};
-
         testDir = Files.createTempDirectory("clusters-");
     }
 
-    private IClusterProperties[] loadTestCluster(IMapStorage<ICluster> storage) throws Exception {
+    private IClusterProperties[] loadTestCluster(IMapStorage<ICluster> storage, URI[] mgfFiles) throws Exception {
         // ignore the property storage for now
         IPropertyStorage propertyStorage = new InMemoryPropertyStorage();
 
@@ -89,25 +84,66 @@ public class LocalParallelBinnedClusteringToolTest {
 
     @Test
     public void testParallelClustering() throws Exception {
+        URI[] mgfFiles = new URI[] {
+                getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI(),
+                getClass().getClassLoader().getResource("most_similar_1.mgf").toURI()};
+
+        int[] result = runClustering(testDir.toFile(), mgfFiles, false);
+
+        // all engines share the precursor density of the 195 loaded spectra
+        Assert.assertEquals(195, result[2]);
+        Assert.assertEquals(6, result[0]);
+        Assert.assertEquals(result[2], result[1]);
+    }
+
+    @Test
+    public void testBoundaryOnlySecondRound() throws Exception {
+        URI[] bundledFiles = new URI[] {
+                getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI()};
+
+        int[] fullResult = runClustering(Files.createDirectory(testDir.resolve("full")).toFile(),
+                bundledFiles, false);
+        int[] boundaryResult = runClustering(Files.createDirectory(testDir.resolve("boundary")).toFile(),
+                bundledFiles, true);
+
+        // no spectrum may get lost
+        Assert.assertEquals(fullResult[2], fullResult[1]);
+        Assert.assertEquals(boundaryResult[2], boundaryResult[1]);
+
+        // clusters away from a bin boundary were already compared with all their potential partners in
+        // the first round. On the bundled data, both runs create the same 5 clusters.
+        Assert.assertEquals(5, fullResult[0]);
+        Assert.assertEquals(fullResult[0], boundaryResult[0]);
+    }
+
+    /**
+     * Clusters the passed files using the LocalParallelBinnedClusteringTool.
+     *
+     * @param directory The directory to store all (temporary) files in.
+     * @param mgfFiles The files to cluster.
+     * @param boundaryOnlySecondRound Defines whether only boundary clusters are re-clustered in the second round.
+     * @return The number of final clusters, the number of spectra within these clusters and the number of loaded spectra.
+     */
+    private int[] runClustering(File directory, URI[] mgfFiles, boolean boundaryOnlySecondRound) throws Exception {
         IMapStorage<ICluster> clusterStorageWriter = ClusterStorageFactory.buildDynamicStorage(
-                testDir.toFile(), GreedySpectralCluster.class);
+                directory, GreedySpectralCluster.class);
 
         // load the clusters
-        IClusterProperties[] testClusters = loadTestCluster(clusterStorageWriter);
+        IClusterProperties[] testClusters = loadTestCluster(clusterStorageWriter, mgfFiles);
 
         clusterStorageWriter.close();
 
         // open the storage for reading
-        IMapStorage<ICluster> clusterStorage = ClusterStorageFactory.openDynamicStorage(testDir.toFile(),
+        IMapStorage<ICluster> clusterStorage = ClusterStorageFactory.openDynamicStorage(directory,
                 GreedySpectralCluster.class);
 
         // create the clusterer
         LocalParallelBinnedClusteringTool clusterer = new LocalParallelBinnedClusteringTool(
-                2, testDir.toFile(),
+                2, directory,
                 new SimilarSizedClusterBinner(BasicIntegerNormalizer.MZ_CONSTANT * 2, 10, false),
                 GreedySpectralCluster.class);
 
-        File finalResultFile = new File(testDir.toFile(), "result.bcs");
+        File finalResultFile = new File(directory, "result.bcs");
 
         ClusteringParameters clusteringParameters = new ClusteringParameters();
         clusteringParameters.setThresholdStart(1f);
@@ -119,6 +155,7 @@ public class LocalParallelBinnedClusteringToolTest {
         clusteringParameters.setNInitiallySharedPeaks(5);
         clusteringParameters.setNThreads(1);
         clusteringParameters.setOutputFile(finalResultFile);
+        clusteringParameters.setBoundaryOnlySecondRound(boundaryOnlySecondRound);
 
         clusterer.runClustering(testClusters, clusterStorage, clusteringParameters);
 
@@ -139,7 +176,6 @@ public class LocalParallelBinnedClusteringToolTest {
             totalSpectra += cluster.getClusteredSpectraCount();
         }
 
-        Assert.assertEquals(95, totalClusters);
-        Assert.assertEquals(testClusters.length, totalSpectra);
+        return new int[] {totalClusters, totalSpectra, testClusters.length};
     }
 }
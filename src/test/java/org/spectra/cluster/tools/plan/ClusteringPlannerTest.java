@@ -0,0 +1,69 @@
+package org.spectra.cluster.tools.plan;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.util.ClusteringParameters;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ClusteringPlannerTest {
+    private Path testDir;
+    private File[] inputFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("plan-");
+        inputFiles = new File[] {
+                new File(getClass().getClassLoader().getResource("same_sequence_cluster.mgf").toURI())};
+    }
+
+    @Test
+    public void testCreatePlan() throws Exception {
+        ClusteringParameters parameters = new ClusteringParameters();
+        parameters.setBinaryDirectory(testDir.toString());
+        parameters.setNThreads(2);
+
+        ClusteringPlanner planner = new ClusteringPlanner(parameters, 0.5, testDir.toFile(), 1);
+        ClusteringPlan plan = planner.createPlan(inputFiles);
+
+        Assert.assertEquals(158, plan.getTotalSpectra());
+        Assert.assertTrue(plan.getSampledSpectra() > 1);
+        Assert.assertTrue(plan.getSampledSpectra() < 158);
+
+        Assert.assertEquals(4, plan.getStages().size());
+        Assert.assertEquals("loading", plan.getStages().get(0).getName());
+        Assert.assertTrue(plan.getStages().get(0).getDiskBytes() > 0);
+        Assert.assertTrue(plan.getTotalSeconds() > 0);
+        Assert.assertTrue(plan.getPeakHeapBytes() > 0);
+        Assert.assertTrue(plan.getPeakDiskBytes() >= plan.getStages().get(0).getDiskBytes());
+
+        Assert.assertEquals(1, plan.getEstimatedBins());
+        Assert.assertTrue(plan.getRecommendedThreads() >= 1);
+        Assert.assertTrue(plan.getRecommendedMaxBinSize() >= ClusteringPlanner.MIN_BIN_SIZE);
+        Assert.assertNotNull(plan.getRecommendedStorage());
+
+        // the temporary storage is removed
+        Assert.assertEquals(0, testDir.toFile().list().length);
+
+        // the same seed leads to the same sample
+        ClusteringPlan secondPlan = new ClusteringPlanner(parameters, 0.5, testDir.toFile(), 1).createPlan(inputFiles);
+        Assert.assertEquals(plan.getSampledSpectra(), secondPlan.getSampledSpectra());
+
+        String report = plan.toReport();
+        Assert.assertTrue(report.contains("first round"));
+        Assert.assertTrue(report.contains("binning.max.bin.size"));
+    }
+
+    @Test
+    public void testFormatting() {
+        Assert.assertEquals("512 B", ClusteringPlan.formatBytes(512));
+        Assert.assertEquals("1.5 KB", ClusteringPlan.formatBytes(1536));
+        Assert.assertEquals("2.0 GB", ClusteringPlan.formatBytes(2L * 1024 * 1024 * 1024));
+
+        Assert.assertEquals("0:00:59", ClusteringPlan.formatSeconds(59.4));
+        Assert.assertEquals("26:01:01", ClusteringPlan.formatSeconds(26 * 3600 + 61));
+    }
+}
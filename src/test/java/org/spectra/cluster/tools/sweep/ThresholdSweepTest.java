@@ -0,0 +1,70 @@
+package org.spectra.cluster.tools.sweep;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.CumulativeDistributionFunction;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ThresholdSweepTest {
+    private Path graphDirectory;
+    private CumulativeDistributionFunction cdf;
+
+    @Before
+    public void setUp() throws Exception {
+        graphDirectory = Files.createTempDirectory("similarity-graph-");
+        // scores <= 0: 0, <= 10: 0.5, <= 20: 0.9, above: 1
+        cdf = new CumulativeDistributionFunction(100, 10, new double[] {0.0, 0.5, 0.9, 1.0});
+
+        try (SimilarityGraphWriter writer = new SimilarityGraphWriter(graphDirectory)) {
+            writer.writeNodes(new String[] {"a", "b", "c", "d", "e", "f"}, new int[] {1, 1, 1, 1, 1, 1});
+            writer.addEdges(new int[] {0, 1}, new int[] {1, 2}, new float[] {25, 15}, 2);
+            writer.addEdges(new int[] {2, 4, -1}, new int[] {3, 5, -1}, new float[] {5, 0, -1}, 2);
+        }
+    }
+
+    @Test
+    public void testGraphRoundTrip() throws Exception {
+        SimilarityGraph graph = SimilarityGraph.open(graphDirectory);
+
+        Assert.assertEquals(6, graph.getNumberOfNodes());
+        Assert.assertEquals(4, graph.getNumberOfEdges());
+        Assert.assertEquals("c", graph.getNodeId(2));
+        Assert.assertEquals(1, graph.getNumberOfComparisons(5));
+
+        List<String> edges = new ArrayList<>();
+        graph.forEachEdge((source, target, score) -> edges.add(source + "-" + target + ":" + score));
+
+        Assert.assertEquals(4, edges.size());
+        Assert.assertEquals("0-1:25.0", edges.get(0));
+        Assert.assertEquals("4-5:0.0", edges.get(3));
+    }
+
+    @Test
+    public void testDeriveClusters() throws Exception {
+        SimilarityGraph graph = SimilarityGraph.open(graphDirectory);
+
+        // with a single comparison, an edge is accepted if the CDF at its score is above the threshold
+        ThresholdSweep.SweepClustering strict = ThresholdSweep.deriveClusters(graph, cdf, 0.99f);
+        Assert.assertEquals(5, strict.getNumberOfClusters());
+        Assert.assertEquals(1, strict.getAcceptedEdges());
+        Assert.assertEquals(strict.getClusterOfNode()[0], strict.getClusterOfNode()[1]);
+        Assert.assertNotEquals(strict.getClusterOfNode()[1], strict.getClusterOfNode()[2]);
+
+        ThresholdSweep.SweepClustering medium = ThresholdSweep.deriveClusters(graph, cdf, 0.7f);
+        Assert.assertEquals(4, medium.getNumberOfClusters());
+        Assert.assertEquals(2, medium.getAcceptedEdges());
+        Assert.assertEquals(medium.getClusterOfNode()[0], medium.getClusterOfNode()[2]);
+        Assert.assertNotEquals(medium.getClusterOfNode()[2], medium.getClusterOfNode()[3]);
+
+        ThresholdSweep.SweepClustering loose = ThresholdSweep.deriveClusters(graph, cdf, 0.05f);
+        Assert.assertEquals(3, loose.getNumberOfClusters());
+        Assert.assertEquals(3, loose.getAcceptedEdges());
+        Assert.assertEquals(loose.getClusterOfNode()[0], loose.getClusterOfNode()[3]);
+        Assert.assertNotEquals(loose.getClusterOfNode()[4], loose.getClusterOfNode()[5]);
+    }
+}
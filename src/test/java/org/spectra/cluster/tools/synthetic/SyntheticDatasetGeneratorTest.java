@@ -0,0 +1,170 @@
+package org.spectra.cluster.tools.synthetic;
+
+import io.github.bigbio.pgatk.io.common.spectra.Spectrum;
+import io.github.bigbio.pgatk.io.mgf.MgfIterableReader;
+import io.github.bigbio.pgatk.io.properties.InMemoryPropertyStorage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.filter.binaryspectrum.HighestPeakPerBinFunction;
+import org.spectra.cluster.filter.rawpeaks.*;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.normalizer.MaxPeakNormalizer;
+import org.spectra.cluster.normalizer.TideBinner;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class SyntheticDatasetGeneratorTest {
+    private Path testDir;
+    private SyntheticDatasetParameters parameters;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("synthetic-");
+
+        parameters = new SyntheticDatasetParameters();
+        parameters.setNSpectra(2_000);
+        parameters.setSpectraPerFile(700);
+        parameters.setMaxClusterSize(50);
+        parameters.setActiveClusters(100);
+        parameters.setIdentifiedFraction(0.8);
+    }
+
+    @Test
+    public void testGenerate() throws Exception {
+        SyntheticDatasetGenerator.SyntheticDataset dataset = new SyntheticDatasetGenerator(parameters)
+                .generate(testDir, "test");
+
+        Assert.assertEquals(2_000, dataset.getNSpectra());
+        Assert.assertEquals(3, dataset.getMgfFiles().size());
+        Assert.assertTrue(dataset.getNClusters() > 1 && dataset.getNClusters() < 2_000);
+        Assert.assertTrue(dataset.getNIdentifiedSpectra() > 0 && dataset.getNIdentifiedSpectra() < 2_000);
+
+        // the ground truth contains every spectrum
+        List<String> groundTruth = Files.readAllLines(dataset.getGroundTruthFile().toPath());
+        Assert.assertEquals(2_001, groundTruth.size());
+        Assert.assertEquals("title\tcluster_id\tsequence\tcharge\tprecursor_mz", groundTruth.get(0));
+
+        Map<String, Set<String>> sequencesPerCluster = groundTruth.subList(1, groundTruth.size()).stream()
+                .map(l -> l.split("\t", -1))
+                .collect(Collectors.groupingBy(f -> f[1], Collectors.mapping(f -> f[2], Collectors.toSet())));
+
+        Assert.assertEquals(dataset.getNClusters(), sequencesPerCluster.size());
+
+        // all spectra of a cluster share the same sequence
+        for (Set<String> sequences : sequencesPerCluster.values()) {
+            Assert.assertEquals(1, sequences.size());
+        }
+
+        // the MGF files can be parsed
+        int nSpectra = 0;
+        long nIdentified = 0;
+
+        for (File mgfFile : dataset.getMgfFiles()) {
+            MgfIterableReader reader = new MgfIterableReader(mgfFile, true, false, true);
+
+            while (reader.hasNext()) {
+                Spectrum spectrum = reader.next();
+                Assert.assertTrue(spectrum.getPeakList().size() > 0);
+                Assert.assertTrue(spectrum.getPrecursorMZ() > 300 && spectrum.getPrecursorMZ() < 1600);
+                nSpectra++;
+            }
+
+            nIdentified += Files.readAllLines(mgfFile.toPath()).stream().filter(l -> l.startsWith("SEQ=")).count();
+        }
+
+        Assert.assertEquals(2_000, nSpectra);
+        Assert.assertEquals(dataset.getNIdentifiedSpectra(), nIdentified);
+    }
+
+    @Test
+    public void testReproducible() throws Exception {
+        SyntheticDatasetGenerator generator = new SyntheticDatasetGenerator(parameters);
+
+        SyntheticDatasetGenerator.SyntheticDataset first = generator.generate(testDir, "first");
+        SyntheticDatasetGenerator.SyntheticDataset second = generator.generate(testDir, "second");
+
+        for (int i = 0; i < first.getMgfFiles().size(); i++) {
+            Assert.assertArrayEquals(Files.readAllBytes(first.getMgfFiles().get(i).toPath()),
+                    Files.readAllBytes(second.getMgfFiles().get(i).toPath()));
+        }
+    }
+
+    @Test
+    public void testLoadWithSpectraReader() throws Exception {
+        parameters.setSpectraPerFile(2_000);
+        SyntheticDatasetGenerator.SyntheticDataset dataset = new SyntheticDatasetGenerator(parameters)
+                .generate(testDir, "load");
+
+        IRawSpectrumFunction loadingFilter = new RemoveImpossiblyHighPeaksFunction()
+                .specAndThen(new RemovePrecursorPeaksFunction(0.5))
+                .specAndThen(new RawPeaksWrapperFunction(new KeepNHighestRawPeaks(40)));
+
+        GreedyClusteringEngine engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        MzSpectraReader reader = new MzSpectraReader(new TideBinner(), new MaxPeakNormalizer(),
+                new BasicIntegerNormalizer(), new HighestPeakPerBinFunction(), loadingFilter,
+                GreedyClusteringEngine.COMPARISON_FILTER, engine, dataset.getMgfFiles().toArray(new File[0]));
+
+        Iterator<ICluster> iterator = reader.readClusterIterator(new InMemoryPropertyStorage());
+        int nClusters = 0;
+
+        while (iterator.hasNext()) {
+            iterator.next();
+            nClusters++;
+        }
+
+        Assert.assertEquals(2_000, nClusters);
+    }
+
+    @Test
+    public void testCreateSequence() {
+        Set<String> sequences = new HashSet<>();
+
+        for (int i = 0; i < 10_000; i++) {
+            String sequence = SyntheticDatasetGenerator.createSequence(i);
+            Assert.assertTrue(sequence.length() >= 8);
+            Assert.assertTrue(sequence.endsWith("R"));
+            sequences.add(sequence);
+        }
+
+        Assert.assertEquals(10_000, sequences.size());
+    }
+
+    @Test
+    public void testClusterSizeCdf() {
+        double[] cdf = SyntheticDatasetGenerator.createClusterSizeCdf(2.0, 100);
+
+        Assert.assertEquals(100, cdf.length);
+        Assert.assertEquals(1.0, cdf[99], 0.0000001);
+        // with an exponent of 2 the majority of clusters are singletons
+        Assert.assertTrue(cdf[0] > 0.6);
+    }
+
+    @Test
+    public void testAppendFixed() {
+        StringBuilder builder = new StringBuilder();
+
+        SyntheticDatasetGenerator.appendFixed(builder, 123.0456789, 5);
+        builder.append(' ');
+        SyntheticDatasetGenerator.appendFixed(builder, 0.5, 3);
+        builder.append(' ');
+        SyntheticDatasetGenerator.appendFixed(builder, 9.9999999, 3);
+
+        Assert.assertEquals("123.04568 0.500 10.000", builder.toString());
+    }
+}
@@ -0,0 +1,176 @@
+package org.spectra.cluster.utils.performance;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.spectra.cluster.cdf.MinNumberComparisonsAssessor;
+import org.spectra.cluster.engine.GreedyClusteringEngine;
+import org.spectra.cluster.io.spectra.MzSpectraReader;
+import org.spectra.cluster.metrics.Counter;
+import org.spectra.cluster.metrics.MetricsRegistry;
+import org.spectra.cluster.model.cluster.ICluster;
+import org.spectra.cluster.model.consensus.GreedyConsensusSpectrum;
+import org.spectra.cluster.model.spectra.IBinarySpectrum;
+import org.spectra.cluster.normalizer.BasicIntegerNormalizer;
+import org.spectra.cluster.predicates.IComparisonPredicate;
+import org.spectra.cluster.predicates.ShareHighestPeaksClusterPredicate;
+import org.spectra.cluster.predicates.ShareHighestPeaksPredicate;
+import org.spectra.cluster.similarity.CombinedFisherIntensityTest;
+import org.spectra.cluster.similarity.IBinarySpectrumSimilarity;
+import org.spectra.cluster.util.ComparisonContext;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tests that comparisons using a ComparisonContext return the same results as
+ * the original functions and do not allocate memory once the context's buffers
+ * are large enough. The allocations of complete clustering runs are
+ * tested per candidate pair.
+ *
+ * @author jg
+ */
+public class ComparisonContextAllocationTest {
+    private static final int WARM_UP_ROUNDS = 20;
+    /** The remaining allocations are the iterators over the comparison peaks and the distributions' internal arrays */
+    private static final long MAX_BYTES_PER_COMPARISON = 256;
+    /** Includes merging the clusters, updating their consensus spectra and the score cache */
+    private static final long MAX_BYTES_PER_CANDIDATE_PAIR = 2048;
+
+    private IBinarySpectrum[] spectra;
+    private final IBinarySpectrumSimilarity similarity = new CombinedFisherIntensityTest();
+    private final IComparisonPredicate<IBinarySpectrum> predicate = new ShareHighestPeaksPredicate(5);
+
+    @Before
+    public void setUp() throws Exception {
+        File peakList = new File(Objects.requireNonNull(getClass().getClassLoader().getResource("same_sequence_cluster.mgf")).toURI());
+        MzSpectraReader reader = new MzSpectraReader(peakList, GreedyClusteringEngine.COMPARISON_FILTER);
+        Iterator<IBinarySpectrum> iterator = reader.readBinarySpectraIterator();
+        List<IBinarySpectrum> spectrumList = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            IBinarySpectrum spectrum = iterator.next();
+            // the comparison peaks are only created once
+            spectrum.getComparisonFilteredPeaks();
+            spectrumList.add(spectrum);
+        }
+
+        spectra = spectrumList.toArray(new IBinarySpectrum[0]);
+    }
+
+    @Test
+    public void testSameResults() {
+        ComparisonContext context = new ComparisonContext();
+
+        for (int i = 0; i < spectra.length; i++) {
+            for (int j = i + 1; j < spectra.length; j++) {
+                Assert.assertEquals(similarity.correlation(spectra[i], spectra[j]),
+                        similarity.correlation(spectra[i], spectra[j], context), 0.000001);
+                Assert.assertEquals(predicate.test(spectra[i], spectra[j]),
+                        predicate.test(spectra[i], spectra[j], context));
+            }
+        }
+    }
+
+    @Test
+    public void testNoAllocationAfterWarmUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        ComparisonContext context = new ComparisonContext();
+
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            compareAll(context);
+        }
+
+        long bufferGrowths = context.getBufferGrowths();
+        long threadId = Thread.currentThread().getId();
+
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long nComparisons = compareAll(context);
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        Assert.assertEquals("Buffers grew after the warm-up", bufferGrowths, context.getBufferGrowths());
+        Assert.assertTrue(String.format("%d bytes allocated per comparison", allocatedBytes / nComparisons),
+                allocatedBytes / nComparisons < MAX_BYTES_PER_COMPARISON);
+    }
+
+    @Test
+    public void testEngineRoundAllocation() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        GreedyClusteringEngine engine = new GreedyClusteringEngine(BasicIntegerNormalizer.MZ_CONSTANT,
+                1, 0.99f, 5, new CombinedFisherIntensityTest(),
+                new MinNumberComparisonsAssessor(10000), new ShareHighestPeaksClusterPredicate(5),
+                GreedyConsensusSpectrum.NOISE_FILTER_INCREMENT);
+
+        // the clusters are merged by the engine and therefore loaded for every run
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            engine.clusterSpectra(loadClusters(engine));
+        }
+
+        Counter candidatePairs = MetricsRegistry.counter("engine.candidate_pairs");
+        MetricsRegistry.reset();
+        MetricsRegistry.setEnabled(true);
+
+        try {
+            ICluster[] clusters = loadClusters(engine);
+            long threadId = Thread.currentThread().getId();
+
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+            ICluster[] result = engine.clusterSpectra(clusters);
+            long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            Assert.assertTrue(result.length < clusters.length);
+            Assert.assertTrue(candidatePairs.getCount() > 0);
+            Assert.assertTrue(String.format("%d bytes allocated per candidate pair", allocatedBytes / candidatePairs.getCount()),
+                    allocatedBytes / candidatePairs.getCount() < MAX_BYTES_PER_CANDIDATE_PAIR);
+        } finally {
+            MetricsRegistry.setEnabled(false);
+            MetricsRegistry.reset();
+        }
+    }
+
+    private ICluster[] loadClusters(GreedyClusteringEngine engine) throws Exception {
+        File peakList = new File(Objects.requireNonNull(getClass().getClassLoader().getResource("same_sequence_cluster.mgf")).toURI());
+        MzSpectraReader reader = new MzSpectraReader(peakList, GreedyClusteringEngine.COMPARISON_FILTER, engine);
+        Iterator<ICluster> iterator = reader.readClusterIterator();
+        List<ICluster> clusters = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            clusters.add(iterator.next());
+        }
+
+        clusters.sort(Comparator.comparingInt(ICluster::getPrecursorMz));
+
+        return clusters.toArray(new ICluster[0]);
+    }
+
+    private long compareAll(ComparisonContext context) {
+        long nComparisons = 0;
+        double scoreSum = 0;
+
+        for (int i = 0; i < spectra.length; i++) {
+            for (int j = i + 1; j < spectra.length; j++) {
+                if (predicate.test(spectra[i], spectra[j], context)) {
+                    scoreSum += similarity.correlation(spectra[i], spectra[j], context);
+                }
+                nComparisons++;
+            }
+        }
+
+        // make sure the scores are used
+        Assert.assertTrue(scoreSum >= 0);
+
+        return nComparisons;
+    }
+}